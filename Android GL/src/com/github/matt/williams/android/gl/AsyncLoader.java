@@ -0,0 +1,357 @@
+package com.github.matt.williams.android.gl;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+// Loads textures and programs off the render thread.  Bitmaps are decoded on a pool of worker
+// threads, then uploaded (and shaders compiled) on a separate thread with its own EGL context, shared
+// with the render thread's.  Each load returns a Handle, which the render thread polls with
+// isReady() - that only succeeds once the GPU has finished the upload, using a fence on GLES 3.0 or
+// glFinish() on the upload thread otherwise.
+//
+// Scheduling (priority, cancellation and the cap on bytes in flight) is done by a LoadScheduler.
+// Create the loader on the render thread, with its context current.
+public class AsyncLoader {
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+    private static final int EGL_OPENGL_ES2_BIT = 4;
+    private static final int DEFAULT_NUM_DECODE_THREADS = 2;
+    private static final long DEFAULT_MAX_BYTES_IN_FLIGHT = 32 * 1024 * 1024;
+
+    public static abstract class Handle<T> extends LoadRequest {
+        private volatile T mResult;
+        private volatile long mFence;
+        private volatile Throwable mError;
+        private boolean mReady;
+
+        protected Handle(int priority, long bytes) {
+            super(priority, bytes);
+        }
+
+        // Called on a worker thread.
+        protected void decode() throws Exception {
+        }
+
+        // Called on the upload thread, with the shared context current.
+        protected abstract T upload();
+
+        // Called on the upload thread if the load is cancelled after decode() or upload().
+        protected void discard(T result) {
+        }
+
+        // Must be called on the render thread.  Once true, get() returns the result.
+        public boolean isReady() {
+            if (!mReady && (getState() == DONE)) {
+                long fence = mFence;
+                if (fence != 0) {
+                    GLBackend gl = GLState.gl();
+                    int status = gl.glClientWaitSync(fence, 0, 0);
+                    if ((status != GLES30.GL_ALREADY_SIGNALED) && (status != GLES30.GL_CONDITION_SATISFIED)) {
+                        return false;
+                    }
+                    gl.glDeleteSync(fence);
+                    mFence = 0;
+                }
+                mReady = true;
+            }
+            return mReady;
+        }
+
+        public T get() {
+            return isReady() ? mResult : null;
+        }
+
+        public Throwable getError() {
+            return mError;
+        }
+    }
+
+    private final LoadScheduler mScheduler;
+    private final BlockingQueue<Handle<?>> mUploadQueue = new LinkedBlockingQueue<Handle<?>>();
+    // Set, under the queue's lock, once the upload thread has stopped taking from it.
+    private boolean mUploadsClosed;
+    private final Thread[] mDecodeThreads;
+    private final Thread mUploadThread;
+    private final EGL10 mEgl;
+    private final EGLDisplay mDisplay;
+    private final EGLContext mContext;
+    private final EGLSurface mSurface;
+    private final boolean mUseFences;
+
+    public AsyncLoader(int numDecodeThreads, long maxBytesInFlight) {
+        mScheduler = new LoadScheduler(maxBytesInFlight);
+        String version = GLState.gl().glGetString(GLES20.GL_VERSION);
+        mUseFences = (version != null) && version.startsWith("OpenGL ES 3");
+
+        // Share with the current context, using the same config and client version.
+        mEgl = (EGL10)EGLContext.getEGL();
+        mDisplay = mEgl.eglGetCurrentDisplay();
+        EGLContext sharedContext = mEgl.eglGetCurrentContext();
+        if ((sharedContext == null) || sharedContext.equals(EGL10.EGL_NO_CONTEXT)) {
+            throw new IllegalStateException("AsyncLoader must be created with a GL context current");
+        }
+        int[] value = new int[1];
+        mEgl.eglQueryContext(mDisplay, sharedContext, EGL10.EGL_CONFIG_ID, value);
+        EGLConfig config = chooseConfig(new int[] {EGL10.EGL_CONFIG_ID, value[0], EGL10.EGL_NONE});
+        mEgl.eglQueryContext(mDisplay, sharedContext, EGL_CONTEXT_CLIENT_VERSION, value);
+        int clientVersion = Math.max(value[0], 2);
+        EGLSurface surface = mEgl.eglCreatePbufferSurface(mDisplay, config, new int[] {EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE});
+        if ((surface == null) || surface.equals(EGL10.EGL_NO_SURFACE)) {
+            // Window configs don't always support pbuffers - fall back to one that does.
+            config = chooseConfig(new int[] {EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT, EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT, EGL10.EGL_NONE});
+            surface = mEgl.eglCreatePbufferSurface(mDisplay, config, new int[] {EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE});
+            if ((surface == null) || surface.equals(EGL10.EGL_NO_SURFACE)) {
+                throw new IllegalStateException("eglCreatePbufferSurface failed with 0x" + Integer.toHexString(mEgl.eglGetError()));
+            }
+        }
+        mSurface = surface;
+        mContext = mEgl.eglCreateContext(mDisplay, config, sharedContext, new int[] {EGL_CONTEXT_CLIENT_VERSION, clientVersion, EGL10.EGL_NONE});
+        if ((mContext == null) || mContext.equals(EGL10.EGL_NO_CONTEXT)) {
+            mEgl.eglDestroySurface(mDisplay, mSurface);
+            throw new IllegalStateException("eglCreateContext failed with 0x" + Integer.toHexString(mEgl.eglGetError()));
+        }
+
+        mUploadThread = new Thread("AsyncLoader upload") {
+            @Override
+            public void run() {
+                runUploads();
+            }
+        };
+        mUploadThread.start();
+        mDecodeThreads = new Thread[numDecodeThreads];
+        for (int ii = 0; ii < numDecodeThreads; ii++) {
+            mDecodeThreads[ii] = new Thread("AsyncLoader decode " + ii) {
+                @Override
+                public void run() {
+                    runDecodes();
+                }
+            };
+            mDecodeThreads[ii].start();
+        }
+    }
+
+    public AsyncLoader() {
+        this(DEFAULT_NUM_DECODE_THREADS, DEFAULT_MAX_BYTES_IN_FLIGHT);
+    }
+
+    // Cancels outstanding loads and stops the loader's threads.  Results already delivered remain valid.
+    public void release() {
+        mScheduler.close();
+        for (Thread thread : mDecodeThreads) {
+            thread.interrupt();
+        }
+        mUploadThread.interrupt();
+    }
+
+    public LoadScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    public <T> Handle<T> load(Handle<T> handle) {
+        mScheduler.submit(handle);
+        return handle;
+    }
+
+    // bytes is an estimate of the decoded bitmap's size, counted against the cap on bytes in flight.
+    public Handle<BitmapTexture> loadTexture(final Callable<Bitmap> decoder, long bytes, int priority, final int wrap, final boolean mipmap) {
+        return load(new Handle<BitmapTexture>(priority, bytes) {
+            private Bitmap mBitmap;
+
+            @Override
+            protected void decode() throws Exception {
+                mBitmap = decoder.call();
+                if (mBitmap == null) {
+                    throw new IOException("Failed to decode bitmap");
+                }
+            }
+
+            @Override
+            protected BitmapTexture upload() {
+                // BitmapTexture recycles the bitmap.
+                Bitmap bitmap = mBitmap;
+                mBitmap = null;
+                return new BitmapTexture(bitmap, wrap, mipmap);
+            }
+
+            @Override
+            protected void discard(BitmapTexture result) {
+                if (result != null) {
+                    result.release();
+                } else if (mBitmap != null) {
+                    mBitmap.recycle();
+                    mBitmap = null;
+                }
+            }
+        });
+    }
+
+    // Reads the file's header on the calling thread to estimate its size.
+    public Handle<BitmapTexture> loadTexture(final String path, int priority, boolean mipmap) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, bounds);
+        long bytes = (long)Math.max(bounds.outWidth, 1) * Math.max(bounds.outHeight, 1) * 4;
+        if (mipmap) {
+            bytes = bytes * 4 / 3;
+        }
+        return loadTexture(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                // Decodes run concurrently on the pool, and BitmapFactory writes its out fields back into
+                // the options, so each needs its own rather than the shared Utils.BITMAP_OPTIONS.
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inScaled = false;
+                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+                return BitmapFactory.decodeFile(path, options);
+            }
+        }, bytes, priority, GLES20.GL_CLAMP_TO_EDGE, mipmap);
+    }
+
+    public Handle<Program> loadProgram(final String vertexSource, final String fragmentSource, int priority) {
+        return load(new Handle<Program>(priority, 0) {
+            @Override
+            protected Program upload() {
+                VertexShader vertexShader = new VertexShader(vertexSource);
+                FragmentShader fragmentShader = new FragmentShader(fragmentSource);
+                return new Program(vertexShader, fragmentShader);
+            }
+
+            @Override
+            protected void discard(Program result) {
+                if (result != null) {
+                    result.release();
+                }
+            }
+        });
+    }
+
+    private void runDecodes() {
+        try {
+            Handle<?> handle;
+            while ((handle = (Handle<?>)mScheduler.take()) != null) {
+                if (!handle.start()) {
+                    mScheduler.complete(handle);
+                    continue;
+                }
+                try {
+                    handle.decode();
+                } catch (Exception e) {
+                    handle.mError = e;
+                    handle.finish(false);
+                    handle.discard(null);
+                    mScheduler.complete(handle);
+                    continue;
+                }
+                if (!queueUpload(handle)) {
+                    // The upload thread has stopped, so nothing else will finish this handle.
+                    handle.cancel();
+                    handle.discard(null);
+                    mScheduler.complete(handle);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Released.
+        }
+    }
+
+    private boolean queueUpload(Handle<?> handle) {
+        synchronized (mUploadQueue) {
+            if (mUploadsClosed) {
+                return false;
+            }
+            mUploadQueue.add(handle);
+            return true;
+        }
+    }
+
+    private void runUploads() {
+        boolean current = mEgl.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext);
+        try {
+            if (!current) {
+                mScheduler.close();
+                return;
+            }
+            while (true) {
+                upload(mUploadQueue.take());
+            }
+        } catch (InterruptedException e) {
+            // Released.
+        } finally {
+            // Once closed, decode threads discard their own handles, so this drains the queue for good.
+            synchronized (mUploadQueue) {
+                mUploadsClosed = true;
+            }
+            Handle<?> handle;
+            while ((handle = mUploadQueue.poll()) != null) {
+                handle.cancel();
+                handle.discard(null);
+                mScheduler.complete(handle);
+            }
+            if (current) {
+                mEgl.eglMakeCurrent(mDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+            }
+            mEgl.eglDestroySurface(mDisplay, mSurface);
+            mEgl.eglDestroyContext(mDisplay, mContext);
+            mEgl.eglReleaseThread();
+        }
+    }
+
+    private <T> void upload(Handle<T> handle) {
+        try {
+            if (handle.isCancelled()) {
+                handle.discard(null);
+                return;
+            }
+            T result;
+            try {
+                result = handle.upload();
+            } catch (RuntimeException e) {
+                handle.mError = e;
+                handle.finish(false);
+                handle.discard(null);
+                return;
+            }
+            GLBackend gl = GLState.gl();
+            if (mUseFences) {
+                // The flush makes sure the fence reaches the GPU, so the render thread's wait completes.
+                handle.mFence = gl.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+                gl.glFlush();
+            } else {
+                gl.glFinish();
+            }
+            handle.mResult = result;
+            if (!handle.finish(true)) {
+                // Cancelled during the upload.
+                if (handle.mFence != 0) {
+                    gl.glDeleteSync(handle.mFence);
+                    handle.mFence = 0;
+                }
+                handle.mResult = null;
+                handle.discard(result);
+            }
+        } finally {
+            mScheduler.complete(handle);
+        }
+    }
+
+    private EGLConfig chooseConfig(int[] attributes) {
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!mEgl.eglChooseConfig(mDisplay, attributes, configs, 1, numConfigs) || (numConfigs[0] == 0)) {
+            throw new IllegalStateException("eglChooseConfig failed with 0x" + Integer.toHexString(mEgl.eglGetError()));
+        }
+        return configs[0];
+    }
+}
@@ -2,21 +2,36 @@ package com.github.matt.williams.android.gl;
 
 import android.graphics.Bitmap;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
 
 public class BitmapTexture extends BasicTexture {
     private final int mWidth;
     private final int mHeight;
 
-    public BitmapTexture(Bitmap bitmap, int wrap) {
+    // The GL format follows the bitmap's config, so RGB_565 and ALPHA_8 bitmaps (see
+    // Utils.RGB565_BITMAP_OPTIONS and ALPHA_BITMAP_OPTIONS) take half or a quarter of the memory.
+    // Mipmaps are only generated for power-of-two bitmaps, as GLES 2.0 requires.
+    public BitmapTexture(Bitmap bitmap, int wrap, boolean mipmap) {
         super(GLES20.GL_TEXTURE_2D, wrap);
+        GLBackend gl = GLState.gl();
         mWidth = bitmap.getWidth();
         mHeight = bitmap.getHeight();
         int oldId = pushTexture();
-        GLUtils.texImage2D(mTarget, 0, bitmap, 0);
+        gl.texImage2D(mTarget, 0, bitmap, 0);
         Utils.checkErrors("texImage2D");
         bitmap.recycle();
+        mipmap = mipmap && TextureFormats.isPowerOfTwo(mWidth) && TextureFormats.isPowerOfTwo(mHeight);
+        if (mipmap) {
+            gl.glGenerateMipmap(mTarget);
+            Utils.checkErrors("glGenerateMipmap");
+        }
         popTexture(oldId);
+        if (mipmap) {
+            setFilter(GLES20.GL_LINEAR_MIPMAP_LINEAR, GLES20.GL_LINEAR);
+        }
+    }
+
+    public BitmapTexture(Bitmap bitmap, int wrap) {
+        this(bitmap, wrap, false);
     }
 
     public BitmapTexture(Bitmap bitmap) {
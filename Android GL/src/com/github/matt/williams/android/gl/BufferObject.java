@@ -0,0 +1,112 @@
+package com.github.matt.williams.android.gl;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+public class BufferObject {
+    protected static final int BYTES_PER_FLOAT = Float.SIZE / Byte.SIZE;
+    protected static final int BYTES_PER_SHORT = Short.SIZE / Byte.SIZE;
+    protected final int mTarget;
+    protected final int mUsage;
+    protected final int mId;
+    private final ReleaseQueue.Resource mResource;
+    private int mSize;
+
+    // Usage is one of GLES20.GL_STATIC_DRAW, GL_DYNAMIC_DRAW or GL_STREAM_DRAW.
+    public BufferObject(int target, int usage) {
+        mTarget = target;
+        mUsage = usage;
+        mId = generateBufferId();
+        mResource = ReleaseQueue.register(this, ReleaseQueue.BUFFER, mId);
+    }
+
+    public void release() {
+        mResource.release();
+    }
+
+    public void allocate(int size) {
+        setData(null, size);
+    }
+
+    public void setData(FloatBuffer data) {
+        setData(data, data.remaining() * BYTES_PER_FLOAT);
+    }
+
+    public void setData(ShortBuffer data) {
+        setData(data, data.remaining() * BYTES_PER_SHORT);
+    }
+
+    public void setData(Buffer data, int size) {
+        GLBackend gl = GLState.gl();
+        bind();
+        gl.glBufferData(mTarget, size, data, mUsage);
+        Utils.checkErrors("glBufferData");
+        mSize = size;
+    }
+
+    public void setSubData(int offset, Buffer data, int size) {
+        GLBackend gl = GLState.gl();
+        if (offset + size > mSize) {
+            throw new IndexOutOfBoundsException("Range " + offset + "+" + size + " exceeds buffer size " + mSize);
+        }
+        bind();
+        gl.glBufferSubData(mTarget, offset, size, data);
+        Utils.checkErrors("glBufferSubData");
+    }
+
+    public void bind() {
+        GLState.get().bindBuffer(mTarget, mId);
+    }
+
+    public void unbind() {
+        GLState.get().bindBuffer(mTarget, 0);
+    }
+
+    // GLES 3.0 only.  access is a combination of GLES30.GL_MAP_*_BIT flags.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public ByteBuffer map(int offset, int length, int access) {
+        GLBackend gl = GLState.gl();
+        bind();
+        ByteBuffer buffer = (ByteBuffer)gl.glMapBufferRange(mTarget, offset, length, access);
+        Utils.checkErrors("glMapBufferRange");
+        return buffer.order(ByteOrder.nativeOrder());
+    }
+
+    // GLES 3.0 only.  Returns false if the buffer's contents were corrupted while mapped and must be respecified.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    public boolean unmap() {
+        GLBackend gl = GLState.gl();
+        bind();
+        boolean result = gl.glUnmapBuffer(mTarget);
+        Utils.checkErrors("glUnmapBuffer");
+        return result;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public int getTarget() {
+        return mTarget;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    private static int generateBufferId() {
+        GLBackend gl = GLState.gl();
+        int[] ids = new int[1];
+        gl.glGenBuffers(1, ids, 0);
+        Utils.checkErrors("glGenBuffers");
+        return ids[0];
+    }
+}
@@ -1,18 +1,67 @@
 package com.github.matt.williams.android.gl;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import android.annotation.TargetApi;
 import android.graphics.SurfaceTexture;
 import android.graphics.SurfaceTexture.OnFrameAvailableListener;
 import android.hardware.Camera;
 import android.opengl.GLES11Ext;
+import android.os.Build;
+import android.os.SystemClock;
 
 
 public class CameraTexture extends Texture implements OnFrameAvailableListener {
 
+    // How use() catches up with frames that arrived since the last call.
+    public enum UpdatePolicy {
+        // Latch every pending frame in turn, ending on the newest.
+        ALL_FRAMES,
+        // Latch until the newest frame is reached, stopping early if the buffer queue skips the rest
+        // itself (as it does for producers in async mode).
+        LATEST_FRAME
+    }
+
+    // Reads the clock that the camera's frame timestamps are measured against.  SurfaceTexture leaves
+    // the timebase up to the producer, so it can't be assumed.
+    public interface Clock {
+        long nanoTime();
+    }
+
+    // CLOCK_MONOTONIC, as used by System.nanoTime().
+    public static final Clock MONOTONIC_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    // CLOCK_BOOTTIME, which unlike CLOCK_MONOTONIC keeps counting through suspend.  Before API 17 this
+    // only has millisecond resolution.
+    public static final Clock BOOTTIME_CLOCK = new Clock() {
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+        @Override
+        public long nanoTime() {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                return SystemClock.elapsedRealtime() * 1000000;
+            }
+            return SystemClock.elapsedRealtimeNanos();
+        }
+    };
+
+    public static final long UNKNOWN_LATENCY = -1;
+
     private final SurfaceTexture mSurfaceTexture;
     // We need to count the number of frames available, not just record a flag.  Otherwise SurfaceView processing seems to lock up.
-    private volatile int mFramesAvailable = 0;
+    // onFrameAvailable() is called on another thread, so this must be atomic.
+    private final AtomicInteger mFramesAvailable = new AtomicInteger();
+    private volatile UpdatePolicy mUpdatePolicy = UpdatePolicy.ALL_FRAMES;
+    private Clock mClock;
+    private long mTimestamp;
+    private long mLatency = UNKNOWN_LATENCY;
+    private long mFramesLatched;
+    private long mFramesDropped;
 
     public CameraTexture(Camera camera) {
         super(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
@@ -27,17 +76,95 @@ public class CameraTexture extends Texture implements OnFrameAvailableListener {
     }
 
     public void onFrameAvailable(SurfaceTexture arg0) {
-        mFramesAvailable++;
+        mFramesAvailable.incrementAndGet();
+    }
+
+    public void setUpdatePolicy(UpdatePolicy updatePolicy) {
+        mUpdatePolicy = updatePolicy;
+    }
+
+    public UpdatePolicy getUpdatePolicy() {
+        return mUpdatePolicy;
+    }
+
+    // Sets the clock the camera stamps frames with, e.g. BOOTTIME_CLOCK where Camera2 reports
+    // SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME.  Until this is set (or if it's set to null), latency isn't
+    // measured.
+    public void setClock(Clock clock) {
+        mClock = clock;
+        mLatency = UNKNOWN_LATENCY;
+    }
+
+    public Clock getClock() {
+        return mClock;
+    }
+
+    @Override
+    public void release() {
+        mSurfaceTexture.release();
+        super.release();
     }
 
     @Override
     public void use(int channel) {
-        while (mFramesAvailable > 0) {
+        update();
+        super.use(channel);
+    }
+
+    // Latches pending camera frames according to the update policy.  Returns whether a new frame was latched.
+    public boolean update() {
+        int framesAvailable = mFramesAvailable.getAndSet(0);
+        if (framesAvailable <= 0) {
+            return false;
+        }
+        if (mUpdatePolicy == UpdatePolicy.ALL_FRAMES) {
+            for (int ii = 0; ii < framesAvailable; ii++) {
+                mSurfaceTexture.updateTexImage();
+            }
+        } else {
+            // Latching an empty queue leaves the current frame (and timestamp) in place, so an unchanged
+            // timestamp means the newest frame has been reached.
             mSurfaceTexture.updateTexImage();
-            mFramesAvailable--;
+            for (int ii = 1; ii < framesAvailable; ii++) {
+                long timestamp = mSurfaceTexture.getTimestamp();
+                mSurfaceTexture.updateTexImage();
+                if (mSurfaceTexture.getTimestamp() == timestamp) {
+                    break;
+                }
+            }
         }
+        // Either way, only the last frame latched is ever rendered.
+        mFramesLatched++;
+        mFramesDropped += framesAvailable - 1;
         mSurfaceTexture.getTransformMatrix(mTransformMatrix);
-        super.use(channel);
+        mTimestamp = mSurfaceTexture.getTimestamp();
+        Clock clock = mClock;
+        mLatency = (clock != null) ? clock.nanoTime() - mTimestamp : UNKNOWN_LATENCY;
+        return true;
     }
 
+    // Timestamp of the currently latched frame, in nanoseconds.
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    // Time between the camera capturing the current frame and it being latched, in nanoseconds, or
+    // UNKNOWN_LATENCY if no clock has been set.
+    public long getLatency() {
+        return mLatency;
+    }
+
+    public long getFramesLatched() {
+        return mFramesLatched;
+    }
+
+    // Frames that arrived but were superseded before they could be rendered.
+    public long getFramesDropped() {
+        return mFramesDropped;
+    }
+
+    public void resetStatistics() {
+        mFramesLatched = 0;
+        mFramesDropped = 0;
+    }
 }
@@ -0,0 +1,413 @@
+package com.github.matt.williams.android.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// A list of rendering commands recorded on any thread and replayed later on the GL thread.  Commands
+// are stored as opcodes and arguments in parallel int, float and object streams, plus a direct byte
+// arena for texture data, all of which are reused - once they've grown to the size of a typical frame,
+// recording allocates nothing.
+//
+// A CommandBuffer must only be used by one thread at a time; CommandQueue hands them between a
+// producer and the GL thread.  Uniforms can be named, in which case the name is resolved at replay.
+public class CommandBuffer {
+    private static final int OP_RENDER_TO_TEXTURE = 0;
+    private static final int OP_RENDER_TO_SCREEN = 1;
+    private static final int OP_USE_PROGRAM = 2;
+    private static final int OP_USE_TEXTURE = 3;
+    private static final int OP_UNIFORM_FLOATS = 4;
+    private static final int OP_UNIFORM_INT = 5;
+    private static final int OP_TEXTURE_DATA = 6;
+    private static final int OP_CLEAR = 7;
+    private static final int OP_DRAW_ARRAYS = 8;
+    private static final int OP_DRAW_ELEMENTS = 9;
+    private static final int OP_DRAW_MESH = 10;
+    private static final int OP_DRAW_FULL_SCREEN_QUAD = 11;
+    private static final int OP_UPLOAD = 12;
+    private static final int OP_RUN = 13;
+
+    private int[] mInts;
+    private float[] mFloats;
+    private Object[] mObjects;
+    private ByteBuffer mBytes;
+    private int mNumInts;
+    private int mNumFloats;
+    private int mNumObjects;
+    private int mNumCommands;
+    // Scratch arrays for replaying float[] uniforms, indexed by length.
+    private final float[][] mUniformScratch = new float[17][];
+
+    public CommandBuffer(int initialCapacity) {
+        mInts = new int[initialCapacity * 4];
+        mFloats = new float[initialCapacity * 4];
+        mObjects = new Object[initialCapacity * 2];
+        mBytes = ByteBuffer.allocateDirect(0);
+    }
+
+    public CommandBuffer() {
+        this(256);
+    }
+
+    public int getCommandCount() {
+        return mNumCommands;
+    }
+
+    public void reset() {
+        // Drop references so replayed objects can be collected.
+        Arrays.fill(mObjects, 0, mNumObjects, null);
+        mNumInts = 0;
+        mNumFloats = 0;
+        mNumObjects = 0;
+        mNumCommands = 0;
+        mBytes.clear();
+    }
+
+    public void renderTo(TargetTexture target) {
+        op(OP_RENDER_TO_TEXTURE);
+        object(target);
+    }
+
+    public void renderTo(ScreenTarget target) {
+        op(OP_RENDER_TO_SCREEN);
+        object(target);
+    }
+
+    public void use(Program program) {
+        op(OP_USE_PROGRAM);
+        object(program);
+    }
+
+    public void use(Texture texture, int channel) {
+        op(OP_USE_TEXTURE);
+        object(texture);
+        integer(channel);
+    }
+
+    public void setUniform(Program program, String name, float x) {
+        uniform(program, name, -1, 1);
+        floats(x);
+    }
+
+    public void setUniform(Program program, String name, float x, float y) {
+        uniform(program, name, -1, 2);
+        floats(x, y);
+    }
+
+    public void setUniform(Program program, String name, float x, float y, float z) {
+        uniform(program, name, -1, 3);
+        floats(x, y, z);
+    }
+
+    public void setUniform(Program program, String name, float x, float y, float z, float w) {
+        uniform(program, name, -1, 4);
+        floats(x, y, z, w);
+    }
+
+    // values is copied, so it can be reused as soon as this returns.
+    public void setUniform(Program program, String name, float[] values) {
+        uniform(program, name, -1, values.length);
+        floats(values);
+    }
+
+    public void setUniform(Program program, String name, int value) {
+        op(OP_UNIFORM_INT);
+        object(program);
+        object(name);
+        integer(-1);
+        integer(value);
+    }
+
+    public void setUniform(Program program, int handle, float x) {
+        uniform(program, null, handle, 1);
+        floats(x);
+    }
+
+    public void setUniform(Program program, int handle, float x, float y) {
+        uniform(program, null, handle, 2);
+        floats(x, y);
+    }
+
+    public void setUniform(Program program, int handle, float x, float y, float z) {
+        uniform(program, null, handle, 3);
+        floats(x, y, z);
+    }
+
+    public void setUniform(Program program, int handle, float x, float y, float z, float w) {
+        uniform(program, null, handle, 4);
+        floats(x, y, z, w);
+    }
+
+    public void setUniform(Program program, int handle, float[] values) {
+        uniform(program, null, handle, values.length);
+        floats(values);
+    }
+
+    public void setUniform(Program program, int handle, int value) {
+        op(OP_UNIFORM_INT);
+        object(program);
+        object(null);
+        integer(handle);
+        integer(value);
+    }
+
+    // Copies a full frame of luminance data, to be uploaded with TargetTexture.setData().
+    public void setData(TargetTexture texture, byte[] data, int offset, int length) {
+        op(OP_TEXTURE_DATA);
+        object(texture);
+        integer(mBytes.position());
+        integer(length);
+        ensureBytes(length);
+        mBytes.put(data, offset, length);
+    }
+
+    // Uploads the latest frame submitted to uploader, if any.
+    public void upload(TextureUploader uploader) {
+        op(OP_UPLOAD);
+        object(uploader);
+    }
+
+    public void clear(float red, float green, float blue, float alpha, int mask) {
+        op(OP_CLEAR);
+        floats(red, green, blue, alpha);
+        integer(mask);
+    }
+
+    // Draws with whatever program and attributes are current.
+    public void drawArrays(int mode, int first, int count) {
+        op(OP_DRAW_ARRAYS);
+        integer(mode);
+        integer(first);
+        integer(count);
+    }
+
+    public void drawElements(IndexBuffer indices, int mode, int first, int count) {
+        op(OP_DRAW_ELEMENTS);
+        object(indices);
+        integer(mode);
+        integer(first);
+        integer(count);
+    }
+
+    // Uses program, binds mesh's attributes to it and draws.
+    public void draw(Mesh mesh, Program program, int mode, int first, int count) {
+        op(OP_DRAW_MESH);
+        object(mesh);
+        object(program);
+        integer(mode);
+        integer(first);
+        integer(count);
+    }
+
+    public void draw(FullScreenQuad quad, Program program, String positionName) {
+        op(OP_DRAW_FULL_SCREEN_QUAD);
+        object(quad);
+        object(program);
+        object(positionName);
+    }
+
+    // For anything else - runnable is called on the GL thread during replay.
+    public void run(Runnable runnable) {
+        op(OP_RUN);
+        object(runnable);
+    }
+
+    // Must be called on the GL thread.
+    public void replay() {
+        GLBackend gl = GLState.gl();
+        int[] ints = mInts;
+        float[] floats = mFloats;
+        Object[] objects = mObjects;
+        int ii = 0;
+        int ff = 0;
+        int oo = 0;
+        while (ii < mNumInts) {
+            int op = ints[ii++];
+            switch (op) {
+            case OP_RENDER_TO_TEXTURE:
+                ((TargetTexture)objects[oo++]).renderTo();
+                break;
+            case OP_RENDER_TO_SCREEN:
+                ((ScreenTarget)objects[oo++]).renderTo();
+                break;
+            case OP_USE_PROGRAM:
+                ((Program)objects[oo++]).use();
+                break;
+            case OP_USE_TEXTURE:
+                ((Texture)objects[oo++]).use(ints[ii++]);
+                break;
+            case OP_UNIFORM_FLOATS: {
+                Program program = (Program)objects[oo++];
+                String name = (String)objects[oo++];
+                int handle = (name != null) ? program.getUniformHandle(name) : ints[ii];
+                int count = ints[ii + 1];
+                ii += 2;
+                replayUniform(program, handle, floats, ff, count);
+                ff += count;
+                break;
+            }
+            case OP_UNIFORM_INT: {
+                Program program = (Program)objects[oo++];
+                String name = (String)objects[oo++];
+                int handle = (name != null) ? program.getUniformHandle(name) : ints[ii];
+                program.setUniform(handle, ints[ii + 1]);
+                ii += 2;
+                break;
+            }
+            case OP_TEXTURE_DATA: {
+                TargetTexture texture = (TargetTexture)objects[oo++];
+                int offset = ints[ii];
+                int length = ints[ii + 1];
+                ii += 2;
+                // setData() reads from the buffer's position, so no slice is needed.
+                mBytes.limit(offset + length).position(offset);
+                texture.setData(mBytes);
+                break;
+            }
+            case OP_UPLOAD:
+                ((TextureUploader)objects[oo++]).upload();
+                break;
+            case OP_CLEAR:
+                gl.glClearColor(floats[ff], floats[ff + 1], floats[ff + 2], floats[ff + 3]);
+                Utils.checkErrors("glClearColor");
+                ff += 4;
+                gl.glClear(ints[ii++]);
+                Utils.checkErrors("glClear");
+                break;
+            case OP_DRAW_ARRAYS:
+                gl.glDrawArrays(ints[ii], ints[ii + 1], ints[ii + 2]);
+                Utils.checkErrors("glDrawArrays");
+                ii += 3;
+                break;
+            case OP_DRAW_ELEMENTS:
+                ((IndexBuffer)objects[oo++]).draw(ints[ii], ints[ii + 1], ints[ii + 2]);
+                ii += 3;
+                break;
+            case OP_DRAW_MESH: {
+                Mesh mesh = (Mesh)objects[oo++];
+                Program program = (Program)objects[oo++];
+                program.use();
+                mesh.bind(program);
+                mesh.draw(ints[ii], ints[ii + 1], ints[ii + 2]);
+                ii += 3;
+                break;
+            }
+            case OP_DRAW_FULL_SCREEN_QUAD: {
+                FullScreenQuad quad = (FullScreenQuad)objects[oo++];
+                Program program = (Program)objects[oo++];
+                program.use();
+                quad.draw(program, (String)objects[oo++]);
+                break;
+            }
+            case OP_RUN:
+                ((Runnable)objects[oo++]).run();
+                break;
+            default:
+                throw new IllegalStateException("Unknown command " + op);
+            }
+        }
+        mBytes.clear();
+    }
+
+    private void replayUniform(Program program, int handle, float[] floats, int offset, int count) {
+        switch (count) {
+        case 1:
+            program.setUniform(handle, floats[offset]);
+            break;
+        case 2:
+            program.setUniform(handle, floats[offset], floats[offset + 1]);
+            break;
+        case 3:
+            program.setUniform(handle, floats[offset], floats[offset + 1], floats[offset + 2]);
+            break;
+        case 4:
+            program.setUniform(handle, floats[offset], floats[offset + 1], floats[offset + 2], floats[offset + 3]);
+            break;
+        default:
+            float[] values = (count < mUniformScratch.length) ? mUniformScratch[count] : null;
+            if (values == null) {
+                values = new float[count];
+                if (count < mUniformScratch.length) {
+                    mUniformScratch[count] = values;
+                }
+            }
+            System.arraycopy(floats, offset, values, 0, count);
+            program.setUniform(handle, values);
+            break;
+        }
+    }
+
+    private void uniform(Program program, String name, int handle, int count) {
+        op(OP_UNIFORM_FLOATS);
+        object(program);
+        object(name);
+        integer(handle);
+        integer(count);
+    }
+
+    private void op(int op) {
+        integer(op);
+        mNumCommands++;
+    }
+
+    private void integer(int value) {
+        if (mNumInts == mInts.length) {
+            mInts = Arrays.copyOf(mInts, mInts.length * 2);
+        }
+        mInts[mNumInts++] = value;
+    }
+
+    private void object(Object value) {
+        if (mNumObjects == mObjects.length) {
+            mObjects = Arrays.copyOf(mObjects, mObjects.length * 2);
+        }
+        mObjects[mNumObjects++] = value;
+    }
+
+    private void floats(float x) {
+        ensureFloats(1);
+        mFloats[mNumFloats++] = x;
+    }
+
+    private void floats(float x, float y) {
+        ensureFloats(2);
+        mFloats[mNumFloats++] = x;
+        mFloats[mNumFloats++] = y;
+    }
+
+    private void floats(float x, float y, float z) {
+        ensureFloats(3);
+        mFloats[mNumFloats++] = x;
+        mFloats[mNumFloats++] = y;
+        mFloats[mNumFloats++] = z;
+    }
+
+    private void floats(float x, float y, float z, float w) {
+        ensureFloats(4);
+        mFloats[mNumFloats++] = x;
+        mFloats[mNumFloats++] = y;
+        mFloats[mNumFloats++] = z;
+        mFloats[mNumFloats++] = w;
+    }
+
+    private void floats(float[] values) {
+        ensureFloats(values.length);
+        System.arraycopy(values, 0, mFloats, mNumFloats, values.length);
+        mNumFloats += values.length;
+    }
+
+    private void ensureFloats(int count) {
+        if (mNumFloats + count > mFloats.length) {
+            mFloats = Arrays.copyOf(mFloats, Math.max(mFloats.length * 2, mNumFloats + count));
+        }
+    }
+
+    private void ensureBytes(int count) {
+        if (count > mBytes.remaining()) {
+            ByteBuffer bytes = ByteBuffer.allocateDirect(Math.max(mBytes.capacity() * 2, mBytes.position() + count)).order(ByteOrder.nativeOrder());
+            mBytes.flip();
+            bytes.put(mBytes);
+            mBytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Hands CommandBuffers from one producer thread to the GL thread without locks.  The producer
+// acquire()s a buffer, records into it and submit()s it; the GL thread calls replay() each frame to
+// run the most recent submission.  A submission that hasn't been replayed by the time the next one
+// arrives is dropped, so the producer never waits for the renderer - each submission should therefore
+// describe everything it needs (e.g. all of a frame's uniforms), not an increment.
+//
+// With the default of 3 buffers, one can be recording, one pending and one replaying, so acquire()
+// always succeeds.  Use one queue per producer thread.
+public class CommandQueue {
+    private static final int DEFAULT_NUM_BUFFERS = 3;
+    private final AtomicReferenceArray<CommandBuffer> mFree;
+    private final AtomicReference<CommandBuffer> mPending = new AtomicReference<CommandBuffer>();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    public CommandQueue(int numBuffers, int initialCapacity) {
+        mFree = new AtomicReferenceArray<CommandBuffer>(numBuffers);
+        for (int ii = 0; ii < numBuffers; ii++) {
+            mFree.set(ii, new CommandBuffer(initialCapacity));
+        }
+    }
+
+    public CommandQueue() {
+        this(DEFAULT_NUM_BUFFERS, 256);
+    }
+
+    // Returns an empty buffer to record into, or null if all are in use.
+    public CommandBuffer acquire() {
+        for (int ii = 0; ii < mFree.length(); ii++) {
+            CommandBuffer buffer = mFree.get(ii);
+            if ((buffer != null) && mFree.compareAndSet(ii, buffer, null)) {
+                return buffer;
+            }
+        }
+        return null;
+    }
+
+    public void submit(CommandBuffer buffer) {
+        CommandBuffer dropped = mPending.getAndSet(buffer);
+        if (dropped != null) {
+            mDropped.incrementAndGet();
+            recycle(dropped);
+        }
+    }
+
+    // Returns a buffer without submitting it.
+    public void recycle(CommandBuffer buffer) {
+        buffer.reset();
+        for (int ii = 0; ii < mFree.length(); ii++) {
+            if (mFree.compareAndSet(ii, null, buffer)) {
+                return;
+            }
+        }
+        throw new IllegalStateException("Buffer recycled to a full queue");
+    }
+
+    // Must be called on the GL thread.  Returns whether there was a submission to replay.
+    public boolean replay() {
+        CommandBuffer buffer = mPending.getAndSet(null);
+        if (buffer == null) {
+            return false;
+        }
+        try {
+            buffer.replay();
+        } finally {
+            recycle(buffer);
+        }
+        return true;
+    }
+
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+}
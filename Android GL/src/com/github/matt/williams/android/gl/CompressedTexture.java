@@ -0,0 +1,76 @@
+package com.github.matt.williams.android.gl;
+
+import java.nio.ByteBuffer;
+
+import android.opengl.GLES20;
+
+// A texture uploaded from pre-compressed (or pre-mipmapped) data, without ever decoding to a Bitmap.
+// ETC1 is available on all GLES 2.0 devices; ETC2/EAC formats need GLES 3.0.
+public class CompressedTexture extends BasicTexture {
+    private final int mWidth;
+    private final int mHeight;
+
+    public CompressedTexture(KtxFile file, int wrap) {
+        super(GLES20.GL_TEXTURE_2D, wrap);
+        GLBackend gl = GLState.gl();
+        mWidth = file.getWidth();
+        mHeight = file.getHeight();
+        // GLES 2.0 has no sized internal formats - it takes the base format, which must match the format.
+        int internalFormat = isGles3() ? file.getGlInternalFormat() : file.getGlBaseInternalFormat();
+        int oldId = pushTexture();
+        for (int level = 0; level < file.getLevelCount(); level++) {
+            int width = TextureFormats.getMipDimension(mWidth, level);
+            int height = TextureFormats.getMipDimension(mHeight, level);
+            ByteBuffer data = file.getLevel(level);
+            if (file.isCompressed()) {
+                gl.glCompressedTexImage2D(mTarget, level, file.getGlInternalFormat(), width, height, 0, data.remaining(), data);
+                Utils.checkErrors("glCompressedTexImage2D");
+            } else {
+                gl.glTexImage2D(mTarget, level, internalFormat, width, height, 0, file.getGlFormat(), file.getGlType(), data);
+                Utils.checkErrors("glTexImage2D");
+            }
+        }
+        if (file.shouldGenerateMipmaps()) {
+            gl.glGenerateMipmap(mTarget);
+            Utils.checkErrors("glGenerateMipmap");
+        }
+        popTexture(oldId);
+        boolean mipmapped = (file.getLevelCount() > 1) || file.shouldGenerateMipmaps();
+        setFilter(mipmapped ? GLES20.GL_LINEAR_MIPMAP_LINEAR : GLES20.GL_LINEAR, GLES20.GL_LINEAR);
+    }
+
+    public CompressedTexture(KtxFile file) {
+        this(file, GLES20.GL_CLAMP_TO_EDGE);
+    }
+
+    public CompressedTexture(PkmFile file, int wrap) {
+        super(GLES20.GL_TEXTURE_2D, wrap);
+        GLBackend gl = GLState.gl();
+        mWidth = file.getWidth();
+        mHeight = file.getHeight();
+        ByteBuffer data = file.getData();
+        int oldId = pushTexture();
+        gl.glCompressedTexImage2D(mTarget, 0, TextureFormats.GL_ETC1_RGB8_OES, mWidth, mHeight, 0, data.remaining(), data);
+        Utils.checkErrors("glCompressedTexImage2D");
+        popTexture(oldId);
+        setFilter(GLES20.GL_LINEAR, GLES20.GL_LINEAR);
+    }
+
+    public CompressedTexture(PkmFile file) {
+        this(file, GLES20.GL_CLAMP_TO_EDGE);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    private static boolean isGles3() {
+        GLBackend gl = GLState.gl();
+        String version = gl.glGetString(GLES20.GL_VERSION);
+        return (version != null) && version.startsWith("OpenGL ES 3");
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Computes FrameStatistics over frames of 8-bit luminance bytes on the CPU - the reference that
+// GpuReduction is validated against, and the fallback where it isn't supported.
+//
+// Each pass builds a full 256-entry histogram, from which the sum, min, max and binned histogram all
+// follow exactly.  The counting loop alternates between two sub-histograms so that runs of equal
+// values don't serialize on the same counter.  With setExecutor(), large frames are split into bands
+// of rows counted in parallel.  Deliberately free of Android dependencies.
+public class CpuReduction {
+    private static final int DEFAULT_MIN_PIXELS_PER_TASK = 65536;
+    private static final int NUM_VALUES = 256;
+    private ExecutorService mExecutor;
+    private int mMinPixelsPerTask = DEFAULT_MIN_PIXELS_PER_TASK;
+
+    // executor may be null to always reduce on the calling thread.
+    public void setExecutor(ExecutorService executor, int minPixelsPerTask) {
+        mExecutor = executor;
+        mMinPixelsPerTask = Math.max(minPixelsPerTask, 1);
+    }
+
+    public void setExecutor(ExecutorService executor) {
+        setExecutor(executor, DEFAULT_MIN_PIXELS_PER_TASK);
+    }
+
+    public void reduce(byte[] data, int width, int height, FrameStatistics result) {
+        reduce(data, 0, width, height, width, result);
+    }
+
+    // Rows are stride bytes apart, starting at offset.
+    public void reduce(byte[] data, int offset, int width, int height, int stride, FrameStatistics result) {
+        if ((width < 0) || (height < 0) || (stride < width) ||
+            ((height > 0) && (offset + (long)(height - 1) * stride + width > data.length)))
+        {
+            throw new IllegalArgumentException("Frame " + width + "x" + height + " with stride " + stride + " exceeds " + data.length + " bytes");
+        }
+        long[] counts = new long[NUM_VALUES];
+        ExecutorService executor = mExecutor;
+        int numTasks = (executor != null) ? Math.min((int)((long)width * height / mMinPixelsPerTask), height) : 1;
+        if (numTasks <= 1) {
+            accumulate(counts, count(data, offset, width, stride, 0, height));
+        } else {
+            List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>(numTasks);
+            for (int ii = 0; ii < numTasks; ii++) {
+                int start = (int)((long)height * ii / numTasks);
+                int end = (int)((long)height * (ii + 1) / numTasks);
+                tasks.add(new Task(data, offset, width, stride, start, end));
+            }
+            try {
+                for (Future<int[]> future : executor.invokeAll(tasks)) {
+                    accumulate(counts, future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while reducing frame", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to reduce frame", e.getCause());
+            }
+        }
+        summarize(counts, result);
+    }
+
+    // Fills result from a 256-entry histogram of byte values.
+    static void summarize(long[] counts, FrameStatistics result) {
+        long total = 0;
+        long sum = 0;
+        long sumOfSquares = 0;
+        int min = NUM_VALUES - 1;
+        int max = 0;
+        for (int value = 0; value < NUM_VALUES; value++) {
+            long count = counts[value];
+            if (count > 0) {
+                total += count;
+                sum += count * value;
+                sumOfSquares += count * value * value;
+                min = Math.min(min, value);
+                max = value;
+            }
+        }
+        if (total == 0) {
+            min = 0;
+        }
+        result.set(total, sum, sumOfSquares, min, max);
+        int numBins = result.getNumBins();
+        long binCount = 0;
+        int bin = 0;
+        for (int value = 0; value < NUM_VALUES; value++) {
+            int valueBin = value * numBins / NUM_VALUES;
+            if (valueBin != bin) {
+                result.setBinFraction(bin, (total > 0) ? (float)((double)binCount / total) : 0);
+                binCount = 0;
+                bin = valueBin;
+            }
+            binCount += counts[value];
+        }
+        result.setBinFraction(bin, (total > 0) ? (float)((double)binCount / total) : 0);
+    }
+
+    private static void accumulate(long[] counts, int[] halves) {
+        for (int ii = 0; ii < NUM_VALUES; ii++) {
+            counts[ii] += (long)halves[ii] + halves[ii + NUM_VALUES];
+        }
+    }
+
+    // Counts rows [start, end) into two interleaved 256-entry histograms.  An int per entry is enough
+    // as long as a band has fewer than 2^31 pixels.
+    private static int[] count(byte[] data, int offset, int width, int stride, int start, int end) {
+        int[] counts = new int[NUM_VALUES * 2];
+        for (int row = start; row < end; row++) {
+            int ii = offset + row * stride;
+            int rowEnd = ii + width;
+            for (; ii + 1 < rowEnd; ii += 2) {
+                counts[data[ii] & 0xFF]++;
+                counts[(data[ii + 1] & 0xFF) + NUM_VALUES]++;
+            }
+            if (ii < rowEnd) {
+                counts[data[ii] & 0xFF]++;
+            }
+        }
+        return counts;
+    }
+
+    private static class Task implements Callable<int[]> {
+        private final byte[] mData;
+        private final int mOffset;
+        private final int mWidth;
+        private final int mStride;
+        private final int mStart;
+        private final int mEnd;
+
+        Task(byte[] data, int offset, int width, int stride, int start, int end) {
+            mData = data;
+            mOffset = offset;
+            mWidth = width;
+            mStride = stride;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public int[] call() {
+            return count(mData, mOffset, mWidth, mStride, mStart, mEnd);
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.github.matt.williams.android.gl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+// Times named scopes within each frame, on the CPU always and on the GPU where
+// GL_EXT_disjoint_timer_query is available.  Wrap sections of the frame (e.g. a renderTo() and its
+// draws) in begin(name) / end(), and the whole frame in beginFrame() / endFrame().
+//
+// GPU timer queries can't nest, so only scopes not already inside a GPU-timed scope get a query.
+// Queries are kept in a ring and their results collected at endFrame() once available - typically a
+// couple of frames later - so reading them never stalls the pipeline.  If the GPU reports a disjoint
+// operation (e.g. a frequency change), results collected at that point are discarded.
+//
+// Durations, in nanoseconds, go into a RollingStats per scope, and recent scopes are kept as events
+// for export in Chrome's trace format (chrome://tracing).  Without GPU timing no GL calls are made, so
+// all of this also works headless.
+public class FrameProfiler {
+    public static final String FRAME = "frame";
+    public static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    public static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    private static final int DEFAULT_WINDOW_SIZE = 300;
+    private static final int MAX_DEPTH = 32;
+    private static final int MAX_QUERIES = 64;
+    private static final int MAX_EVENTS = 8192;
+
+    private final boolean mGpuTiming;
+    private final int mWindowSize;
+    private final long mEpoch = System.nanoTime();
+
+    private final Map<String,Integer> mScopeIndices = new HashMap<String,Integer>();
+    private final List<String> mScopeNames = new ArrayList<String>();
+    private final List<RollingStats> mCpuStats = new ArrayList<RollingStats>();
+    private final List<RollingStats> mGpuStats = new ArrayList<RollingStats>();
+
+    private final int[] mStackScopes = new int[MAX_DEPTH];
+    private final long[] mStackStarts = new long[MAX_DEPTH];
+    private final boolean[] mStackGpu = new boolean[MAX_DEPTH];
+    private int mDepth;
+    private boolean mGpuActive;
+
+    // Ring of queries in flight, oldest at mQueryHead.
+    private int[] mQueryIds;
+    private final int[] mQueryScopes = new int[MAX_QUERIES];
+    private final long[] mQueryStarts = new long[MAX_QUERIES];
+    private int mQueryHead;
+    private int mQueryCount;
+    private final int[] mResultScopes = new int[MAX_QUERIES];
+    private final long[] mResultStarts = new long[MAX_QUERIES];
+    private final long[] mResultDurations = new long[MAX_QUERIES];
+    private final int[] mQueryResult = new int[1];
+    private int mDroppedQueries;
+    private int mDisjointCount;
+
+    // Ring of recent events, oldest at (mEventNext - mEventCount).
+    private final int[] mEventScopes = new int[MAX_EVENTS];
+    private final long[] mEventStarts = new long[MAX_EVENTS];
+    private final long[] mEventDurations = new long[MAX_EVENTS];
+    private final boolean[] mEventGpu = new boolean[MAX_EVENTS];
+    private int mEventNext;
+    private int mEventCount;
+
+    // windowSize is the number of samples per scope that percentiles are computed over.
+    public FrameProfiler(int windowSize, boolean gpuTiming) {
+        mWindowSize = windowSize;
+        mGpuTiming = gpuTiming;
+        getScopeIndex(FRAME);
+    }
+
+    // Must be called on the GL thread, to check for timer query support.
+    public FrameProfiler() {
+        this(DEFAULT_WINDOW_SIZE, isGpuTimingSupported());
+    }
+
+    public static boolean isGpuTimingSupported() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return false;
+        }
+        GLBackend gl = GLState.gl();
+        String version = gl.glGetString(GLES20.GL_VERSION);
+        String extensions = gl.glGetString(GLES20.GL_EXTENSIONS);
+        return (version != null) && version.startsWith("OpenGL ES 3") && (extensions != null) && extensions.contains("GL_EXT_disjoint_timer_query");
+    }
+
+    public boolean isGpuTiming() {
+        return mGpuTiming;
+    }
+
+    public void release() {
+        if (mQueryIds != null) {
+            GLBackend gl = GLState.gl();
+            gl.glDeleteQueries(MAX_QUERIES, mQueryIds, 0);
+            Utils.checkErrors("glDeleteQueries");
+            mQueryIds = null;
+        }
+    }
+
+    public void beginFrame() {
+        if (mDepth != 0) {
+            throw new IllegalStateException("beginFrame() called inside a frame");
+        }
+        push(0, false);
+    }
+
+    public void endFrame() {
+        if (mDepth != 1) {
+            throw new IllegalStateException("Unbalanced begin()/end() in frame");
+        }
+        end();
+        if (mGpuTiming) {
+            collectQueries();
+        }
+    }
+
+    public void begin(String name) {
+        if (mDepth == 0) {
+            throw new IllegalStateException("begin() called outside beginFrame()/endFrame()");
+        }
+        if (mDepth == MAX_DEPTH) {
+            throw new IllegalStateException("Scopes nested more than " + MAX_DEPTH + " deep");
+        }
+        int scope = getScopeIndex(name);
+        boolean gpu = false;
+        if (mGpuTiming && !mGpuActive) {
+            if (mQueryCount < MAX_QUERIES) {
+                beginQuery(scope);
+                gpu = true;
+            } else {
+                mDroppedQueries++;
+            }
+        }
+        push(scope, gpu);
+    }
+
+    public void end() {
+        if (mDepth == 0) {
+            throw new IllegalStateException("end() without begin()");
+        }
+        long now = System.nanoTime();
+        mDepth--;
+        int scope = mStackScopes[mDepth];
+        long start = mStackStarts[mDepth];
+        if (mStackGpu[mDepth]) {
+            endQuery();
+        }
+        mCpuStats.get(scope).add(now - start);
+        addEvent(scope, start, now - start, false);
+    }
+
+    public List<String> getScopeNames() {
+        return mScopeNames;
+    }
+
+    // Returns null for scopes never begun.
+    public RollingStats getCpuStats(String name) {
+        Integer scope = mScopeIndices.get(name);
+        return (scope != null) ? mCpuStats.get(scope) : null;
+    }
+
+    public RollingStats getGpuStats(String name) {
+        Integer scope = mScopeIndices.get(name);
+        return (scope != null) ? mGpuStats.get(scope) : null;
+    }
+
+    // Scopes that weren't GPU-timed because too many queries were still waiting for results.
+    public int getDroppedQueryCount() {
+        return mDroppedQueries;
+    }
+
+    // Batches of GPU results discarded because the GPU reported a disjoint operation.
+    public int getDisjointCount() {
+        return mDisjointCount;
+    }
+
+    // Writes per-scope percentiles, in microseconds, as JSON, e.g.
+    // {"scopes":[{"name":"frame","cpu":{"count":300,"p50":..,"p95":..,"p99":..,"max":..},"gpu":{..}}]}
+    public void writeSnapshot(Appendable out) throws IOException {
+        out.append("{\"scopes\":[");
+        for (int ii = 0; ii < mScopeNames.size(); ii++) {
+            if (ii > 0) {
+                out.append(',');
+            }
+            out.append("{\"name\":");
+            appendString(out, mScopeNames.get(ii));
+            out.append(",\"cpu\":");
+            appendStats(out, mCpuStats.get(ii));
+            if (mGpuTiming) {
+                out.append(",\"gpu\":");
+                appendStats(out, mGpuStats.get(ii));
+            }
+            out.append('}');
+        }
+        out.append("]}");
+    }
+
+    // Writes recent scopes as complete ("X") events in Chrome's trace event format.  CPU scopes are on
+    // thread 0.  GPU timer queries only measure durations, so GPU scopes are shown on thread 1 starting
+    // when the CPU began them - in reality they run some time later.
+    public void writeChromeTrace(Appendable out) throws IOException {
+        out.append("{\"traceEvents\":[");
+        int first = (mEventNext - mEventCount + MAX_EVENTS) % MAX_EVENTS;
+        for (int ii = 0; ii < mEventCount; ii++) {
+            int event = (first + ii) % MAX_EVENTS;
+            if (ii > 0) {
+                out.append(',');
+            }
+            out.append("{\"name\":");
+            appendString(out, mScopeNames.get(mEventScopes[event]));
+            out.append(mEventGpu[event] ? ",\"cat\":\"gpu\"" : ",\"cat\":\"cpu\"");
+            out.append(",\"ph\":\"X\",\"ts\":").append(toMicros(mEventStarts[event] - mEpoch));
+            out.append(",\"dur\":").append(toMicros(mEventDurations[event]));
+            out.append(",\"pid\":0,\"tid\":").append(mEventGpu[event] ? '1' : '0').append('}');
+        }
+        out.append("]}");
+    }
+
+    private int getScopeIndex(String name) {
+        Integer scope = mScopeIndices.get(name);
+        if (scope == null) {
+            scope = mScopeNames.size();
+            mScopeIndices.put(name, scope);
+            mScopeNames.add(name);
+            mCpuStats.add(new RollingStats(mWindowSize));
+            mGpuStats.add(new RollingStats(mWindowSize));
+        }
+        return scope;
+    }
+
+    private void push(int scope, boolean gpu) {
+        mStackScopes[mDepth] = scope;
+        mStackGpu[mDepth] = gpu;
+        mStackStarts[mDepth] = System.nanoTime();
+        mDepth++;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void beginQuery(int scope) {
+        GLBackend gl = GLState.gl();
+        if (mQueryIds == null) {
+            mQueryIds = new int[MAX_QUERIES];
+            gl.glGenQueries(MAX_QUERIES, mQueryIds, 0);
+            Utils.checkErrors("glGenQueries");
+            // Clear any stale disjoint flag before the first measurement.
+            gl.glGetIntegerv(GL_GPU_DISJOINT_EXT, mQueryResult, 0);
+        }
+        int slot = (mQueryHead + mQueryCount) % MAX_QUERIES;
+        mQueryScopes[slot] = scope;
+        mQueryStarts[slot] = System.nanoTime();
+        gl.glBeginQuery(GL_TIME_ELAPSED_EXT, mQueryIds[slot]);
+        Utils.checkErrors("glBeginQuery");
+        mGpuActive = true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void endQuery() {
+        GLBackend gl = GLState.gl();
+        gl.glEndQuery(GL_TIME_ELAPSED_EXT);
+        Utils.checkErrors("glEndQuery");
+        mQueryCount++;
+        mGpuActive = false;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void collectQueries() {
+        GLBackend gl = GLState.gl();
+        int numResults = 0;
+        // Queries complete in order, so stop at the first one that isn't available yet.
+        while (mQueryCount > 0) {
+            int id = mQueryIds[mQueryHead];
+            gl.glGetQueryObjectuiv(id, GLES30.GL_QUERY_RESULT_AVAILABLE, mQueryResult, 0);
+            if (mQueryResult[0] == 0) {
+                break;
+            }
+            gl.glGetQueryObjectuiv(id, GLES30.GL_QUERY_RESULT, mQueryResult, 0);
+            mResultScopes[numResults] = mQueryScopes[mQueryHead];
+            mResultStarts[numResults] = mQueryStarts[mQueryHead];
+            // GLES 3.0 only exposes 32-bit results - over 4 seconds would wrap.
+            mResultDurations[numResults] = mQueryResult[0] & 0xffffffffL;
+            numResults++;
+            mQueryHead = (mQueryHead + 1) % MAX_QUERIES;
+            mQueryCount--;
+        }
+        Utils.checkErrors("glGetQueryObjectuiv");
+        if (numResults == 0) {
+            return;
+        }
+        gl.glGetIntegerv(GL_GPU_DISJOINT_EXT, mQueryResult, 0);
+        if (mQueryResult[0] != 0) {
+            mDisjointCount++;
+            return;
+        }
+        for (int ii = 0; ii < numResults; ii++) {
+            mGpuStats.get(mResultScopes[ii]).add(mResultDurations[ii]);
+            addEvent(mResultScopes[ii], mResultStarts[ii], mResultDurations[ii], true);
+        }
+    }
+
+    private void addEvent(int scope, long start, long duration, boolean gpu) {
+        mEventScopes[mEventNext] = scope;
+        mEventStarts[mEventNext] = start;
+        mEventDurations[mEventNext] = duration;
+        mEventGpu[mEventNext] = gpu;
+        mEventNext = (mEventNext + 1) % MAX_EVENTS;
+        if (mEventCount < MAX_EVENTS) {
+            mEventCount++;
+        }
+    }
+
+    private static void appendStats(Appendable out, RollingStats stats) throws IOException {
+        out.append("{\"count\":").append(Integer.toString(stats.getCount()));
+        out.append(",\"p50\":").append(toMicros(stats.getPercentile(50)));
+        out.append(",\"p95\":").append(toMicros(stats.getPercentile(95)));
+        out.append(",\"p99\":").append(toMicros(stats.getPercentile(99)));
+        out.append(",\"max\":").append(toMicros(stats.getMax())).append('}');
+    }
+
+    private static void appendString(Appendable out, String value) throws IOException {
+        out.append('"');
+        for (int ii = 0; ii < value.length(); ii++) {
+            char c = value.charAt(ii);
+            if ((c == '"') || (c == '\\')) {
+                out.append('\\').append(c);
+            } else if (c < ' ') {
+                out.append(String.format("\\u%04x", (int)c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private static String toMicros(long nanos) {
+        return Double.toString(nanos / 1000.0);
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.matt.williams.android.gl;
+
+// Summary statistics of a frame of 8-bit luminance values, as computed by CpuReduction or
+// GpuReduction.  Values are in byte units (0-255).  The histogram splits that range into equal bins,
+// with value v falling in bin v * numBins / 256.  Deliberately free of Android dependencies.
+public class FrameStatistics {
+    private final float[] mHistogram;
+    private long mCount;
+    private double mSum;
+    private double mSumOfSquares;
+    private int mMin;
+    private int mMax;
+
+    public FrameStatistics(int numBins) {
+        if ((numBins < 1) || (numBins > 256)) {
+            throw new IllegalArgumentException("numBins must be between 1 and 256, got " + numBins);
+        }
+        mHistogram = new float[numBins];
+    }
+
+    public void copyFrom(FrameStatistics other) {
+        if (other.mHistogram.length != mHistogram.length) {
+            throw new IllegalArgumentException("Bin count mismatch: " + other.mHistogram.length + " != " + mHistogram.length);
+        }
+        mCount = other.mCount;
+        mSum = other.mSum;
+        mSumOfSquares = other.mSumOfSquares;
+        mMin = other.mMin;
+        mMax = other.mMax;
+        System.arraycopy(other.mHistogram, 0, mHistogram, 0, mHistogram.length);
+    }
+
+    public int getNumBins() {
+        return mHistogram.length;
+    }
+
+    // The bin containing value, which is in byte units.
+    public int getBin(int value) {
+        return value * mHistogram.length / 256;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public double getSum() {
+        return mSum;
+    }
+
+    public double getMean() {
+        return (mCount > 0) ? mSum / mCount : 0;
+    }
+
+    public double getVariance() {
+        if (mCount == 0) {
+            return 0;
+        }
+        double mean = mSum / mCount;
+        // Clamped, since GPU rounding can take it slightly negative for flat frames.
+        return Math.max(mSumOfSquares / mCount - mean * mean, 0);
+    }
+
+    public int getMin() {
+        return mMin;
+    }
+
+    public int getMax() {
+        return mMax;
+    }
+
+    // Fraction of pixels falling in bin.
+    public float getBinFraction(int bin) {
+        return mHistogram[bin];
+    }
+
+    public long getBinPixels(int bin) {
+        return Math.round((double)mHistogram[bin] * mCount);
+    }
+
+    // The live histogram of bin fractions - callers must not modify it.
+    public float[] getHistogram() {
+        return mHistogram;
+    }
+
+    void set(long count, double sum, double sumOfSquares, int min, int max) {
+        mCount = count;
+        mSum = sum;
+        mSumOfSquares = sumOfSquares;
+        mMin = min;
+        mMax = max;
+    }
+
+    void setBinFraction(int bin, float fraction) {
+        mHistogram[bin] = fraction;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("count=").append(mCount).append(" mean=").append((float)getMean());
+        builder.append(" min=").append(mMin).append(" max=").append(mMax);
+        builder.append(" variance=").append((float)getVariance()).append(" histogram=[");
+        for (int ii = 0; ii < mHistogram.length; ii++) {
+            if (ii > 0) {
+                builder.append(", ");
+            }
+            builder.append(mHistogram[ii]);
+        }
+        return builder.append(']').toString();
+    }
+}
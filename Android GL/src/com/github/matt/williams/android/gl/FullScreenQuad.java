@@ -0,0 +1,25 @@
+package com.github.matt.williams.android.gl;
+
+import android.opengl.GLES20;
+
+// A quad covering the whole viewport, as a triangle strip of 2D clip-space positions.
+public class FullScreenQuad {
+    private static final float[] VERTICES = new float[] {-1, -1, 1, -1, -1, 1, 1, 1};
+    private final VertexBuffer mBuffer;
+
+    public FullScreenQuad() {
+        mBuffer = new VertexBuffer(GLES20.GL_STATIC_DRAW);
+        mBuffer.setData(VERTICES);
+    }
+
+    public void release() {
+        mBuffer.release();
+    }
+
+    public void draw(Program program, String positionName) {
+        GLBackend gl = GLState.gl();
+        program.setVertexAttrib(positionName, mBuffer, 2);
+        gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+        Utils.checkErrors("glDrawArrays");
+    }
+}
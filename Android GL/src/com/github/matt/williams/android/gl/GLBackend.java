@@ -0,0 +1,102 @@
+package com.github.matt.williams.android.gl;
+
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+
+import android.graphics.Bitmap;
+
+// The GL entry points used by this library, with the same names and signatures as the static
+// methods on GLES20 (and GLES30 and GLUtils, where noted).  All GL calls go through the backend
+// installed in GLState, which by default is GLES20Backend; RecordingGLBackend can be installed to
+// count or trace calls, or to run without a GPU.
+public interface GLBackend {
+    void glActiveTexture(int texture);
+    void glAttachShader(int program, int shader);
+    void glBindAttribLocation(int program, int index, String name);
+    void glBindBuffer(int target, int buffer);
+    void glBindFramebuffer(int target, int framebuffer);
+    void glBindTexture(int target, int texture);
+    void glBlendFunc(int sfactor, int dfactor);
+    void glBufferData(int target, int size, Buffer data, int usage);
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+    int glCheckFramebufferStatus(int target);
+    void glClear(int mask);
+    void glClearColor(float red, float green, float blue, float alpha);
+    void glCompileShader(int shader);
+    void glCompressedTexImage2D(int target, int level, int internalformat, int width, int height, int border, int imageSize, Buffer data);
+    int glCreateProgram();
+    int glCreateShader(int type);
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+    void glDeleteFramebuffers(int n, int[] framebuffers, int offset);
+    void glDeleteProgram(int program);
+    void glDeleteShader(int shader);
+    void glDeleteTextures(int n, int[] textures, int offset);
+    void glDetachShader(int program, int shader);
+    void glDisable(int cap);
+    void glDisableVertexAttribArray(int index);
+    void glDrawArrays(int mode, int first, int count);
+    void glDrawElements(int mode, int count, int type, int offset);
+    void glEnable(int cap);
+    void glEnableVertexAttribArray(int index);
+    void glFinish();
+    void glFlush();
+    void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level);
+    void glGenBuffers(int n, int[] buffers, int offset);
+    void glGenFramebuffers(int n, int[] framebuffers, int offset);
+    void glGenTextures(int n, int[] textures, int offset);
+    void glGenerateMipmap(int target);
+    void glGetActiveAttrib(int program, int index, int bufsize, int[] length, int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name, int nameOffset);
+    void glGetActiveUniform(int program, int index, int bufsize, int[] length, int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name, int nameOffset);
+    int glGetAttribLocation(int program, String name);
+    int glGetError();
+    void glGetIntegerv(int pname, int[] params, int offset);
+    String glGetProgramInfoLog(int program);
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+    String glGetShaderInfoLog(int shader);
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+    String glGetString(int name);
+    int glGetUniformLocation(int program, String name);
+    void glLinkProgram(int program);
+    void glPixelStorei(int pname, int param);
+    void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels);
+    void glShaderSource(int shader, String string);
+    void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels);
+    void glTexParameteri(int target, int pname, int param);
+    void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, Buffer pixels);
+    void glUniform1fv(int location, int count, float[] v, int offset);
+    void glUniform1iv(int location, int count, int[] v, int offset);
+    void glUniform2fv(int location, int count, float[] v, int offset);
+    void glUniform2iv(int location, int count, int[] v, int offset);
+    void glUniform3fv(int location, int count, float[] v, int offset);
+    void glUniform3iv(int location, int count, int[] v, int offset);
+    void glUniform4fv(int location, int count, float[] v, int offset);
+    void glUniform4iv(int location, int count, int[] v, int offset);
+    void glUniformMatrix2fv(int location, int count, boolean transpose, float[] value, int offset);
+    void glUniformMatrix3fv(int location, int count, boolean transpose, float[] value, int offset);
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+    void glUseProgram(int program);
+    void glValidateProgram(int program);
+    void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr);
+    void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset);
+    void glViewport(int x, int y, int width, int height);
+
+    // GLES 3.0 only - check the context version before calling these.
+    void glGetProgramBinary(int program, int bufSize, IntBuffer length, IntBuffer binaryFormat, Buffer binary);
+    void glProgramBinary(int program, int binaryFormat, Buffer binary, int length);
+    Buffer glMapBufferRange(int target, int offset, int length, int access);
+    boolean glUnmapBuffer(int target);
+    void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, int offset);
+    void glReadPixels(int x, int y, int width, int height, int format, int type, int offset);
+    void glGenQueries(int n, int[] ids, int offset);
+    void glDeleteQueries(int n, int[] ids, int offset);
+    void glBeginQuery(int target, int id);
+    void glEndQuery(int target);
+    void glGetQueryObjectuiv(int id, int pname, int[] params, int offset);
+    long glFenceSync(int condition, int flags);
+    int glClientWaitSync(long sync, int flags, long timeout);
+    void glDeleteSync(long sync);
+
+    // GLUtils bitmap uploads.
+    void texImage2D(int target, int level, Bitmap bitmap, int border);
+    void texSubImage2D(int target, int level, int xoffset, int yoffset, Bitmap bitmap);
+}
@@ -0,0 +1,454 @@
+package com.github.matt.williams.android.gl;
+
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLUtils;
+import android.os.Build;
+
+// The default backend, calling straight through to the platform GL bindings.  The GLES 3.0 methods
+// need API 18, as well as a GLES 3.0 context.
+public class GLES20Backend implements GLBackend {
+    @Override
+    public void glActiveTexture(int texture) {
+        GLES20.glActiveTexture(texture);
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        GLES20.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glBindAttribLocation(int program, int index, String name) {
+        GLES20.glBindAttribLocation(program, index, name);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        GLES20.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        GLES20.glBindFramebuffer(target, framebuffer);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        GLES20.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        GLES20.glBlendFunc(sfactor, dfactor);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        GLES20.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        GLES20.glBufferSubData(target, offset, size, data);
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        return GLES20.glCheckFramebufferStatus(target);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        GLES20.glClear(mask);
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        GLES20.glClearColor(red, green, blue, alpha);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        GLES20.glCompileShader(shader);
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int target, int level, int internalformat, int width, int height, int border, int imageSize, Buffer data) {
+        GLES20.glCompressedTexImage2D(target, level, internalformat, width, height, border, imageSize, data);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return GLES20.glCreateProgram();
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        return GLES20.glCreateShader(type);
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        GLES20.glDeleteBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+        GLES20.glDeleteFramebuffers(n, framebuffers, offset);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        GLES20.glDeleteProgram(program);
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        GLES20.glDeleteShader(shader);
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        GLES20.glDeleteTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glDetachShader(int program, int shader) {
+        GLES20.glDetachShader(program, shader);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        GLES20.glDisable(cap);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        GLES20.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        GLES20.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        GLES20.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        GLES20.glEnable(cap);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        GLES20.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glFinish() {
+        GLES20.glFinish();
+    }
+
+    @Override
+    public void glFlush() {
+        GLES20.glFlush();
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+        GLES20.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        GLES20.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        GLES20.glGenFramebuffers(n, framebuffers, offset);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        GLES20.glGenTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glGenerateMipmap(int target) {
+        GLES20.glGenerateMipmap(target);
+    }
+
+    @Override
+    public void glGetActiveAttrib(int program, int index, int bufsize, int[] length, int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name, int nameOffset) {
+        GLES20.glGetActiveAttrib(program, index, bufsize, length, lengthOffset, size, sizeOffset, type, typeOffset, name, nameOffset);
+    }
+
+    @Override
+    public void glGetActiveUniform(int program, int index, int bufsize, int[] length, int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name, int nameOffset) {
+        GLES20.glGetActiveUniform(program, index, bufsize, length, lengthOffset, size, sizeOffset, type, typeOffset, name, nameOffset);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        return GLES20.glGetAttribLocation(program, name);
+    }
+
+    @Override
+    public int glGetError() {
+        return GLES20.glGetError();
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        GLES20.glGetIntegerv(pname, params, offset);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        return GLES20.glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        GLES20.glGetProgramiv(program, pname, params, offset);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return GLES20.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        GLES20.glGetShaderiv(shader, pname, params, offset);
+    }
+
+    @Override
+    public String glGetString(int name) {
+        return GLES20.glGetString(name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return GLES20.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        GLES20.glLinkProgram(program);
+    }
+
+    @Override
+    public void glPixelStorei(int pname, int param) {
+        GLES20.glPixelStorei(pname, param);
+    }
+
+    @Override
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels) {
+        GLES20.glReadPixels(x, y, width, height, format, type, pixels);
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        GLES20.glShaderSource(shader, string);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels) {
+        GLES20.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        GLES20.glTexParameteri(target, pname, param);
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, Buffer pixels) {
+        GLES20.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, pixels);
+    }
+
+    @Override
+    public void glUniform1fv(int location, int count, float[] v, int offset) {
+        GLES20.glUniform1fv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniform1iv(int location, int count, int[] v, int offset) {
+        GLES20.glUniform1iv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniform2fv(int location, int count, float[] v, int offset) {
+        GLES20.glUniform2fv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniform2iv(int location, int count, int[] v, int offset) {
+        GLES20.glUniform2iv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] v, int offset) {
+        GLES20.glUniform3fv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniform3iv(int location, int count, int[] v, int offset) {
+        GLES20.glUniform3iv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        GLES20.glUniform4fv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniform4iv(int location, int count, int[] v, int offset) {
+        GLES20.glUniform4iv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniformMatrix2fv(int location, int count, boolean transpose, float[] value, int offset) {
+        GLES20.glUniformMatrix2fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glUniformMatrix3fv(int location, int count, boolean transpose, float[] value, int offset) {
+        GLES20.glUniformMatrix3fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        GLES20.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        GLES20.glUseProgram(program);
+    }
+
+    @Override
+    public void glValidateProgram(int program) {
+        GLES20.glValidateProgram(program);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr) {
+        GLES20.glVertexAttribPointer(indx, size, type, normalized, stride, ptr);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset) {
+        GLES20.glVertexAttribPointer(indx, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        GLES20.glViewport(x, y, width, height);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, IntBuffer length, IntBuffer binaryFormat, Buffer binary) {
+        GLES30.glGetProgramBinary(program, bufSize, length, binaryFormat, binary);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        GLES30.glProgramBinary(program, binaryFormat, binary, length);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public Buffer glMapBufferRange(int target, int offset, int length, int access) {
+        return GLES30.glMapBufferRange(target, offset, length, access);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public boolean glUnmapBuffer(int target) {
+        return GLES30.glUnmapBuffer(target);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, int offset) {
+        GLES30.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, offset);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, int offset) {
+        GLES30.glReadPixels(x, y, width, height, format, type, offset);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public void glGenQueries(int n, int[] ids, int offset) {
+        GLES30.glGenQueries(n, ids, offset);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public void glDeleteQueries(int n, int[] ids, int offset) {
+        GLES30.glDeleteQueries(n, ids, offset);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public void glBeginQuery(int target, int id) {
+        GLES30.glBeginQuery(target, id);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public void glEndQuery(int target) {
+        GLES30.glEndQuery(target);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+        GLES30.glGetQueryObjectuiv(id, pname, params, offset);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public long glFenceSync(int condition, int flags) {
+        return GLES30.glFenceSync(condition, flags);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public int glClientWaitSync(long sync, int flags, long timeout) {
+        return GLES30.glClientWaitSync(sync, flags, timeout);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    @Override
+    public void glDeleteSync(long sync) {
+        GLES30.glDeleteSync(sync);
+    }
+
+    @Override
+    public void texImage2D(int target, int level, Bitmap bitmap, int border) {
+        GLUtils.texImage2D(target, level, bitmap, border);
+    }
+
+    @Override
+    public void texSubImage2D(int target, int level, int xoffset, int yoffset, Bitmap bitmap) {
+        GLUtils.texSubImage2D(target, level, xoffset, yoffset, bitmap);
+    }
+}
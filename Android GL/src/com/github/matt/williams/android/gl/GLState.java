@@ -0,0 +1,275 @@
+package com.github.matt.williams.android.gl;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * Shadow copy of the GL binding state for the context current on this thread.
+ * Binds that are already in effect are skipped, and callers can find out what
+ * was previously bound without a (potentially pipeline-stalling) glGet*.
+ *
+ * The shadow state is only correct if all binds go through it.  Call
+ * {@link #invalidate()} whenever the context is (re)created or after code
+ * outside this library has changed GL state.
+ */
+public class GLState {
+    public static final int UNKNOWN = -1;
+    private static final int MAX_TEXTURE_UNITS = 32;
+
+    private static final ThreadLocal<GLState> sStates = new ThreadLocal<GLState>() {
+        @Override
+        protected GLState initialValue() {
+            return new GLState();
+        }
+    };
+
+    private static final GLBackend sDefaultBackend = new GLES20Backend();
+
+    private GLBackend mGL = sDefaultBackend;
+    private int mProgram;
+    private int mActiveTexture;
+    private final int[] mTextures2D = new int[MAX_TEXTURE_UNITS];
+    private final int[] mTexturesExternal = new int[MAX_TEXTURE_UNITS];
+    private int mArrayBuffer;
+    private int mElementArrayBuffer;
+    private int mPixelPackBuffer;
+    private int mPixelUnpackBuffer;
+    private int mFramebuffer;
+    private final int[] mViewport = new int[4];
+    private int mBlendEnabled;
+    private int mBlendSrc;
+    private int mBlendDst;
+    private int mUnpackAlignment;
+
+    private GLState() {
+        invalidate();
+    }
+
+    public static GLState get() {
+        return sStates.get();
+    }
+
+    // Shorthand for GLState.get().getBackend(), through which all the library's GL calls go.
+    public static GLBackend gl() {
+        return sStates.get().mGL;
+    }
+
+    // Replaces the backend used on this thread.  The shadow state is kept, so call invalidate() too if
+    // the new backend doesn't share the old one's context.
+    public void setBackend(GLBackend backend) {
+        mGL = backend;
+    }
+
+    public GLBackend getBackend() {
+        return mGL;
+    }
+
+    public void invalidate() {
+        mProgram = UNKNOWN;
+        mActiveTexture = UNKNOWN;
+        for (int ii = 0; ii < MAX_TEXTURE_UNITS; ii++) {
+            mTextures2D[ii] = UNKNOWN;
+            mTexturesExternal[ii] = UNKNOWN;
+        }
+        mArrayBuffer = UNKNOWN;
+        mElementArrayBuffer = UNKNOWN;
+        mPixelPackBuffer = UNKNOWN;
+        mPixelUnpackBuffer = UNKNOWN;
+        mFramebuffer = UNKNOWN;
+        mViewport[0] = mViewport[1] = mViewport[2] = mViewport[3] = UNKNOWN;
+        mBlendEnabled = UNKNOWN;
+        mBlendSrc = UNKNOWN;
+        mBlendDst = UNKNOWN;
+        mUnpackAlignment = UNKNOWN;
+    }
+
+    public int getProgram() {
+        return mProgram;
+    }
+
+    public int useProgram(int id) {
+        int oldId = mProgram;
+        if (oldId != id) {
+            mGL.glUseProgram(id);
+            Utils.checkErrors("glUseProgram");
+            mProgram = id;
+        }
+        return oldId;
+    }
+
+    public void activeTexture(int channel) {
+        int unit = channel - GLES20.GL_TEXTURE0;
+        if (mActiveTexture != unit) {
+            mGL.glActiveTexture(channel);
+            Utils.checkErrors("glActiveTexture");
+            mActiveTexture = unit;
+        }
+    }
+
+    public int getTexture(int target) {
+        int[] textures = getTextureBindings(target);
+        return (textures != null) ? textures[mActiveTexture] : UNKNOWN;
+    }
+
+    public int bindTexture(int target, int id) {
+        int[] textures = getTextureBindings(target);
+        if (textures == null) {
+            mGL.glBindTexture(target, id);
+            Utils.checkErrors("glBindTexture");
+            return UNKNOWN;
+        }
+        int oldId = textures[mActiveTexture];
+        if (oldId != id) {
+            mGL.glBindTexture(target, id);
+            Utils.checkErrors("glBindTexture");
+            textures[mActiveTexture] = id;
+        }
+        return oldId;
+    }
+
+    public int getBuffer(int target) {
+        switch (target) {
+        case GLES20.GL_ARRAY_BUFFER:
+            return mArrayBuffer;
+        case GLES20.GL_ELEMENT_ARRAY_BUFFER:
+            return mElementArrayBuffer;
+        case GLES30.GL_PIXEL_PACK_BUFFER:
+            return mPixelPackBuffer;
+        case GLES30.GL_PIXEL_UNPACK_BUFFER:
+            return mPixelUnpackBuffer;
+        default:
+            return UNKNOWN;
+        }
+    }
+
+    public int bindBuffer(int target, int id) {
+        int oldId = getBuffer(target);
+        if (oldId != id) {
+            mGL.glBindBuffer(target, id);
+            Utils.checkErrors("glBindBuffer");
+            switch (target) {
+            case GLES20.GL_ARRAY_BUFFER:
+                mArrayBuffer = id;
+                break;
+            case GLES20.GL_ELEMENT_ARRAY_BUFFER:
+                mElementArrayBuffer = id;
+                break;
+            case GLES30.GL_PIXEL_PACK_BUFFER:
+                mPixelPackBuffer = id;
+                break;
+            case GLES30.GL_PIXEL_UNPACK_BUFFER:
+                mPixelUnpackBuffer = id;
+                break;
+            }
+        }
+        return oldId;
+    }
+
+    public void forgetTexture(int id) {
+        // Deleting a texture unbinds it from every unit.
+        for (int ii = 0; ii < MAX_TEXTURE_UNITS; ii++) {
+            if (mTextures2D[ii] == id) {
+                mTextures2D[ii] = 0;
+            }
+            if (mTexturesExternal[ii] == id) {
+                mTexturesExternal[ii] = 0;
+            }
+        }
+    }
+
+    public void forgetBuffer(int id) {
+        if (mArrayBuffer == id) {
+            mArrayBuffer = 0;
+        }
+        if (mElementArrayBuffer == id) {
+            mElementArrayBuffer = 0;
+        }
+        if (mPixelPackBuffer == id) {
+            mPixelPackBuffer = 0;
+        }
+        if (mPixelUnpackBuffer == id) {
+            mPixelUnpackBuffer = 0;
+        }
+    }
+
+    public void forgetFramebuffer(int id) {
+        if (mFramebuffer == id) {
+            mFramebuffer = 0;
+        }
+    }
+
+    public int getFramebuffer() {
+        return mFramebuffer;
+    }
+
+    public int bindFramebuffer(int id) {
+        int oldId = mFramebuffer;
+        if (oldId != id) {
+            mGL.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, id);
+            Utils.checkErrors("glBindFramebuffer");
+            mFramebuffer = id;
+        }
+        return oldId;
+    }
+
+    public void viewport(int x, int y, int width, int height) {
+        if ((mViewport[0] != x) || (mViewport[1] != y) || (mViewport[2] != width) || (mViewport[3] != height)) {
+            mGL.glViewport(x, y, width, height);
+            Utils.checkErrors("glViewport");
+            mViewport[0] = x;
+            mViewport[1] = y;
+            mViewport[2] = width;
+            mViewport[3] = height;
+        }
+    }
+
+    public void enableBlend(boolean enabled) {
+        int value = enabled ? 1 : 0;
+        if (mBlendEnabled != value) {
+            if (enabled) {
+                mGL.glEnable(GLES20.GL_BLEND);
+                Utils.checkErrors("glEnable");
+            } else {
+                mGL.glDisable(GLES20.GL_BLEND);
+                Utils.checkErrors("glDisable");
+            }
+            mBlendEnabled = value;
+        }
+    }
+
+    public void blendFunc(int src, int dst) {
+        if ((mBlendSrc != src) || (mBlendDst != dst)) {
+            mGL.glBlendFunc(src, dst);
+            Utils.checkErrors("glBlendFunc");
+            mBlendSrc = src;
+            mBlendDst = dst;
+        }
+    }
+
+    // Returns the previous GL_UNPACK_ALIGNMENT, or UNKNOWN.
+    public int unpackAlignment(int alignment) {
+        int oldAlignment = mUnpackAlignment;
+        if (oldAlignment != alignment) {
+            mGL.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, alignment);
+            Utils.checkErrors("glPixelStorei");
+            mUnpackAlignment = alignment;
+        }
+        return oldAlignment;
+    }
+
+    private int[] getTextureBindings(int target) {
+        // Until a texture unit has been selected through us, we can't tell which unit binds apply to.
+        if (mActiveTexture == UNKNOWN) {
+            return null;
+        }
+        switch (target) {
+        case GLES20.GL_TEXTURE_2D:
+            return mTextures2D;
+        case GLES11Ext.GL_TEXTURE_EXTERNAL_OES:
+            return mTexturesExternal;
+        default:
+            return null;
+        }
+    }
+}
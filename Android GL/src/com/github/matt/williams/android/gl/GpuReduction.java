@@ -0,0 +1,388 @@
+package com.github.matt.williams.android.gl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+// Computes FrameStatistics of a texture's red channel (the luminance of a luminance texture) on the
+// GPU, without reading the frame back.  Each statistic is reduced through a pyramid of pooled
+// half-float targets, halving the size per pass until a single pixel remains: one pyramid carries the
+// sum, min, max and sum of squares, and one more per 4 histogram bins carries the bin counts.  Sums are
+// stored scaled down by 4 per level to stay in range, with pixels past the edge of odd-sized levels
+// counting as 0.
+//
+// The final pixels are packed, 24 bits per value, into a tiny RGBA8 target that is read back through
+// Readback, and the statistics arrive on the executor.  Half-float precision makes the mean and
+// histogram approximate (to about 0.1%) - min and max are exact.  Where isSupported() is false, use
+// CpuReduction instead.
+//
+// reduce() and poll() must be called on the GL thread.
+public class GpuReduction {
+    public interface Listener {
+        // Called on the executor.  statistics is only valid during the call - copy it to keep it.
+        void onReduced(FrameStatistics statistics, long frame);
+    }
+
+    private static final int MAX_IN_FLIGHT = 3;
+    private static final int READBACK_DELAY_FRAMES = 2;
+    private static final int GL_HALF_FLOAT_OES = 0x8D61;
+    private static final String POSITION_ATTRIB = "aPosition";
+    private static final String TEXTURE_UNIFORM = "uTexture";
+    private static final String SOURCE_SIZE_UNIFORM = "uSourceSize";
+    private static final String BIN_BASE_UNIFORM = "uBinBase";
+    private static final String NUM_BINS_UNIFORM = "uNumBins";
+    private static final String SCALE_UNIFORM = "uScale";
+    private static final String OFFSET_UNIFORM = "uOffset";
+    private static final String COLOR_UNIFORM = "uColor";
+    // Pixel 0 of the packed result holds the pixel count; each pyramid's 4 channels follow.
+    private static final int HEADER_PIXELS = 1;
+    private static final int STATS_PYRAMIDS = 1;
+    private final int mNumBins;
+    private final int mNumHistogramPyramids;
+    private final int mInternalFormat;
+    private final int mType;
+    private final Listener mListener;
+    private final RenderTargetPool mTargetPool = new RenderTargetPool();
+    private final ShaderCache mShaderCache = new ShaderCache();
+    private final Readback mReadback;
+    private final ConcurrentLinkedQueue<FrameStatistics> mFreeStatistics = new ConcurrentLinkedQueue<FrameStatistics>();
+    private TargetTexture mPackTarget;
+    private FullScreenQuad mQuad;
+    private Program mFirstStatsProgram;
+    private Program mNextStatsProgram;
+    private Program mFirstHistogramProgram;
+    private Program mNextSumProgram;
+    private Program mPackProgram;
+    private Program mHeaderProgram;
+    private int mDroppedCount;
+
+    public GpuReduction(int numBins, Executor executor, Listener listener) {
+        if (!isSupported()) {
+            throw new IllegalStateException("Half-float render targets not supported - use CpuReduction");
+        }
+        if ((numBins < 1) || (numBins > 256)) {
+            throw new IllegalArgumentException("numBins must be between 1 and 256, got " + numBins);
+        }
+        mNumBins = numBins;
+        mNumHistogramPyramids = (numBins + 3) / 4;
+        // GLES 3.0 only renders to half floats with a sized internal format.
+        if (isGles3()) {
+            mInternalFormat = GLES30.GL_RGBA16F;
+            mType = GLES30.GL_HALF_FLOAT;
+        } else {
+            mInternalFormat = GLES20.GL_RGBA;
+            mType = GL_HALF_FLOAT_OES;
+        }
+        mListener = listener;
+        mReadback = new Readback(executor, new Readback.Consumer() {
+            @Override
+            public void onReadback(ByteBuffer data, int width, int height, long frame) {
+                FrameStatistics statistics = mFreeStatistics.poll();
+                if (statistics == null) {
+                    statistics = new FrameStatistics(mNumBins);
+                }
+                try {
+                    unpack(data, statistics);
+                    mListener.onReduced(statistics, frame);
+                } finally {
+                    mFreeStatistics.add(statistics);
+                }
+            }
+        }, MAX_IN_FLIGHT, READBACK_DELAY_FRAMES);
+    }
+
+    // Rendering to half-float targets needs EXT_color_buffer_half_float, or on GLES 3.0 either that or
+    // EXT_color_buffer_float.  GLES 2.0 also needs OES_texture_half_float to create them.
+    public static boolean isSupported() {
+        GLBackend gl = GLState.gl();
+        String extensions = gl.glGetString(GLES20.GL_EXTENSIONS);
+        if (extensions == null) {
+            return false;
+        }
+        if (isGles3()) {
+            return extensions.contains("GL_EXT_color_buffer_half_float") || extensions.contains("GL_EXT_color_buffer_float");
+        }
+        return extensions.contains("GL_EXT_color_buffer_half_float") && extensions.contains("GL_OES_texture_half_float");
+    }
+
+    // Queues a reduction of the width x height source.  Returns false if it was dropped because too many
+    // are already in flight.  source is sampled at level 0 only, so shouldn't use a mipmap min filter.
+    // Disables blending, and leaves the packed result's framebuffer bound.
+    public boolean reduce(Texture source, int width, int height) {
+        if ((width <= 0) || (height <= 0)) {
+            throw new IllegalArgumentException("Invalid source size " + width + "x" + height);
+        }
+        if (mReadback.getPendingCount() >= MAX_IN_FLIGHT) {
+            mDroppedCount++;
+            return false;
+        }
+        if (mPackTarget == null) {
+            mPackTarget = new TargetTexture(HEADER_PIXELS + 4 * (STATS_PYRAMIDS + mNumHistogramPyramids), 1);
+        }
+        if (mQuad == null) {
+            mQuad = new FullScreenQuad();
+        }
+        if (mFirstStatsProgram == null) {
+            mFirstStatsProgram = mShaderCache.getProgram(getVertexSource(), getFirstStatsSource());
+            mNextStatsProgram = mShaderCache.getProgram(getVertexSource(), getNextStatsSource());
+            mFirstHistogramProgram = mShaderCache.getProgram(getVertexSource(), getFirstHistogramSource());
+            mNextSumProgram = mShaderCache.getProgram(getVertexSource(), getNextSumSource());
+            mPackProgram = mShaderCache.getProgram(getVertexSource(), getPackSource());
+            mHeaderProgram = mShaderCache.getProgram(getVertexSource(), getHeaderSource());
+        }
+        GLState.get().enableBlend(false);
+        int levels = 0;
+        for (int w = width, h = height; (levels == 0) || (w > 1) || (h > 1); w = (w + 1) / 2, h = (h + 1) / 2) {
+            levels++;
+        }
+        // Undoes the per-level scaling and divides by the pixel count, turning sums into means.
+        long count = (long)width * height;
+        float scale = (float)(Math.pow(4, levels) / count);
+
+        pack(reducePyramid(source, width, height, mFirstStatsProgram, mNextStatsProgram), HEADER_PIXELS, scale, 1, 1, scale);
+        Program first = mFirstHistogramProgram;
+        for (int ii = 0; ii < mNumHistogramPyramids; ii++) {
+            first.use();
+            first.setUniform(BIN_BASE_UNIFORM, ii * 4);
+            first.setUniform(NUM_BINS_UNIFORM, mNumBins);
+            pack(reducePyramid(source, width, height, first, mNextSumProgram), HEADER_PIXELS + 4 * (STATS_PYRAMIDS + ii), scale, scale, scale, scale);
+        }
+
+        // The pixel count, as little-endian bytes.
+        Program header = mHeaderProgram;
+        mPackTarget.renderTo();
+        GLState.get().viewport(0, 0, HEADER_PIXELS, 1);
+        header.use();
+        header.setUniform(COLOR_UNIFORM, (count & 0xFF) / 255f, ((count >> 8) & 0xFF) / 255f, ((count >> 16) & 0xFF) / 255f, ((count >> 24) & 0xFF) / 255f);
+        mQuad.draw(header, POSITION_ATTRIB);
+
+        mReadback.read(mPackTarget);
+        return true;
+    }
+
+    // Call once per frame to deliver completed reductions.
+    public void poll() {
+        mReadback.poll();
+        mTargetPool.endFrame();
+    }
+
+    public void release() {
+        mReadback.release();
+        mTargetPool.clear();
+        mFirstStatsProgram = null;
+        mNextStatsProgram = null;
+        mFirstHistogramProgram = null;
+        mNextSumProgram = null;
+        mPackProgram = null;
+        mHeaderProgram = null;
+        mShaderCache.clear();
+        if (mPackTarget != null) {
+            mPackTarget.release();
+            mPackTarget = null;
+        }
+        if (mQuad != null) {
+            mQuad.release();
+            mQuad = null;
+        }
+    }
+
+    public int getNumBins() {
+        return mNumBins;
+    }
+
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    // Halves source down to a single pixel, with first reading source and next each level after that.
+    // Returns the final pixel's target, which the caller must recycle.
+    private TargetTexture reducePyramid(Texture source, int width, int height, Program first, Program next) {
+        Texture input = source;
+        TargetTexture previous = null;
+        Program program = first;
+        int w = width;
+        int h = height;
+        do {
+            int outWidth = (w + 1) / 2;
+            int outHeight = (h + 1) / 2;
+            TargetTexture output = mTargetPool.acquire(outWidth, outHeight, mInternalFormat, GLES20.GL_RGBA, mType);
+            output.renderTo();
+            program.use();
+            input.use(GLES20.GL_TEXTURE0);
+            program.setUniform(TEXTURE_UNIFORM, 0);
+            program.setUniform(SOURCE_SIZE_UNIFORM, w, h);
+            mQuad.draw(program, POSITION_ATTRIB);
+            // GL orders the draw before any reuse of the target, so it can go back to the pool at once.
+            if (previous != null) {
+                mTargetPool.recycle(previous);
+            }
+            previous = output;
+            input = output;
+            program = next;
+            w = outWidth;
+            h = outHeight;
+        } while ((w > 1) || (h > 1));
+        return previous;
+    }
+
+    // Packs the 4 channels of top, each multiplied by its scale, into 4 pixels of the pack target.
+    private void pack(TargetTexture top, int offset, float scaleR, float scaleG, float scaleB, float scaleA) {
+        Program program = mPackProgram;
+        mPackTarget.renderTo();
+        GLState.get().viewport(offset, 0, 4, 1);
+        program.use();
+        top.use(GLES20.GL_TEXTURE0);
+        program.setUniform(TEXTURE_UNIFORM, 0);
+        program.setUniform(SCALE_UNIFORM, scaleR, scaleG, scaleB, scaleA);
+        program.setUniform(OFFSET_UNIFORM, offset);
+        mQuad.draw(program, POSITION_ATTRIB);
+        mTargetPool.recycle(top);
+    }
+
+    private void unpack(ByteBuffer data, FrameStatistics statistics) {
+        long count = (data.get(0) & 0xFFL) | ((data.get(1) & 0xFFL) << 8) | ((data.get(2) & 0xFFL) << 16) | ((data.get(3) & 0xFFL) << 24);
+        double mean = unpackValue(data, HEADER_PIXELS);
+        double min = unpackValue(data, HEADER_PIXELS + 1);
+        double max = unpackValue(data, HEADER_PIXELS + 2);
+        double meanOfSquares = unpackValue(data, HEADER_PIXELS + 3);
+        statistics.set(count, mean * 255 * count, meanOfSquares * 255 * 255 * count, (int)Math.round(min * 255), (int)Math.round(max * 255));
+        for (int ii = 0; ii < mNumBins; ii++) {
+            statistics.setBinFraction(ii, (float)unpackValue(data, HEADER_PIXELS + 4 * STATS_PYRAMIDS + ii));
+        }
+    }
+
+    // Inverse of the encoding in getPackSource().
+    private static double unpackValue(ByteBuffer data, int pixel) {
+        int offset = pixel * 4;
+        double value = (data.get(offset) & 0xFF) / 255.0 + (data.get(offset + 1) & 0xFF) / 65025.0 + (data.get(offset + 2) & 0xFF) / 16581375.0;
+        return value * 256 / 255;
+    }
+
+    private static boolean isGles3() {
+        GLBackend gl = GLState.gl();
+        String version = gl.glGetString(GLES20.GL_VERSION);
+        return (version != null) && version.startsWith("OpenGL ES 3");
+    }
+
+    private static String getVertexSource() {
+        return "attribute vec2 " + POSITION_ATTRIB + ";\n" +
+               "void main() {\n" +
+               "    gl_Position = vec4(" + POSITION_ATTRIB + ", 0.0, 1.0);\n" +
+               "}\n";
+    }
+
+    // Texel coordinates exceed mediump's range on large frames, so use highp where there is one.
+    static String getPrecisionSource() {
+        return "#ifdef GL_FRAGMENT_PRECISION_HIGH\n" +
+               "precision highp float;\n" +
+               "#else\n" +
+               "precision mediump float;\n" +
+               "#endif\n";
+    }
+
+    // Declares tap(i, valid), which samples texel i (0-3) of the 2x2 source block under this pixel and sets
+    // valid to 0.0 where that texel is past the edge of the source.
+    private static String getTapSource() {
+        return getPrecisionSource() +
+               "uniform sampler2D " + TEXTURE_UNIFORM + ";\n" +
+               "uniform vec2 " + SOURCE_SIZE_UNIFORM + ";\n" +
+               "vec4 tap(int i, out float valid) {\n" +
+               "    vec2 texel = 2.0 * floor(gl_FragCoord.xy) + vec2(mod(float(i), 2.0), floor(float(i) / 2.0));\n" +
+               "    valid = step(texel.x + 0.5, " + SOURCE_SIZE_UNIFORM + ".x) * step(texel.y + 0.5, " + SOURCE_SIZE_UNIFORM + ".y);\n" +
+               "    return texture2D(" + TEXTURE_UNIFORM + ", (texel + 0.5) / " + SOURCE_SIZE_UNIFORM + ");\n" +
+               "}\n";
+    }
+
+    // Stats layout: r = sum, g = min, b = max, a = sum of squares.
+    private static String getFirstStatsSource() {
+        return getTapSource() +
+               "void main() {\n" +
+               "    vec4 result = vec4(0.0, 1.0, 0.0, 0.0);\n" +
+               "    for (int i = 0; i < 4; i++) {\n" +
+               "        float valid;\n" +
+               "        float v = tap(i, valid).r;\n" +
+               "        result.r += valid * v;\n" +
+               "        result.g = min(result.g, mix(1.0, v, valid));\n" +
+               "        result.b = max(result.b, valid * v);\n" +
+               "        result.a += valid * v * v;\n" +
+               "    }\n" +
+               "    gl_FragColor = vec4(0.25 * result.r, result.gb, 0.25 * result.a);\n" +
+               "}\n";
+    }
+
+    private static String getNextStatsSource() {
+        return getTapSource() +
+               "void main() {\n" +
+               "    vec4 result = vec4(0.0, 1.0, 0.0, 0.0);\n" +
+               "    for (int i = 0; i < 4; i++) {\n" +
+               "        float valid;\n" +
+               "        vec4 v = tap(i, valid);\n" +
+               "        result.r += valid * v.r;\n" +
+               "        result.g = min(result.g, mix(1.0, v.g, valid));\n" +
+               "        result.b = max(result.b, valid * v.b);\n" +
+               "        result.a += valid * v.a;\n" +
+               "    }\n" +
+               "    gl_FragColor = vec4(0.25 * result.r, result.gb, 0.25 * result.a);\n" +
+               "}\n";
+    }
+
+    // Counts of bins uBinBase to uBinBase + 3, one per channel, binning as FrameStatistics does.
+    private static String getFirstHistogramSource() {
+        return getTapSource() +
+               "uniform float " + BIN_BASE_UNIFORM + ";\n" +
+               "uniform float " + NUM_BINS_UNIFORM + ";\n" +
+               "void main() {\n" +
+               "    vec4 result = vec4(0.0);\n" +
+               "    vec4 bins = " + BIN_BASE_UNIFORM + " + vec4(0.0, 1.0, 2.0, 3.0);\n" +
+               "    for (int i = 0; i < 4; i++) {\n" +
+               "        float valid;\n" +
+               "        float value = floor(tap(i, valid).r * 255.0 + 0.5);\n" +
+               "        float bin = floor(value * " + NUM_BINS_UNIFORM + " / 256.0);\n" +
+               "        result += valid * vec4(equal(vec4(bin), bins));\n" +
+               "    }\n" +
+               "    gl_FragColor = 0.25 * result;\n" +
+               "}\n";
+    }
+
+    private static String getNextSumSource() {
+        return getTapSource() +
+               "void main() {\n" +
+               "    vec4 result = vec4(0.0);\n" +
+               "    for (int i = 0; i < 4; i++) {\n" +
+               "        float valid;\n" +
+               "        vec4 v = tap(i, valid);\n" +
+               "        result += valid * v;\n" +
+               "    }\n" +
+               "    gl_FragColor = 0.25 * result;\n" +
+               "}\n";
+    }
+
+    // Writes channel (x - uOffset) of the single-pixel source, times its scale, as a 24-bit fixed-point
+    // value spread over r, g and b.  Values are scaled by 255/256 first so that 1.0 survives the fract().
+    private static String getPackSource() {
+        return getPrecisionSource() +
+               "uniform sampler2D " + TEXTURE_UNIFORM + ";\n" +
+               "uniform vec4 " + SCALE_UNIFORM + ";\n" +
+               "uniform float " + OFFSET_UNIFORM + ";\n" +
+               "void main() {\n" +
+               "    float channel = floor(gl_FragCoord.x - " + OFFSET_UNIFORM + ");\n" +
+               "    vec4 select = vec4(equal(vec4(channel), vec4(0.0, 1.0, 2.0, 3.0)));\n" +
+               "    float v = dot(texture2D(" + TEXTURE_UNIFORM + ", vec2(0.5)) * " + SCALE_UNIFORM + ", select);\n" +
+               "    v = clamp(v, 0.0, 1.0) * (255.0 / 256.0);\n" +
+               "    vec3 encoded = fract(v * vec3(1.0, 255.0, 65025.0));\n" +
+               "    encoded.xy -= encoded.yz / 255.0;\n" +
+               "    gl_FragColor = vec4(encoded, 1.0);\n" +
+               "}\n";
+    }
+
+    private static String getHeaderSource() {
+        return "precision mediump float;\n" +
+               "uniform vec4 " + COLOR_UNIFORM + ";\n" +
+               "void main() {\n" +
+               "    gl_FragColor = " + COLOR_UNIFORM + ";\n" +
+               "}\n";
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.matt.williams.android.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+import android.opengl.GLES20;
+
+public class IndexBuffer extends BufferObject {
+    public IndexBuffer(int usage) {
+        super(GLES20.GL_ELEMENT_ARRAY_BUFFER, usage);
+    }
+
+    public IndexBuffer() {
+        this(GLES20.GL_STATIC_DRAW);
+    }
+
+    // Convenience for one-off uploads of static data - this allocates a temporary direct buffer.
+    public void setData(short[] data) {
+        ShortBuffer buffer = ByteBuffer.allocateDirect(data.length * BYTES_PER_SHORT).order(ByteOrder.nativeOrder()).asShortBuffer().put(data);
+        buffer.position(0);
+        setData(buffer);
+    }
+
+    public int getCount() {
+        return getSize() / BYTES_PER_SHORT;
+    }
+
+    public void draw(int mode) {
+        draw(mode, 0, getCount());
+    }
+
+    // first and count are in indices, not bytes.
+    public void draw(int mode, int first, int count) {
+        GLBackend gl = GLState.gl();
+        bind();
+        gl.glDrawElements(mode, count, GLES20.GL_UNSIGNED_SHORT, first * BYTES_PER_SHORT);
+        Utils.checkErrors("glDrawElements");
+    }
+}
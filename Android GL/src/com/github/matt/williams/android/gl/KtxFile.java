@@ -0,0 +1,166 @@
+package com.github.matt.williams.android.gl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Parser for KTX (version 1.1) files holding a single 2D texture, optionally with mip levels.  Each
+// level is read straight from the stream into its own direct buffer, ready to hand to GL.  Uncompressed
+// data written with the opposite endianness to this device's is byte-swapped as it's read.  Deliberately
+// free of Android dependencies.
+public class KtxFile {
+    private static final byte[] IDENTIFIER = new byte[] {
+        (byte)0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte)0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    private static final int ENDIANNESS = 0x04030201;
+    private static final int HEADER_FIELDS = 13;
+
+    private final int mGlType;
+    private final int mGlFormat;
+    private final int mGlInternalFormat;
+    private final int mGlBaseInternalFormat;
+    private final int mWidth;
+    private final int mHeight;
+    private final boolean mGenerateMipmaps;
+    private final List<ByteBuffer> mLevels = new ArrayList<ByteBuffer>();
+
+    public KtxFile(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        byte[] identifier = new byte[IDENTIFIER.length];
+        in.readFully(identifier);
+        for (int ii = 0; ii < IDENTIFIER.length; ii++) {
+            if (identifier[ii] != IDENTIFIER[ii]) {
+                throw new IOException("Not a KTX file");
+            }
+        }
+        byte[] headerBytes = new byte[HEADER_FIELDS * 4];
+        in.readFully(headerBytes);
+        ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != ENDIANNESS) {
+            header.order(ByteOrder.BIG_ENDIAN);
+            if (header.getInt(0) != ENDIANNESS) {
+                throw new IOException("Bad KTX endianness marker");
+            }
+        }
+        ByteOrder order = header.order();
+        header.position(4);
+        mGlType = header.getInt();
+        int typeSize = header.getInt();
+        mGlFormat = header.getInt();
+        mGlInternalFormat = header.getInt();
+        mGlBaseInternalFormat = header.getInt();
+        mWidth = header.getInt();
+        mHeight = Math.max(header.getInt(), 1);
+        int depth = header.getInt();
+        int arrayElements = header.getInt();
+        int faces = header.getInt();
+        int levels = header.getInt();
+        int keyValueBytes = header.getInt();
+        if ((depth > 1) || (arrayElements > 0) || (faces != 1)) {
+            throw new IOException("Only single 2D KTX textures are supported");
+        }
+        // No levels means the file holds level 0 and asks for the rest to be generated at load time.
+        mGenerateMipmaps = (levels == 0);
+        levels = Math.max(levels, 1);
+        if (mGenerateMipmaps && isCompressed()) {
+            throw new IOException("Mipmaps can't be generated for compressed KTX textures");
+        }
+        boolean swap = !isCompressed() && (order != ByteOrder.nativeOrder()) && (typeSize > 1);
+        if (swap && (typeSize != 2) && (typeSize != 4)) {
+            throw new IOException("Can't byte-swap KTX data with glTypeSize " + typeSize);
+        }
+        skipFully(in, keyValueBytes);
+
+        ReadableByteChannel channel = Channels.newChannel(in);
+        byte[] sizeBytes = new byte[4];
+        for (int level = 0; level < levels; level++) {
+            in.readFully(sizeBytes);
+            int imageSize = ByteBuffer.wrap(sizeBytes).order(order).getInt();
+            ByteBuffer data = ByteBuffer.allocateDirect(imageSize).order(ByteOrder.nativeOrder());
+            while (data.hasRemaining()) {
+                if (channel.read(data) < 0) {
+                    throw new IOException("Truncated KTX file at level " + level);
+                }
+            }
+            data.flip();
+            if (swap) {
+                swapBytes(data, typeSize);
+            }
+            mLevels.add(data);
+            // Levels are padded to a multiple of 4 bytes.
+            skipFully(in, 3 - ((imageSize + 3) % 4));
+        }
+    }
+
+    public boolean isCompressed() {
+        return mGlType == 0;
+    }
+
+    public int getGlType() {
+        return mGlType;
+    }
+
+    public int getGlFormat() {
+        return mGlFormat;
+    }
+
+    // For uncompressed data this is a sized format (e.g. GL_RGBA8), which only GLES 3.0 accepts.
+    public int getGlInternalFormat() {
+        return mGlInternalFormat;
+    }
+
+    // The unsized equivalent of getGlInternalFormat() (e.g. GL_RGBA), as GLES 2.0 requires.
+    public int getGlBaseInternalFormat() {
+        return mGlBaseInternalFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    // Whether the file asks for a mip chain to be generated from level 0 (numberOfMipmapLevels of 0).
+    public boolean shouldGenerateMipmaps() {
+        return mGenerateMipmaps;
+    }
+
+    public int getLevelCount() {
+        return mLevels.size();
+    }
+
+    public ByteBuffer getLevel(int level) {
+        return mLevels.get(level);
+    }
+
+    private static void swapBytes(ByteBuffer data, int typeSize) {
+        int end = data.limit() - typeSize + 1;
+        if (typeSize == 2) {
+            for (int ii = 0; ii < end; ii += 2) {
+                data.putShort(ii, Short.reverseBytes(data.getShort(ii)));
+            }
+        } else {
+            for (int ii = 0; ii < end; ii += 4) {
+                data.putInt(ii, Integer.reverseBytes(data.getInt(ii)));
+            }
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int bytes) throws IOException {
+        while (bytes > 0) {
+            int skipped = in.skipBytes(bytes);
+            if (skipped <= 0) {
+                throw new IOException("Truncated KTX file");
+            }
+            bytes -= skipped;
+        }
+    }
+}
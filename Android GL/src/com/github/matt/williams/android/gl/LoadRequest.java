@@ -0,0 +1,64 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A unit of work scheduled by a LoadScheduler: a priority, an estimate of the memory it will hold
+// while in flight, and a state that any thread can cancel.  Deliberately free of Android dependencies.
+public class LoadRequest {
+    public static final int PENDING = 0;
+    public static final int RUNNING = 1;
+    public static final int DONE = 2;
+    public static final int CANCELLED = 3;
+    public static final int FAILED = 4;
+
+    private final int mPriority;
+    private final long mBytes;
+    private final AtomicInteger mState = new AtomicInteger(PENDING);
+    long mSequence;
+
+    // Higher priorities run first.  bytes is counted against the scheduler's in-flight cap.
+    public LoadRequest(int priority, long bytes) {
+        mPriority = priority;
+        mBytes = bytes;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public int getState() {
+        return mState.get();
+    }
+
+    public boolean isCancelled() {
+        return mState.get() == CANCELLED;
+    }
+
+    // Returns false if the request had already finished.  A running request is expected to notice
+    // and stop at its next opportunity.
+    public boolean cancel() {
+        while (true) {
+            int state = mState.get();
+            if ((state != PENDING) && (state != RUNNING)) {
+                return false;
+            }
+            if (mState.compareAndSet(state, CANCELLED)) {
+                return true;
+            }
+        }
+    }
+
+    // Moves from PENDING to RUNNING - returns false if cancelled first.
+    public boolean start() {
+        return mState.compareAndSet(PENDING, RUNNING);
+    }
+
+    // Moves from RUNNING to DONE or FAILED - returns false if cancelled first.
+    public boolean finish(boolean success) {
+        return mState.compareAndSet(RUNNING, success ? DONE : FAILED);
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+// Orders LoadRequests by priority (then submission order) and applies back-pressure by capping the
+// total bytes of requests in flight - between being taken and complete()d.  Priority is strict: if
+// the highest-priority request doesn't fit under the cap, nothing else starts until it does.  A
+// request bigger than the cap is only started when nothing else is in flight.
+//
+// Thread-safe, and deliberately free of Android dependencies.
+public class LoadScheduler {
+    private static final Comparator<LoadRequest> ORDER = new Comparator<LoadRequest>() {
+        @Override
+        public int compare(LoadRequest lhs, LoadRequest rhs) {
+            if (lhs.getPriority() != rhs.getPriority()) {
+                return (lhs.getPriority() > rhs.getPriority()) ? -1 : 1;
+            }
+            return (lhs.mSequence < rhs.mSequence) ? -1 : ((lhs.mSequence == rhs.mSequence) ? 0 : 1);
+        }
+    };
+
+    private final long mMaxBytesInFlight;
+    private final PriorityQueue<LoadRequest> mQueue = new PriorityQueue<LoadRequest>(16, ORDER);
+    private long mBytesInFlight;
+    private int mNumInFlight;
+    private long mNextSequence;
+    private boolean mClosed;
+
+    public LoadScheduler(long maxBytesInFlight) {
+        mMaxBytesInFlight = maxBytesInFlight;
+    }
+
+    public synchronized void submit(LoadRequest request) {
+        if (mClosed) {
+            throw new IllegalStateException("Scheduler is closed");
+        }
+        request.mSequence = mNextSequence++;
+        mQueue.add(request);
+        notifyAll();
+    }
+
+    // Returns the next request to run, counting it as in flight, or null if there's none or it
+    // doesn't fit under the cap.  Cancelled requests are discarded along the way.
+    public synchronized LoadRequest poll() {
+        LoadRequest request;
+        while (((request = mQueue.peek()) != null) && request.isCancelled()) {
+            mQueue.poll();
+        }
+        if ((request == null) || ((mNumInFlight > 0) && (mBytesInFlight + request.getBytes() > mMaxBytesInFlight))) {
+            return null;
+        }
+        mQueue.poll();
+        mBytesInFlight += request.getBytes();
+        mNumInFlight++;
+        return request;
+    }
+
+    // As poll(), but waits for a request to become available.  Returns null once closed.
+    public synchronized LoadRequest take() throws InterruptedException {
+        while (!mClosed) {
+            LoadRequest request = poll();
+            if (request != null) {
+                return request;
+            }
+            wait();
+        }
+        return null;
+    }
+
+    // Must be called exactly once for each request returned by poll() or take(), however it ended.
+    public synchronized void complete(LoadRequest request) {
+        mBytesInFlight -= request.getBytes();
+        mNumInFlight--;
+        notifyAll();
+    }
+
+    // Wakes up take()rs and stops them waiting.  Pending requests are left cancelled.
+    public synchronized void close() {
+        mClosed = true;
+        for (LoadRequest request : mQueue) {
+            request.cancel();
+        }
+        mQueue.clear();
+        notifyAll();
+    }
+
+    public synchronized long getBytesInFlight() {
+        return mBytesInFlight;
+    }
+
+    public synchronized int getInFlightCount() {
+        return mNumInFlight;
+    }
+
+    // Includes cancelled requests not yet discarded.
+    public synchronized int getPendingCount() {
+        return mQueue.size();
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.matt.williams.android.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import android.opengl.GLES20;
+
+// A fixed-size array of vertices in a VertexLayout, held in one interleaved direct buffer and mirrored
+// in a vertex buffer object.  Updates are written in place and only the dirty byte range is
+// re-uploaded on the next bind().
+public class Mesh {
+    private final VertexLayout mLayout;
+    private final int mVertexCount;
+    private final ByteBuffer mData;
+    private final VertexBuffer mBuffer;
+    private int mDirtyStart;
+    private int mDirtyEnd;
+
+    public Mesh(VertexLayout layout, int vertexCount, int usage) {
+        mLayout = layout;
+        mVertexCount = vertexCount;
+        mData = ByteBuffer.allocateDirect(vertexCount * layout.getStride()).order(ByteOrder.nativeOrder());
+        mBuffer = new VertexBuffer(usage);
+        mBuffer.setData(mData, mData.capacity());
+        clearDirty();
+    }
+
+    public Mesh(VertexLayout layout, int vertexCount) {
+        this(layout, vertexCount, GLES20.GL_STATIC_DRAW);
+    }
+
+    public VertexLayout getLayout() {
+        return mLayout;
+    }
+
+    public int getVertexCount() {
+        return mVertexCount;
+    }
+
+    public VertexBuffer getVertexBuffer() {
+        return mBuffer;
+    }
+
+    // The raw interleaved data, for callers that want to write it directly.  Call markDirty() afterwards.
+    public ByteBuffer getData() {
+        return mData;
+    }
+
+    public void set(String name, int firstVertex, float[] values, int valuesOffset, int numVertices) {
+        int attribute = mLayout.indexOf(name);
+        if (attribute < 0) {
+            throw new IllegalArgumentException("No attribute " + name + " in layout");
+        }
+        set(attribute, firstVertex, values, valuesOffset, numVertices);
+    }
+
+    // Writes numVertices consecutive values of the given attribute, converting from float to the
+    // attribute's type.  Normalized integer attributes take values in [0, 1] (unsigned) or [-1, 1] (signed).
+    public void set(int attribute, int firstVertex, float[] values, int valuesOffset, int numVertices) {
+        if ((firstVertex < 0) || (firstVertex + numVertices > mVertexCount)) {
+            throw new IndexOutOfBoundsException("Vertices " + firstVertex + "+" + numVertices + " out of range for " + mVertexCount);
+        }
+        int type = mLayout.getType(attribute);
+        int size = mLayout.getSize(attribute);
+        boolean normalized = mLayout.isNormalized(attribute);
+        int bytesPerType = VertexLayout.getBytesPerType(type);
+        int stride = mLayout.getStride();
+        int position = firstVertex * stride + mLayout.getOffset(attribute);
+        int valueIndex = valuesOffset;
+        for (int ii = 0; ii < numVertices; ii++) {
+            for (int jj = 0; jj < size; jj++) {
+                float value = values[valueIndex++];
+                int index = position + jj * bytesPerType;
+                switch (type) {
+                case GLES20.GL_FLOAT:
+                    mData.putFloat(index, value);
+                    break;
+                case GLES20.GL_SHORT:
+                    mData.putShort(index, (short)(normalized ? value * Short.MAX_VALUE : value));
+                    break;
+                case GLES20.GL_UNSIGNED_SHORT:
+                    mData.putShort(index, (short)(normalized ? value * 0xffff : value));
+                    break;
+                case GLES20.GL_BYTE:
+                    mData.put(index, (byte)(normalized ? value * Byte.MAX_VALUE : value));
+                    break;
+                default:
+                    mData.put(index, (byte)(normalized ? value * 0xff : value));
+                    break;
+                }
+            }
+            position += stride;
+        }
+        markDirty(firstVertex, numVertices);
+    }
+
+    public void markDirty(int firstVertex, int numVertices) {
+        int stride = mLayout.getStride();
+        mDirtyStart = Math.min(mDirtyStart, firstVertex * stride);
+        mDirtyEnd = Math.max(mDirtyEnd, (firstVertex + numVertices) * stride);
+    }
+
+    public void bind(Program program) {
+        if (mDirtyEnd > mDirtyStart) {
+            mData.limit(mDirtyEnd).position(mDirtyStart);
+            mBuffer.setSubData(mDirtyStart, mData, mDirtyEnd - mDirtyStart);
+            mData.clear();
+            clearDirty();
+        }
+        mLayout.bind(program, mBuffer, 0);
+    }
+
+    public void release() {
+        mBuffer.release();
+    }
+
+    public void draw(int mode) {
+        draw(mode, 0, mVertexCount);
+    }
+
+    public void draw(int mode, int first, int count) {
+        GLBackend gl = GLState.gl();
+        gl.glDrawArrays(mode, first, count);
+        Utils.checkErrors("glDrawArrays");
+    }
+
+    private void clearDirty() {
+        mDirtyStart = Integer.MAX_VALUE;
+        mDirtyEnd = 0;
+    }
+}
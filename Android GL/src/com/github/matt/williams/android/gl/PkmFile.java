@@ -0,0 +1,57 @@
+package com.github.matt.williams.android.gl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+// Parser for PKM files, as written by etc1tool: a 16-byte header followed by a single level of ETC1
+// data, which is read straight into a direct buffer.  Deliberately free of Android dependencies.
+public class PkmFile {
+    private static final int MAGIC = 0x504b4d20;
+    private static final int ETC1_RGB_NO_MIPMAPS = 0;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final ByteBuffer mData;
+
+    public PkmFile(InputStream stream) throws IOException {
+        // PKM headers are big-endian, as is DataInputStream.
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a PKM file");
+        }
+        in.readUnsignedShort(); // version
+        if (in.readUnsignedShort() != ETC1_RGB_NO_MIPMAPS) {
+            throw new IOException("Unsupported PKM data type");
+        }
+        int paddedWidth = in.readUnsignedShort();
+        int paddedHeight = in.readUnsignedShort();
+        mWidth = in.readUnsignedShort();
+        mHeight = in.readUnsignedShort();
+        int size = TextureFormats.getCompressedSize(TextureFormats.GL_ETC1_RGB8_OES, paddedWidth, paddedHeight);
+        mData = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        ReadableByteChannel channel = Channels.newChannel(in);
+        while (mData.hasRemaining()) {
+            if (channel.read(mData) < 0) {
+                throw new IOException("Truncated PKM file");
+            }
+        }
+        mData.flip();
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public ByteBuffer getData() {
+        return mData;
+    }
+}
@@ -0,0 +1,307 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Transforms many points by a 4x4 column-major matrix in pure Java, avoiding a JNI call per point
+// through android.opengl.Matrix.  Points can be interleaved (x, y[, z] per point) or held as separate
+// x, y and z arrays (structure of arrays), which keeps each loop over straight runs of floats.
+//
+// The inner loops load the matrix into locals and handle two points per iteration to give the JIT
+// independent work to schedule.  With setExecutor(), very large batches are split into chunks run in
+// parallel - only worthwhile for tens of thousands of points.
+public class PointTransformer {
+    private static final int DEFAULT_MIN_POINTS_PER_TASK = 16384;
+
+    private static final int OP_2_TO_3 = 0;
+    private static final int OP_2_TO_4 = 1;
+    private static final int OP_3_TO_2 = 2;
+    private static final int OP_SOA_2_TO_3 = 3;
+    private static final int OP_SOA_3_TO_2 = 4;
+
+    private final float[] mMatrix = new float[16];
+    private ExecutorService mExecutor;
+    private int mMinPointsPerTask = DEFAULT_MIN_POINTS_PER_TASK;
+
+    public PointTransformer() {
+        mMatrix[0] = mMatrix[5] = mMatrix[10] = mMatrix[15] = 1;
+    }
+
+    public PointTransformer(float[] matrix, int matrixOff) {
+        setMatrix(matrix, matrixOff);
+    }
+
+    public void setMatrix(float[] matrix, int matrixOff) {
+        System.arraycopy(matrix, matrixOff, mMatrix, 0, 16);
+    }
+
+    public float[] getMatrix() {
+        return mMatrix;
+    }
+
+    // executor may be null to always transform on the calling thread.
+    public void setExecutor(ExecutorService executor, int minPointsPerTask) {
+        mExecutor = executor;
+        mMinPointsPerTask = Math.max(minPointsPerTask, 1);
+    }
+
+    public void setExecutor(ExecutorService executor) {
+        setExecutor(executor, DEFAULT_MIN_POINTS_PER_TASK);
+    }
+
+    // Interleaved (x, y) points with the given z, to perspective-divided interleaved (x, y, z).
+    public void transform2To3(float[] res, int resOff, float[] v, int vOff, float z, int num) {
+        run(OP_2_TO_3, res, resOff, null, null, v, vOff, null, null, z, num);
+    }
+
+    // Interleaved (x, y) points with the given z, to homogeneous interleaved (x, y, z, w).
+    public void transform2To4(float[] res, int resOff, float[] v, int vOff, float z, int num) {
+        run(OP_2_TO_4, res, resOff, null, null, v, vOff, null, null, z, num);
+    }
+
+    // Interleaved (x, y, z) points to perspective-divided interleaved (x, y).
+    public void transform3To2(float[] res, int resOff, float[] v, int vOff, int num) {
+        run(OP_3_TO_2, res, resOff, null, null, v, vOff, null, null, 0, num);
+    }
+
+    // Separate x and y arrays with the given z, to perspective-divided separate x, y and z arrays.
+    public void transform2To3(float[] resX, float[] resY, float[] resZ, int resOff, float[] x, float[] y, int vOff, float z, int num) {
+        run(OP_SOA_2_TO_3, resX, resOff, resY, resZ, x, vOff, y, null, z, num);
+    }
+
+    // Separate x, y and z arrays, to perspective-divided separate x and y arrays.
+    public void transform3To2(float[] resX, float[] resY, int resOff, float[] x, float[] y, float[] z, int vOff, int num) {
+        run(OP_SOA_3_TO_2, resX, resOff, resY, null, x, vOff, y, z, 0, num);
+    }
+
+    private void run(int op, float[] res0, int resOff, float[] res1, float[] res2, float[] v0, int vOff, float[] v1, float[] v2, float z, int num) {
+        ExecutorService executor = mExecutor;
+        int numTasks = (executor != null) ? num / mMinPointsPerTask : 1;
+        if (numTasks <= 1) {
+            transform(op, mMatrix, res0, resOff, res1, res2, v0, vOff, v1, v2, z, 0, num);
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numTasks);
+        for (int ii = 0; ii < numTasks; ii++) {
+            int start = (int)((long)num * ii / numTasks);
+            int end = (int)((long)num * (ii + 1) / numTasks);
+            tasks.add(new Task(op, mMatrix, res0, resOff, res1, res2, v0, vOff, v1, v2, z, start, end));
+        }
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while transforming points", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to transform points", e.getCause());
+        }
+    }
+
+    private static class Task implements Callable<Void> {
+        private final int mOp;
+        private final float[] mMatrix;
+        private final float[] mRes0;
+        private final int mResOff;
+        private final float[] mRes1;
+        private final float[] mRes2;
+        private final float[] mV0;
+        private final int mVOff;
+        private final float[] mV1;
+        private final float[] mV2;
+        private final float mZ;
+        private final int mStart;
+        private final int mEnd;
+
+        Task(int op, float[] matrix, float[] res0, int resOff, float[] res1, float[] res2, float[] v0, int vOff, float[] v1, float[] v2, float z, int start, int end) {
+            mOp = op;
+            mMatrix = matrix;
+            mRes0 = res0;
+            mResOff = resOff;
+            mRes1 = res1;
+            mRes2 = res2;
+            mV0 = v0;
+            mVOff = vOff;
+            mV1 = v1;
+            mV2 = v2;
+            mZ = z;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public Void call() {
+            transform(mOp, mMatrix, mRes0, mResOff, mRes1, mRes2, mV0, mVOff, mV1, mV2, mZ, mStart, mEnd);
+            return null;
+        }
+    }
+
+    // Transforms points [start, end) - the offsets are those of point 0.
+    private static void transform(int op, float[] m, float[] res0, int resOff, float[] res1, float[] res2, float[] v0, int vOff, float[] v1, float[] v2, float z, int start, int end) {
+        switch (op) {
+        case OP_2_TO_3:
+            transform2To3(m, res0, resOff, v0, vOff, z, start, end);
+            break;
+        case OP_2_TO_4:
+            transform2To4(m, res0, resOff, v0, vOff, z, start, end);
+            break;
+        case OP_3_TO_2:
+            transform3To2(m, res0, resOff, v0, vOff, start, end);
+            break;
+        case OP_SOA_2_TO_3:
+            transform2To3(m, res0, res1, res2, resOff, v0, v1, vOff, z, start, end);
+            break;
+        case OP_SOA_3_TO_2:
+            transform3To2(m, res0, res1, resOff, v0, v1, v2, vOff, start, end);
+            break;
+        }
+    }
+
+    private static void transform2To3(float[] m, float[] res, int resOff, float[] v, int vOff, float z, int start, int end) {
+        // z is constant, so fold it into the translation column.
+        float m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3];
+        float m4 = m[4], m5 = m[5], m6 = m[6], m7 = m[7];
+        float t0 = m[8] * z + m[12], t1 = m[9] * z + m[13], t2 = m[10] * z + m[14], t3 = m[11] * z + m[15];
+        int ii = start;
+        for (; ii + 1 < end; ii += 2) {
+            int in = vOff + ii * 2;
+            int out = resOff + ii * 3;
+            float xa = v[in], ya = v[in + 1];
+            float xb = v[in + 2], yb = v[in + 3];
+            float wa = 1 / (m3 * xa + m7 * ya + t3);
+            float wb = 1 / (m3 * xb + m7 * yb + t3);
+            res[out] = (m0 * xa + m4 * ya + t0) * wa;
+            res[out + 1] = (m1 * xa + m5 * ya + t1) * wa;
+            res[out + 2] = (m2 * xa + m6 * ya + t2) * wa;
+            res[out + 3] = (m0 * xb + m4 * yb + t0) * wb;
+            res[out + 4] = (m1 * xb + m5 * yb + t1) * wb;
+            res[out + 5] = (m2 * xb + m6 * yb + t2) * wb;
+        }
+        if (ii < end) {
+            int in = vOff + ii * 2;
+            int out = resOff + ii * 3;
+            float x = v[in], y = v[in + 1];
+            float w = 1 / (m3 * x + m7 * y + t3);
+            res[out] = (m0 * x + m4 * y + t0) * w;
+            res[out + 1] = (m1 * x + m5 * y + t1) * w;
+            res[out + 2] = (m2 * x + m6 * y + t2) * w;
+        }
+    }
+
+    private static void transform2To4(float[] m, float[] res, int resOff, float[] v, int vOff, float z, int start, int end) {
+        float m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3];
+        float m4 = m[4], m5 = m[5], m6 = m[6], m7 = m[7];
+        float t0 = m[8] * z + m[12], t1 = m[9] * z + m[13], t2 = m[10] * z + m[14], t3 = m[11] * z + m[15];
+        int ii = start;
+        for (; ii + 1 < end; ii += 2) {
+            int in = vOff + ii * 2;
+            int out = resOff + ii * 4;
+            float xa = v[in], ya = v[in + 1];
+            float xb = v[in + 2], yb = v[in + 3];
+            res[out] = m0 * xa + m4 * ya + t0;
+            res[out + 1] = m1 * xa + m5 * ya + t1;
+            res[out + 2] = m2 * xa + m6 * ya + t2;
+            res[out + 3] = m3 * xa + m7 * ya + t3;
+            res[out + 4] = m0 * xb + m4 * yb + t0;
+            res[out + 5] = m1 * xb + m5 * yb + t1;
+            res[out + 6] = m2 * xb + m6 * yb + t2;
+            res[out + 7] = m3 * xb + m7 * yb + t3;
+        }
+        if (ii < end) {
+            int in = vOff + ii * 2;
+            int out = resOff + ii * 4;
+            float x = v[in], y = v[in + 1];
+            res[out] = m0 * x + m4 * y + t0;
+            res[out + 1] = m1 * x + m5 * y + t1;
+            res[out + 2] = m2 * x + m6 * y + t2;
+            res[out + 3] = m3 * x + m7 * y + t3;
+        }
+    }
+
+    private static void transform3To2(float[] m, float[] res, int resOff, float[] v, int vOff, int start, int end) {
+        float m0 = m[0], m1 = m[1], m3 = m[3];
+        float m4 = m[4], m5 = m[5], m7 = m[7];
+        float m8 = m[8], m9 = m[9], m11 = m[11];
+        float m12 = m[12], m13 = m[13], m15 = m[15];
+        int ii = start;
+        for (; ii + 1 < end; ii += 2) {
+            int in = vOff + ii * 3;
+            int out = resOff + ii * 2;
+            float xa = v[in], ya = v[in + 1], za = v[in + 2];
+            float xb = v[in + 3], yb = v[in + 4], zb = v[in + 5];
+            float wa = 1 / (m3 * xa + m7 * ya + m11 * za + m15);
+            float wb = 1 / (m3 * xb + m7 * yb + m11 * zb + m15);
+            res[out] = (m0 * xa + m4 * ya + m8 * za + m12) * wa;
+            res[out + 1] = (m1 * xa + m5 * ya + m9 * za + m13) * wa;
+            res[out + 2] = (m0 * xb + m4 * yb + m8 * zb + m12) * wb;
+            res[out + 3] = (m1 * xb + m5 * yb + m9 * zb + m13) * wb;
+        }
+        if (ii < end) {
+            int in = vOff + ii * 3;
+            int out = resOff + ii * 2;
+            float x = v[in], y = v[in + 1], z = v[in + 2];
+            float w = 1 / (m3 * x + m7 * y + m11 * z + m15);
+            res[out] = (m0 * x + m4 * y + m8 * z + m12) * w;
+            res[out + 1] = (m1 * x + m5 * y + m9 * z + m13) * w;
+        }
+    }
+
+    private static void transform2To3(float[] m, float[] resX, float[] resY, float[] resZ, int resOff, float[] x, float[] y, int vOff, float z, int start, int end) {
+        float m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3];
+        float m4 = m[4], m5 = m[5], m6 = m[6], m7 = m[7];
+        float t0 = m[8] * z + m[12], t1 = m[9] * z + m[13], t2 = m[10] * z + m[14], t3 = m[11] * z + m[15];
+        int delta = resOff - vOff;
+        int ii = vOff + start;
+        int last = vOff + end;
+        for (; ii + 1 < last; ii += 2) {
+            float xa = x[ii], ya = y[ii];
+            float xb = x[ii + 1], yb = y[ii + 1];
+            float wa = 1 / (m3 * xa + m7 * ya + t3);
+            float wb = 1 / (m3 * xb + m7 * yb + t3);
+            resX[ii + delta] = (m0 * xa + m4 * ya + t0) * wa;
+            resX[ii + delta + 1] = (m0 * xb + m4 * yb + t0) * wb;
+            resY[ii + delta] = (m1 * xa + m5 * ya + t1) * wa;
+            resY[ii + delta + 1] = (m1 * xb + m5 * yb + t1) * wb;
+            resZ[ii + delta] = (m2 * xa + m6 * ya + t2) * wa;
+            resZ[ii + delta + 1] = (m2 * xb + m6 * yb + t2) * wb;
+        }
+        if (ii < last) {
+            float xa = x[ii], ya = y[ii];
+            float wa = 1 / (m3 * xa + m7 * ya + t3);
+            resX[ii + delta] = (m0 * xa + m4 * ya + t0) * wa;
+            resY[ii + delta] = (m1 * xa + m5 * ya + t1) * wa;
+            resZ[ii + delta] = (m2 * xa + m6 * ya + t2) * wa;
+        }
+    }
+
+    private static void transform3To2(float[] m, float[] resX, float[] resY, int resOff, float[] x, float[] y, float[] z, int vOff, int start, int end) {
+        float m0 = m[0], m1 = m[1], m3 = m[3];
+        float m4 = m[4], m5 = m[5], m7 = m[7];
+        float m8 = m[8], m9 = m[9], m11 = m[11];
+        float m12 = m[12], m13 = m[13], m15 = m[15];
+        int delta = resOff - vOff;
+        int ii = vOff + start;
+        int last = vOff + end;
+        for (; ii + 1 < last; ii += 2) {
+            float xa = x[ii], ya = y[ii], za = z[ii];
+            float xb = x[ii + 1], yb = y[ii + 1], zb = z[ii + 1];
+            float wa = 1 / (m3 * xa + m7 * ya + m11 * za + m15);
+            float wb = 1 / (m3 * xb + m7 * yb + m11 * zb + m15);
+            resX[ii + delta] = (m0 * xa + m4 * ya + m8 * za + m12) * wa;
+            resX[ii + delta + 1] = (m0 * xb + m4 * yb + m8 * zb + m12) * wb;
+            resY[ii + delta] = (m1 * xa + m5 * ya + m9 * za + m13) * wa;
+            resY[ii + delta + 1] = (m1 * xb + m5 * yb + m9 * zb + m13) * wb;
+        }
+        if (ii < last) {
+            float xa = x[ii], ya = y[ii], za = z[ii];
+            float wa = 1 / (m3 * xa + m7 * ya + m11 * za + m15);
+            resX[ii + delta] = (m0 * xa + m4 * ya + m8 * za + m12) * wa;
+            resY[ii + delta] = (m1 * xa + m5 * ya + m9 * za + m13) * wa;
+        }
+    }
+}
@@ -9,78 +9,275 @@ import java.util.HashMap;
 import java.util.Map;
 
 import android.opengl.GLES20;
+import android.util.SparseIntArray;
 
 public class Program {
     private static final int BYTES_PER_FLOAT = Float.SIZE / Byte.SIZE;
     private static final int BYTES_PER_SHORT = Short.SIZE / Byte.SIZE;
     private final int mId;
+    private final ReleaseQueue.Resource mResource;
     private VertexShader mVertexShader;
     private FragmentShader mFragmentShader;
     private final Map<String,ByteBuffer> mBuffers = new HashMap<String,ByteBuffer>();
+    // Locations of active uniforms and attributes, rebuilt every time the program is (re)linked.
+    private final Map<String,Integer> mUniformLocations = new HashMap<String,Integer>();
+    private final Map<String,Integer> mAttribLocations = new HashMap<String,Integer>();
+    // Staged uniform values.  Each uniform location maps to a slot, whose value lives in either the
+    // float or the int arena.  The arenas always hold the value last set through this Program, so
+    // unchanged values can be skipped; dirty slots are uploaded on flush (immediately, or at use()
+    // when uniforms are deferred).
+    private final SparseIntArray mSlots = new SparseIntArray();
+    private int[] mSlotLocations = new int[0];
+    private int[] mSlotTypes = new int[0];
+    private int[] mSlotOffsets = new int[0];
+    // For elements of array uniforms, the number of elements following this one - their slots come next.
+    private int[] mSlotArrayRemaining = new int[0];
+    private boolean[] mSlotDirty = new boolean[0];
+    private int[] mDirtySlots = new int[0];
+    private int mNumDirtySlots;
+    private float[] mFloatValues = new float[0];
+    private int[] mIntValues = new int[0];
+    private final float[] mScratch = new float[4];
+    private boolean mDeferUniforms;
+    // Programs loaded from a binary have no shaders attached, so can't be relinked.
+    private boolean mFromBinary;
 
-    public Program(VertexShader vertexShader, FragmentShader fragmentShader) {
-        mId = GLES20.glCreateProgram();
+    private Program() {
+        GLBackend gl = GLState.gl();
+        mId = gl.glCreateProgram();
         Utils.checkErrors("glCreateProgram");
-        setVertexShader(vertexShader);
-        setFragmentShader(fragmentShader);
+        mResource = ReleaseQueue.register(this, ReleaseQueue.PROGRAM, mId);
     }
 
-    @Override
-    protected void finalize() {
-        if (mId != 0) {
-            GLES20.glDeleteProgram(mId);
+    public Program(VertexShader vertexShader, FragmentShader fragmentShader) {
+        this();
+        mVertexShader = vertexShader;
+        mFragmentShader = fragmentShader;
+        attach(null, vertexShader);
+        attach(null, fragmentShader);
+        link();
+    }
+
+    // Builds a program with every stage attached and attribute locations bound before a single link.
+    public static class Builder {
+        private VertexShader mVertexShader;
+        private FragmentShader mFragmentShader;
+        private final Map<String,Integer> mAttribLocations = new HashMap<String,Integer>();
+        private boolean mValidate;
+
+        public Builder setVertexShader(VertexShader vertexShader) {
+            mVertexShader = vertexShader;
+            return this;
+        }
+
+        public Builder setFragmentShader(FragmentShader fragmentShader) {
+            mFragmentShader = fragmentShader;
+            return this;
+        }
+
+        public Builder bindAttribLocation(String name, int location) {
+            mAttribLocations.put(name, location);
+            return this;
+        }
+
+        // Validate the program straight after linking, throwing if it fails.  Validation depends on
+        // current GL state, so only use this where that state is representative.
+        public Builder setValidate(boolean validate) {
+            mValidate = validate;
+            return this;
+        }
+
+        // Can be called on any thread with a GL context current - including a background thread
+        // whose context shares objects with the renderer's, to take the cost off the render thread.
+        public Program build() {
+            if ((mVertexShader == null) || (mFragmentShader == null)) {
+                throw new IllegalStateException("Both a vertex and a fragment shader are required");
+            }
+            GLBackend gl = GLState.gl();
+            Program program = new Program();
+            for (Map.Entry<String,Integer> entry : mAttribLocations.entrySet()) {
+                gl.glBindAttribLocation(program.mId, entry.getValue(), entry.getKey());
+                Utils.checkErrors("glBindAttribLocation");
+            }
+            program.mVertexShader = mVertexShader;
+            program.mFragmentShader = mFragmentShader;
+            program.attach(null, mVertexShader);
+            program.attach(null, mFragmentShader);
+            program.link();
+            if (mValidate && !program.validate()) {
+                String programInfoLog = program.getInfoLog();
+                program.release();
+                throw new IllegalStateException(programInfoLog);
+            }
+            return program;
         }
     }
 
+    // Creates a program from a binary previously retrieved with glGetProgramBinary (GLES 3.0), or
+    // returns null if the driver rejects it (e.g. because the driver has been updated since).
+    static Program fromBinary(int binaryFormat, Buffer binary, int length) {
+        GLBackend gl = GLState.gl();
+        Program program = new Program();
+        gl.glProgramBinary(program.mId, binaryFormat, binary, length);
+        final int[] linkStatus = new int[1];
+        gl.glGetProgramiv(program.mId, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        // A rejected binary may raise an error as well as failing to link - that's expected, so clear it.
+        gl.glGetError();
+        if (linkStatus[0] == 0) {
+            program.release();
+            return null;
+        }
+        program.mFromBinary = true;
+        program.loadLocations();
+        return program;
+    }
+
+    public void release() {
+        mResource.release();
+    }
+
+    // Swaps the vertex shader, detaching the old one, and relinks once.  Not possible for programs loaded
+    // from a binary.
     public void setVertexShader(VertexShader vertexShader) {
-        mVertexShader = vertexShader;
-        GLES20.glAttachShader(mId, vertexShader.getId());
-        Utils.checkErrors("glAttachShader");
-        link();
+        checkNotFromBinary();
+        if (vertexShader != mVertexShader) {
+            attach(mVertexShader, vertexShader);
+            mVertexShader = vertexShader;
+            link();
+        }
     }
 
+    // Swaps the fragment shader, detaching the old one, and relinks once.  Not possible for programs loaded
+    // from a binary.
     public void setFragmentShader(FragmentShader fragmentShader) {
-        mFragmentShader = fragmentShader;
-        GLES20.glAttachShader(mId, fragmentShader.getId());
-        Utils.checkErrors("glAttachShader");
-        link();
+        checkNotFromBinary();
+        if (fragmentShader != mFragmentShader) {
+            attach(mFragmentShader, fragmentShader);
+            mFragmentShader = fragmentShader;
+            link();
+        }
+    }
+
+    public boolean validate() {
+        GLBackend gl = GLState.gl();
+        gl.glValidateProgram(mId);
+        Utils.checkErrors("glValidateProgram");
+        final int[] validateStatus = new int[1];
+        gl.glGetProgramiv(mId, GLES20.GL_VALIDATE_STATUS, validateStatus, 0);
+        return validateStatus[0] != 0;
+    }
+
+    public String getInfoLog() {
+        GLBackend gl = GLState.gl();
+        return gl.glGetProgramInfoLog(mId);
+    }
+
+    public int getUniformHandle(String name) {
+        Integer location = mUniformLocations.get(name);
+        return (location != null) ? location : -1;
+    }
+
+    public int getAttribHandle(String name) {
+        Integer location = mAttribLocations.get(name);
+        return (location != null) ? location : -1;
     }
 
     public void setUniform(String name, float x) {
-        int oldId = pushProgram();
-        GLES20.glUniform1f(GLES20.glGetUniformLocation(mId, name), x);
-        popProgram(oldId);
+        setUniform(getUniformHandle(name), x);
     }
 
     public void setUniform(String name, float x, float y) {
-        int oldId = pushProgram();
-        GLES20.glUniform2f(GLES20.glGetUniformLocation(mId, name), x, y);
-        popProgram(oldId);
+        setUniform(getUniformHandle(name), x, y);
     }
 
     public void setUniform(String name, float x, float y, float z) {
-        int oldId = pushProgram();
-        GLES20.glUniform3f(GLES20.glGetUniformLocation(mId, name), x, y, z);
-        popProgram(oldId);
+        setUniform(getUniformHandle(name), x, y, z);
     }
 
     public void setUniform(String name, float x, float y, float z, float w) {
-        int oldId = pushProgram();
-        GLES20.glUniform4f(GLES20.glGetUniformLocation(mId, name), x, y, z, w);
-        popProgram(oldId);
+        setUniform(getUniformHandle(name), x, y, z, w);
     }
 
-    public void setUniform(String name, float[] matrix) {
-        int oldId = pushProgram();
-        GLES20.glUniformMatrix4fv(GLES20.glGetUniformLocation(mId, name), 1, false, matrix, 0);
-        popProgram(oldId);
-
+    public void setUniform(String name, float[] values) {
+        setUniform(getUniformHandle(name), values);
     }
+
     public void setUniform(String name, int value) {
-        int oldId = pushProgram();
-        GLES20.glUniform1i(GLES20.glGetUniformLocation(mId, name), value);
-        Utils.checkErrors("glUniform1i");
-        popProgram(oldId);
+        setUniform(getUniformHandle(name), value);
+    }
+
+    public void setUniform(int handle, float x) {
+        mScratch[0] = x;
+        stageUniform(handle, mScratch, 1);
+    }
+
+    public void setUniform(int handle, float x, float y) {
+        mScratch[0] = x;
+        mScratch[1] = y;
+        stageUniform(handle, mScratch, 2);
+    }
+
+    public void setUniform(int handle, float x, float y, float z) {
+        mScratch[0] = x;
+        mScratch[1] = y;
+        mScratch[2] = z;
+        stageUniform(handle, mScratch, 3);
+    }
+
+    public void setUniform(int handle, float x, float y, float z, float w) {
+        mScratch[0] = x;
+        mScratch[1] = y;
+        mScratch[2] = z;
+        mScratch[3] = w;
+        stageUniform(handle, mScratch, 4);
+    }
+
+    // For array uniforms, values runs on from the element at handle into the elements after it.
+    public void setUniform(int handle, float[] values) {
+        int slot = mSlots.get(handle, -1);
+        if ((slot >= 0) && (values.length > getCapacity(slot))) {
+            throw new IllegalArgumentException(values.length + " values exceed the " + getCapacity(slot) + " components of uniform " + handle);
+        }
+        stageUniform(handle, values, values.length);
+    }
+
+    public void setUniform(int handle, int value) {
+        int slot = mSlots.get(handle, -1);
+        if (slot >= 0) {
+            int offset = mSlotOffsets[slot];
+            if (isIntType(mSlotTypes[slot])) {
+                if (mIntValues[offset] != value) {
+                    mIntValues[offset] = value;
+                    markDirty(slot);
+                }
+            } else if (mFloatValues[offset] != value) {
+                mFloatValues[offset] = value;
+                markDirty(slot);
+            }
+        }
+        if (!mDeferUniforms) {
+            flushUniforms();
+        }
+    }
+
+    // When deferred, uniform values are only staged by setUniform(), and uploaded together by the next use() or flushUniforms().
+    public void setDeferUniforms(boolean deferUniforms) {
+        mDeferUniforms = deferUniforms;
+        if (!deferUniforms) {
+            flushUniforms();
+        }
+    }
+
+    public boolean getDeferUniforms() {
+        return mDeferUniforms;
+    }
+
+    public void flushUniforms() {
+        if (mNumDirtySlots > 0) {
+            int oldId = pushProgram();
+            uploadUniforms();
+            popProgram(oldId);
+        }
     }
 
     public void setVertexAttrib(String name, float[] values, int valueSize) {
@@ -100,74 +297,370 @@ public class Program {
     }
 
     public void setVertexAttrib(String name, Buffer values, int type, int valueSize, int bytesPerType) {
+        setVertexAttrib(getAttribHandle(name), values, type, valueSize, bytesPerType);
+    }
+
+    public void setVertexAttrib(int handle, FloatBuffer values, int valueSize) {
+        setVertexAttrib(handle, values, GLES20.GL_FLOAT, valueSize, BYTES_PER_FLOAT);
+    }
+
+    public void setVertexAttrib(int handle, ShortBuffer values, int valueSize) {
+        setVertexAttrib(handle, values, GLES20.GL_SHORT, valueSize, BYTES_PER_SHORT);
+    }
+
+    public void setVertexAttrib(int handle, Buffer values, int type, int valueSize, int bytesPerType) {
+        GLBackend gl = GLState.gl();
         int oldId = pushProgram();
-        int handle = GLES20.glGetAttribLocation(mId, name);
-        Utils.checkErrors("glGetAttribLocation");
-        GLES20.glVertexAttribPointer(handle, valueSize, type, false, valueSize * bytesPerType, values);
+        // Client-side arrays are only used if no vertex buffer object is bound.
+        GLState.get().bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        gl.glVertexAttribPointer(handle, valueSize, type, false, valueSize * bytesPerType, values);
         Utils.checkErrors("glVertexAttribPointer");
-        GLES20.glEnableVertexAttribArray(handle);
+        gl.glEnableVertexAttribArray(handle);
         Utils.checkErrors("glEnableVertexAttribArray");
         popProgram(oldId);
     }
 
+    public void setVertexAttrib(String name, VertexBuffer buffer, int valueSize) {
+        setVertexAttrib(getAttribHandle(name), buffer, GLES20.GL_FLOAT, valueSize, false, 0, 0);
+    }
+
+    public void setVertexAttrib(String name, VertexBuffer buffer, int type, int valueSize, boolean normalized, int stride, int offset) {
+        setVertexAttrib(getAttribHandle(name), buffer, type, valueSize, normalized, stride, offset);
+    }
+
+    // stride and offset are in bytes, allowing several attributes to be interleaved in one buffer.
+    public void setVertexAttrib(int handle, VertexBuffer buffer, int type, int valueSize, boolean normalized, int stride, int offset) {
+        GLBackend gl = GLState.gl();
+        buffer.bind();
+        gl.glVertexAttribPointer(handle, valueSize, type, normalized, stride, offset);
+        Utils.checkErrors("glVertexAttribPointer");
+        gl.glEnableVertexAttribArray(handle);
+        Utils.checkErrors("glEnableVertexAttribArray");
+    }
+
     public void use() {
-        GLES20.glUseProgram(mId);
+        GLState.get().useProgram(mId);
+        if (mNumDirtySlots > 0) {
+            uploadUniforms();
+        }
     }
 
     public int getId() {
         return mId;
     }
 
+    private void checkNotFromBinary() {
+        if (mFromBinary) {
+            throw new IllegalStateException("Program " + mId + " was loaded from a binary, so has no shaders to relink with");
+        }
+    }
+
+    private void attach(Shader oldShader, Shader newShader) {
+        GLBackend gl = GLState.gl();
+        if (oldShader != null) {
+            gl.glDetachShader(mId, oldShader.getId());
+            Utils.checkErrors("glDetachShader");
+        }
+        gl.glAttachShader(mId, newShader.getId());
+        Utils.checkErrors("glAttachShader");
+    }
+
     private void link() {
+        GLBackend gl = GLState.gl();
         if ((mVertexShader != null) && (mFragmentShader != null)) {
-            GLES20.glLinkProgram(mId);
+            gl.glLinkProgram(mId);
             Utils.checkErrors("glLinkProgram");
             final int[] linkStatus = new int[1];
-            GLES20.glGetProgramiv(mId, GLES20.GL_LINK_STATUS, linkStatus, 0);
+            gl.glGetProgramiv(mId, GLES20.GL_LINK_STATUS, linkStatus, 0);
             if (linkStatus[0] == 0) {
-                String programInfoLog = GLES20.glGetProgramInfoLog(mId);
+                String programInfoLog = gl.glGetProgramInfoLog(mId);
                 throw new IllegalArgumentException(programInfoLog);
             }
+            loadLocations();
         }
     }
 
+    private void loadLocations() {
+        GLBackend gl = GLState.gl();
+        mUniformLocations.clear();
+        mAttribLocations.clear();
+        mSlots.clear();
+        final int[] count = new int[1];
+        final int[] maxLength = new int[1];
+        final int[] length = new int[1];
+        final int[] size = new int[1];
+        final int[] type = new int[1];
+
+        gl.glGetProgramiv(mId, GLES20.GL_ACTIVE_UNIFORMS, count, 0);
+        gl.glGetProgramiv(mId, GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH, maxLength, 0);
+        byte[] nameBytes = new byte[Math.max(maxLength[0], 1)];
+        int numSlots = 0;
+        int numFloats = 0;
+        int numInts = 0;
+        int[] slotLocations = new int[count[0]];
+        int[] slotTypes = new int[count[0]];
+        int[] slotOffsets = new int[count[0]];
+        int[] slotArrayRemaining = new int[count[0]];
+        for (int ii = 0; ii < count[0]; ii++) {
+            gl.glGetActiveUniform(mId, ii, nameBytes.length, length, 0, size, 0, type, 0, nameBytes, 0);
+            String name = new String(nameBytes, 0, length[0]);
+            // Arrays are reported as "name[0]", but are commonly looked up without the subscript.
+            String baseName = name.endsWith("[0]") ? name.substring(0, name.length() - 3) : name;
+            int firstSlot = numSlots;
+            for (int element = 0; element < size[0]; element++) {
+                String elementName = (element == 0) ? name : (baseName + "[" + element + "]");
+                int location = gl.glGetUniformLocation(mId, elementName);
+                mUniformLocations.put(elementName, location);
+                if (element == 0) {
+                    mUniformLocations.put(baseName, location);
+                }
+                if (location < 0) {
+                    continue;
+                }
+                if (numSlots == slotLocations.length) {
+                    slotLocations = grow(slotLocations, numSlots + size[0]);
+                    slotTypes = grow(slotTypes, numSlots + size[0]);
+                    slotOffsets = grow(slotOffsets, numSlots + size[0]);
+                    slotArrayRemaining = grow(slotArrayRemaining, numSlots + size[0]);
+                }
+                mSlots.put(location, numSlots);
+                slotLocations[numSlots] = location;
+                slotTypes[numSlots] = type[0];
+                if (isIntType(type[0])) {
+                    slotOffsets[numSlots] = numInts;
+                    numInts += getComponentCount(type[0]);
+                } else {
+                    slotOffsets[numSlots] = numFloats;
+                    numFloats += getComponentCount(type[0]);
+                }
+                numSlots++;
+            }
+            for (int slot = firstSlot; slot < numSlots; slot++) {
+                slotArrayRemaining[slot] = numSlots - 1 - slot;
+            }
+        }
+        // Linking resets all uniforms to zero, which is exactly what freshly-allocated arenas hold.
+        mSlotLocations = slotLocations;
+        mSlotTypes = slotTypes;
+        mSlotOffsets = slotOffsets;
+        mSlotArrayRemaining = slotArrayRemaining;
+        mSlotDirty = new boolean[numSlots];
+        mDirtySlots = new int[numSlots];
+        mNumDirtySlots = 0;
+        mFloatValues = new float[numFloats];
+        mIntValues = new int[numInts];
+
+        gl.glGetProgramiv(mId, GLES20.GL_ACTIVE_ATTRIBUTES, count, 0);
+        gl.glGetProgramiv(mId, GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH, maxLength, 0);
+        nameBytes = new byte[Math.max(maxLength[0], 1)];
+        for (int ii = 0; ii < count[0]; ii++) {
+            gl.glGetActiveAttrib(mId, ii, nameBytes.length, length, 0, size, 0, type, 0, nameBytes, 0);
+            String name = new String(nameBytes, 0, length[0]);
+            mAttribLocations.put(name, gl.glGetAttribLocation(mId, name));
+        }
+        Utils.checkErrors("loadLocations");
+    }
+
+    private void stageUniform(int handle, float[] values, int count) {
+        int slot = mSlots.get(handle, -1);
+        int index = 0;
+        while (slot >= 0) {
+            int type = mSlotTypes[slot];
+            int offset = mSlotOffsets[slot];
+            int slotCount = Math.min(count - index, getComponentCount(type));
+            boolean changed = false;
+            if (isIntType(type)) {
+                for (int ii = 0; ii < slotCount; ii++) {
+                    int value = (int)values[index + ii];
+                    if (mIntValues[offset + ii] != value) {
+                        mIntValues[offset + ii] = value;
+                        changed = true;
+                    }
+                }
+            } else {
+                for (int ii = 0; ii < slotCount; ii++) {
+                    if (mFloatValues[offset + ii] != values[index + ii]) {
+                        mFloatValues[offset + ii] = values[index + ii];
+                        changed = true;
+                    }
+                }
+            }
+            if (changed) {
+                markDirty(slot);
+            }
+            index += slotCount;
+            // Remaining values go to the next element of an array uniform.
+            slot = ((index < count) && (mSlotArrayRemaining[slot] > 0)) ? slot + 1 : -1;
+        }
+        if (!mDeferUniforms) {
+            flushUniforms();
+        }
+    }
+
+    // Components from slot to the end of its array (or just slot's, if it isn't an array element).
+    private int getCapacity(int slot) {
+        int capacity = 0;
+        for (int ii = slot; ii <= slot + mSlotArrayRemaining[slot]; ii++) {
+            capacity += getComponentCount(mSlotTypes[ii]);
+        }
+        return capacity;
+    }
+
+    private void markDirty(int slot) {
+        if (!mSlotDirty[slot]) {
+            mSlotDirty[slot] = true;
+            mDirtySlots[mNumDirtySlots++] = slot;
+        }
+    }
+
+    // Must be called with this program bound.  Dirty runs of an array go up in one call.
+    private void uploadUniforms() {
+        GLBackend gl = GLState.gl();
+        for (int ii = 0; ii < mNumDirtySlots; ii++) {
+            int first = mDirtySlots[ii];
+            if (!mSlotDirty[first]) {
+                // Already uploaded as part of an earlier run.
+                continue;
+            }
+            while ((first > 0) && (mSlotArrayRemaining[first - 1] > 0) && mSlotDirty[first - 1]) {
+                first--;
+            }
+            int last = first;
+            while ((mSlotArrayRemaining[last] > 0) && mSlotDirty[last + 1]) {
+                last++;
+            }
+            for (int slot = first; slot <= last; slot++) {
+                mSlotDirty[slot] = false;
+            }
+            uploadUniform(gl, mSlotTypes[first], mSlotLocations[first], last - first + 1, mSlotOffsets[first]);
+        }
+        mNumDirtySlots = 0;
+        Utils.checkErrors("glUniform");
+    }
+
+    private void uploadUniform(GLBackend gl, int type, int location, int count, int offset) {
+        switch (type) {
+        case GLES20.GL_FLOAT:
+            gl.glUniform1fv(location, count, mFloatValues, offset);
+            break;
+        case GLES20.GL_FLOAT_VEC2:
+            gl.glUniform2fv(location, count, mFloatValues, offset);
+            break;
+        case GLES20.GL_FLOAT_VEC3:
+            gl.glUniform3fv(location, count, mFloatValues, offset);
+            break;
+        case GLES20.GL_FLOAT_VEC4:
+            gl.glUniform4fv(location, count, mFloatValues, offset);
+            break;
+        case GLES20.GL_FLOAT_MAT2:
+            gl.glUniformMatrix2fv(location, count, false, mFloatValues, offset);
+            break;
+        case GLES20.GL_FLOAT_MAT3:
+            gl.glUniformMatrix3fv(location, count, false, mFloatValues, offset);
+            break;
+        case GLES20.GL_FLOAT_MAT4:
+            gl.glUniformMatrix4fv(location, count, false, mFloatValues, offset);
+            break;
+        case GLES20.GL_INT_VEC2:
+        case GLES20.GL_BOOL_VEC2:
+            gl.glUniform2iv(location, count, mIntValues, offset);
+            break;
+        case GLES20.GL_INT_VEC3:
+        case GLES20.GL_BOOL_VEC3:
+            gl.glUniform3iv(location, count, mIntValues, offset);
+            break;
+        case GLES20.GL_INT_VEC4:
+        case GLES20.GL_BOOL_VEC4:
+            gl.glUniform4iv(location, count, mIntValues, offset);
+            break;
+        default:
+            // GL_INT, GL_BOOL and the sampler types.
+            gl.glUniform1iv(location, count, mIntValues, offset);
+            break;
+        }
+    }
+
+    private static boolean isIntType(int type) {
+        switch (type) {
+        case GLES20.GL_FLOAT:
+        case GLES20.GL_FLOAT_VEC2:
+        case GLES20.GL_FLOAT_VEC3:
+        case GLES20.GL_FLOAT_VEC4:
+        case GLES20.GL_FLOAT_MAT2:
+        case GLES20.GL_FLOAT_MAT3:
+        case GLES20.GL_FLOAT_MAT4:
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    private static int getComponentCount(int type) {
+        switch (type) {
+        case GLES20.GL_FLOAT_VEC2:
+        case GLES20.GL_INT_VEC2:
+        case GLES20.GL_BOOL_VEC2:
+            return 2;
+        case GLES20.GL_FLOAT_VEC3:
+        case GLES20.GL_INT_VEC3:
+        case GLES20.GL_BOOL_VEC3:
+            return 3;
+        case GLES20.GL_FLOAT_VEC4:
+        case GLES20.GL_INT_VEC4:
+        case GLES20.GL_BOOL_VEC4:
+        case GLES20.GL_FLOAT_MAT2:
+            return 4;
+        case GLES20.GL_FLOAT_MAT3:
+            return 9;
+        case GLES20.GL_FLOAT_MAT4:
+            return 16;
+        default:
+            return 1;
+        }
+    }
+
+    private static int[] grow(int[] array, int minLength) {
+        int[] newArray = new int[Math.max(minLength, array.length * 2)];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
     private int pushProgram() {
-        int[] oldIds = new int[1];
-        GLES20.glGetIntegerv(GLES20.GL_CURRENT_PROGRAM, oldIds, 0);
-        Utils.checkErrors("glGetIntegerv");
-        GLES20.glUseProgram(mId);
-        Utils.checkErrors("glUseProgram");
-        return oldIds[0];
+        return GLState.get().useProgram(mId);
     }
 
     private void popProgram(int oldId) {
-        GLES20.glUseProgram(oldId);
-        Utils.checkErrors("glUseProgram");
+        // If we didn't know what was bound before, leave this program bound.
+        if (oldId != GLState.UNKNOWN) {
+            GLState.get().useProgram(oldId);
+        }
     }
 
     private FloatBuffer wrap(String name, float[] data) {
         ByteBuffer byteBuffer = mBuffers.get(name);
+        // Only reallocate when the data has outgrown the buffer - shrinking just uses less of it.
         if ((byteBuffer == null) ||
-            (byteBuffer.capacity() != data.length * BYTES_PER_FLOAT))
+            (byteBuffer.capacity() < data.length * BYTES_PER_FLOAT))
         {
             byteBuffer = ByteBuffer.allocateDirect(data.length * BYTES_PER_FLOAT).order(ByteOrder.nativeOrder());
             mBuffers.put(name, byteBuffer);
         }
         FloatBuffer buffer = byteBuffer.asFloatBuffer().put(data);
-        buffer.position(0);
+        buffer.flip();
         return buffer;
     }
 
     private ShortBuffer wrap(String name, short[] data) {
         ByteBuffer byteBuffer = mBuffers.get(name);
+        // Only reallocate when the data has outgrown the buffer - shrinking just uses less of it.
         if ((byteBuffer == null) ||
-            (byteBuffer.capacity() != data.length * BYTES_PER_SHORT))
+            (byteBuffer.capacity() < data.length * BYTES_PER_SHORT))
         {
             byteBuffer = ByteBuffer.allocateDirect(data.length * BYTES_PER_SHORT).order(ByteOrder.nativeOrder());
             mBuffers.put(name, byteBuffer);
         }
         ShortBuffer buffer = byteBuffer.asShortBuffer().put(data);
-        buffer.position(0);
+        buffer.flip();
         return buffer;
     }
 }
\ No newline at end of file
@@ -0,0 +1,182 @@
+package com.github.matt.williams.android.gl;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+// Persists linked program binaries to a directory, so that subsequent runs can skip compiling and
+// linking.  Each entry records the driver it was produced by, and is discarded if the driver
+// (vendor, renderer or version string) changes.
+//
+// Program binaries are core in GLES 3.0; Android only exposes the entry points from API 18.
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class ProgramBinaryCache {
+    private static final String TAG = "ProgramBinaryCache";
+    private static final int MAGIC = 0x474c5042;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".bin";
+    private final File mDirectory;
+    private final String mDriver;
+
+    public ProgramBinaryCache(File directory, String driver) {
+        mDirectory = directory;
+        mDriver = driver;
+        mDirectory.mkdirs();
+    }
+
+    // Creates a cache for the driver of the current GL context, or returns null if program binaries aren't supported.
+    public static ProgramBinaryCache create(File directory) {
+        if (!isSupported()) {
+            return null;
+        }
+        return new ProgramBinaryCache(directory, getDriverString());
+    }
+
+    public static boolean isSupported() {
+        GLBackend gl = GLState.gl();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return false;
+        }
+        String version = gl.glGetString(GLES20.GL_VERSION);
+        if ((version == null) || !version.startsWith("OpenGL ES 3")) {
+            return false;
+        }
+        int[] numFormats = new int[1];
+        gl.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, numFormats, 0);
+        return numFormats[0] > 0;
+    }
+
+    public static String getDriverString() {
+        GLBackend gl = GLState.gl();
+        return gl.glGetString(GLES20.GL_VENDOR) + "|" + gl.glGetString(GLES20.GL_RENDERER) + "|" + gl.glGetString(GLES20.GL_VERSION);
+    }
+
+    public Program load(String key) {
+        int[] format = new int[1];
+        ByteBuffer binary = read(key, format);
+        if (binary == null) {
+            return null;
+        }
+        Program program = Program.fromBinary(format[0], binary, binary.remaining());
+        if (program == null) {
+            remove(key);
+        }
+        return program;
+    }
+
+    public void store(String key, Program program) {
+        GLBackend gl = GLState.gl();
+        int[] length = new int[1];
+        gl.glGetProgramiv(program.getId(), GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] <= 0) {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(length[0]).order(ByteOrder.nativeOrder());
+        IntBuffer binaryLength = IntBuffer.allocate(1);
+        IntBuffer binaryFormat = IntBuffer.allocate(1);
+        gl.glGetProgramBinary(program.getId(), length[0], binaryLength, binaryFormat, binary);
+        Utils.checkErrors("glGetProgramBinary");
+        binary.limit(binaryLength.get(0));
+        write(key, binaryFormat.get(0), binary);
+    }
+
+    // Reads the entry for key, returning null (and removing the entry) if it's missing, corrupt or from another driver.
+    public ByteBuffer read(String key, int[] format) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION) || !mDriver.equals(in.readUTF())) {
+                in.close();
+                in = null;
+                file.delete();
+                return null;
+            }
+            format[0] = in.readInt();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            ByteBuffer binary = ByteBuffer.allocateDirect(data.length).order(ByteOrder.nativeOrder());
+            binary.put(data).flip();
+            return binary;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + file, e);
+            file.delete();
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    public void write(String key, int format, ByteBuffer binary) {
+        File file = getFile(key);
+        File tempFile = new File(mDirectory, key + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tempFile));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(mDriver);
+            out.writeInt(format);
+            byte[] data = new byte[binary.remaining()];
+            binary.duplicate().get(data);
+            out.writeInt(data.length);
+            out.write(data);
+            out.close();
+            out = null;
+            // Rename into place, so that a crash mid-write can't leave a truncated entry.
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file, e);
+            tempFile.delete();
+        } finally {
+            close(out);
+        }
+    }
+
+    public void remove(String key) {
+        getFile(key).delete();
+    }
+
+    public void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(mDirectory, key + SUFFIX);
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing useful to do.
+            }
+        }
+    }
+}
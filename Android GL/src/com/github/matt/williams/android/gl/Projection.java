@@ -1,5 +1,7 @@
 package com.github.matt.williams.android.gl;
 
+import java.nio.FloatBuffer;
+
 import android.opengl.Matrix;
 import android.util.FloatMath;
 
@@ -12,6 +14,11 @@ public class Projection implements Cloneable {
     private final float[] mRotationMatrix = new float[16];
     private final float[] mViewMatrix = new float[16];
     private final float[] mInverseViewMatrix = new float[16];
+    private final float[] mFrustumMatrix = new float[16];
+    private final float[] mZRotationMatrix = new float[16];
+    private final PointTransformer mInverseProjectionTransformer = new PointTransformer();
+    private final PointTransformer mViewTransformer = new PointTransformer();
+    private final PointTransformer mInverseViewTransformer = new PointTransformer();
 
     public Projection() {
         Matrix.setIdentityM(mProjectionMatrix, 0);
@@ -61,17 +68,17 @@ public class Projection implements Cloneable {
     }
 
     public void setProjection(float left, float right, float bottom, float top, float near, float far, float rotation) {
-        float[] projectionMatrix = new float[16];
-        Matrix.frustumM(projectionMatrix, 0, left, right, bottom, top, near, far);
+        Matrix.frustumM(mFrustumMatrix, 0, left, right, bottom, top, near, far);
         // We rotate the projection matrix about the z axis (into the display) to switch between portrait and landscape mode.
-        Matrix.rotateM(projectionMatrix, 0, rotation, 0, 0, 1);
-        setProjectionMatrix(projectionMatrix);
+        // (Matrix.rotateM would allocate a temporary matrix on older platforms.)
+        Matrix.setRotateM(mZRotationMatrix, 0, rotation, 0, 0, 1);
+        Matrix.multiplyMM(mProjectionMatrix, 0, mFrustumMatrix, 0, mZRotationMatrix, 0);
+        updateProjection();
     }
 
     public void setProjectionMatrix(float[] projectionMatrix) {
         System.arraycopy(projectionMatrix, 0, mProjectionMatrix, 0, 16);
-        Matrix.invertM(mInverseProjectionMatrix, 0, mProjectionMatrix, 0);
-        multiplyMatrices();
+        updateProjection();
     }
 
     public void setRotationMatrix(float[] rotationMatrix) {
@@ -95,31 +102,94 @@ public class Projection implements Cloneable {
         return mViewMatrix;
     }
 
+    // Bulk transformers, kept in sync with the matrices.  These also offer structure-of-arrays layouts
+    // and parallel transformation of very large batches.
+    public PointTransformer getInverseProjectionTransformer() {
+        return mInverseProjectionTransformer;
+    }
+
+    public PointTransformer getViewTransformer() {
+        return mViewTransformer;
+    }
+
+    public PointTransformer getInverseViewTransformer() {
+        return mInverseViewTransformer;
+    }
+
     public float[] inverseProject(float x, float y) {
         float[] result = new float[4];
-        Matrix.multiplyMV(result, 0, mInverseProjectionMatrix, 0, new float[] {x, y, NEAR, 1f}, 0);
+        inverseProject(x, y, result, 0);
         return result;
     }
 
+    // Writes the homogeneous (x, y, z, w) result to res at resOff.
+    public void inverseProject(float x, float y, float[] res, int resOff) {
+        multiplyMV(res, resOff, mInverseProjectionMatrix, x, y, NEAR);
+    }
+
+    // Unprojects num (x, y) points from v at vOff to homogeneous (x, y, z, w) points in res at resOff.
+    public void inverseProject(float[] res, int resOff, float[] v, int vOff, int num) {
+        mInverseProjectionTransformer.transform2To4(res, resOff, v, vOff, NEAR, num);
+    }
+
     public float[] view(float x, float y, float z) {
-        float[] result = new float[4];
-        Matrix.multiplyMV(result, 0, mViewMatrix, 0, new float[] {x, y, z, 1f}, 0);
-        return new float[] {result[0] / result[3], result[1] / result[3]};
+        float[] result = new float[2];
+        view(x, y, z, result, 0);
+        return result;
+    }
+
+    // Writes the projected (x, y) to res at resOff.
+    public void view(float x, float y, float z, float[] res, int resOff) {
+        float[] m = mViewMatrix;
+        float w = m[3] * x + m[7] * y + m[11] * z + m[15];
+        res[resOff] = (m[0] * x + m[4] * y + m[8] * z + m[12]) / w;
+        res[resOff + 1] = (m[1] * x + m[5] * y + m[9] * z + m[13]) / w;
+    }
+
+    // Projects num (x, y, z) points from v at vOff to (x, y) pairs in res at resOff.
+    public void view(float[] res, int resOff, float[] v, int vOff, int num) {
+        mViewTransformer.transform3To2(res, resOff, v, vOff, num);
+    }
+
+    // As above, reading from and writing to the buffers' current positions, which are advanced.
+    public void view(FloatBuffer res, FloatBuffer v, int num) {
+        float[] m = mViewMatrix;
+        for (int ii = 0; ii < num; ii++) {
+            float x = v.get();
+            float y = v.get();
+            float z = v.get();
+            float w = m[3] * x + m[7] * y + m[11] * z + m[15];
+            res.put((m[0] * x + m[4] * y + m[8] * z + m[12]) / w);
+            res.put((m[1] * x + m[5] * y + m[9] * z + m[13]) / w);
+        }
     }
 
     public float[] inverseView(float x, float y) {
         float[] result = new float[4];
-        Matrix.multiplyMV(result, 0, mInverseViewMatrix, 0, new float[] {x, y, NEAR, 1f}, 0);
+        inverseView(x, y, result, 0);
         return result;
     }
 
+    // Writes the homogeneous (x, y, z, w) result to res at resOff.
+    public void inverseView(float x, float y, float[] res, int resOff) {
+        multiplyMV(res, resOff, mInverseViewMatrix, x, y, NEAR);
+    }
+
+    // Unprojects num (x, y) points from v at vOff to (x, y, z) points in res at resOff.
     public void inverseView(float[] res, int resOff, float[] v, int vOff, int num) {
-        float[] temp = new float[4];
+        mInverseViewTransformer.transform2To3(res, resOff, v, vOff, NEAR, num);
+    }
+
+    // As above, reading from and writing to the buffers' current positions, which are advanced.
+    public void inverseView(FloatBuffer res, FloatBuffer v, int num) {
+        float[] m = mInverseViewMatrix;
         for (int ii = 0; ii < num; ii++) {
-            Matrix.multiplyMV(temp, 0, mInverseViewMatrix, 0, new float[] {v[vOff + ii * 2], v[vOff + ii * 2 + 1], NEAR, 1f}, 0);
-            res[ii * 3] = temp[0] / temp[3];
-            res[ii * 3 + 1] = temp[1] / temp[3];
-            res[ii * 3 + 2] = temp[2] / temp[3];
+            float x = v.get();
+            float y = v.get();
+            float w = m[3] * x + m[7] * y + m[11] * NEAR + m[15];
+            res.put((m[0] * x + m[4] * y + m[8] * NEAR + m[12]) / w);
+            res.put((m[1] * x + m[5] * y + m[9] * NEAR + m[13]) / w);
+            res.put((m[2] * x + m[6] * y + m[10] * NEAR + m[14]) / w);
         }
     }
 
@@ -128,9 +198,25 @@ public class Projection implements Cloneable {
         return super.clone();
     }
 
+    private void updateProjection() {
+        Matrix.invertM(mInverseProjectionMatrix, 0, mProjectionMatrix, 0);
+        mInverseProjectionTransformer.setMatrix(mInverseProjectionMatrix, 0);
+        multiplyMatrices();
+    }
+
     private void multiplyMatrices() {
         Matrix.multiplyMM(mViewMatrix, 0, mProjectionMatrix, 0, mRotationMatrix, 0);
         Matrix.invertM(mInverseViewMatrix, 0, mViewMatrix, 0);
+        mViewTransformer.setMatrix(mViewMatrix, 0);
+        mInverseViewTransformer.setMatrix(mInverseViewMatrix, 0);
+    }
+
+    // Equivalent to Matrix.multiplyMV with the vector (x, y, z, 1), without needing an input array.
+    private static void multiplyMV(float[] res, int resOff, float[] m, float x, float y, float z) {
+        res[resOff] = m[0] * x + m[4] * y + m[8] * z + m[12];
+        res[resOff + 1] = m[1] * x + m[5] * y + m[9] * z + m[13];
+        res[resOff + 2] = m[2] * x + m[6] * y + m[10] * z + m[14];
+        res[resOff + 3] = m[3] * x + m[7] * y + m[11] * z + m[15];
     }
 
     // Extracts a unit vector from the average of v1a->v1b and v2a->v2b.
@@ -0,0 +1,317 @@
+package com.github.matt.williams.android.gl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.opengl.GLES20;
+
+// Collects textured quads over a frame and draws them with as few state changes and draw calls as
+// possible.  Quads are sorted by (program, texture, blend mode) and each run sharing the same state is
+// drawn with a single glDrawElements from a streaming vertex buffer and a static index buffer.
+//
+// Sorting reorders quads with different state, so painter's-order overlap between them is lost.  Turn
+// it off with setSortEnabled(false) when drawing overlapping translucent quads - consecutive quads
+// sharing state are still batched.
+//
+// Programs see the attributes aPosition (vec2), aTexCoord (vec2) and aColor (vec4, from an ARGB int),
+// and the texture bound to unit 0.  Other uniforms (e.g. the projection) are left to the caller.
+//
+// Usage per frame: begin(), add() quads, end().
+public class QuadBatcher {
+    public static final int BLEND_NONE = 0;
+    public static final int BLEND_ALPHA = 1;
+    public static final int BLEND_PREMULTIPLIED = 2;
+    public static final int BLEND_ADDITIVE = 3;
+
+    public static final String POSITION = "aPosition";
+    public static final String TEX_COORD = "aTexCoord";
+    public static final String COLOR = "aColor";
+
+    // 16-bit indices can address at most 65536 vertices, i.e. 16384 quads per draw call.
+    private static final int MAX_QUADS_PER_DRAW = 65536 / 4;
+    private static final int FLOATS_PER_QUAD = 12;
+    private static final int QUAD_BITS = 24;
+    private static final int BLEND_BITS = 4;
+    private static final int TEXTURE_BITS = 16;
+    private static final int PROGRAM_BITS = 12;
+    private static final int BLEND_SHIFT = QUAD_BITS;
+    private static final int TEXTURE_SHIFT = BLEND_SHIFT + BLEND_BITS;
+    private static final int PROGRAM_SHIFT = TEXTURE_SHIFT + TEXTURE_BITS;
+    private static final long QUAD_MASK = (1L << QUAD_BITS) - 1;
+    private static final long STATE_MASK = ~QUAD_MASK;
+
+    private final VertexLayout mLayout = new VertexLayout().add(POSITION, 2).add(TEX_COORD, 2).add(COLOR, GLES20.GL_UNSIGNED_BYTE, 4, true);
+    private final int mMaxQuads;
+    private final VertexBuffer mVertexBuffer;
+    private final StreamingBuffer mStream;
+    private final IndexBuffer mIndexBuffer;
+
+    // Per quad: 4 corner positions (bottom-left, bottom-right, top-left, top-right) then u0, v0, u1, v1.
+    private final float[] mQuadData;
+    private final int[] mQuadColors;
+    private final long[] mKeys;
+    private int mNumQuads;
+
+    private final List<Program> mPrograms = new ArrayList<Program>();
+    private final List<Texture> mTextures = new ArrayList<Texture>();
+    private final Map<Texture,Integer> mTextureIndices = new IdentityHashMap<Texture,Integer>();
+    private Texture mLastTexture;
+    private int mLastTextureIndex;
+    private boolean mSortEnabled = true;
+
+    private int mDrawCalls;
+    private int mVertices;
+    private int mOverflows;
+    private int mLastDrawCalls;
+    private int mLastVertices;
+    private int mLastOverflows;
+
+    // maxQuads is the number of quads that can be queued before add() forces an early flush.  Each frame
+    // has room in the vertex stream for maxQuads quads - beyond that, it rewinds its own partition, which
+    // may stall (see getOverflowCount()).
+    public QuadBatcher(int maxQuads) {
+        if (maxQuads <= 0 || maxQuads > QUAD_MASK + 1) {
+            throw new IllegalArgumentException("maxQuads must be between 1 and " + (QUAD_MASK + 1));
+        }
+        mMaxQuads = maxQuads;
+        mQuadData = new float[maxQuads * FLOATS_PER_QUAD];
+        mQuadColors = new int[maxQuads];
+        mKeys = new long[maxQuads];
+        mVertexBuffer = new VertexBuffer(GLES20.GL_STREAM_DRAW);
+        mStream = new StreamingBuffer(mVertexBuffer, maxQuads * 4 * mLayout.getStride());
+
+        int indexedQuads = Math.min(maxQuads, MAX_QUADS_PER_DRAW);
+        short[] indices = new short[indexedQuads * 6];
+        for (int ii = 0; ii < indexedQuads; ii++) {
+            int vertex = ii * 4;
+            indices[ii * 6] = (short)vertex;
+            indices[ii * 6 + 1] = (short)(vertex + 1);
+            indices[ii * 6 + 2] = (short)(vertex + 2);
+            indices[ii * 6 + 3] = (short)(vertex + 2);
+            indices[ii * 6 + 4] = (short)(vertex + 1);
+            indices[ii * 6 + 5] = (short)(vertex + 3);
+        }
+        mIndexBuffer = new IndexBuffer(GLES20.GL_STATIC_DRAW);
+        mIndexBuffer.setData(indices);
+    }
+
+    public void release() {
+        mStream.release();
+        mIndexBuffer.release();
+    }
+
+    public void setSortEnabled(boolean sortEnabled) {
+        mSortEnabled = sortEnabled;
+    }
+
+    public boolean getSortEnabled() {
+        return mSortEnabled;
+    }
+
+    public void begin() {
+        mStream.beginFrame();
+        mDrawCalls = 0;
+        mVertices = 0;
+        mOverflows = 0;
+    }
+
+    // An axis-aligned quad from (x0, y0) to (x1, y1), textured from (u0, v0) to (u1, v1).
+    public void add(Program program, Texture texture, int blend, float x0, float y0, float x1, float y1, float u0, float v0, float u1, float v1, int color) {
+        int base = reserve(program, texture, blend, color);
+        float[] data = mQuadData;
+        data[base] = x0;
+        data[base + 1] = y0;
+        data[base + 2] = x1;
+        data[base + 3] = y0;
+        data[base + 4] = x0;
+        data[base + 5] = y1;
+        data[base + 6] = x1;
+        data[base + 7] = y1;
+        data[base + 8] = u0;
+        data[base + 9] = v0;
+        data[base + 10] = u1;
+        data[base + 11] = v1;
+    }
+
+    // An arbitrary quad: positions holds x, y for the bottom-left, bottom-right, top-left and
+    // top-right corners, starting at offset.
+    public void add(Program program, Texture texture, int blend, float[] positions, int offset, float u0, float v0, float u1, float v1, int color) {
+        int base = reserve(program, texture, blend, color);
+        float[] data = mQuadData;
+        System.arraycopy(positions, offset, data, base, 8);
+        data[base + 8] = u0;
+        data[base + 9] = v0;
+        data[base + 10] = u1;
+        data[base + 11] = v1;
+    }
+
+    public void end() {
+        flush();
+        mLastDrawCalls = mDrawCalls;
+        mLastVertices = mVertices;
+        mLastOverflows = mOverflows;
+    }
+
+    // Draws everything queued so far.  Normally only called by end(), or by add() when the queue is full.
+    public void flush() {
+        int numQuads = mNumQuads;
+        if (numQuads == 0) {
+            return;
+        }
+        long[] keys = mKeys;
+        if (mSortEnabled) {
+            Arrays.sort(keys, 0, numQuads);
+        }
+
+        int stride = mLayout.getStride();
+        ByteBuffer data = mStream.getData();
+        int start = 0;
+        while (start < numQuads) {
+            long state = keys[start] & STATE_MASK;
+            int end = start + 1;
+            while ((end < numQuads) && ((keys[end] & STATE_MASK) == state) && (end - start < MAX_QUADS_PER_DRAW)) {
+                end++;
+            }
+            int count = end - start;
+            int offset = mStream.allocate(count * 4 * stride);
+            if (offset < 0) {
+                // Only happens if a frame flushes more than maxQuads in total.  Reuse this frame's partition
+                // rather than take the next one, which earlier frames' draws may still be reading.
+                mStream.rewindFrame();
+                mOverflows++;
+                offset = mStream.allocate(count * 4 * stride);
+            }
+            for (int ii = start; ii < end; ii++) {
+                writeQuad(data, offset + (ii - start) * 4 * stride, stride, (int)(keys[ii] & QUAD_MASK));
+            }
+            mStream.flush();
+            draw(state, offset, count);
+            start = end;
+        }
+
+        mNumQuads = 0;
+        mPrograms.clear();
+        mTextures.clear();
+        mTextureIndices.clear();
+        mLastTexture = null;
+    }
+
+    public int getQueuedQuadCount() {
+        return mNumQuads;
+    }
+
+    // Statistics for the most recent frame between begin() and end().
+    public int getDrawCallCount() {
+        return mLastDrawCalls;
+    }
+
+    public int getVertexCount() {
+        return mLastVertices;
+    }
+
+    // Times the frame ran out of vertex stream space and rewound it.  If this isn't 0, maxQuads is too small.
+    public int getOverflowCount() {
+        return mLastOverflows;
+    }
+
+    private int reserve(Program program, Texture texture, int blend, int color) {
+        if ((blend < BLEND_NONE) || (blend > BLEND_ADDITIVE)) {
+            throw new IllegalArgumentException("Unknown blend mode " + blend);
+        }
+        if ((mNumQuads == mMaxQuads) || (mPrograms.size() == 1 << PROGRAM_BITS) || (mTextures.size() == 1 << TEXTURE_BITS)) {
+            flush();
+        }
+        int quad = mNumQuads++;
+        mKeys[quad] = ((long)getProgramIndex(program) << PROGRAM_SHIFT) | ((long)getTextureIndex(texture) << TEXTURE_SHIFT) | ((long)blend << BLEND_SHIFT) | quad;
+        mQuadColors[quad] = color;
+        return quad * FLOATS_PER_QUAD;
+    }
+
+    private int getProgramIndex(Program program) {
+        // Few programs are used per frame, so a linear search beats hashing.
+        List<Program> programs = mPrograms;
+        for (int ii = programs.size() - 1; ii >= 0; ii--) {
+            if (programs.get(ii) == program) {
+                return ii;
+            }
+        }
+        programs.add(program);
+        return programs.size() - 1;
+    }
+
+    private int getTextureIndex(Texture texture) {
+        if (texture == mLastTexture) {
+            return mLastTextureIndex;
+        }
+        Integer index = mTextureIndices.get(texture);
+        if (index == null) {
+            index = mTextures.size();
+            mTextures.add(texture);
+            mTextureIndices.put(texture, index);
+        }
+        mLastTexture = texture;
+        mLastTextureIndex = index;
+        return index;
+    }
+
+    private void writeQuad(ByteBuffer data, int offset, int stride, int quad) {
+        float[] values = mQuadData;
+        int base = quad * FLOATS_PER_QUAD;
+        int color = mQuadColors[quad];
+        byte r = (byte)(color >> 16);
+        byte g = (byte)(color >> 8);
+        byte b = (byte)color;
+        byte a = (byte)(color >>> 24);
+        float u0 = values[base + 8];
+        float v0 = values[base + 9];
+        float u1 = values[base + 10];
+        float v1 = values[base + 11];
+        for (int corner = 0; corner < 4; corner++) {
+            int vertex = offset + corner * stride;
+            data.putFloat(vertex, values[base + corner * 2]);
+            data.putFloat(vertex + 4, values[base + corner * 2 + 1]);
+            data.putFloat(vertex + 8, ((corner & 1) == 0) ? u0 : u1);
+            data.putFloat(vertex + 12, ((corner & 2) == 0) ? v0 : v1);
+            data.put(vertex + 16, r);
+            data.put(vertex + 17, g);
+            data.put(vertex + 18, b);
+            data.put(vertex + 19, a);
+        }
+    }
+
+    private void draw(long key, int offset, int count) {
+        Program program = mPrograms.get((int)(key >>> PROGRAM_SHIFT) & ((1 << PROGRAM_BITS) - 1));
+        Texture texture = mTextures.get((int)(key >>> TEXTURE_SHIFT) & ((1 << TEXTURE_BITS) - 1));
+        int blend = (int)(key >>> BLEND_SHIFT) & ((1 << BLEND_BITS) - 1);
+        GLState glState = GLState.get();
+        switch (blend) {
+        case BLEND_NONE:
+            glState.enableBlend(false);
+            break;
+        case BLEND_ALPHA:
+            glState.enableBlend(true);
+            glState.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+            break;
+        case BLEND_PREMULTIPLIED:
+            glState.enableBlend(true);
+            glState.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+            break;
+        case BLEND_ADDITIVE:
+            glState.enableBlend(true);
+            glState.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown blend mode " + blend);
+        }
+        program.use();
+        texture.use(GLES20.GL_TEXTURE0);
+        mLayout.bind(program, mVertexBuffer, offset);
+        mIndexBuffer.draw(GLES20.GL_TRIANGLES, 0, count * 6);
+        mDrawCalls++;
+        mVertices += count * 4;
+    }
+}
@@ -0,0 +1,367 @@
+package com.github.matt.williams.android.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.SparseArray;
+
+// Reads TargetTextures back to the CPU without stalling the GL thread on the GPU.  On GLES 3.0 each
+// read goes into a pixel pack buffer guarded by a fence, and is copied out once the fence signals.
+// On GLES 2.0 the region is first copied into a pooled target, and only read a few frames later,
+// by which time the GPU has finished with it.
+//
+// Results are RGBA pixels in reusable direct ByteBuffers, handed to the Consumer on the executor.
+// The buffer returns to the pool when onReadback() returns, so consumers that need the pixels
+// longer must copy them.
+//
+// read() and poll() must be called on the GL thread.  Both leave the read target's framebuffer
+// bound.
+public class Readback {
+    public interface Consumer {
+        // Called on the executor.  data holds width * height RGBA pixels, bottom row first.
+        void onReadback(ByteBuffer data, int width, int height, long frame);
+    }
+
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 3;
+    private static final int DEFAULT_DELAY_FRAMES = 2;
+    private static final String TEXEL_SIZE_UNIFORM = "uTexelSize";
+    private final Executor mExecutor;
+    private final Consumer mConsumer;
+    private final int mMaxInFlight;
+    private final int mDelayFrames;
+    private final boolean mUsePixelBuffers;
+    private final RenderTargetPool mTargetPool = new RenderTargetPool();
+    private final ShaderCache mShaderCache = new ShaderCache();
+    // Copy programs by downsample factor.
+    private final SparseArray<Program> mCopyPrograms = new SparseArray<Program>();
+    private final ArrayDeque<Request> mPending = new ArrayDeque<Request>();
+    private final List<Request> mFreeRequests = new ArrayList<Request>();
+    // Buffers and deliveries are returned from the executor, so these are shared between threads.
+    private final ConcurrentLinkedQueue<ByteBuffer> mFreeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final ConcurrentLinkedQueue<Delivery> mFreeDeliveries = new ConcurrentLinkedQueue<Delivery>();
+    private final float[] mTexMatrix = new float[16];
+    private FullScreenQuad mQuad;
+    private long mFrame;
+    private int mDroppedCount;
+
+    // Up to maxInFlight reads may be outstanding - further reads are dropped until earlier ones complete.
+    // delayFrames is how many poll()s a GLES 2.0 read waits before its pixels are read.
+    public Readback(Executor executor, Consumer consumer, int maxInFlight, int delayFrames) {
+        mExecutor = executor;
+        mConsumer = consumer;
+        mMaxInFlight = maxInFlight;
+        mDelayFrames = delayFrames;
+        mUsePixelBuffers = isPixelBufferSupported();
+    }
+
+    public Readback(Executor executor, Consumer consumer) {
+        this(executor, consumer, DEFAULT_MAX_IN_FLIGHT, DEFAULT_DELAY_FRAMES);
+    }
+
+    public boolean read(TargetTexture source) {
+        return read(source, 0, 0, source.getWidth(), source.getHeight(), 1);
+    }
+
+    // Reads the region (x, y, width, height) of source, shrunk by an integer downsample factor, so a
+    // 640x480 region with a factor of 4 is delivered as 160x120.  Each output pixel is the mean of a
+    // factor x factor block of source pixels, and any rows or columns left over are dropped.  Returns
+    // false if the read was dropped because too many are already in flight.
+    public boolean read(TargetTexture source, int x, int y, int width, int height, int downsample) {
+        if ((x < 0) || (y < 0) || (width <= 0) || (height <= 0) ||
+            (x + width > source.getWidth()) || (y + height > source.getHeight()))
+        {
+            throw new IllegalArgumentException("Region " + x + "," + y + " " + width + "x" + height + " outside " + source.getWidth() + "x" + source.getHeight() + " target");
+        }
+        if (downsample < 1) {
+            throw new IllegalArgumentException("Downsample factor must be at least 1, got " + downsample);
+        }
+        if (mPending.size() >= mMaxInFlight) {
+            mDroppedCount++;
+            return false;
+        }
+        int outWidth = Math.max(width / downsample, 1);
+        int outHeight = Math.max(height / downsample, 1);
+        Request request = obtainRequest();
+        request.mWidth = outWidth;
+        request.mHeight = outHeight;
+        request.mFrame = mFrame;
+
+        // GLES 2.0 always copies, since the source will have been overwritten by the time it's read.
+        TargetTexture target = source;
+        if ((downsample > 1) || !mUsePixelBuffers) {
+            target = mTargetPool.acquire(outWidth, outHeight);
+            copy(source, x, y, width, height, downsample, target);
+            x = 0;
+            y = 0;
+        }
+        if (mUsePixelBuffers) {
+            readToPixelBuffer(request, target, x, y);
+            // GL orders the queued read before any later rendering, so the copy can be reused at once.
+            if (target != source) {
+                mTargetPool.recycle(target);
+            }
+        } else {
+            request.mTarget = target;
+        }
+        mPending.add(request);
+        return true;
+    }
+
+    // Call once per frame.  Completes, in order, the reads whose pixels are available.
+    public void poll() {
+        while (!mPending.isEmpty()) {
+            Request request = mPending.peek();
+            int size = request.mWidth * request.mHeight * BYTES_PER_PIXEL;
+            ByteBuffer data;
+            if (mUsePixelBuffers) {
+                data = readFromPixelBuffer(request, size);
+                if (data == null) {
+                    break;
+                }
+            } else {
+                if (mFrame - request.mFrame < mDelayFrames) {
+                    break;
+                }
+                data = obtainBuffer(size);
+                request.mTarget.readPixels(0, 0, request.mWidth, request.mHeight, data);
+                mTargetPool.recycle(request.mTarget);
+                request.mTarget = null;
+            }
+            mPending.poll();
+            deliver(data, request.mWidth, request.mHeight, request.mFrame);
+            mFreeRequests.add(request);
+        }
+        mTargetPool.endFrame();
+        mFrame++;
+    }
+
+    // Abandons any reads in flight.  Buffers still with the consumer are simply dropped.
+    public void release() {
+        GLBackend gl = GLState.gl();
+        for (Request request : mPending) {
+            if (request.mFence != 0) {
+                gl.glDeleteSync(request.mFence);
+            }
+            if (request.mTarget != null) {
+                mTargetPool.recycle(request.mTarget);
+            }
+            mFreeRequests.add(request);
+        }
+        mPending.clear();
+        for (Request request : mFreeRequests) {
+            if (request.mPixelBuffer != null) {
+                request.mPixelBuffer.release();
+            }
+        }
+        mFreeRequests.clear();
+        mFreeBuffers.clear();
+        mTargetPool.clear();
+        mCopyPrograms.clear();
+        mShaderCache.clear();
+        if (mQuad != null) {
+            mQuad.release();
+            mQuad = null;
+        }
+    }
+
+    public int getPendingCount() {
+        return mPending.size();
+    }
+
+    public int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public boolean isAsynchronous() {
+        return mUsePixelBuffers;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void readToPixelBuffer(Request request, TargetTexture target, int x, int y) {
+        GLBackend gl = GLState.gl();
+        int size = request.mWidth * request.mHeight * BYTES_PER_PIXEL;
+        if (request.mPixelBuffer == null) {
+            request.mPixelBuffer = new BufferObject(GLES30.GL_PIXEL_PACK_BUFFER, GLES30.GL_STREAM_READ);
+        }
+        if (request.mPixelBuffer.getSize() < size) {
+            request.mPixelBuffer.allocate(size);
+        }
+        request.mPixelBuffer.bind();
+        target.readPixelsToPackBuffer(x, y, request.mWidth, request.mHeight);
+        // Unbind so that client-memory reads elsewhere aren't treated as buffer offsets.
+        request.mPixelBuffer.unbind();
+        request.mFence = gl.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        Utils.checkErrors("glFenceSync");
+        gl.glFlush();
+    }
+
+    // Returns null if the GPU hasn't finished writing the request's pixel buffer yet.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private ByteBuffer readFromPixelBuffer(Request request, int size) {
+        GLBackend gl = GLState.gl();
+        int status = gl.glClientWaitSync(request.mFence, 0, 0);
+        Utils.checkErrors("glClientWaitSync");
+        if ((status != GLES30.GL_ALREADY_SIGNALED) && (status != GLES30.GL_CONDITION_SATISFIED)) {
+            return null;
+        }
+        gl.glDeleteSync(request.mFence);
+        request.mFence = 0;
+        ByteBuffer data = obtainBuffer(size);
+        data.put(request.mPixelBuffer.map(0, size, GLES30.GL_MAP_READ_BIT));
+        request.mPixelBuffer.unmap();
+        request.mPixelBuffer.unbind();
+        data.flip();
+        return data;
+    }
+
+    // Draws the region of source into the whole of target, box filtering factor x factor blocks.
+    private void copy(TargetTexture source, int x, int y, int width, int height, int factor, TargetTexture target) {
+        target.renderTo();
+        Program program = mCopyPrograms.get(factor);
+        if (program == null) {
+            program = mShaderCache.getProgram(RenderGraph.getVertexSource(), getCopyFragmentSource(factor));
+            mCopyPrograms.put(factor, program);
+        }
+        program.use();
+        // The taps rely on bilinear filtering to average pairs of texels, but a straight copy's single
+        // tap sits on a texel centre and is exact with whatever filter the source already has.
+        int minFilter = source.getMinFilter();
+        int magFilter = source.getMagFilter();
+        if (factor > 1) {
+            source.setFilter(GLES20.GL_LINEAR, GLES20.GL_LINEAR);
+        }
+        source.use(GLES20.GL_TEXTURE0);
+        program.setUniform(RenderGraph.TEXTURE_UNIFORM, 0);
+        float sourceWidth = source.getWidth();
+        float sourceHeight = source.getHeight();
+        // Map whole blocks onto output pixels, so that taps land on texel boundaries.
+        mTexMatrix[0] = Math.min(target.getWidth() * factor, width) / sourceWidth;
+        mTexMatrix[5] = Math.min(target.getHeight() * factor, height) / sourceHeight;
+        mTexMatrix[10] = 1;
+        mTexMatrix[12] = x / sourceWidth;
+        mTexMatrix[13] = y / sourceHeight;
+        mTexMatrix[15] = 1;
+        program.setUniform(RenderGraph.TEX_MATRIX_UNIFORM, mTexMatrix);
+        program.setUniform(TEXEL_SIZE_UNIFORM, 1 / sourceWidth, 1 / sourceHeight);
+        if (mQuad == null) {
+            mQuad = new FullScreenQuad();
+        }
+        mQuad.draw(program, RenderGraph.POSITION_ATTRIB);
+        if (factor > 1) {
+            source.setFilter(minFilter, magFilter);
+        }
+    }
+
+    private Request obtainRequest() {
+        int last = mFreeRequests.size() - 1;
+        return (last >= 0) ? mFreeRequests.remove(last) : new Request();
+    }
+
+    private ByteBuffer obtainBuffer(int size) {
+        // Buffers are all of similar sizes, so take the first that fits and let small ones fall out of the pool.
+        ByteBuffer buffer;
+        while ((buffer = mFreeBuffers.poll()) != null) {
+            if (buffer.capacity() >= size) {
+                buffer.clear();
+                buffer.limit(size);
+                return buffer;
+            }
+        }
+        buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        return buffer;
+    }
+
+    private void deliver(ByteBuffer data, int width, int height, long frame) {
+        Delivery delivery = mFreeDeliveries.poll();
+        if (delivery == null) {
+            delivery = new Delivery();
+        }
+        delivery.mData = data;
+        delivery.mWidth = width;
+        delivery.mHeight = height;
+        delivery.mFrame = frame;
+        mExecutor.execute(delivery);
+    }
+
+    // Averages a factor x factor block of texels around vTexCoord.  Along each axis, a bilinear tap on
+    // the boundary between each pair of texels averages the pair, and an odd texel out gets a tap of
+    // its own at half the weight - (factor + 1) / 2 taps per axis in all.
+    private static String getCopyFragmentSource(int factor) {
+        int numTaps = (factor + 1) / 2;
+        float[] offsets = new float[numTaps];
+        float[] weights = new float[numTaps];
+        for (int ii = 0; ii < factor / 2; ii++) {
+            offsets[ii] = 2 * ii + 1 - factor / 2.0f;
+            weights[ii] = 2.0f / factor;
+        }
+        if (factor % 2 != 0) {
+            offsets[numTaps - 1] = (factor - 1) / 2.0f;
+            weights[numTaps - 1] = 1.0f / factor;
+        }
+        StringBuilder source = new StringBuilder();
+        // Texel offsets on large frames need more than mediump's precision.
+        source.append(GpuReduction.getPrecisionSource());
+        source.append("uniform sampler2D ").append(RenderGraph.TEXTURE_UNIFORM).append(";\n");
+        source.append("uniform vec2 ").append(TEXEL_SIZE_UNIFORM).append(";\n");
+        source.append("varying vec2 vTexCoord;\n");
+        source.append("void main() {\n");
+        source.append("    vec4 sum = vec4(0.0);\n");
+        for (int yy = 0; yy < numTaps; yy++) {
+            for (int xx = 0; xx < numTaps; xx++) {
+                source.append("    sum += ").append(weights[xx] * weights[yy]);
+                source.append(" * texture2D(").append(RenderGraph.TEXTURE_UNIFORM).append(", vTexCoord + vec2(");
+                source.append(offsets[xx]).append(", ").append(offsets[yy]).append(") * ").append(TEXEL_SIZE_UNIFORM).append(");\n");
+            }
+        }
+        source.append("    gl_FragColor = sum;\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private static boolean isPixelBufferSupported() {
+        GLBackend gl = GLState.gl();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return false;
+        }
+        String version = gl.glGetString(GLES20.GL_VERSION);
+        return (version != null) && version.startsWith("OpenGL ES 3");
+    }
+
+    private static class Request {
+        int mWidth;
+        int mHeight;
+        long mFrame;
+        BufferObject mPixelBuffer;
+        long mFence;
+        TargetTexture mTarget;
+    }
+
+    private class Delivery implements Runnable {
+        ByteBuffer mData;
+        int mWidth;
+        int mHeight;
+        long mFrame;
+
+        @Override
+        public void run() {
+            ByteBuffer data = mData;
+            mData = null;
+            try {
+                mConsumer.onReadback(data, mWidth, mHeight, mFrame);
+            } finally {
+                mFreeBuffers.add(data);
+                mFreeDeliveries.add(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,1384 @@
+package com.github.matt.williams.android.gl;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+// A backend that records every call as a compact binary trace and counts calls, redundant binds and
+// bytes uploaded per frame.  With a delegate (typically GLES20Backend) calls are passed through; with
+// a null delegate nothing is drawn, object names are handed out sequentially and queries report
+// success (timer queries complete immediately with 0ns), so the library's CPU cost can be measured
+// without a GPU.  Headless programs have no active uniforms unless some are added with
+// addFakeUniform(), so that uniform staging and upload can be exercised too.
+//
+// The trace is a sequence of ints: a header of (op.ordinal() << 8) | numArgs followed by the
+// arguments.  Floats are stored as their raw bits, longs (sync objects) as their low 32 bits,
+// buffers, bitmaps and strings as their length in bytes or characters, and array arguments are
+// omitted.
+//
+// Install with GLState.get().setBackend(), then call endFrame() once per frame.
+public class RecordingGLBackend implements GLBackend {
+    public enum Op {
+        ACTIVE_TEXTURE,
+        ATTACH_SHADER,
+        BIND_ATTRIB_LOCATION,
+        BIND_BUFFER,
+        BIND_FRAMEBUFFER,
+        BIND_TEXTURE,
+        BLEND_FUNC,
+        BUFFER_DATA,
+        BUFFER_SUB_DATA,
+        CHECK_FRAMEBUFFER_STATUS,
+        CLEAR,
+        CLEAR_COLOR,
+        COMPILE_SHADER,
+        COMPRESSED_TEX_IMAGE_2D,
+        CREATE_PROGRAM,
+        CREATE_SHADER,
+        DELETE_BUFFERS,
+        DELETE_FRAMEBUFFERS,
+        DELETE_PROGRAM,
+        DELETE_SHADER,
+        DELETE_TEXTURES,
+        DETACH_SHADER,
+        DISABLE,
+        DISABLE_VERTEX_ATTRIB_ARRAY,
+        DRAW_ARRAYS,
+        DRAW_ELEMENTS,
+        ENABLE,
+        ENABLE_VERTEX_ATTRIB_ARRAY,
+        FINISH,
+        FLUSH,
+        FRAMEBUFFER_TEXTURE_2D,
+        GEN_BUFFERS,
+        GEN_FRAMEBUFFERS,
+        GEN_TEXTURES,
+        GENERATE_MIPMAP,
+        GET_ACTIVE_ATTRIB,
+        GET_ACTIVE_UNIFORM,
+        GET_ATTRIB_LOCATION,
+        GET_ERROR,
+        GET_INTEGERV,
+        GET_PROGRAM_INFO_LOG,
+        GET_PROGRAMIV,
+        GET_SHADER_INFO_LOG,
+        GET_SHADERIV,
+        GET_STRING,
+        GET_UNIFORM_LOCATION,
+        LINK_PROGRAM,
+        PIXEL_STOREI,
+        READ_PIXELS,
+        SHADER_SOURCE,
+        TEX_IMAGE_2D,
+        TEX_PARAMETERI,
+        TEX_SUB_IMAGE_2D,
+        UNIFORM1FV,
+        UNIFORM1IV,
+        UNIFORM2FV,
+        UNIFORM2IV,
+        UNIFORM3FV,
+        UNIFORM3IV,
+        UNIFORM4FV,
+        UNIFORM4IV,
+        UNIFORM_MATRIX2FV,
+        UNIFORM_MATRIX3FV,
+        UNIFORM_MATRIX4FV,
+        USE_PROGRAM,
+        VALIDATE_PROGRAM,
+        VERTEX_ATTRIB_POINTER,
+        VERTEX_ATTRIB_POINTER_OFFSET,
+        VIEWPORT,
+        GET_PROGRAM_BINARY,
+        PROGRAM_BINARY,
+        MAP_BUFFER_RANGE,
+        UNMAP_BUFFER,
+        TEX_SUB_IMAGE_2D_OFFSET,
+        READ_PIXELS_OFFSET,
+        GEN_QUERIES,
+        DELETE_QUERIES,
+        BEGIN_QUERY,
+        END_QUERY,
+        GET_QUERY_OBJECTUIV,
+        FENCE_SYNC,
+        CLIENT_WAIT_SYNC,
+        DELETE_SYNC,
+        TEX_IMAGE_2D_BITMAP,
+        TEX_SUB_IMAGE_2D_BITMAP
+    }
+
+    private static final int MAX_TEXTURE_UNITS = 32;
+    private static final int INITIAL_TRACE_SIZE = 4096;
+    private static final int GL_HALF_FLOAT_OES = 0x8D61;
+
+    private final GLBackend mDelegate;
+    private boolean mTracing = true;
+    private int[] mTrace = new int[INITIAL_TRACE_SIZE];
+    private int mTraceLength;
+    private int[] mLastTrace = new int[INITIAL_TRACE_SIZE];
+    private int mLastTraceLength;
+
+    private final int[] mCallCounts = new int[Op.values().length];
+    private final int[] mLastCallCounts = new int[Op.values().length];
+    private int mRedundantBinds;
+    private int mLastRedundantBinds;
+    private long mBytesUploaded;
+    private long mLastBytesUploaded;
+    private int mFrames;
+
+    // Our own record of bindings, separate from GLState, so binds GLState failed to filter show up.
+    private int mProgram = GLState.UNKNOWN;
+    // GL starts with unit 0 active.
+    private int mActiveTexture = 0;
+    private final int[] mTextures2D = new int[MAX_TEXTURE_UNITS];
+    private final int[] mTexturesExternal = new int[MAX_TEXTURE_UNITS];
+    private int mArrayBuffer = GLState.UNKNOWN;
+    private int mElementArrayBuffer = GLState.UNKNOWN;
+    private int mFramebuffer = GLState.UNKNOWN;
+    private int mNextId = 1;
+
+    // Headless only - the uniforms every program reports, and their locations by element name.
+    private final List<FakeUniform> mFakeUniforms = new ArrayList<FakeUniform>();
+    private final Map<String, Integer> mFakeUniformLocations = new HashMap<String, Integer>();
+    private int mNextFakeUniformLocation;
+
+    // delegate may be null to run headless.
+    public RecordingGLBackend(GLBackend delegate) {
+        mDelegate = delegate;
+        for (int ii = 0; ii < MAX_TEXTURE_UNITS; ii++) {
+            mTextures2D[ii] = GLState.UNKNOWN;
+            mTexturesExternal[ii] = GLState.UNKNOWN;
+        }
+    }
+
+    public RecordingGLBackend() {
+        this(null);
+    }
+
+    // Makes every program linked from now on report an active uniform of the given GL type (e.g.
+    // GL_FLOAT_VEC4) and array size when headless.  Each element gets its own location, and arrays
+    // are reported as "name[0]", as real drivers do.  Has no effect with a delegate.
+    public void addFakeUniform(String name, int type, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Uniform " + name + " must have at least one element, got " + size);
+        }
+        if (mFakeUniformLocations.containsKey(name)) {
+            throw new IllegalArgumentException("Uniform " + name + " already added");
+        }
+        mFakeUniforms.add(new FakeUniform((size > 1) ? (name + "[0]") : name, type, size));
+        for (int element = 0; element < size; element++) {
+            mFakeUniformLocations.put(name + "[" + element + "]", mNextFakeUniformLocation + element);
+        }
+        mFakeUniformLocations.put(name, mNextFakeUniformLocation);
+        mNextFakeUniformLocation += size;
+    }
+
+    public void clearFakeUniforms() {
+        mFakeUniforms.clear();
+        mFakeUniformLocations.clear();
+        mNextFakeUniformLocation = 0;
+    }
+
+    // With tracing off, only the statistics are kept.
+    public void setTracing(boolean tracing) {
+        mTracing = tracing;
+    }
+
+    public boolean getTracing() {
+        return mTracing;
+    }
+
+    // Completes the current frame - the getters below then report on it until the next endFrame().
+    public void endFrame() {
+        int[] trace = mLastTrace;
+        mLastTrace = mTrace;
+        mLastTraceLength = mTraceLength;
+        mTrace = trace;
+        mTraceLength = 0;
+        System.arraycopy(mCallCounts, 0, mLastCallCounts, 0, mCallCounts.length);
+        Arrays.fill(mCallCounts, 0);
+        mLastRedundantBinds = mRedundantBinds;
+        mRedundantBinds = 0;
+        mLastBytesUploaded = mBytesUploaded;
+        mBytesUploaded = 0;
+        mFrames++;
+    }
+
+    public int getFrameCount() {
+        return mFrames;
+    }
+
+    public int getCallCount(Op op) {
+        return mLastCallCounts[op.ordinal()];
+    }
+
+    public int getCallCount() {
+        int total = 0;
+        for (int count : mLastCallCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+    // Binds of the program, active texture unit, a 2D/external texture, array buffer or framebuffer
+    // that was already bound.
+    public int getRedundantBindCount() {
+        return mLastRedundantBinds;
+    }
+
+    // Client memory passed to buffer, texture and uniform uploads.  Allocations with null data
+    // count nothing.
+    public long getBytesUploaded() {
+        return mLastBytesUploaded;
+    }
+
+    // The trace of the last frame - only the first getTraceLength() ints are valid.
+    public int[] getTrace() {
+        return mLastTrace;
+    }
+
+    public int getTraceLength() {
+        return mLastTraceLength;
+    }
+
+    public void writeTrace(DataOutput out) throws IOException {
+        out.writeInt(mLastTraceLength);
+        for (int ii = 0; ii < mLastTraceLength; ii++) {
+            out.writeInt(mLastTrace[ii]);
+        }
+    }
+
+    // e.g. "calls=120 redundantBinds=3 bytesUploaded=4096 DRAW_ELEMENTS=10 ..."
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("calls=").append(getCallCount());
+        summary.append(" redundantBinds=").append(mLastRedundantBinds);
+        summary.append(" bytesUploaded=").append(mLastBytesUploaded);
+        Op[] ops = Op.values();
+        for (int ii = 0; ii < ops.length; ii++) {
+            if (mLastCallCounts[ii] > 0) {
+                summary.append(' ').append(ops[ii].name()).append('=').append(mLastCallCounts[ii]);
+            }
+        }
+        return summary.toString();
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        begin(Op.ACTIVE_TEXTURE, 1);
+        put(texture);
+        mActiveTexture = countBind(mActiveTexture, texture - GLES20.GL_TEXTURE0);
+        if (mDelegate != null) {
+            mDelegate.glActiveTexture(texture);
+        }
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        begin(Op.ATTACH_SHADER, 2);
+        put(program);
+        put(shader);
+        if (mDelegate != null) {
+            mDelegate.glAttachShader(program, shader);
+        }
+    }
+
+    @Override
+    public void glBindAttribLocation(int program, int index, String name) {
+        begin(Op.BIND_ATTRIB_LOCATION, 3);
+        put(program);
+        put(index);
+        put((name != null) ? name.length() : -1);
+        if (mDelegate != null) {
+            mDelegate.glBindAttribLocation(program, index, name);
+        }
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        begin(Op.BIND_BUFFER, 2);
+        put(target);
+        put(buffer);
+        bindBuffer(target, buffer);
+        if (mDelegate != null) {
+            mDelegate.glBindBuffer(target, buffer);
+        }
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        begin(Op.BIND_FRAMEBUFFER, 2);
+        put(target);
+        put(framebuffer);
+        mFramebuffer = countBind(mFramebuffer, framebuffer);
+        if (mDelegate != null) {
+            mDelegate.glBindFramebuffer(target, framebuffer);
+        }
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        begin(Op.BIND_TEXTURE, 2);
+        put(target);
+        put(texture);
+        bindTexture(target, texture);
+        if (mDelegate != null) {
+            mDelegate.glBindTexture(target, texture);
+        }
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        begin(Op.BLEND_FUNC, 2);
+        put(sfactor);
+        put(dfactor);
+        if (mDelegate != null) {
+            mDelegate.glBlendFunc(sfactor, dfactor);
+        }
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        begin(Op.BUFFER_DATA, 4);
+        put(target);
+        put(size);
+        put(bytesOf(data));
+        put(usage);
+        mBytesUploaded += (data != null) ? size : 0;
+        if (mDelegate != null) {
+            mDelegate.glBufferData(target, size, data, usage);
+        }
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        begin(Op.BUFFER_SUB_DATA, 4);
+        put(target);
+        put(offset);
+        put(size);
+        put(bytesOf(data));
+        mBytesUploaded += size;
+        if (mDelegate != null) {
+            mDelegate.glBufferSubData(target, offset, size, data);
+        }
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        begin(Op.CHECK_FRAMEBUFFER_STATUS, 1);
+        put(target);
+        return (mDelegate != null) ? mDelegate.glCheckFramebufferStatus(target) : GLES20.GL_FRAMEBUFFER_COMPLETE;
+    }
+
+    @Override
+    public void glClear(int mask) {
+        begin(Op.CLEAR, 1);
+        put(mask);
+        if (mDelegate != null) {
+            mDelegate.glClear(mask);
+        }
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        begin(Op.CLEAR_COLOR, 4);
+        put(Float.floatToRawIntBits(red));
+        put(Float.floatToRawIntBits(green));
+        put(Float.floatToRawIntBits(blue));
+        put(Float.floatToRawIntBits(alpha));
+        if (mDelegate != null) {
+            mDelegate.glClearColor(red, green, blue, alpha);
+        }
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        begin(Op.COMPILE_SHADER, 1);
+        put(shader);
+        if (mDelegate != null) {
+            mDelegate.glCompileShader(shader);
+        }
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int target, int level, int internalformat, int width, int height, int border, int imageSize, Buffer data) {
+        begin(Op.COMPRESSED_TEX_IMAGE_2D, 8);
+        put(target);
+        put(level);
+        put(internalformat);
+        put(width);
+        put(height);
+        put(border);
+        put(imageSize);
+        put(bytesOf(data));
+        mBytesUploaded += (data != null) ? imageSize : 0;
+        if (mDelegate != null) {
+            mDelegate.glCompressedTexImage2D(target, level, internalformat, width, height, border, imageSize, data);
+        }
+    }
+
+    @Override
+    public int glCreateProgram() {
+        begin(Op.CREATE_PROGRAM, 0);
+        return (mDelegate != null) ? mDelegate.glCreateProgram() : mNextId++;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        begin(Op.CREATE_SHADER, 1);
+        put(type);
+        return (mDelegate != null) ? mDelegate.glCreateShader(type) : mNextId++;
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        begin(Op.DELETE_BUFFERS, 2);
+        put(n);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glDeleteBuffers(n, buffers, offset);
+        }
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int n, int[] framebuffers, int offset) {
+        begin(Op.DELETE_FRAMEBUFFERS, 2);
+        put(n);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glDeleteFramebuffers(n, framebuffers, offset);
+        }
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        begin(Op.DELETE_PROGRAM, 1);
+        put(program);
+        if (mDelegate != null) {
+            mDelegate.glDeleteProgram(program);
+        }
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        begin(Op.DELETE_SHADER, 1);
+        put(shader);
+        if (mDelegate != null) {
+            mDelegate.glDeleteShader(shader);
+        }
+    }
+
+    @Override
+    public void glDeleteTextures(int n, int[] textures, int offset) {
+        begin(Op.DELETE_TEXTURES, 2);
+        put(n);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glDeleteTextures(n, textures, offset);
+        }
+    }
+
+    @Override
+    public void glDetachShader(int program, int shader) {
+        begin(Op.DETACH_SHADER, 2);
+        put(program);
+        put(shader);
+        if (mDelegate != null) {
+            mDelegate.glDetachShader(program, shader);
+        }
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        begin(Op.DISABLE, 1);
+        put(cap);
+        if (mDelegate != null) {
+            mDelegate.glDisable(cap);
+        }
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        begin(Op.DISABLE_VERTEX_ATTRIB_ARRAY, 1);
+        put(index);
+        if (mDelegate != null) {
+            mDelegate.glDisableVertexAttribArray(index);
+        }
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        begin(Op.DRAW_ARRAYS, 3);
+        put(mode);
+        put(first);
+        put(count);
+        if (mDelegate != null) {
+            mDelegate.glDrawArrays(mode, first, count);
+        }
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        begin(Op.DRAW_ELEMENTS, 4);
+        put(mode);
+        put(count);
+        put(type);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glDrawElements(mode, count, type, offset);
+        }
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        begin(Op.ENABLE, 1);
+        put(cap);
+        if (mDelegate != null) {
+            mDelegate.glEnable(cap);
+        }
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        begin(Op.ENABLE_VERTEX_ATTRIB_ARRAY, 1);
+        put(index);
+        if (mDelegate != null) {
+            mDelegate.glEnableVertexAttribArray(index);
+        }
+    }
+
+    @Override
+    public void glFinish() {
+        begin(Op.FINISH, 0);
+        if (mDelegate != null) {
+            mDelegate.glFinish();
+        }
+    }
+
+    @Override
+    public void glFlush() {
+        begin(Op.FLUSH, 0);
+        if (mDelegate != null) {
+            mDelegate.glFlush();
+        }
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+        begin(Op.FRAMEBUFFER_TEXTURE_2D, 5);
+        put(target);
+        put(attachment);
+        put(textarget);
+        put(texture);
+        put(level);
+        if (mDelegate != null) {
+            mDelegate.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+        }
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        begin(Op.GEN_BUFFERS, 2);
+        put(n);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glGenBuffers(n, buffers, offset);
+        } else {
+            fakeGen(n, buffers, offset);
+        }
+    }
+
+    @Override
+    public void glGenFramebuffers(int n, int[] framebuffers, int offset) {
+        begin(Op.GEN_FRAMEBUFFERS, 2);
+        put(n);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glGenFramebuffers(n, framebuffers, offset);
+        } else {
+            fakeGen(n, framebuffers, offset);
+        }
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        begin(Op.GEN_TEXTURES, 2);
+        put(n);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glGenTextures(n, textures, offset);
+        } else {
+            fakeGen(n, textures, offset);
+        }
+    }
+
+    @Override
+    public void glGenerateMipmap(int target) {
+        begin(Op.GENERATE_MIPMAP, 1);
+        put(target);
+        if (mDelegate != null) {
+            mDelegate.glGenerateMipmap(target);
+        }
+    }
+
+    @Override
+    public void glGetActiveAttrib(int program, int index, int bufsize, int[] length, int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name, int nameOffset) {
+        begin(Op.GET_ACTIVE_ATTRIB, 7);
+        put(program);
+        put(index);
+        put(bufsize);
+        put(lengthOffset);
+        put(sizeOffset);
+        put(typeOffset);
+        put(nameOffset);
+        if (mDelegate != null) {
+            mDelegate.glGetActiveAttrib(program, index, bufsize, length, lengthOffset, size, sizeOffset, type, typeOffset, name, nameOffset);
+        } else {
+            length[lengthOffset] = 0;
+        }
+    }
+
+    @Override
+    public void glGetActiveUniform(int program, int index, int bufsize, int[] length, int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name, int nameOffset) {
+        begin(Op.GET_ACTIVE_UNIFORM, 7);
+        put(program);
+        put(index);
+        put(bufsize);
+        put(lengthOffset);
+        put(sizeOffset);
+        put(typeOffset);
+        put(nameOffset);
+        if (mDelegate != null) {
+            mDelegate.glGetActiveUniform(program, index, bufsize, length, lengthOffset, size, sizeOffset, type, typeOffset, name, nameOffset);
+        } else {
+            fakeActiveUniform(index, bufsize, length, lengthOffset, size, sizeOffset, type, typeOffset, name, nameOffset);
+        }
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        begin(Op.GET_ATTRIB_LOCATION, 2);
+        put(program);
+        put((name != null) ? name.length() : -1);
+        return (mDelegate != null) ? mDelegate.glGetAttribLocation(program, name) : -1;
+    }
+
+    @Override
+    public int glGetError() {
+        begin(Op.GET_ERROR, 0);
+        return (mDelegate != null) ? mDelegate.glGetError() : GLES20.GL_NO_ERROR;
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        begin(Op.GET_INTEGERV, 2);
+        put(pname);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glGetIntegerv(pname, params, offset);
+        } else {
+            params[offset] = 0;
+        }
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        begin(Op.GET_PROGRAM_INFO_LOG, 1);
+        put(program);
+        return (mDelegate != null) ? mDelegate.glGetProgramInfoLog(program) : "";
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        begin(Op.GET_PROGRAMIV, 3);
+        put(program);
+        put(pname);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glGetProgramiv(program, pname, params, offset);
+        } else {
+            params[offset] = fakeProgramParameter(pname);
+        }
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        begin(Op.GET_SHADER_INFO_LOG, 1);
+        put(shader);
+        return (mDelegate != null) ? mDelegate.glGetShaderInfoLog(shader) : "";
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        begin(Op.GET_SHADERIV, 3);
+        put(shader);
+        put(pname);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glGetShaderiv(shader, pname, params, offset);
+        } else {
+            params[offset] = (pname == GLES20.GL_COMPILE_STATUS) ? GLES20.GL_TRUE : 0;
+        }
+    }
+
+    @Override
+    public String glGetString(int name) {
+        begin(Op.GET_STRING, 1);
+        put(name);
+        return (mDelegate != null) ? mDelegate.glGetString(name) : (name == GLES20.GL_VERSION) ? "OpenGL ES 2.0 (headless)" : "headless";
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        begin(Op.GET_UNIFORM_LOCATION, 2);
+        put(program);
+        put((name != null) ? name.length() : -1);
+        return (mDelegate != null) ? mDelegate.glGetUniformLocation(program, name) : fakeUniformLocation(name);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        begin(Op.LINK_PROGRAM, 1);
+        put(program);
+        if (mDelegate != null) {
+            mDelegate.glLinkProgram(program);
+        }
+    }
+
+    @Override
+    public void glPixelStorei(int pname, int param) {
+        begin(Op.PIXEL_STOREI, 2);
+        put(pname);
+        put(param);
+        if (mDelegate != null) {
+            mDelegate.glPixelStorei(pname, param);
+        }
+    }
+
+    @Override
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, Buffer pixels) {
+        begin(Op.READ_PIXELS, 7);
+        put(x);
+        put(y);
+        put(width);
+        put(height);
+        put(format);
+        put(type);
+        put(bytesOf(pixels));
+        if (mDelegate != null) {
+            mDelegate.glReadPixels(x, y, width, height, format, type, pixels);
+        }
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        begin(Op.SHADER_SOURCE, 2);
+        put(shader);
+        put((string != null) ? string.length() : -1);
+        if (mDelegate != null) {
+            mDelegate.glShaderSource(shader, string);
+        }
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, Buffer pixels) {
+        begin(Op.TEX_IMAGE_2D, 9);
+        put(target);
+        put(level);
+        put(internalformat);
+        put(width);
+        put(height);
+        put(border);
+        put(format);
+        put(type);
+        put(bytesOf(pixels));
+        mBytesUploaded += (pixels != null) ? pixelBytes(width, height, format, type) : 0;
+        if (mDelegate != null) {
+            mDelegate.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+        }
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        begin(Op.TEX_PARAMETERI, 3);
+        put(target);
+        put(pname);
+        put(param);
+        if (mDelegate != null) {
+            mDelegate.glTexParameteri(target, pname, param);
+        }
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, Buffer pixels) {
+        begin(Op.TEX_SUB_IMAGE_2D, 9);
+        put(target);
+        put(level);
+        put(xoffset);
+        put(yoffset);
+        put(width);
+        put(height);
+        put(format);
+        put(type);
+        put(bytesOf(pixels));
+        mBytesUploaded += (pixels != null) ? pixelBytes(width, height, format, type) : 0;
+        if (mDelegate != null) {
+            mDelegate.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, pixels);
+        }
+    }
+
+    @Override
+    public void glUniform1fv(int location, int count, float[] v, int offset) {
+        begin(Op.UNIFORM1FV, 3);
+        put(location);
+        put(count);
+        put(offset);
+        mBytesUploaded += count * 1 * 4;
+        if (mDelegate != null) {
+            mDelegate.glUniform1fv(location, count, v, offset);
+        }
+    }
+
+    @Override
+    public void glUniform1iv(int location, int count, int[] v, int offset) {
+        begin(Op.UNIFORM1IV, 3);
+        put(location);
+        put(count);
+        put(offset);
+        mBytesUploaded += count * 1 * 4;
+        if (mDelegate != null) {
+            mDelegate.glUniform1iv(location, count, v, offset);
+        }
+    }
+
+    @Override
+    public void glUniform2fv(int location, int count, float[] v, int offset) {
+        begin(Op.UNIFORM2FV, 3);
+        put(location);
+        put(count);
+        put(offset);
+        mBytesUploaded += count * 2 * 4;
+        if (mDelegate != null) {
+            mDelegate.glUniform2fv(location, count, v, offset);
+        }
+    }
+
+    @Override
+    public void glUniform2iv(int location, int count, int[] v, int offset) {
+        begin(Op.UNIFORM2IV, 3);
+        put(location);
+        put(count);
+        put(offset);
+        mBytesUploaded += count * 2 * 4;
+        if (mDelegate != null) {
+            mDelegate.glUniform2iv(location, count, v, offset);
+        }
+    }
+
+    @Override
+    public void glUniform3fv(int location, int count, float[] v, int offset) {
+        begin(Op.UNIFORM3FV, 3);
+        put(location);
+        put(count);
+        put(offset);
+        mBytesUploaded += count * 3 * 4;
+        if (mDelegate != null) {
+            mDelegate.glUniform3fv(location, count, v, offset);
+        }
+    }
+
+    @Override
+    public void glUniform3iv(int location, int count, int[] v, int offset) {
+        begin(Op.UNIFORM3IV, 3);
+        put(location);
+        put(count);
+        put(offset);
+        mBytesUploaded += count * 3 * 4;
+        if (mDelegate != null) {
+            mDelegate.glUniform3iv(location, count, v, offset);
+        }
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        begin(Op.UNIFORM4FV, 3);
+        put(location);
+        put(count);
+        put(offset);
+        mBytesUploaded += count * 4 * 4;
+        if (mDelegate != null) {
+            mDelegate.glUniform4fv(location, count, v, offset);
+        }
+    }
+
+    @Override
+    public void glUniform4iv(int location, int count, int[] v, int offset) {
+        begin(Op.UNIFORM4IV, 3);
+        put(location);
+        put(count);
+        put(offset);
+        mBytesUploaded += count * 4 * 4;
+        if (mDelegate != null) {
+            mDelegate.glUniform4iv(location, count, v, offset);
+        }
+    }
+
+    @Override
+    public void glUniformMatrix2fv(int location, int count, boolean transpose, float[] value, int offset) {
+        begin(Op.UNIFORM_MATRIX2FV, 4);
+        put(location);
+        put(count);
+        put(transpose ? 1 : 0);
+        put(offset);
+        mBytesUploaded += count * 4 * 4;
+        if (mDelegate != null) {
+            mDelegate.glUniformMatrix2fv(location, count, transpose, value, offset);
+        }
+    }
+
+    @Override
+    public void glUniformMatrix3fv(int location, int count, boolean transpose, float[] value, int offset) {
+        begin(Op.UNIFORM_MATRIX3FV, 4);
+        put(location);
+        put(count);
+        put(transpose ? 1 : 0);
+        put(offset);
+        mBytesUploaded += count * 9 * 4;
+        if (mDelegate != null) {
+            mDelegate.glUniformMatrix3fv(location, count, transpose, value, offset);
+        }
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        begin(Op.UNIFORM_MATRIX4FV, 4);
+        put(location);
+        put(count);
+        put(transpose ? 1 : 0);
+        put(offset);
+        mBytesUploaded += count * 16 * 4;
+        if (mDelegate != null) {
+            mDelegate.glUniformMatrix4fv(location, count, transpose, value, offset);
+        }
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        begin(Op.USE_PROGRAM, 1);
+        put(program);
+        mProgram = countBind(mProgram, program);
+        if (mDelegate != null) {
+            mDelegate.glUseProgram(program);
+        }
+    }
+
+    @Override
+    public void glValidateProgram(int program) {
+        begin(Op.VALIDATE_PROGRAM, 1);
+        put(program);
+        if (mDelegate != null) {
+            mDelegate.glValidateProgram(program);
+        }
+    }
+
+    @Override
+    public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, Buffer ptr) {
+        begin(Op.VERTEX_ATTRIB_POINTER, 6);
+        put(indx);
+        put(size);
+        put(type);
+        put(normalized ? 1 : 0);
+        put(stride);
+        put(bytesOf(ptr));
+        if (mDelegate != null) {
+            mDelegate.glVertexAttribPointer(indx, size, type, normalized, stride, ptr);
+        }
+    }
+
+    @Override
+    public void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset) {
+        begin(Op.VERTEX_ATTRIB_POINTER_OFFSET, 6);
+        put(indx);
+        put(size);
+        put(type);
+        put(normalized ? 1 : 0);
+        put(stride);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glVertexAttribPointer(indx, size, type, normalized, stride, offset);
+        }
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        begin(Op.VIEWPORT, 4);
+        put(x);
+        put(y);
+        put(width);
+        put(height);
+        if (mDelegate != null) {
+            mDelegate.glViewport(x, y, width, height);
+        }
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, IntBuffer length, IntBuffer binaryFormat, Buffer binary) {
+        begin(Op.GET_PROGRAM_BINARY, 3);
+        put(program);
+        put(bufSize);
+        put(bytesOf(binary));
+        if (mDelegate != null) {
+            mDelegate.glGetProgramBinary(program, bufSize, length, binaryFormat, binary);
+        }
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        begin(Op.PROGRAM_BINARY, 4);
+        put(program);
+        put(binaryFormat);
+        put(bytesOf(binary));
+        put(length);
+        if (mDelegate != null) {
+            mDelegate.glProgramBinary(program, binaryFormat, binary, length);
+        }
+    }
+
+    @Override
+    public Buffer glMapBufferRange(int target, int offset, int length, int access) {
+        begin(Op.MAP_BUFFER_RANGE, 4);
+        put(target);
+        put(offset);
+        put(length);
+        put(access);
+        return (mDelegate != null) ? mDelegate.glMapBufferRange(target, offset, length, access) : ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public boolean glUnmapBuffer(int target) {
+        begin(Op.UNMAP_BUFFER, 1);
+        put(target);
+        return (mDelegate != null) ? mDelegate.glUnmapBuffer(target) : true;
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, int offset) {
+        begin(Op.TEX_SUB_IMAGE_2D_OFFSET, 9);
+        put(target);
+        put(level);
+        put(xoffset);
+        put(yoffset);
+        put(width);
+        put(height);
+        put(format);
+        put(type);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, offset);
+        }
+    }
+
+    @Override
+    public void glReadPixels(int x, int y, int width, int height, int format, int type, int offset) {
+        begin(Op.READ_PIXELS_OFFSET, 7);
+        put(x);
+        put(y);
+        put(width);
+        put(height);
+        put(format);
+        put(type);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glReadPixels(x, y, width, height, format, type, offset);
+        }
+    }
+
+    @Override
+    public void glGenQueries(int n, int[] ids, int offset) {
+        begin(Op.GEN_QUERIES, 2);
+        put(n);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glGenQueries(n, ids, offset);
+        } else {
+            fakeGen(n, ids, offset);
+        }
+    }
+
+    @Override
+    public void glDeleteQueries(int n, int[] ids, int offset) {
+        begin(Op.DELETE_QUERIES, 2);
+        put(n);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glDeleteQueries(n, ids, offset);
+        }
+    }
+
+    @Override
+    public void glBeginQuery(int target, int id) {
+        begin(Op.BEGIN_QUERY, 2);
+        put(target);
+        put(id);
+        if (mDelegate != null) {
+            mDelegate.glBeginQuery(target, id);
+        }
+    }
+
+    @Override
+    public void glEndQuery(int target) {
+        begin(Op.END_QUERY, 1);
+        put(target);
+        if (mDelegate != null) {
+            mDelegate.glEndQuery(target);
+        }
+    }
+
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+        begin(Op.GET_QUERY_OBJECTUIV, 3);
+        put(id);
+        put(pname);
+        put(offset);
+        if (mDelegate != null) {
+            mDelegate.glGetQueryObjectuiv(id, pname, params, offset);
+        } else {
+            params[offset] = (pname == GLES30.GL_QUERY_RESULT_AVAILABLE) ? GLES20.GL_TRUE : 0;
+        }
+    }
+
+    @Override
+    public long glFenceSync(int condition, int flags) {
+        begin(Op.FENCE_SYNC, 2);
+        put(condition);
+        put(flags);
+        return (mDelegate != null) ? mDelegate.glFenceSync(condition, flags) : mNextId++;
+    }
+
+    @Override
+    public int glClientWaitSync(long sync, int flags, long timeout) {
+        begin(Op.CLIENT_WAIT_SYNC, 3);
+        put((int)sync);
+        put(flags);
+        put((int)timeout);
+        return (mDelegate != null) ? mDelegate.glClientWaitSync(sync, flags, timeout) : GLES30.GL_ALREADY_SIGNALED;
+    }
+
+    @Override
+    public void glDeleteSync(long sync) {
+        begin(Op.DELETE_SYNC, 1);
+        put((int)sync);
+        if (mDelegate != null) {
+            mDelegate.glDeleteSync(sync);
+        }
+    }
+
+    @Override
+    public void texImage2D(int target, int level, Bitmap bitmap, int border) {
+        begin(Op.TEX_IMAGE_2D_BITMAP, 4);
+        put(target);
+        put(level);
+        put(bytesOf(bitmap));
+        put(border);
+        mBytesUploaded += bytesOf(bitmap);
+        if (mDelegate != null) {
+            mDelegate.texImage2D(target, level, bitmap, border);
+        }
+    }
+
+    @Override
+    public void texSubImage2D(int target, int level, int xoffset, int yoffset, Bitmap bitmap) {
+        begin(Op.TEX_SUB_IMAGE_2D_BITMAP, 5);
+        put(target);
+        put(level);
+        put(xoffset);
+        put(yoffset);
+        put(bytesOf(bitmap));
+        mBytesUploaded += bytesOf(bitmap);
+        if (mDelegate != null) {
+            mDelegate.texSubImage2D(target, level, xoffset, yoffset, bitmap);
+        }
+    }
+
+    private void begin(Op op, int numArgs) {
+        mCallCounts[op.ordinal()]++;
+        if (mTracing) {
+            ensureCapacity(numArgs + 1);
+            mTrace[mTraceLength++] = (op.ordinal() << 8) | numArgs;
+        }
+    }
+
+    private void put(int arg) {
+        if (mTracing) {
+            mTrace[mTraceLength++] = arg;
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mTraceLength + extra > mTrace.length) {
+            int[] trace = new int[Math.max(mTrace.length * 2, mTraceLength + extra)];
+            System.arraycopy(mTrace, 0, trace, 0, mTraceLength);
+            mTrace = trace;
+        }
+    }
+
+    private int countBind(int oldId, int id) {
+        if (oldId == id) {
+            mRedundantBinds++;
+        }
+        return id;
+    }
+
+    private void bindTexture(int target, int texture) {
+        if ((mActiveTexture < 0) || (mActiveTexture >= MAX_TEXTURE_UNITS)) {
+            return;
+        }
+        if (target == GLES20.GL_TEXTURE_2D) {
+            mTextures2D[mActiveTexture] = countBind(mTextures2D[mActiveTexture], texture);
+        } else if (target == GLES11Ext.GL_TEXTURE_EXTERNAL_OES) {
+            mTexturesExternal[mActiveTexture] = countBind(mTexturesExternal[mActiveTexture], texture);
+        }
+    }
+
+    private void bindBuffer(int target, int buffer) {
+        if (target == GLES20.GL_ARRAY_BUFFER) {
+            mArrayBuffer = countBind(mArrayBuffer, buffer);
+        } else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+            mElementArrayBuffer = countBind(mElementArrayBuffer, buffer);
+        }
+    }
+
+    private void fakeGen(int n, int[] ids, int offset) {
+        for (int ii = 0; ii < n; ii++) {
+            ids[offset + ii] = mNextId++;
+        }
+    }
+
+    private int fakeProgramParameter(int pname) {
+        if ((pname == GLES20.GL_LINK_STATUS) || (pname == GLES20.GL_VALIDATE_STATUS)) {
+            return GLES20.GL_TRUE;
+        } else if (pname == GLES20.GL_ACTIVE_UNIFORMS) {
+            return mFakeUniforms.size();
+        } else if (pname == GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH) {
+            // Including the null terminator.
+            int maxLength = 0;
+            for (FakeUniform uniform : mFakeUniforms) {
+                maxLength = Math.max(maxLength, uniform.mName.length() + 1);
+            }
+            return maxLength;
+        }
+        return 0;
+    }
+
+    private void fakeActiveUniform(int index, int bufsize, int[] length, int lengthOffset, int[] size, int sizeOffset, int[] type, int typeOffset, byte[] name, int nameOffset) {
+        if ((index < 0) || (index >= mFakeUniforms.size())) {
+            length[lengthOffset] = 0;
+            return;
+        }
+        FakeUniform uniform = mFakeUniforms.get(index);
+        byte[] nameBytes = uniform.mName.getBytes();
+        int nameLength = Math.max(Math.min(nameBytes.length, bufsize - 1), 0);
+        System.arraycopy(nameBytes, 0, name, nameOffset, nameLength);
+        if (bufsize > 0) {
+            name[nameOffset + nameLength] = 0;
+        }
+        length[lengthOffset] = nameLength;
+        size[sizeOffset] = uniform.mSize;
+        type[typeOffset] = uniform.mType;
+    }
+
+    private int fakeUniformLocation(String name) {
+        Integer location = mFakeUniformLocations.get(name);
+        return (location != null) ? location : -1;
+    }
+
+    // The client memory GL reads for a width x height rectangle, ignoring GL_UNPACK_ALIGNMENT padding.
+    // The buffer passed may hold more (e.g. the rest of the frame), which isn't uploaded.
+    private static int pixelBytes(int width, int height, int format, int type) {
+        int bytesPerPixel;
+        switch (type) {
+        case GLES20.GL_UNSIGNED_SHORT_5_6_5:
+        case GLES20.GL_UNSIGNED_SHORT_4_4_4_4:
+        case GLES20.GL_UNSIGNED_SHORT_5_5_5_1:
+            bytesPerPixel = 2;
+            break;
+        case GLES20.GL_FLOAT:
+        case GLES20.GL_INT:
+        case GLES20.GL_UNSIGNED_INT:
+            bytesPerPixel = 4 * getComponentCount(format);
+            break;
+        case GLES30.GL_HALF_FLOAT:
+        case GL_HALF_FLOAT_OES:
+        case GLES20.GL_SHORT:
+        case GLES20.GL_UNSIGNED_SHORT:
+            bytesPerPixel = 2 * getComponentCount(format);
+            break;
+        default:
+            bytesPerPixel = getComponentCount(format);
+            break;
+        }
+        return width * height * bytesPerPixel;
+    }
+
+    private static int getComponentCount(int format) {
+        switch (format) {
+        case GLES20.GL_ALPHA:
+        case GLES20.GL_LUMINANCE:
+        case GLES30.GL_RED:
+            return 1;
+        case GLES20.GL_LUMINANCE_ALPHA:
+        case GLES30.GL_RG:
+            return 2;
+        case GLES20.GL_RGB:
+            return 3;
+        default:
+            return 4;
+        }
+    }
+
+    private static int bytesOf(Buffer buffer) {
+        if (buffer == null) {
+            return 0;
+        } else if ((buffer instanceof FloatBuffer) || (buffer instanceof IntBuffer)) {
+            return buffer.remaining() * 4;
+        } else if ((buffer instanceof ShortBuffer) || (buffer instanceof CharBuffer)) {
+            return buffer.remaining() * 2;
+        } else if ((buffer instanceof LongBuffer) || (buffer instanceof DoubleBuffer)) {
+            return buffer.remaining() * 8;
+        }
+        return buffer.remaining();
+    }
+
+    private static int bytesOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private static class FakeUniform {
+        final String mName;
+        final int mType;
+        final int mSize;
+
+        FakeUniform(String name, int type, int size) {
+            mName = name;
+            mType = type;
+            mSize = size;
+        }
+    }
+}
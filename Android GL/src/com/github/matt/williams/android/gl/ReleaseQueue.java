@@ -0,0 +1,176 @@
+package com.github.matt.williams.android.gl;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Deferred deletion of GL objects.  GL objects can only be deleted on a thread with the owning (or a
+// shared) context current, so neither an explicit release() from an arbitrary thread nor garbage
+// collection of the owning object deletes anything directly.  Instead both queue the GL object here,
+// and the GL thread calls drain() at a frame boundary to delete everything queued in batches.
+//
+// Objects that are garbage collected without having been released are counted as leaks.
+public class ReleaseQueue {
+    public static final int TEXTURE = 0;
+    public static final int FRAMEBUFFER = 1;
+    public static final int BUFFER = 2;
+    public static final int PROGRAM = 3;
+    public static final int SHADER = 4;
+    private static final int NUM_TYPES = 5;
+
+    private static final ReferenceQueue<Object> sCollected = new ReferenceQueue<Object>();
+    // Keeps Resources (and so their phantom references) reachable until they've been queued.
+    private static final Set<Resource> sLive = Collections.newSetFromMap(new ConcurrentHashMap<Resource,Boolean>());
+    private static final ConcurrentLinkedQueue<Resource> sPending = new ConcurrentLinkedQueue<Resource>();
+    private static final AtomicLong sReleasedCount = new AtomicLong();
+    private static final AtomicLong sLeakedCount = new AtomicLong();
+    private static final AtomicLong sDeletedCount = new AtomicLong();
+    private static final int[][] sIds = new int[NUM_TYPES][16];
+    private static final int[] sNumIds = new int[NUM_TYPES];
+
+    private ReleaseQueue() {}
+
+    public static class Resource extends PhantomReference<Object> {
+        private final int mType;
+        private final int mId;
+        private final AtomicBoolean mQueued = new AtomicBoolean();
+
+        private Resource(Object owner, int type, int id) {
+            super(owner, sCollected);
+            mType = type;
+            mId = id;
+        }
+
+        public int getType() {
+            return mType;
+        }
+
+        public int getId() {
+            return mId;
+        }
+
+        public boolean isReleased() {
+            return mQueued.get();
+        }
+
+        // Safe to call from any thread, and more than once.
+        public void release() {
+            if (queue()) {
+                sReleasedCount.incrementAndGet();
+            }
+        }
+
+        private boolean queue() {
+            if (mQueued.compareAndSet(false, true)) {
+                clear();
+                sLive.remove(this);
+                sPending.add(this);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // Registers GL object id as owned by owner - it will be queued for deletion when released, or
+    // when owner becomes unreachable.
+    public static Resource register(Object owner, int type, int id) {
+        Resource resource = new Resource(owner, type, id);
+        sLive.add(resource);
+        return resource;
+    }
+
+    // Deletes all queued GL objects.  Must be called on a thread with a GL context current.
+    public static synchronized void drain() {
+        GLBackend gl = GLState.gl();
+        Reference<?> reference;
+        while ((reference = sCollected.poll()) != null) {
+            if (((Resource)reference).queue()) {
+                sLeakedCount.incrementAndGet();
+            }
+        }
+
+        Resource resource;
+        while ((resource = sPending.poll()) != null) {
+            int type = resource.mType;
+            if (sNumIds[type] == sIds[type].length) {
+                int[] ids = new int[sIds[type].length * 2];
+                System.arraycopy(sIds[type], 0, ids, 0, sNumIds[type]);
+                sIds[type] = ids;
+            }
+            sIds[type][sNumIds[type]++] = resource.mId;
+        }
+
+        GLState state = GLState.get();
+        int[] ids = sIds[TEXTURE];
+        int num = sNumIds[TEXTURE];
+        if (num > 0) {
+            gl.glDeleteTextures(num, ids, 0);
+            for (int ii = 0; ii < num; ii++) {
+                state.forgetTexture(ids[ii]);
+            }
+        }
+        ids = sIds[FRAMEBUFFER];
+        num = sNumIds[FRAMEBUFFER];
+        if (num > 0) {
+            gl.glDeleteFramebuffers(num, ids, 0);
+            for (int ii = 0; ii < num; ii++) {
+                state.forgetFramebuffer(ids[ii]);
+            }
+        }
+        ids = sIds[BUFFER];
+        num = sNumIds[BUFFER];
+        if (num > 0) {
+            gl.glDeleteBuffers(num, ids, 0);
+            for (int ii = 0; ii < num; ii++) {
+                state.forgetBuffer(ids[ii]);
+            }
+        }
+        // Programs and shaders have no batched delete.  Either may still be in use (e.g. attached),
+        // in which case GL defers the actual deletion.
+        ids = sIds[PROGRAM];
+        num = sNumIds[PROGRAM];
+        for (int ii = 0; ii < num; ii++) {
+            gl.glDeleteProgram(ids[ii]);
+        }
+        ids = sIds[SHADER];
+        num = sNumIds[SHADER];
+        for (int ii = 0; ii < num; ii++) {
+            gl.glDeleteShader(ids[ii]);
+        }
+
+        for (int type = 0; type < NUM_TYPES; type++) {
+            sDeletedCount.addAndGet(sNumIds[type]);
+            sNumIds[type] = 0;
+        }
+        Utils.checkErrors("ReleaseQueue.drain");
+    }
+
+    // Number of GL objects registered and not yet released or collected.
+    public static int getLiveCount() {
+        return sLive.size();
+    }
+
+    // Number of GL objects waiting for the next drain() (excluding collected objects not yet noticed).
+    public static int getPendingCount() {
+        return sPending.size();
+    }
+
+    public static long getReleasedCount() {
+        return sReleasedCount.get();
+    }
+
+    // Number of GL objects whose owners were garbage collected without being released.
+    public static long getLeakedCount() {
+        return sLeakedCount.get();
+    }
+
+    public static long getDeletedCount() {
+        return sDeletedCount.get();
+    }
+}
@@ -0,0 +1,462 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+// A declarative multi-pass renderer.  Passes read textures (imported, or produced by other passes)
+// and render into an output of a given size and format.  compile() then:
+//  - culls passes that don't contribute to an output,
+//  - fuses chains of pointwise passes (ones that only transform the colour of the texel they're
+//    drawing) into a single generated program,
+//  - orders passes so each runs after the passes it reads from, and
+//  - assigns intermediate outputs to a minimal set of render targets, reusing a target once
+//    everything reading its previous contents has run.
+// None of that touches GL - only execute() does.
+public class RenderGraph {
+    static final String POSITION_ATTRIB = "aPosition";
+    static final String TEXTURE_UNIFORM = "uTexture";
+    static final String TEX_MATRIX_UNIFORM = "uTexMatrix";
+
+    // Draws the geometry for a (non-pointwise) pass, with its program bound and inputs set.
+    public interface Drawer {
+        void draw(Pass pass, Program program);
+    }
+
+    public static class Resource {
+        private final String mName;
+        private final Pass mProducer;
+        private final Texture mTexture;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mFormat;
+        private final int mType;
+        private final List<Pass> mConsumers = new ArrayList<Pass>();
+        private Object mOutputTarget;
+        private int mSlot = -1;
+
+        private Resource(String name, Pass producer, Texture texture, int width, int height, int format, int type) {
+            mName = name;
+            mProducer = producer;
+            mTexture = texture;
+            mWidth = width;
+            mHeight = height;
+            mFormat = format;
+            mType = type;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public boolean isImported() {
+            return mProducer == null;
+        }
+
+        public boolean isOutput() {
+            return mOutputTarget != null;
+        }
+
+        // The render target slot assigned by compile(), or -1 for imported textures and outputs.
+        public int getSlot() {
+            return mSlot;
+        }
+    }
+
+    public static class Pass {
+        private final String mName;
+        private final Program mProgram;
+        private final String mPointwiseBody;
+        private final List<String> mInputUniforms = new ArrayList<String>();
+        private final List<Resource> mInputs = new ArrayList<Resource>();
+        private final Resource mOutput;
+        // Set by compile() - fusion may replace a pointwise pass's input and prepend its producers' bodies.
+        private final List<Resource> mCompiledInputs = new ArrayList<Resource>();
+        private final List<String> mCompiledBodies = new ArrayList<String>();
+        // For pointwise passes, the generated fragment shader (set by compile()) and the program built
+        // from it on first execute().
+        private String mFragmentSource;
+        private Program mGeneratedProgram;
+        private boolean mLive;
+
+        private Pass(String name, Program program, String pointwiseBody, int width, int height, int format, int type) {
+            mName = name;
+            mProgram = program;
+            mPointwiseBody = pointwiseBody;
+            mOutput = new Resource(name, this, null, width, height, format, type);
+        }
+
+        public Pass addInput(String uniform, Resource input) {
+            if (isPointwise() && !mInputs.isEmpty()) {
+                throw new IllegalStateException("Pointwise pass " + mName + " takes exactly one input");
+            }
+            mInputUniforms.add(uniform);
+            mInputs.add(input);
+            return this;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public Resource getOutput() {
+            return mOutput;
+        }
+
+        public boolean isPointwise() {
+            return mProgram == null;
+        }
+
+        // The inputs as compiled, after any fusion.
+        public List<Resource> getInputs() {
+            return mCompiledInputs;
+        }
+
+        // For pointwise passes, the number of original passes fused into this one.
+        public int getFusedCount() {
+            return mCompiledBodies.size();
+        }
+    }
+
+    private final List<Resource> mImports = new ArrayList<Resource>();
+    private final List<Pass> mPasses = new ArrayList<Pass>();
+    private final List<Resource> mOutputs = new ArrayList<Resource>();
+    private final List<Pass> mSchedule = new ArrayList<Pass>();
+    private final List<int[]> mSlotFormats = new ArrayList<int[]>();
+    private TargetTexture[] mSlotTargets = new TargetTexture[0];
+    private final RenderTargetPool mTargetPool = new RenderTargetPool();
+    private final ShaderCache mShaderCache = new ShaderCache();
+    private FullScreenQuad mQuad;
+    private boolean mCompiled;
+    private boolean mSlotTargetsValid;
+
+    public Resource importTexture(String name, Texture texture) {
+        Resource resource = new Resource(name, null, texture, 0, 0, 0, 0);
+        mImports.add(resource);
+        mCompiled = false;
+        return resource;
+    }
+
+    public Pass addPass(String name, Program program, int width, int height) {
+        return addPass(name, program, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE);
+    }
+
+    public Pass addPass(String name, Program program, int width, int height, int format, int type) {
+        return add(new Pass(name, program, null, width, height, format, type));
+    }
+
+    // A pass that transforms each texel of its single input independently.  body is GLSL that
+    // modifies a vec4 named "color", e.g. "color.rgb = 1.0 - color.rgb;".
+    public Pass addPointwisePass(String name, Resource input, String body, int width, int height) {
+        return add(new Pass(name, null, body, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE)).addInput(TEXTURE_UNIFORM, input);
+    }
+
+    public void setOutput(Resource resource, ScreenTarget target) {
+        setOutputTarget(resource, target);
+    }
+
+    public void setOutput(Resource resource, TargetTexture target) {
+        setOutputTarget(resource, target);
+    }
+
+    public void compile() {
+        for (Pass pass : mPasses) {
+            pass.mLive = false;
+            pass.mOutput.mConsumers.clear();
+            pass.mOutput.mSlot = -1;
+        }
+        for (Resource resource : mImports) {
+            resource.mConsumers.clear();
+        }
+
+        // Cull: only passes reachable backwards from an output are live.
+        List<Pass> stack = new ArrayList<Pass>();
+        for (Resource output : mOutputs) {
+            if (output.mProducer != null) {
+                stack.add(output.mProducer);
+            }
+        }
+        while (!stack.isEmpty()) {
+            Pass pass = stack.remove(stack.size() - 1);
+            if (!pass.mLive) {
+                pass.mLive = true;
+                for (Resource input : pass.mInputs) {
+                    if (input.mProducer != null) {
+                        stack.add(input.mProducer);
+                    }
+                }
+            }
+        }
+        List<Pass> live = new ArrayList<Pass>();
+        for (Pass pass : mPasses) {
+            pass.mCompiledInputs.clear();
+            pass.mCompiledBodies.clear();
+            pass.mFragmentSource = null;
+            pass.mGeneratedProgram = null;
+            if (pass.mLive) {
+                live.add(pass);
+                pass.mCompiledInputs.addAll(pass.mInputs);
+                if (pass.mPointwiseBody != null) {
+                    pass.mCompiledBodies.add(pass.mPointwiseBody);
+                }
+                for (Resource input : pass.mInputs) {
+                    input.mConsumers.add(pass);
+                }
+            }
+        }
+
+        fusePointwisePasses(live);
+        sort(live);
+        assignSlots();
+        for (Pass pass : mSchedule) {
+            if (pass.isPointwise()) {
+                // Only imported textures can be external - everything rendered by the graph is 2D.
+                Texture input = pass.mCompiledInputs.get(0).mTexture;
+                boolean external = (input != null) && (input.mTarget == GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
+                pass.mFragmentSource = getFragmentSource(pass, external);
+            }
+        }
+        mCompiled = true;
+        mSlotTargetsValid = false;
+    }
+
+    public List<Pass> getSchedule() {
+        return mSchedule;
+    }
+
+    public int getSlotCount() {
+        return mSlotFormats.size();
+    }
+
+    // Runs the compiled schedule.  drawer draws the geometry for passes with their own programs.
+    public void execute(Drawer drawer) {
+        if (!mCompiled) {
+            compile();
+        }
+        if (!mSlotTargetsValid) {
+            // Slots whose size and format survived the recompile get their old targets straight back.
+            for (TargetTexture target : mSlotTargets) {
+                mTargetPool.recycle(target);
+            }
+            mSlotTargets = new TargetTexture[mSlotFormats.size()];
+            for (int ii = 0; ii < mSlotTargets.length; ii++) {
+                int[] format = mSlotFormats.get(ii);
+                mSlotTargets[ii] = mTargetPool.acquire(format[0], format[1], format[2], format[3]);
+            }
+            mSlotTargetsValid = true;
+        }
+        for (Pass pass : mSchedule) {
+            Resource output = pass.mOutput;
+            if (output.mOutputTarget instanceof ScreenTarget) {
+                ((ScreenTarget)output.mOutputTarget).renderTo();
+            } else if (output.mOutputTarget != null) {
+                ((TargetTexture)output.mOutputTarget).renderTo();
+            } else {
+                mSlotTargets[output.mSlot].renderTo();
+            }
+
+            Program program = pass.isPointwise() ? getGeneratedProgram(pass) : pass.mProgram;
+            program.use();
+            for (int ii = 0; ii < pass.mCompiledInputs.size(); ii++) {
+                Texture texture = getTexture(pass.mCompiledInputs.get(ii));
+                texture.use(GLES20.GL_TEXTURE0 + ii);
+                program.setUniform(pass.mInputUniforms.get(ii), ii);
+                if (pass.isPointwise()) {
+                    program.setUniform(TEX_MATRIX_UNIFORM, texture.getTransformMatrix());
+                }
+            }
+            // A program deferring its uniforms only staged those, since it was already in use.
+            program.flushUniforms();
+            if (pass.isPointwise()) {
+                if (mQuad == null) {
+                    mQuad = new FullScreenQuad();
+                }
+                mQuad.draw(program, POSITION_ATTRIB);
+            } else {
+                drawer.draw(pass, program);
+            }
+        }
+        mTargetPool.endFrame();
+    }
+
+    public void release() {
+        for (TargetTexture target : mSlotTargets) {
+            mTargetPool.recycle(target);
+        }
+        mSlotTargets = new TargetTexture[0];
+        mSlotTargetsValid = false;
+        mTargetPool.clear();
+        for (Pass pass : mPasses) {
+            pass.mGeneratedProgram = null;
+        }
+        mShaderCache.clear();
+        if (mQuad != null) {
+            mQuad.release();
+            mQuad = null;
+        }
+    }
+
+    static String getVertexSource() {
+        return "attribute vec2 " + POSITION_ATTRIB + ";\n" +
+               "uniform mat4 " + TEX_MATRIX_UNIFORM + ";\n" +
+               "varying vec2 vTexCoord;\n" +
+               "void main() {\n" +
+               "    gl_Position = vec4(" + POSITION_ATTRIB + ", 0.0, 1.0);\n" +
+               "    vTexCoord = (" + TEX_MATRIX_UNIFORM + " * vec4(" + POSITION_ATTRIB + " * 0.5 + 0.5, 0.0, 1.0)).xy;\n" +
+               "}\n";
+    }
+
+    static String getFragmentSource(Pass pass, boolean external) {
+        StringBuilder source = new StringBuilder();
+        if (external) {
+            source.append("#extension GL_OES_EGL_image_external : require\n");
+        }
+        source.append("precision mediump float;\n");
+        source.append(external ? "uniform samplerExternalOES " : "uniform sampler2D ").append(TEXTURE_UNIFORM).append(";\n");
+        source.append("varying vec2 vTexCoord;\n");
+        for (int ii = 0; ii < pass.mCompiledBodies.size(); ii++) {
+            source.append("vec4 stage").append(ii).append("(vec4 color) {\n");
+            source.append(pass.mCompiledBodies.get(ii)).append("\n");
+            source.append("    return color;\n}\n");
+        }
+        source.append("void main() {\n");
+        source.append("    vec4 color = texture2D(").append(TEXTURE_UNIFORM).append(", vTexCoord);\n");
+        for (int ii = 0; ii < pass.mCompiledBodies.size(); ii++) {
+            source.append("    color = stage").append(ii).append("(color);\n");
+        }
+        source.append("    gl_FragColor = color;\n}\n");
+        return source.toString();
+    }
+
+    private Pass add(Pass pass) {
+        mPasses.add(pass);
+        mCompiled = false;
+        return pass;
+    }
+
+    private void setOutputTarget(Resource resource, Object target) {
+        if (resource.isImported()) {
+            throw new IllegalArgumentException("Imported texture " + resource.mName + " can't be an output");
+        }
+        if (resource.mOutputTarget == null) {
+            mOutputs.add(resource);
+        }
+        resource.mOutputTarget = target;
+        mCompiled = false;
+    }
+
+    // Folds each pointwise pass into the pointwise pass consuming its output, where that's the only
+    // consumer, the sizes match and the intermediate isn't needed as an output in its own right.
+    private void fusePointwisePasses(List<Pass> live) {
+        // Passes were added after their inputs existed, so walking backwards visits consumers before producers.
+        for (int ii = live.size() - 1; ii >= 0; ii--) {
+            Pass pass = live.get(ii);
+            if (!pass.isPointwise()) {
+                continue;
+            }
+            Resource input = pass.mCompiledInputs.get(0);
+            Pass producer = input.mProducer;
+            while ((producer != null) && producer.isPointwise() && !input.isOutput() &&
+                   (input.mConsumers.size() == 1) &&
+                   (input.mWidth == pass.mOutput.mWidth) && (input.mHeight == pass.mOutput.mHeight))
+            {
+                pass.mCompiledBodies.addAll(0, producer.mCompiledBodies);
+                Resource newInput = producer.mCompiledInputs.get(0);
+                newInput.mConsumers.remove(producer);
+                newInput.mConsumers.add(pass);
+                pass.mCompiledInputs.set(0, newInput);
+                live.remove(producer);
+                producer.mLive = false;
+                ii = live.indexOf(pass);
+                input = newInput;
+                producer = input.mProducer;
+            }
+        }
+    }
+
+    private void sort(List<Pass> live) {
+        mSchedule.clear();
+        List<Pass> remaining = new ArrayList<Pass>(live);
+        while (!remaining.isEmpty()) {
+            boolean progress = false;
+            for (int ii = 0; ii < remaining.size(); ii++) {
+                Pass pass = remaining.get(ii);
+                boolean ready = true;
+                for (Resource input : pass.mCompiledInputs) {
+                    if ((input.mProducer != null) && !mSchedule.contains(input.mProducer)) {
+                        ready = false;
+                        break;
+                    }
+                }
+                if (ready) {
+                    mSchedule.add(pass);
+                    remaining.remove(ii--);
+                    progress = true;
+                }
+            }
+            if (!progress) {
+                throw new IllegalStateException("Render graph has a cycle through " + remaining.get(0).mName);
+            }
+        }
+    }
+
+    // Linear scan over the schedule: a slot is taken when a pass writes an intermediate, and returned
+    // to the free list once the last pass reading that intermediate has run.
+    private void assignSlots() {
+        mSlotFormats.clear();
+        List<Integer> free = new ArrayList<Integer>();
+        int[] remainingReads = new int[mSchedule.size()];
+        for (int ii = 0; ii < mSchedule.size(); ii++) {
+            remainingReads[ii] = mSchedule.get(ii).mOutput.mConsumers.size();
+        }
+        for (Pass pass : mSchedule) {
+            Resource output = pass.mOutput;
+            if (!output.isOutput()) {
+                output.mSlot = takeSlot(free, output);
+            }
+            for (Resource input : pass.mCompiledInputs) {
+                if ((input.mProducer != null) && (input.mSlot >= 0)) {
+                    int producerIndex = mSchedule.indexOf(input.mProducer);
+                    if (--remainingReads[producerIndex] == 0) {
+                        free.add(input.mSlot);
+                    }
+                }
+            }
+        }
+    }
+
+    private int takeSlot(List<Integer> free, Resource resource) {
+        for (int ii = 0; ii < free.size(); ii++) {
+            int[] format = mSlotFormats.get(free.get(ii));
+            if ((format[0] == resource.mWidth) && (format[1] == resource.mHeight) &&
+                (format[2] == resource.mFormat) && (format[3] == resource.mType))
+            {
+                return free.remove(ii);
+            }
+        }
+        mSlotFormats.add(new int[] {resource.mWidth, resource.mHeight, resource.mFormat, resource.mType});
+        return mSlotFormats.size() - 1;
+    }
+
+    private Texture getTexture(Resource resource) {
+        if (resource.mTexture != null) {
+            return resource.mTexture;
+        }
+        if (resource.mOutputTarget instanceof TargetTexture) {
+            return (TargetTexture)resource.mOutputTarget;
+        }
+        if (resource.mSlot < 0) {
+            throw new IllegalStateException("Resource " + resource.mName + " is rendered to the screen and can't be read back");
+        }
+        return mSlotTargets[resource.mSlot];
+    }
+
+    private Program getGeneratedProgram(Pass pass) {
+        if (pass.mGeneratedProgram == null) {
+            pass.mGeneratedProgram = mShaderCache.getProgram(getVertexSource(), pass.mFragmentSource);
+        }
+        return pass.mGeneratedProgram;
+    }
+}
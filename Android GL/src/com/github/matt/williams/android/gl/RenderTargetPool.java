@@ -0,0 +1,98 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.opengl.GLES20;
+
+// Recycles TargetTextures by (width, height, internal format, format, type), so that intermediate passes can reuse
+// render targets rather than creating and deleting them.  Targets that sit unused in the pool for
+// more than a few frames are released.
+//
+// Pools are not thread-safe, and must only be used on the GL thread.
+public class RenderTargetPool {
+    private static final int DEFAULT_MAX_IDLE_FRAMES = 3;
+    private final int mMaxIdleFrames;
+    private final List<TargetTexture> mFree = new ArrayList<TargetTexture>();
+    private int[] mFreeSince = new int[8];
+    private int mFrame;
+    private int mAllocatedCount;
+
+    public RenderTargetPool(int maxIdleFrames) {
+        mMaxIdleFrames = maxIdleFrames;
+    }
+
+    public RenderTargetPool() {
+        this(DEFAULT_MAX_IDLE_FRAMES);
+    }
+
+    public TargetTexture acquire(int width, int height) {
+        return acquire(width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE);
+    }
+
+    public TargetTexture acquire(int width, int height, int format, int type) {
+        return acquire(width, height, format, format, type);
+    }
+
+    public TargetTexture acquire(int width, int height, int internalFormat, int format, int type) {
+        // The pool is small, so a scan beats hashing (and doesn't allocate).
+        for (int ii = mFree.size() - 1; ii >= 0; ii--) {
+            TargetTexture target = mFree.get(ii);
+            if ((target.getWidth() == width) && (target.getHeight() == height) &&
+                (target.getInternalFormat() == internalFormat) && (target.getFormat() == format) && (target.getType() == type))
+            {
+                remove(ii);
+                return target;
+            }
+        }
+        mAllocatedCount++;
+        return new TargetTexture(width, height, GLES20.GL_CLAMP_TO_EDGE, internalFormat, format, type);
+    }
+
+    // Returns target to the pool.  Its contents are not preserved.
+    public void recycle(TargetTexture target) {
+        int index = mFree.size();
+        if (index == mFreeSince.length) {
+            int[] freeSince = new int[index * 2];
+            System.arraycopy(mFreeSince, 0, freeSince, 0, index);
+            mFreeSince = freeSince;
+        }
+        mFree.add(target);
+        mFreeSince[index] = mFrame;
+    }
+
+    // Call once per frame to release targets that have gone unused for too long.
+    public void endFrame() {
+        mFrame++;
+        for (int ii = mFree.size() - 1; ii >= 0; ii--) {
+            if (mFrame - mFreeSince[ii] > mMaxIdleFrames) {
+                remove(ii).release();
+                mAllocatedCount--;
+            }
+        }
+    }
+
+    // Releases every pooled target.  Targets currently acquired are unaffected.
+    public void clear() {
+        for (TargetTexture target : mFree) {
+            target.release();
+        }
+        mAllocatedCount -= mFree.size();
+        mFree.clear();
+    }
+
+    public int getFreeCount() {
+        return mFree.size();
+    }
+
+    // Number of targets created by this pool and not yet released, whether currently acquired or free.
+    public int getAllocatedCount() {
+        return mAllocatedCount;
+    }
+
+    private TargetTexture remove(int index) {
+        int last = mFree.size() - 1;
+        System.arraycopy(mFreeSince, index + 1, mFreeSince, index, last - index);
+        return mFree.remove(index);
+    }
+}
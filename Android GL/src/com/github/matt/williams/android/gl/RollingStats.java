@@ -0,0 +1,89 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.Arrays;
+
+// Keeps the most recent samples (e.g. durations in nanoseconds) in a fixed-size window and reports
+// percentiles over them.  Adding a sample doesn't allocate; percentiles are computed on demand by
+// sorting a copy of the window.  Deliberately free of Android dependencies.
+public class RollingStats {
+    private final long[] mSamples;
+    private long[] mSorted;
+    private int mNext;
+    private int mCount;
+    private long mTotalCount;
+    private boolean mSortedValid;
+
+    public RollingStats(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive");
+        }
+        mSamples = new long[windowSize];
+    }
+
+    public void add(long sample) {
+        mSamples[mNext] = sample;
+        mNext = (mNext + 1) % mSamples.length;
+        if (mCount < mSamples.length) {
+            mCount++;
+        }
+        mTotalCount++;
+        mSortedValid = false;
+    }
+
+    public void clear() {
+        mNext = 0;
+        mCount = 0;
+        mTotalCount = 0;
+        mSortedValid = false;
+    }
+
+    // Number of samples in the window.
+    public int getCount() {
+        return mCount;
+    }
+
+    // Number of samples ever added.
+    public long getTotalCount() {
+        return mTotalCount;
+    }
+
+    // percentile is in [0, 100], using the nearest-rank method.  Returns 0 if there are no samples.
+    public long getPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        sort();
+        int rank = (int)Math.ceil(percentile / 100 * mCount);
+        return mSorted[Math.min(Math.max(rank, 1), mCount) - 1];
+    }
+
+    public long getMin() {
+        return getPercentile(0);
+    }
+
+    public long getMax() {
+        return getPercentile(100);
+    }
+
+    public double getMean() {
+        if (mCount == 0) {
+            return 0;
+        }
+        long total = 0;
+        for (int ii = 0; ii < mCount; ii++) {
+            total += mSamples[ii];
+        }
+        return (double)total / mCount;
+    }
+
+    private void sort() {
+        if (!mSortedValid) {
+            if (mSorted == null) {
+                mSorted = new long[mSamples.length];
+            }
+            System.arraycopy(mSamples, 0, mSorted, 0, mCount);
+            Arrays.sort(mSorted, 0, mCount);
+            mSortedValid = true;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.github.matt.williams.android.gl;
 
 import android.graphics.Rect;
-import android.opengl.GLES20;
 
 public class ScreenTarget {
     private int mX;
@@ -43,10 +42,9 @@ public class ScreenTarget {
     }
 
     public void renderTo() {
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        Utils.checkErrors("glBindFramebuffer");
-        GLES20.glViewport(mX, mY, mWidth, mHeight);
-        Utils.checkErrors("glViewport");
+        GLState state = GLState.get();
+        state.bindFramebuffer(0);
+        state.viewport(mX, mY, mWidth, mHeight);
     }
 
     public float toGlX(float screenX) {
@@ -4,26 +4,26 @@ import android.opengl.GLES20;
 
 public class Shader {
     private int mId;
+    private ReleaseQueue.Resource mResource;
 
     protected Shader(int type, String source) {
-        mId = GLES20.glCreateShader(type);
-        GLES20.glShaderSource(mId, source);
-        GLES20.glCompileShader(mId);
+        GLBackend gl = GLState.gl();
+        mId = gl.glCreateShader(type);
+        gl.glShaderSource(mId, source);
+        gl.glCompileShader(mId);
         final int[] compileStatus = new int[1];
-        GLES20.glGetShaderiv(mId, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
+        gl.glGetShaderiv(mId, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
         if (compileStatus[0] == 0) {
-            String shaderInfoLog = GLES20.glGetShaderInfoLog(mId);
-            GLES20.glDeleteShader(mId);
+            String shaderInfoLog = gl.glGetShaderInfoLog(mId);
+            gl.glDeleteShader(mId);
             mId = 0;
             throw new IllegalArgumentException(shaderInfoLog);
         }
+        mResource = ReleaseQueue.register(this, ReleaseQueue.SHADER, mId);
     }
 
-    @Override
-    protected void finalize() {
-        if (mId != 0) {
-            GLES20.glDeleteShader(mId);
-        }
+    public void release() {
+        mResource.release();
     }
 
     public int getId() {
@@ -0,0 +1,137 @@
+package com.github.matt.williams.android.gl;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Dedupes shaders by source and programs by their (vertex, fragment) pair, so that each distinct
+// shader is compiled and each distinct program linked only once per context.  Given a
+// ProgramBinaryCache, programs requested by source are also persisted, and later loaded without
+// compiling anything.
+//
+// Cached shaders and programs are shared by every caller asking for the same sources, and are still
+// mutable.  Callers must not release them or swap their shaders, and must set every uniform they rely
+// on rather than assume the values they last set - another user of the program may have changed them.
+// Lookups by source are map lookups keyed on the strings themselves, but callers drawing every frame
+// should still hold on to the Program rather than rebuild its sources each time.
+public class ShaderCache {
+    private final Map<String,VertexShader> mVertexShaders = new HashMap<String,VertexShader>();
+    private final Map<String,FragmentShader> mFragmentShaders = new HashMap<String,FragmentShader>();
+    // Keyed by the shader objects themselves, not their GL names - GL reuses the names of deleted shaders.
+    private final Map<VertexShader,Map<FragmentShader,Program>> mProgramsByShaders = new HashMap<VertexShader,Map<FragmentShader,Program>>();
+    // Keyed by vertex source, then fragment source.  Strings cache their hash codes, so lookups of the
+    // same source strings don't rehash them.
+    private final Map<String,Map<String,Program>> mProgramsBySource = new HashMap<String,Map<String,Program>>();
+    private final ProgramBinaryCache mBinaryCache;
+
+    public ShaderCache(ProgramBinaryCache binaryCache) {
+        mBinaryCache = binaryCache;
+    }
+
+    public ShaderCache() {
+        this(null);
+    }
+
+    public VertexShader getVertexShader(String source) {
+        VertexShader shader = mVertexShaders.get(source);
+        if (shader == null) {
+            shader = new VertexShader(source);
+            mVertexShaders.put(source, shader);
+        }
+        return shader;
+    }
+
+    public FragmentShader getFragmentShader(String source) {
+        FragmentShader shader = mFragmentShaders.get(source);
+        if (shader == null) {
+            shader = new FragmentShader(source);
+            mFragmentShaders.put(source, shader);
+        }
+        return shader;
+    }
+
+    public Program getProgram(VertexShader vertexShader, FragmentShader fragmentShader) {
+        Map<FragmentShader,Program> programs = mProgramsByShaders.get(vertexShader);
+        if (programs == null) {
+            programs = new HashMap<FragmentShader,Program>();
+            mProgramsByShaders.put(vertexShader, programs);
+        }
+        Program program = programs.get(fragmentShader);
+        if (program == null) {
+            program = new Program(vertexShader, fragmentShader);
+            programs.put(fragmentShader, program);
+        }
+        return program;
+    }
+
+    public Program getProgram(String vertexSource, String fragmentSource) {
+        Map<String,Program> programs = mProgramsBySource.get(vertexSource);
+        if (programs == null) {
+            programs = new HashMap<String,Program>();
+            mProgramsBySource.put(vertexSource, programs);
+        }
+        Program program = programs.get(fragmentSource);
+        if (program == null) {
+            // Only the binary cache needs a filename-safe key, so hashing is left to misses.
+            String key = null;
+            if (mBinaryCache != null) {
+                key = getKey(vertexSource, fragmentSource);
+                program = mBinaryCache.load(key);
+            }
+            if (program == null) {
+                program = getProgram(getVertexShader(vertexSource), getFragmentShader(fragmentSource));
+                if (mBinaryCache != null) {
+                    mBinaryCache.store(key, program);
+                }
+            }
+            programs.put(fragmentSource, program);
+        }
+        return program;
+    }
+
+    // Releases everything in the cache.  Call this on the GL thread when the context is lost or torn down.
+    public void clear() {
+        for (Map<String,Program> programs : mProgramsBySource.values()) {
+            for (Program program : programs.values()) {
+                program.release();
+            }
+        }
+        for (Map<FragmentShader,Program> programs : mProgramsByShaders.values()) {
+            for (Program program : programs.values()) {
+                program.release();
+            }
+        }
+        for (Shader shader : mVertexShaders.values()) {
+            shader.release();
+        }
+        for (Shader shader : mFragmentShaders.values()) {
+            shader.release();
+        }
+        mProgramsBySource.clear();
+        mProgramsByShaders.clear();
+        mVertexShaders.clear();
+        mFragmentShaders.clear();
+    }
+
+    // A filename-safe hash of the program's sources.
+    public static String getKey(String vertexSource, String fragmentSource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(vertexSource.getBytes("UTF-8"));
+            digest.update((byte)0);
+            digest.update(fragmentSource.getBytes("UTF-8"));
+            byte[] hash = digest.digest();
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
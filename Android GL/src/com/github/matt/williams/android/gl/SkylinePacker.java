@@ -0,0 +1,266 @@
+package com.github.matt.williams.android.gl;
+
+// Packs rectangles into a fixed-size bin using the skyline bottom-left heuristic: the top edge of
+// everything packed so far is kept as a list of horizontal segments, and each rectangle goes
+// wherever its top edge would end up lowest.
+//
+// Removed rectangles go on a free list, which insert() tries first (best short side fit, splitting
+// what's left over), and adjacent free rectangles that line up are merged.  Removing everything
+// resets the bin.
+public class SkylinePacker {
+    private final int mWidth;
+    private final int mHeight;
+    // Segment ii spans [mX[ii], mX[ii] + mSegmentWidths[ii]) at height mY[ii], in order of x.
+    private int[] mX = new int[16];
+    private int[] mY = new int[16];
+    private int[] mSegmentWidths = new int[16];
+    private int mNumSegments;
+    // Free rectangle ii is (mFreeX[ii], mFreeY[ii]) to (mFreeX[ii] + mFreeWidths[ii], mFreeY[ii] + mFreeHeights[ii]).
+    private int[] mFreeX = new int[8];
+    private int[] mFreeY = new int[8];
+    private int[] mFreeWidths = new int[8];
+    private int[] mFreeHeights = new int[8];
+    private int mNumFree;
+    private int mUsedArea;
+
+    public SkylinePacker(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        reset();
+    }
+
+    public void reset() {
+        mX[0] = 0;
+        mY[0] = 0;
+        mSegmentWidths[0] = mWidth;
+        mNumSegments = 1;
+        mNumFree = 0;
+        mUsedArea = 0;
+    }
+
+    // Finds space for a width x height rectangle, storing its position in result[0] (x) and result[1]
+    // (y).  Returns false if it doesn't fit.
+    public boolean insert(int width, int height, int[] result) {
+        int freeIndex = findFree(width, height);
+        if (freeIndex >= 0) {
+            result[0] = mFreeX[freeIndex];
+            result[1] = mFreeY[freeIndex];
+            splitFree(freeIndex, width, height);
+            mUsedArea += width * height;
+            return true;
+        }
+        int bestIndex = -1;
+        int bestTop = Integer.MAX_VALUE;
+        int bestWidth = Integer.MAX_VALUE;
+        int bestY = 0;
+        for (int ii = 0; ii < mNumSegments; ii++) {
+            int y = fit(ii, width, height);
+            if (y >= 0) {
+                int top = y + height;
+                if ((top < bestTop) || ((top == bestTop) && (mSegmentWidths[ii] < bestWidth))) {
+                    bestIndex = ii;
+                    bestTop = top;
+                    bestWidth = mSegmentWidths[ii];
+                    bestY = y;
+                }
+            }
+        }
+        if (bestIndex < 0) {
+            return false;
+        }
+        result[0] = mX[bestIndex];
+        result[1] = bestY;
+        addSegment(bestIndex, mX[bestIndex], bestTop, width);
+        mUsedArea += width * height;
+        return true;
+    }
+
+    // Frees a rectangle previously returned by insert(), for later inserts to reuse.
+    public void remove(int x, int y, int width, int height) {
+        mUsedArea -= width * height;
+        if (mUsedArea <= 0) {
+            reset();
+        } else {
+            addFree(x, y, width, height);
+        }
+    }
+
+    public int getFreeRectangleCount() {
+        return mNumFree;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    // Total area of the rectangles inserted since the last reset.
+    public int getUsedArea() {
+        return mUsedArea;
+    }
+
+    public float getOccupancy() {
+        return (float)mUsedArea / (mWidth * mHeight);
+    }
+
+    // Returns the y at which a rectangle starting at segment index would sit, or -1 if it doesn't fit.
+    private int fit(int index, int width, int height) {
+        int x = mX[index];
+        if (x + width > mWidth) {
+            return -1;
+        }
+        int y = 0;
+        int remaining = width;
+        for (int ii = index; remaining > 0; ii++) {
+            y = Math.max(y, mY[ii]);
+            if (y + height > mHeight) {
+                return -1;
+            }
+            remaining -= mSegmentWidths[ii];
+        }
+        return y;
+    }
+
+    // Returns the free rectangle leaving the least slack on its tighter side, or -1 if none fits.
+    private int findFree(int width, int height) {
+        int bestIndex = -1;
+        int bestSlack = Integer.MAX_VALUE;
+        for (int ii = 0; ii < mNumFree; ii++) {
+            int slackX = mFreeWidths[ii] - width;
+            int slackY = mFreeHeights[ii] - height;
+            if ((slackX >= 0) && (slackY >= 0) && (Math.min(slackX, slackY) < bestSlack)) {
+                bestIndex = ii;
+                bestSlack = Math.min(slackX, slackY);
+            }
+        }
+        return bestIndex;
+    }
+
+    // Takes a width x height rectangle from the bottom-left of free rectangle index, returning the rest
+    // as two rectangles split along the shorter leftover axis.
+    private void splitFree(int index, int width, int height) {
+        int x = mFreeX[index];
+        int y = mFreeY[index];
+        int freeWidth = mFreeWidths[index];
+        int freeHeight = mFreeHeights[index];
+        removeFree(index);
+        if (freeWidth - width < freeHeight - height) {
+            addFree(x + width, y, freeWidth - width, height);
+            addFree(x, y + height, freeWidth, freeHeight - height);
+        } else {
+            addFree(x + width, y, freeWidth - width, freeHeight);
+            addFree(x, y + height, width, freeHeight - height);
+        }
+    }
+
+    private void addFree(int x, int y, int width, int height) {
+        if ((width <= 0) || (height <= 0)) {
+            return;
+        }
+        // Merge with any free rectangle sharing a whole edge, repeating while the result grows.
+        for (int ii = 0; ii < mNumFree; ii++) {
+            boolean merged = false;
+            if ((mFreeX[ii] == x) && (mFreeWidths[ii] == width)) {
+                if (mFreeY[ii] + mFreeHeights[ii] == y) {
+                    y = mFreeY[ii];
+                    height += mFreeHeights[ii];
+                    merged = true;
+                } else if (y + height == mFreeY[ii]) {
+                    height += mFreeHeights[ii];
+                    merged = true;
+                }
+            } else if ((mFreeY[ii] == y) && (mFreeHeights[ii] == height)) {
+                if (mFreeX[ii] + mFreeWidths[ii] == x) {
+                    x = mFreeX[ii];
+                    width += mFreeWidths[ii];
+                    merged = true;
+                } else if (x + width == mFreeX[ii]) {
+                    width += mFreeWidths[ii];
+                    merged = true;
+                }
+            }
+            if (merged) {
+                removeFree(ii);
+                ii = -1;
+            }
+        }
+        if (mNumFree == mFreeX.length) {
+            mFreeX = grow(mFreeX);
+            mFreeY = grow(mFreeY);
+            mFreeWidths = grow(mFreeWidths);
+            mFreeHeights = grow(mFreeHeights);
+        }
+        mFreeX[mNumFree] = x;
+        mFreeY[mNumFree] = y;
+        mFreeWidths[mNumFree] = width;
+        mFreeHeights[mNumFree] = height;
+        mNumFree++;
+    }
+
+    // Order doesn't matter, so the last rectangle fills the gap.
+    private void removeFree(int index) {
+        mNumFree--;
+        mFreeX[index] = mFreeX[mNumFree];
+        mFreeY[index] = mFreeY[mNumFree];
+        mFreeWidths[index] = mFreeWidths[mNumFree];
+        mFreeHeights[index] = mFreeHeights[mNumFree];
+    }
+
+    private void addSegment(int index, int x, int y, int width) {
+        if (mNumSegments == mX.length) {
+            mX = grow(mX);
+            mY = grow(mY);
+            mSegmentWidths = grow(mSegmentWidths);
+        }
+        System.arraycopy(mX, index, mX, index + 1, mNumSegments - index);
+        System.arraycopy(mY, index, mY, index + 1, mNumSegments - index);
+        System.arraycopy(mSegmentWidths, index, mSegmentWidths, index + 1, mNumSegments - index);
+        mX[index] = x;
+        mY[index] = y;
+        mSegmentWidths[index] = width;
+        mNumSegments++;
+
+        // Trim or remove the segments now underneath the new one.
+        int right = x + width;
+        int ii = index + 1;
+        while (ii < mNumSegments) {
+            if (mX[ii] >= right) {
+                break;
+            }
+            int overlap = right - mX[ii];
+            if (overlap < mSegmentWidths[ii]) {
+                mX[ii] += overlap;
+                mSegmentWidths[ii] -= overlap;
+                break;
+            }
+            removeSegment(ii);
+        }
+
+        // Merge neighbours at the same height.
+        for (ii = 0; ii < mNumSegments - 1; ) {
+            if (mY[ii] == mY[ii + 1]) {
+                mSegmentWidths[ii] += mSegmentWidths[ii + 1];
+                removeSegment(ii + 1);
+            } else {
+                ii++;
+            }
+        }
+    }
+
+    private void removeSegment(int index) {
+        int tail = mNumSegments - index - 1;
+        System.arraycopy(mX, index + 1, mX, index, tail);
+        System.arraycopy(mY, index + 1, mY, index, tail);
+        System.arraycopy(mSegmentWidths, index + 1, mSegmentWidths, index, tail);
+        mNumSegments--;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
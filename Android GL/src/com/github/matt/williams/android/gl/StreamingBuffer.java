@@ -0,0 +1,98 @@
+package com.github.matt.williams.android.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// A fixed-capacity ring allocator for vertex or index data that changes every frame.  The buffer is
+// split into one partition per frame in flight (3 by default), so data written this frame never
+// overwrites a region the GPU may still be reading from a previous one.
+//
+// Usage per frame: beginFrame(), then allocate() space, write it through getData() at the returned
+// offset, flush() to upload, and draw using the backing buffer object at that offset.
+public class StreamingBuffer {
+    private static final int DEFAULT_FRAMES_IN_FLIGHT = 3;
+    private static final int ALIGNMENT = 4;
+    private final BufferObject mBuffer;
+    private final ByteBuffer mData;
+    private final int mFrameSize;
+    private final int mNumFrames;
+    private int mFrame;
+    private int mFrameStart;
+    private int mPosition;
+    private int mUploaded;
+
+    // buffer is typically a VertexBuffer or IndexBuffer created with GLES20.GL_STREAM_DRAW.
+    public StreamingBuffer(BufferObject buffer, int frameSize, int numFrames) {
+        mBuffer = buffer;
+        mFrameSize = align(frameSize);
+        mNumFrames = numFrames;
+        mData = ByteBuffer.allocateDirect(mFrameSize * numFrames).order(ByteOrder.nativeOrder());
+        mBuffer.allocate(mData.capacity());
+        mFrame = numFrames - 1;
+        beginFrame();
+    }
+
+    public StreamingBuffer(BufferObject buffer, int frameSize) {
+        this(buffer, frameSize, DEFAULT_FRAMES_IN_FLIGHT);
+    }
+
+    public void beginFrame() {
+        mFrame = (mFrame + 1) % mNumFrames;
+        mFrameStart = mFrame * mFrameSize;
+        mPosition = mFrameStart;
+        mUploaded = mFrameStart;
+    }
+
+    // Starts this frame's partition again from the beginning, for when a frame needs more than frameSize.
+    // GL orders the overwrite after draws already issued from the partition, but the driver may have to
+    // wait for them (or copy) to do so.
+    public void rewindFrame() {
+        mPosition = mFrameStart;
+        mUploaded = mFrameStart;
+    }
+
+    // Returns the byte offset of the allocated region within getData() and the buffer object, or -1
+    // if this frame's partition is full.
+    public int allocate(int bytes) {
+        int offset = mPosition;
+        if (offset + bytes > mFrameStart + mFrameSize) {
+            return -1;
+        }
+        mPosition = Math.min(align(offset + bytes), mFrameStart + mFrameSize);
+        return offset;
+    }
+
+    // Uploads everything allocated since the last flush in a single glBufferSubData.
+    public void flush() {
+        if (mPosition > mUploaded) {
+            mData.limit(mPosition).position(mUploaded);
+            mBuffer.setSubData(mUploaded, mData, mPosition - mUploaded);
+            mData.clear();
+            mUploaded = mPosition;
+        }
+    }
+
+    public void release() {
+        mBuffer.release();
+    }
+
+    public ByteBuffer getData() {
+        return mData;
+    }
+
+    public BufferObject getBufferObject() {
+        return mBuffer;
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    public int getRemaining() {
+        return mFrameStart + mFrameSize - mPosition;
+    }
+
+    private static int align(int offset) {
+        return (offset + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+    }
+}
@@ -6,33 +6,48 @@ import android.opengl.GLES20;
 
 public class TargetTexture extends BasicTexture {
     private final int mFramebufferId;
+    private final ReleaseQueue.Resource mFramebufferResource;
+    private final int mInternalFormat;
+    private final int mFormat;
+    private final int mType;
     private int mWidth;
     private int mHeight;
     private boolean mResizePending;
     private boolean mFramebufferResizePending;
 
-    public TargetTexture(int width, int height, int wrap) {
+    // internalFormat, format and type describe the render target storage, e.g. GLES30.GL_RGBA16F,
+    // GLES20.GL_RGBA and GLES30.GL_HALF_FLOAT.  GLES 3.0 needs a sized internal format for float types.
+    public TargetTexture(int width, int height, int wrap, int internalFormat, int format, int type) {
         super(GLES20.GL_TEXTURE_2D, wrap);
+        GLBackend gl = GLState.gl();
+        mInternalFormat = internalFormat;
+        mFormat = format;
+        mType = type;
         mFramebufferId = generateFramebufferId();
+        mFramebufferResource = ReleaseQueue.register(this, ReleaseQueue.FRAMEBUFFER, mFramebufferId);
         int oldId = pushFramebuffer();
-        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, mTarget, mId, 0);
+        gl.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, mTarget, mId, 0);
         popFramebuffer(oldId);
         setSize(width, height);
     }
 
+    // format is also used as the internal format, as GLES 2.0 requires.
+    public TargetTexture(int width, int height, int wrap, int format, int type) {
+        this(width, height, wrap, format, format, type);
+    }
+
+    public TargetTexture(int width, int height, int wrap) {
+        this(width, height, wrap, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE);
+    }
+
     public TargetTexture(int width, int height) {
         this(width, height, GLES20.GL_CLAMP_TO_EDGE);
     }
 
     @Override
-    protected void finalize() throws Throwable {
-        try {
-            if (mFramebufferId != 0) {
-                GLES20.glDeleteTextures(1, new int[] {mFramebufferId}, 0);
-            }
-        } finally {
-            super.finalize();
-        }
+    public void release() {
+        mFramebufferResource.release();
+        super.release();
     }
 
     public void setSize(int width, int height) {
@@ -45,61 +60,136 @@ public class TargetTexture extends BasicTexture {
     }
 
     public void renderTo() {
+        GLBackend gl = GLState.gl();
         if (mFramebufferResizePending) {
             int oldId = pushTexture();
-            GLES20.glTexImage2D(mTarget, 0, GLES20.GL_RGBA, mWidth, mHeight, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, ByteBuffer.allocate(mWidth * mHeight * 4));
+            // No client data - the contents are undefined until rendered to, so there's nothing to copy.
+            gl.glTexImage2D(mTarget, 0, mInternalFormat, mWidth, mHeight, 0, mFormat, mType, null);
             Utils.checkErrors("glTexImage2D");
             popTexture(oldId);
             mFramebufferResizePending = false;
         }
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebufferId);
-        Utils.checkErrors("glBindFramebuffer");
-        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLState state = GLState.get();
+        state.bindFramebuffer(mFramebufferId);
+        int status = gl.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
         if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
             throw new IllegalStateException("GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER) returned " + status);
         }
-        GLES20.glViewport(0, 0, mWidth, mHeight);
-        Utils.checkErrors("glViewport");
+        state.viewport(0, 0, mWidth, mHeight);
     }
 
     public void setData(byte[] data) {
+        setData(ByteBuffer.wrap(data, 0, mWidth * mHeight));
+    }
+
+    public void setData(ByteBuffer data) {
+        setData(data, 0, mHeight);
+    }
+
+    // Uploads rows [y, y + height) of a full frame of luminance data.  GLES 2.0 can't skip pixels
+    // within a row, so partial updates are whole rows.
+    public void setData(ByteBuffer data, int y, int height) {
+        GLBackend gl = GLState.gl();
+        int oldId = pushTexture();
+        // Luminance rows are tightly packed, whatever the width.
+        int oldAlignment = GLState.get().unpackAlignment(1);
+        int position = data.position();
+        if (mResizePending) {
+            gl.glTexImage2D(mTarget, 0, GLES20.GL_LUMINANCE, mWidth, mHeight, 0, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, data);
+            Utils.checkErrors("glTexImage2D");
+            mResizePending = false;
+        } else {
+            data.position(position + y * mWidth);
+            gl.glTexSubImage2D(mTarget, 0, 0, y, mWidth, height, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, data);
+            Utils.checkErrors("glTexSubImage2D");
+            data.position(position);
+        }
+        popUnpackAlignment(oldAlignment);
+        popTexture(oldId);
+    }
+
+    // As setData(), but from a full frame in the currently bound pixel unpack buffer (GLES 3.0).
+    void setDataFromUnpackBuffer(int y, int height) {
+        GLBackend gl = GLState.gl();
         int oldId = pushTexture();
+        int oldAlignment = GLState.get().unpackAlignment(1);
         if (mResizePending) {
-            GLES20.glTexImage2D(mTarget, 0, GLES20.GL_LUMINANCE, mWidth, mHeight, 0, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, ByteBuffer.wrap(data, 0, mWidth * mHeight));
+            // With an unpack buffer bound, null means offset 0, so this fills the new storage from the whole frame.
+            gl.glTexImage2D(mTarget, 0, GLES20.GL_LUMINANCE, mWidth, mHeight, 0, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, null);
             Utils.checkErrors("glTexImage2D");
             mResizePending = false;
         } else {
-            GLES20.glTexSubImage2D(mTarget, 0, 0, 0, mWidth, mHeight, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, ByteBuffer.wrap(data, 0, mWidth * mHeight));
+            gl.glTexSubImage2D(mTarget, 0, 0, y, mWidth, height, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, y * mWidth);
             Utils.checkErrors("glTexSubImage2D");
         }
+        popUnpackAlignment(oldAlignment);
         popTexture(oldId);
     }
 
+    private static void popUnpackAlignment(int oldAlignment) {
+        if (oldAlignment != GLState.UNKNOWN) {
+            GLState.get().unpackAlignment(oldAlignment);
+        }
+    }
+
+    // Reads a rectangle of RGBA pixels into data, starting at its position.  This blocks until the GPU has
+    // finished rendering to the target - see Readback for the asynchronous alternative.
+    public void readPixels(int x, int y, int width, int height, ByteBuffer data) {
+        GLBackend gl = GLState.gl();
+        renderTo();
+        gl.glReadPixels(x, y, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, data);
+        Utils.checkErrors("glReadPixels");
+    }
+
+    // Reads a rectangle of RGBA pixels into the currently bound pixel pack buffer (GLES 3.0).  The read is
+    // queued rather than waited for.
+    void readPixelsToPackBuffer(int x, int y, int width, int height) {
+        GLBackend gl = GLState.gl();
+        renderTo();
+        gl.glReadPixels(x, y, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        Utils.checkErrors("glReadPixels");
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getInternalFormat() {
+        return mInternalFormat;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
     public int getFramebufferId() {
         return mFramebufferId;
     }
 
     private static int generateFramebufferId() {
+        GLBackend gl = GLState.gl();
         int[] ids = new int[1];
-        GLES20.glGenFramebuffers(1, ids, 0);
+        gl.glGenFramebuffers(1, ids, 0);
         Utils.checkErrors("glFramebuffers");
         return ids[0];
     }
 
     private int pushFramebuffer() {
-        int[] oldIds = new int[1];
-        GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, oldIds, 0);
-        Utils.checkErrors("glGetIntegerv");
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebufferId);
-        Utils.checkErrors("glBindFramebuffer");
-        return oldIds[0];
+        return GLState.get().bindFramebuffer(mFramebufferId);
     }
 
     private void popFramebuffer(int oldId) {
-        // Revert to the previous framebuffer, unless it's 0 (in which case nothing was previously bound).
-        if (oldId != 0) {
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, oldId);
-            Utils.checkErrors("glBindFramebuffer");
+        // Revert to the previous framebuffer, unless it's 0 (in which case nothing was previously bound) or unknown.
+        if (oldId > 0) {
+            GLState.get().bindFramebuffer(oldId);
         }
     }
 }
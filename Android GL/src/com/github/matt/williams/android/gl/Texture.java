@@ -6,22 +6,27 @@ import android.opengl.Matrix;
 public class Texture {
     protected final int mTarget;
     protected final int mId;
+    private final ReleaseQueue.Resource mResource;
     protected final float[] mTransformMatrix = new float[16];
+    private int mMinFilter = GLES20.GL_NEAREST;
+    private int mMagFilter = GLES20.GL_NEAREST;
     {
         Matrix.setIdentityM(mTransformMatrix, 0);
     }
 
     public Texture(int target, int wrap) {
+        GLBackend gl = GLState.gl();
         mTarget = target;
         mId = generateTextureId();
+        mResource = ReleaseQueue.register(this, ReleaseQueue.TEXTURE, mId);
         int oldId = pushTexture();
-        GLES20.glTexParameteri(mTarget, GLES20.GL_TEXTURE_WRAP_S, wrap);
+        gl.glTexParameteri(mTarget, GLES20.GL_TEXTURE_WRAP_S, wrap);
         Utils.checkErrors("glTexParameteri");
-        GLES20.glTexParameteri(mTarget, GLES20.GL_TEXTURE_WRAP_T, wrap);
+        gl.glTexParameteri(mTarget, GLES20.GL_TEXTURE_WRAP_T, wrap);
         Utils.checkErrors("glTexParameteri");
-        GLES20.glTexParameteri(mTarget, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+        gl.glTexParameteri(mTarget, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
         Utils.checkErrors("glTexParameteri");
-        GLES20.glTexParameteri(mTarget, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        gl.glTexParameteri(mTarget, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
         Utils.checkErrors("glTexParameteri");
         popTexture(oldId);
     }
@@ -30,23 +35,37 @@ public class Texture {
         this(target, GLES20.GL_CLAMP_TO_EDGE);
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        try {
-            if (mId != 0) {
-                GLES20.glDeleteTextures(1, new int[] {mId}, 0);
-                Utils.checkErrors("glDeleteTextures");
-            }
-        } finally {
-            super.finalize();
-        }
+    public void release() {
+        mResource.release();
     }
 
     public void use(int channel) {
-        GLES20.glActiveTexture(channel);
-        Utils.checkErrors("glActiveTexture");
-        GLES20.glBindTexture(mTarget, mId);
-        Utils.checkErrors("glBindTexture");
+        GLState state = GLState.get();
+        state.activeTexture(channel);
+        state.bindTexture(mTarget, mId);
+    }
+
+    public void setFilter(int minFilter, int magFilter) {
+        if ((minFilter == mMinFilter) && (magFilter == mMagFilter)) {
+            return;
+        }
+        GLBackend gl = GLState.gl();
+        int oldId = pushTexture();
+        gl.glTexParameteri(mTarget, GLES20.GL_TEXTURE_MIN_FILTER, minFilter);
+        Utils.checkErrors("glTexParameteri");
+        gl.glTexParameteri(mTarget, GLES20.GL_TEXTURE_MAG_FILTER, magFilter);
+        Utils.checkErrors("glTexParameteri");
+        popTexture(oldId);
+        mMinFilter = minFilter;
+        mMagFilter = magFilter;
+    }
+
+    public int getMinFilter() {
+        return mMinFilter;
+    }
+
+    public int getMagFilter() {
+        return mMagFilter;
     }
 
     public int getId() {
@@ -65,8 +84,9 @@ public class Texture {
     }
 
     private static int generateTextureId() {
+        GLBackend gl = GLState.gl();
         int[] ids = new int[1];
-        GLES20.glGenTextures(1, ids, 0);
+        gl.glGenTextures(1, ids, 0);
         Utils.checkErrors("glGenTextures");
         return ids[0];
     }
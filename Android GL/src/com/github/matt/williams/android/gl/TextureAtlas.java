@@ -0,0 +1,214 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+
+// Packs many small bitmaps into a few large RGBA textures ("pages"), so that drawing them doesn't
+// need a texture bind per bitmap.  Each entry's transform matrix maps [0, 1] texture coordinates
+// onto its sub-rectangle of the page, following the Texture.getTransformMatrix() convention.
+//
+// Each entry is surrounded by padding filled with copies of its border pixels, so that linear
+// filtering at its edges blends with its own border rather than with undefined page memory.
+// Bitmaps are uploaded as ARGB_8888 whatever their config, since the pages are RGBA.
+//
+// Removed entries free their space straight away for later entries to reuse.  Pages left empty are
+// released by endFrame() once they've gone unused for a few frames.
+public class TextureAtlas {
+    private static final int DEFAULT_MAX_IDLE_FRAMES = 3;
+    private final int mPageWidth;
+    private final int mPageHeight;
+    private final int mPadding;
+    private final int mMaxIdleFrames;
+    private final List<Page> mPages = new ArrayList<Page>();
+    private final int[] mPosition = new int[2];
+    private int[] mPixels = new int[0];
+    private int mFrame;
+
+    private static class Page {
+        private final BasicTexture mTexture;
+        private final SkylinePacker mPacker;
+        private int mLiveCount;
+        private int mEmptySince;
+
+        private Page(int width, int height) {
+            GLBackend gl = GLState.gl();
+            mTexture = new BasicTexture(GLES20.GL_TEXTURE_2D);
+            mPacker = new SkylinePacker(width, height);
+            int oldId = mTexture.pushTexture();
+            gl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+            Utils.checkErrors("glTexImage2D");
+            mTexture.popTexture(oldId);
+        }
+    }
+
+    public static class Entry {
+        private final Page mPage;
+        private final int mX;
+        private final int mY;
+        private final int mWidth;
+        private final int mHeight;
+        private final float[] mTransformMatrix = new float[16];
+        private boolean mRemoved;
+
+        private Entry(Page page, int x, int y, int width, int height, int pageWidth, int pageHeight) {
+            mPage = page;
+            mX = x;
+            mY = y;
+            mWidth = width;
+            mHeight = height;
+            mTransformMatrix[0] = (float)width / pageWidth;
+            mTransformMatrix[5] = (float)height / pageHeight;
+            mTransformMatrix[10] = 1;
+            mTransformMatrix[12] = (float)x / pageWidth;
+            mTransformMatrix[13] = (float)y / pageHeight;
+            mTransformMatrix[15] = 1;
+        }
+
+        public Texture getTexture() {
+            return mPage.mTexture;
+        }
+
+        public float[] getTransformMatrix() {
+            return mTransformMatrix;
+        }
+
+        public void use(int channel) {
+            mPage.mTexture.use(channel);
+        }
+
+        public int getX() {
+            return mX;
+        }
+
+        public int getY() {
+            return mY;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+    }
+
+    // padding is the number of border pixels extruded on each side of an entry.
+    // Empty pages are released once they've been empty for more than maxIdleFrames calls to endFrame().
+    public TextureAtlas(int pageWidth, int pageHeight, int padding, int maxIdleFrames) {
+        mPageWidth = pageWidth;
+        mPageHeight = pageHeight;
+        mPadding = padding;
+        mMaxIdleFrames = maxIdleFrames;
+    }
+
+    public TextureAtlas(int pageWidth, int pageHeight, int padding) {
+        this(pageWidth, pageHeight, padding, DEFAULT_MAX_IDLE_FRAMES);
+    }
+
+    public TextureAtlas(int pageWidth, int pageHeight) {
+        this(pageWidth, pageHeight, 1);
+    }
+
+    // Copies bitmap into the atlas.  The bitmap is not recycled.
+    public Entry add(Bitmap bitmap) {
+        GLBackend gl = GLState.gl();
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int paddedWidth = width + 2 * mPadding;
+        int paddedHeight = height + 2 * mPadding;
+        if ((paddedWidth > mPageWidth) || (paddedHeight > mPageHeight)) {
+            throw new IllegalArgumentException("Bitmap " + width + "x" + height + " doesn't fit in a " + mPageWidth + "x" + mPageHeight + " page");
+        }
+        Page page = null;
+        for (Page candidate : mPages) {
+            if (candidate.mPacker.insert(paddedWidth, paddedHeight, mPosition)) {
+                page = candidate;
+                break;
+            }
+        }
+        if (page == null) {
+            page = new Page(mPageWidth, mPageHeight);
+            mPages.add(page);
+            page.mPacker.insert(paddedWidth, paddedHeight, mPosition);
+        }
+        Bitmap padded = pad(bitmap);
+        int oldId = page.mTexture.pushTexture();
+        gl.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, mPosition[0], mPosition[1], padded);
+        Utils.checkErrors("texSubImage2D");
+        page.mTexture.popTexture(oldId);
+        if (padded != bitmap) {
+            padded.recycle();
+        }
+        page.mLiveCount++;
+        return new Entry(page, mPosition[0] + mPadding, mPosition[1] + mPadding, width, height, mPageWidth, mPageHeight);
+    }
+
+    public void remove(Entry entry) {
+        if (!entry.mRemoved) {
+            entry.mRemoved = true;
+            Page page = entry.mPage;
+            page.mPacker.remove(entry.mX - mPadding, entry.mY - mPadding, entry.mWidth + 2 * mPadding, entry.mHeight + 2 * mPadding);
+            if (--page.mLiveCount == 0) {
+                page.mEmptySince = mFrame;
+            }
+        }
+    }
+
+    // Call once per frame to release pages that have been empty for too long.
+    public void endFrame() {
+        mFrame++;
+        for (int ii = mPages.size() - 1; ii >= 0; ii--) {
+            Page page = mPages.get(ii);
+            if ((page.mLiveCount == 0) && (mFrame - page.mEmptySince > mMaxIdleFrames)) {
+                page.mTexture.release();
+                mPages.remove(ii);
+            }
+        }
+    }
+
+    public int getPageCount() {
+        return mPages.size();
+    }
+
+    public void release() {
+        for (Page page : mPages) {
+            page.mTexture.release();
+        }
+        mPages.clear();
+    }
+
+    // Returns an ARGB_8888 bitmap of bitmap with its border pixels repeated padding times on each side,
+    // or bitmap itself if it needs neither.
+    Bitmap pad(Bitmap bitmap) {
+        if ((mPadding == 0) && (bitmap.getConfig() == Bitmap.Config.ARGB_8888)) {
+            return bitmap;
+        }
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int paddedWidth = width + 2 * mPadding;
+        int paddedHeight = height + 2 * mPadding;
+        if (mPixels.length < paddedWidth * paddedHeight) {
+            mPixels = new int[paddedWidth * paddedHeight];
+        }
+        int[] pixels = mPixels;
+        bitmap.getPixels(pixels, mPadding * paddedWidth + mPadding, paddedWidth, 0, 0, width, height);
+        for (int y = mPadding; y < mPadding + height; y++) {
+            int row = y * paddedWidth;
+            int left = pixels[row + mPadding];
+            int right = pixels[row + mPadding + width - 1];
+            for (int x = 0; x < mPadding; x++) {
+                pixels[row + x] = left;
+                pixels[row + mPadding + width + x] = right;
+            }
+        }
+        for (int y = 0; y < mPadding; y++) {
+            System.arraycopy(pixels, mPadding * paddedWidth, pixels, y * paddedWidth, paddedWidth);
+            System.arraycopy(pixels, (mPadding + height - 1) * paddedWidth, pixels, (mPadding + height + y) * paddedWidth, paddedWidth);
+        }
+        return Bitmap.createBitmap(pixels, paddedWidth, paddedHeight, Bitmap.Config.ARGB_8888);
+    }
+}
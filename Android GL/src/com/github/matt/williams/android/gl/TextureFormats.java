@@ -0,0 +1,84 @@
+package com.github.matt.williams.android.gl;
+
+// Compressed texture format constants and mip chain size calculations.  Deliberately free of
+// Android dependencies.
+public class TextureFormats {
+    private TextureFormats() {}
+
+    public static final int GL_ETC1_RGB8_OES = 0x8D64;
+    public static final int GL_COMPRESSED_R11_EAC = 0x9270;
+    public static final int GL_COMPRESSED_SIGNED_R11_EAC = 0x9271;
+    public static final int GL_COMPRESSED_RG11_EAC = 0x9272;
+    public static final int GL_COMPRESSED_SIGNED_RG11_EAC = 0x9273;
+    public static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+    public static final int GL_COMPRESSED_SRGB8_ETC2 = 0x9275;
+    public static final int GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2 = 0x9276;
+    public static final int GL_COMPRESSED_SRGB8_PUNCHTHROUGH_ALPHA1_ETC2 = 0x9277;
+    public static final int GL_COMPRESSED_RGBA8_ETC2_EAC = 0x9278;
+    public static final int GL_COMPRESSED_SRGB8_ALPHA8_ETC2_EAC = 0x9279;
+
+    private static final int BLOCK_SIZE = 4;
+
+    public static boolean isCompressed(int internalFormat) {
+        return getBytesPerBlock(internalFormat) > 0;
+    }
+
+    // Bytes per 4x4 block, or 0 if internalFormat isn't a known block-compressed format.
+    public static int getBytesPerBlock(int internalFormat) {
+        switch (internalFormat) {
+        case GL_ETC1_RGB8_OES:
+        case GL_COMPRESSED_R11_EAC:
+        case GL_COMPRESSED_SIGNED_R11_EAC:
+        case GL_COMPRESSED_RGB8_ETC2:
+        case GL_COMPRESSED_SRGB8_ETC2:
+        case GL_COMPRESSED_RGB8_PUNCHTHROUGH_ALPHA1_ETC2:
+        case GL_COMPRESSED_SRGB8_PUNCHTHROUGH_ALPHA1_ETC2:
+            return 8;
+        case GL_COMPRESSED_RG11_EAC:
+        case GL_COMPRESSED_SIGNED_RG11_EAC:
+        case GL_COMPRESSED_RGBA8_ETC2_EAC:
+        case GL_COMPRESSED_SRGB8_ALPHA8_ETC2_EAC:
+            return 16;
+        default:
+            return 0;
+        }
+    }
+
+    // Size in bytes of a width x height image in a block-compressed format.  Partial blocks at the
+    // edges still take up a whole block.
+    public static int getCompressedSize(int internalFormat, int width, int height) {
+        int bytesPerBlock = getBytesPerBlock(internalFormat);
+        if (bytesPerBlock == 0) {
+            throw new IllegalArgumentException("Unknown compressed format 0x" + Integer.toHexString(internalFormat));
+        }
+        return ((width + BLOCK_SIZE - 1) / BLOCK_SIZE) * ((height + BLOCK_SIZE - 1) / BLOCK_SIZE) * bytesPerBlock;
+    }
+
+    // Number of levels in a full mip chain, down to 1x1.
+    public static int getMipLevelCount(int width, int height) {
+        int size = Math.max(width, height);
+        int levels = 1;
+        while (size > 1) {
+            size >>= 1;
+            levels++;
+        }
+        return levels;
+    }
+
+    public static int getMipDimension(int size, int level) {
+        return Math.max(size >> level, 1);
+    }
+
+    // Total size in bytes of levels [0, numLevels) in a block-compressed format.
+    public static int getMipChainSize(int internalFormat, int width, int height, int numLevels) {
+        int total = 0;
+        for (int level = 0; level < numLevels; level++) {
+            total += getCompressedSize(internalFormat, getMipDimension(width, level), getMipDimension(height, level));
+        }
+        return total;
+    }
+
+    public static boolean isPowerOfTwo(int size) {
+        return (size > 0) && ((size & (size - 1)) == 0);
+    }
+}
@@ -0,0 +1,209 @@
+package com.github.matt.williams.android.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+// Asynchronous luminance uploads into a TargetTexture.  A producer thread (e.g. the camera callback)
+// fills pooled direct staging buffers and submits them; the GL thread uploads the most recently
+// submitted one.  Neither side ever waits for the other: if the GL thread falls behind, older frames
+// are dropped, and if every buffer is busy, the producer's frame is dropped.
+//
+// On GLES 3.0 each staging buffer is a mapped pixel unpack buffer, so the producer writes straight
+// into memory the driver can DMA from, and the GL thread only unmaps it and queues the upload.
+// Otherwise it's a plain glTexSubImage2D from a direct staging buffer.
+//
+// Frames must always contain a complete image; the dirty rectangle just limits what's uploaded.
+// Only one producer thread is supported.
+public class TextureUploader {
+    private final TargetTexture mTexture;
+    private final int mWidth;
+    private final int mHeight;
+    private final ConcurrentLinkedQueue<Frame> mFreeFrames = new ConcurrentLinkedQueue<Frame>();
+    private final AtomicReference<Frame> mReadyFrame = new AtomicReference<Frame>();
+    private final Frame[] mFrames;
+    // GL side: set when a pixel buffer's contents were lost, so the next upload must cover every row.
+    private boolean mFullUploadPending;
+    // Producer-side union of dirty regions from frames that were dropped before being uploaded.
+    private int mDroppedTop = Integer.MAX_VALUE;
+    private int mDroppedBottom;
+    private int mDroppedLeft = Integer.MAX_VALUE;
+    private int mDroppedRight;
+    private volatile long mDroppedFrames;
+
+    public static class Frame {
+        // Remapped after each pixel buffer upload, so producers must call getData() for every frame.
+        private ByteBuffer mData;
+        private BufferObject mPixelBuffer;
+        private int mX;
+        private int mY;
+        private int mWidth;
+        private int mHeight;
+
+        private Frame(int size) {
+            mData = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        }
+
+        private Frame(BufferObject pixelBuffer) {
+            mPixelBuffer = pixelBuffer;
+            map();
+        }
+
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+        private void map() {
+            // Invalidating lets the driver hand out fresh memory rather than wait for the last upload.
+            mData = mPixelBuffer.map(0, mPixelBuffer.getSize(), GLES30.GL_MAP_WRITE_BIT | GLES30.GL_MAP_INVALIDATE_BUFFER_BIT);
+        }
+
+        public ByteBuffer getData() {
+            return mData;
+        }
+    }
+
+    // Must be constructed on the GL thread.  numBuffers must be at least 2.
+    public TextureUploader(TargetTexture texture, int numBuffers) {
+        mTexture = texture;
+        mWidth = texture.getWidth();
+        mHeight = texture.getHeight();
+        boolean usePixelBuffers = isPixelBufferSupported();
+        mFrames = new Frame[numBuffers];
+        for (int ii = 0; ii < numBuffers; ii++) {
+            if (usePixelBuffers) {
+                BufferObject pixelBuffer = new BufferObject(GLES30.GL_PIXEL_UNPACK_BUFFER, GLES20.GL_STREAM_DRAW);
+                pixelBuffer.allocate(mWidth * mHeight);
+                mFrames[ii] = new Frame(pixelBuffer);
+                // Client-side uploads elsewhere would otherwise be treated as offsets into this buffer.
+                pixelBuffer.unbind();
+            } else {
+                mFrames[ii] = new Frame(mWidth * mHeight);
+            }
+            mFreeFrames.add(mFrames[ii]);
+        }
+    }
+
+    public TextureUploader(TargetTexture texture) {
+        this(texture, 3);
+    }
+
+    // The producer must have stopped, since deleting the pixel buffers unmaps them.
+    public void release() {
+        for (Frame frame : mFrames) {
+            if (frame.mPixelBuffer != null) {
+                frame.mPixelBuffer.release();
+            }
+        }
+    }
+
+    // Producer side: returns a free frame to fill, or null if all are busy.
+    public Frame acquire() {
+        Frame frame = mFreeFrames.poll();
+        if (frame == null) {
+            frame = mReadyFrame.getAndSet(null);
+            if (frame != null) {
+                // The GL thread never got round to it - remember what it would have updated.
+                dropped(frame);
+            }
+        }
+        return frame;
+    }
+
+    public void submit(Frame frame) {
+        submit(frame, 0, 0, mWidth, mHeight);
+    }
+
+    // Producer side: publishes a filled frame, of which only the given rectangle has changed.
+    public void submit(Frame frame, int x, int y, int width, int height) {
+        Frame oldFrame = mReadyFrame.getAndSet(null);
+        if (oldFrame != null) {
+            dropped(oldFrame);
+            mFreeFrames.add(oldFrame);
+        }
+        int left = Math.min(x, mDroppedLeft);
+        int top = Math.min(y, mDroppedTop);
+        frame.mX = left;
+        frame.mY = top;
+        frame.mWidth = Math.max(x + width, mDroppedRight) - left;
+        frame.mHeight = Math.max(y + height, mDroppedBottom) - top;
+        mDroppedLeft = mDroppedTop = Integer.MAX_VALUE;
+        mDroppedRight = mDroppedBottom = 0;
+        mReadyFrame.set(frame);
+    }
+
+    // Producer side convenience: copies data into a free frame and submits it.  Returns false if
+    // the frame had to be dropped because no buffer was free.
+    public boolean submit(byte[] data) {
+        Frame frame = acquire();
+        if (frame == null) {
+            mDroppedFrames++;
+            return false;
+        }
+        frame.mData.clear();
+        frame.mData.put(data, 0, mWidth * mHeight).flip();
+        submit(frame);
+        return true;
+    }
+
+    // GL side: uploads the latest submitted frame, if any.  Returns whether anything was uploaded.
+    public boolean upload() {
+        Frame frame = mReadyFrame.getAndSet(null);
+        if (frame == null) {
+            return false;
+        }
+        boolean uploaded = true;
+        if (frame.mPixelBuffer == null) {
+            frame.mData.position(0);
+            mTexture.setData(frame.mData, frame.mY, frame.mHeight);
+        } else {
+            uploaded = uploadViaPixelBuffer(frame);
+        }
+        mFreeFrames.add(frame);
+        return uploaded;
+    }
+
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    // Returns false if the frame's contents were lost while mapped (e.g. on a display mode change).
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private boolean uploadViaPixelBuffer(Frame frame) {
+        BufferObject pixelBuffer = frame.mPixelBuffer;
+        boolean intact = pixelBuffer.unmap();
+        if (!intact) {
+            mFullUploadPending = true;
+        } else if (mFullUploadPending) {
+            // Frames are complete images, so the next intact one makes up for the lost rows.
+            mTexture.setDataFromUnpackBuffer(0, mHeight);
+            mFullUploadPending = false;
+        } else {
+            mTexture.setDataFromUnpackBuffer(frame.mY, frame.mHeight);
+        }
+        frame.map();
+        // Client-side uploads elsewhere would otherwise be treated as offsets into this buffer.
+        pixelBuffer.unbind();
+        return intact;
+    }
+
+    private void dropped(Frame frame) {
+        mDroppedLeft = Math.min(mDroppedLeft, frame.mX);
+        mDroppedTop = Math.min(mDroppedTop, frame.mY);
+        mDroppedRight = Math.max(mDroppedRight, frame.mX + frame.mWidth);
+        mDroppedBottom = Math.max(mDroppedBottom, frame.mY + frame.mHeight);
+        mDroppedFrames++;
+    }
+
+    private static boolean isPixelBufferSupported() {
+        GLBackend gl = GLState.gl();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return false;
+        }
+        String version = gl.glGetString(GLES20.GL_VERSION);
+        return (version != null) && version.startsWith("OpenGL ES 3");
+    }
+}
@@ -13,6 +13,18 @@ public class Utils {
         BITMAP_OPTIONS.inScaled = false;
         BITMAP_OPTIONS.inPreferredConfig = Bitmap.Config.ARGB_8888;
     };
+
+    public static final Options RGB565_BITMAP_OPTIONS = new Options();
+    static {
+        RGB565_BITMAP_OPTIONS.inScaled = false;
+        RGB565_BITMAP_OPTIONS.inPreferredConfig = Bitmap.Config.RGB_565;
+    };
+
+    public static final Options ALPHA_BITMAP_OPTIONS = new Options();
+    static {
+        ALPHA_BITMAP_OPTIONS.inScaled = false;
+        ALPHA_BITMAP_OPTIONS.inPreferredConfig = Bitmap.Config.ALPHA_8;
+    };
     
    private final static SparseArray<String> GL_ERRORS = new SparseArray<String>();
     static {
@@ -20,13 +32,55 @@ public class Utils {
         GL_ERRORS.put(GLES20.GL_INVALID_FRAMEBUFFER_OPERATION, "GL_INVALID_FRAMEBUFFER_OPERATION");
         GL_ERRORS.put(GLES20.GL_INVALID_OPERATION, "GL_INVALID_OPERATION");
         GL_ERRORS.put(GLES20.GL_INVALID_VALUE, "GL_INVALID_VALUE");
+        GL_ERRORS.put(GLES20.GL_OUT_OF_MEMORY, "GL_OUT_OF_MEMORY");
+    }
+
+    // glGetError() forces a round trip to the driver on many GPUs, so how often we call it is configurable.
+    public enum ErrorCheckMode {
+        // Never check.
+        OFF,
+        // Only check in checkFrameErrors(), which should be called once per frame.
+        PER_FRAME,
+        // Check after every GL call, so the failing call is reported.
+        PER_CALL
+    }
+
+    // Never more than 4 error flags in practice, but don't spin forever if a lost context keeps returning errors.
+    private static final int MAX_ERROR_FLAGS = 16;
+    private static volatile ErrorCheckMode sErrorCheckMode = ErrorCheckMode.PER_CALL;
+
+    public static void setErrorCheckMode(ErrorCheckMode mode) {
+        sErrorCheckMode = mode;
+    }
+
+    public static ErrorCheckMode getErrorCheckMode() {
+        return sErrorCheckMode;
     }
     
     public static void checkErrors(String name) {
-        int error = GLES20.glGetError();
-        if (error != 0) {
-            String errorString = GL_ERRORS.get(error);
-            throw new IllegalStateException(name + " raised " + ((errorString != null) ? errorString : ("error " + error)));
+        if (sErrorCheckMode == ErrorCheckMode.PER_CALL) {
+            int error = GLState.gl().glGetError();
+            if (error != 0) {
+                throw new IllegalStateException(name + " raised " + getErrorString(error));
+            }
         }
     }
+
+    // Reports the first error raised since the last check, and clears any others.
+    public static void checkFrameErrors() {
+        if (sErrorCheckMode != ErrorCheckMode.OFF) {
+            GLBackend gl = GLState.gl();
+            int error = gl.glGetError();
+            if (error != 0) {
+                for (int ii = 0; (ii < MAX_ERROR_FLAGS) && (gl.glGetError() != 0); ii++) {
+                }
+                throw new IllegalStateException("Frame raised " + getErrorString(error));
+            }
+        }
+    }
+
+    private static String getErrorString(int error) {
+        String errorString = GL_ERRORS.get(error);
+        return (errorString != null) ? errorString : ("error " + error);
+    }
 }
@@ -0,0 +1,24 @@
+package com.github.matt.williams.android.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import android.opengl.GLES20;
+
+public class VertexBuffer extends BufferObject {
+    public VertexBuffer(int usage) {
+        super(GLES20.GL_ARRAY_BUFFER, usage);
+    }
+
+    public VertexBuffer() {
+        this(GLES20.GL_STATIC_DRAW);
+    }
+
+    // Convenience for one-off uploads of static data - this allocates a temporary direct buffer.
+    public void setData(float[] data) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(data.length * BYTES_PER_FLOAT).order(ByteOrder.nativeOrder()).asFloatBuffer().put(data);
+        buffer.position(0);
+        setData(buffer);
+    }
+}
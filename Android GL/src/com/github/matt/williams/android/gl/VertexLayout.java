@@ -0,0 +1,111 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.opengl.GLES20;
+
+// Describes a set of vertex attributes interleaved in a single buffer.  Offsets and the stride are
+// computed as attributes are added, with each attribute aligned to 4 bytes as GL ES prefers.
+public class VertexLayout {
+    private static final int ALIGNMENT = 4;
+    private final List<String> mNames = new ArrayList<String>();
+    private int[] mTypes = new int[4];
+    private int[] mSizes = new int[4];
+    private boolean[] mNormalized = new boolean[4];
+    private int[] mOffsets = new int[4];
+    private int mStride;
+
+    public VertexLayout add(String name, int size) {
+        return add(name, GLES20.GL_FLOAT, size, false);
+    }
+
+    // type is one of GLES20.GL_FLOAT, GL_SHORT, GL_UNSIGNED_SHORT, GL_BYTE or GL_UNSIGNED_BYTE.
+    public VertexLayout add(String name, int type, int size, boolean normalized) {
+        int index = mNames.size();
+        if (index == mTypes.length) {
+            int length = index * 2;
+            int[] types = new int[length];
+            int[] sizes = new int[length];
+            boolean[] normalizedFlags = new boolean[length];
+            int[] offsets = new int[length];
+            System.arraycopy(mTypes, 0, types, 0, index);
+            System.arraycopy(mSizes, 0, sizes, 0, index);
+            System.arraycopy(mNormalized, 0, normalizedFlags, 0, index);
+            System.arraycopy(mOffsets, 0, offsets, 0, index);
+            mTypes = types;
+            mSizes = sizes;
+            mNormalized = normalizedFlags;
+            mOffsets = offsets;
+        }
+        mNames.add(name);
+        mTypes[index] = type;
+        mSizes[index] = size;
+        mNormalized[index] = normalized;
+        mOffsets[index] = mStride;
+        mStride = align(mStride + size * getBytesPerType(type));
+        return this;
+    }
+
+    public int getCount() {
+        return mNames.size();
+    }
+
+    public int indexOf(String name) {
+        return mNames.indexOf(name);
+    }
+
+    public String getName(int index) {
+        return mNames.get(index);
+    }
+
+    public int getType(int index) {
+        return mTypes[index];
+    }
+
+    public int getSize(int index) {
+        return mSizes[index];
+    }
+
+    public boolean isNormalized(int index) {
+        return mNormalized[index];
+    }
+
+    public int getOffset(int index) {
+        return mOffsets[index];
+    }
+
+    public int getStride() {
+        return mStride;
+    }
+
+    // Points each attribute of program that's present in this layout at the given buffer.  Attributes
+    // the program doesn't use are skipped.
+    public void bind(Program program, VertexBuffer buffer, int baseOffset) {
+        for (int ii = 0; ii < mNames.size(); ii++) {
+            int handle = program.getAttribHandle(mNames.get(ii));
+            if (handle >= 0) {
+                program.setVertexAttrib(handle, buffer, mTypes[ii], mSizes[ii], mNormalized[ii], mStride, baseOffset + mOffsets[ii]);
+            }
+        }
+    }
+
+    public static int getBytesPerType(int type) {
+        switch (type) {
+        case GLES20.GL_FLOAT:
+            return Float.SIZE / Byte.SIZE;
+        case GLES20.GL_SHORT:
+        case GLES20.GL_UNSIGNED_SHORT:
+            return Short.SIZE / Byte.SIZE;
+        case GLES20.GL_BYTE:
+        case GLES20.GL_UNSIGNED_BYTE:
+            return 1;
+        default:
+            throw new IllegalArgumentException("Unsupported vertex attribute type " + type);
+        }
+    }
+
+    private static int align(int offset) {
+        return (offset + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+    }
+}
@@ -0,0 +1,114 @@
+package android.graphics;
+
+// JVM stand-in for the framework class, for running the tests without a device.  Pixels are kept as
+// ARGB ints whatever the config - only the reported row bytes depend on it.
+public final class Bitmap {
+    public enum Config {
+        ALPHA_8(1),
+        RGB_565(2),
+        ARGB_4444(2),
+        ARGB_8888(4);
+
+        final int mBytesPerPixel;
+
+        Config(int bytesPerPixel) {
+            mBytesPerPixel = bytesPerPixel;
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final Config mConfig;
+    private final int[] mPixels;
+    private boolean mRecycled;
+
+    private Bitmap(int width, int height, Config config) {
+        if ((width <= 0) || (height <= 0)) {
+            throw new IllegalArgumentException("width and height must be > 0");
+        }
+        mWidth = width;
+        mHeight = height;
+        mConfig = config;
+        mPixels = new int[width * height];
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+        return new Bitmap(width, height, config);
+    }
+
+    public static Bitmap createBitmap(int[] colors, int width, int height, Config config) {
+        Bitmap bitmap = new Bitmap(width, height, config);
+        bitmap.setPixels(colors, 0, width, 0, 0, width, height);
+        return bitmap;
+    }
+
+    public static Bitmap createBitmap(Bitmap source, int x, int y, int width, int height) {
+        Bitmap bitmap = new Bitmap(width, height, source.mConfig);
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(source.mPixels, (y + row) * source.mWidth + x, bitmap.mPixels, row * width, width);
+        }
+        return bitmap;
+    }
+
+    public Bitmap copy(Config config, boolean isMutable) {
+        Bitmap bitmap = new Bitmap(mWidth, mHeight, config);
+        System.arraycopy(mPixels, 0, bitmap.mPixels, 0, mPixels.length);
+        return bitmap;
+    }
+
+    public int getPixel(int x, int y) {
+        return mPixels[y * mWidth + x];
+    }
+
+    public void setPixel(int x, int y, int color) {
+        mPixels[y * mWidth + x] = color;
+    }
+
+    public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(mPixels, (y + row) * mWidth + x, pixels, offset + row * stride, width);
+        }
+    }
+
+    public void setPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(pixels, offset + row * stride, mPixels, (y + row) * mWidth + x, width);
+        }
+    }
+
+    public void eraseColor(int color) {
+        java.util.Arrays.fill(mPixels, color);
+    }
+
+    public boolean hasAlpha() {
+        return (mConfig != Config.RGB_565);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public Config getConfig() {
+        return mConfig;
+    }
+
+    public int getRowBytes() {
+        return mWidth * mConfig.mBytesPerPixel;
+    }
+
+    public int getByteCount() {
+        return getRowBytes() * mHeight;
+    }
+
+    public void recycle() {
+        mRecycled = true;
+    }
+
+    public boolean isRecycled() {
+        return mRecycled;
+    }
+}
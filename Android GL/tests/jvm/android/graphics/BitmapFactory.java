@@ -0,0 +1,42 @@
+package android.graphics;
+
+import java.io.InputStream;
+
+// JVM stand-in for the framework class, for running the tests without a device.  There are no image
+// codecs, so every decode fails.
+public class BitmapFactory {
+    public static class Options {
+        public boolean inJustDecodeBounds;
+        public int inSampleSize;
+        public Bitmap.Config inPreferredConfig = Bitmap.Config.ARGB_8888;
+        public boolean inScaled = true;
+        public int outWidth;
+        public int outHeight;
+        public String outMimeType;
+    }
+
+    public static Bitmap decodeFile(String pathName, Options opts) {
+        return fail(opts);
+    }
+
+    public static Bitmap decodeFile(String pathName) {
+        return null;
+    }
+
+    public static Bitmap decodeStream(InputStream is, Rect outPadding, Options opts) {
+        return fail(opts);
+    }
+
+    public static Bitmap decodeByteArray(byte[] data, int offset, int length, Options opts) {
+        return fail(opts);
+    }
+
+    private static Bitmap fail(Options opts) {
+        if (opts != null) {
+            opts.outWidth = -1;
+            opts.outHeight = -1;
+            opts.outMimeType = null;
+        }
+        return null;
+    }
+}
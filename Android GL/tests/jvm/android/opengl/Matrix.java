@@ -0,0 +1,137 @@
+package android.opengl;
+
+// JVM stand-in for the framework class, for running the tests without a device.  Matrices are 4x4
+// and column-major, as on Android.
+public class Matrix {
+    private static final float[] sTemp = new float[32];
+
+    public static void setIdentityM(float[] sm, int smOffset) {
+        for (int ii = 0; ii < 16; ii++) {
+            sm[smOffset + ii] = ((ii % 5) == 0) ? 1 : 0;
+        }
+    }
+
+    public static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        synchronized (sTemp) {
+            for (int col = 0; col < 4; col++) {
+                for (int row = 0; row < 4; row++) {
+                    float sum = 0;
+                    for (int kk = 0; kk < 4; kk++) {
+                        sum += lhs[lhsOffset + row + 4 * kk] * rhs[rhsOffset + kk + 4 * col];
+                    }
+                    sTemp[row + 4 * col] = sum;
+                }
+            }
+            System.arraycopy(sTemp, 0, result, resultOffset, 16);
+        }
+    }
+
+    public static void multiplyMV(float[] resultVec, int resultVecOffset, float[] lhsMat, int lhsMatOffset, float[] rhsVec, int rhsVecOffset) {
+        float x = rhsVec[rhsVecOffset];
+        float y = rhsVec[rhsVecOffset + 1];
+        float z = rhsVec[rhsVecOffset + 2];
+        float w = rhsVec[rhsVecOffset + 3];
+        for (int row = 0; row < 4; row++) {
+            resultVec[resultVecOffset + row] = lhsMat[lhsMatOffset + row] * x + lhsMat[lhsMatOffset + row + 4] * y +
+                                               lhsMat[lhsMatOffset + row + 8] * z + lhsMat[lhsMatOffset + row + 12] * w;
+        }
+    }
+
+    public static void transposeM(float[] mTrans, int mTransOffset, float[] m, int mOffset) {
+        for (int ii = 0; ii < 4; ii++) {
+            for (int jj = 0; jj < 4; jj++) {
+                mTrans[mTransOffset + ii + 4 * jj] = m[mOffset + jj + 4 * ii];
+            }
+        }
+    }
+
+    public static boolean invertM(float[] mInv, int mInvOffset, float[] m, int mOffset) {
+        // Gauss-Jordan elimination with partial pivoting, in double precision.
+        double[] a = new double[32];
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 4; col++) {
+                a[row * 8 + col] = m[mOffset + row + 4 * col];
+            }
+            a[row * 8 + 4 + row] = 1;
+        }
+        for (int col = 0; col < 4; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < 4; row++) {
+                if (Math.abs(a[row * 8 + col]) > Math.abs(a[pivot * 8 + col])) {
+                    pivot = row;
+                }
+            }
+            if (a[pivot * 8 + col] == 0) {
+                return false;
+            }
+            for (int kk = 0; kk < 8; kk++) {
+                double swap = a[col * 8 + kk];
+                a[col * 8 + kk] = a[pivot * 8 + kk];
+                a[pivot * 8 + kk] = swap;
+            }
+            double scale = 1 / a[col * 8 + col];
+            for (int kk = 0; kk < 8; kk++) {
+                a[col * 8 + kk] *= scale;
+            }
+            for (int row = 0; row < 4; row++) {
+                double factor = a[row * 8 + col];
+                if ((row != col) && (factor != 0)) {
+                    for (int kk = 0; kk < 8; kk++) {
+                        a[row * 8 + kk] -= factor * a[col * 8 + kk];
+                    }
+                }
+            }
+        }
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 4; col++) {
+                mInv[mInvOffset + row + 4 * col] = (float)a[row * 8 + 4 + col];
+            }
+        }
+        return true;
+    }
+
+    public static void frustumM(float[] m, int offset, float left, float right, float bottom, float top, float near, float far) {
+        float rWidth = 1.0f / (right - left);
+        float rHeight = 1.0f / (top - bottom);
+        float rDepth = 1.0f / (near - far);
+        for (int ii = 0; ii < 16; ii++) {
+            m[offset + ii] = 0;
+        }
+        m[offset] = 2.0f * (near * rWidth);
+        m[offset + 5] = 2.0f * (near * rHeight);
+        m[offset + 8] = (right + left) * rWidth;
+        m[offset + 9] = (top + bottom) * rHeight;
+        m[offset + 10] = (far + near) * rDepth;
+        m[offset + 11] = -1.0f;
+        m[offset + 14] = 2.0f * (far * near * rDepth);
+    }
+
+    public static void setRotateM(float[] rm, int rmOffset, float a, float x, float y, float z) {
+        float radians = (float)Math.toRadians(a);
+        float s = (float)Math.sin(radians);
+        float c = (float)Math.cos(radians);
+        float length = (float)Math.sqrt(x * x + y * y + z * z);
+        x /= length;
+        y /= length;
+        z /= length;
+        float nc = 1.0f - c;
+        setIdentityM(rm, rmOffset);
+        rm[rmOffset] = x * x * nc + c;
+        rm[rmOffset + 1] = x * y * nc + z * s;
+        rm[rmOffset + 2] = z * x * nc - y * s;
+        rm[rmOffset + 4] = x * y * nc - z * s;
+        rm[rmOffset + 5] = y * y * nc + c;
+        rm[rmOffset + 6] = y * z * nc + x * s;
+        rm[rmOffset + 8] = z * x * nc + y * s;
+        rm[rmOffset + 9] = y * z * nc - x * s;
+        rm[rmOffset + 10] = z * z * nc + c;
+    }
+
+    public static void rotateM(float[] m, int mOffset, float a, float x, float y, float z) {
+        synchronized (sTemp) {
+            float[] rotation = new float[16];
+            setRotateM(rotation, 0, a, x, y, z);
+            multiplyMM(m, mOffset, m, mOffset, rotation, 0);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package android.os;
+
+// JVM stand-in for the framework class, for running the tests without a device.  Reports the
+// library's minimum SDK, so version-guarded code takes its fallback paths.
+public class Build {
+    public static class VERSION {
+        public static final int SDK_INT = Integer.getInteger("android.sdk", VERSION_CODES.HONEYCOMB);
+    }
+
+    public static class VERSION_CODES {
+        public static final int HONEYCOMB = 11;
+        public static final int JELLY_BEAN = 16;
+        public static final int JELLY_BEAN_MR1 = 17;
+        public static final int JELLY_BEAN_MR2 = 18;
+    }
+}
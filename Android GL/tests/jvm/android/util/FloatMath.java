@@ -0,0 +1,26 @@
+package android.util;
+
+// JVM stand-in for the framework class, for running the tests without a device.
+public final class FloatMath {
+    private FloatMath() {}
+
+    public static float sqrt(float value) {
+        return (float)Math.sqrt(value);
+    }
+
+    public static float sin(float angle) {
+        return (float)Math.sin(angle);
+    }
+
+    public static float cos(float angle) {
+        return (float)Math.cos(angle);
+    }
+
+    public static float floor(float value) {
+        return (float)Math.floor(value);
+    }
+
+    public static float ceil(float value) {
+        return (float)Math.ceil(value);
+    }
+}
@@ -0,0 +1,77 @@
+package android.util;
+
+import java.util.Arrays;
+
+// JVM stand-in for the framework class, for running the tests without a device.
+public class SparseArray<E> {
+    private int[] mKeys = new int[10];
+    private Object[] mValues = new Object[10];
+    private int mSize;
+
+    public E get(int key) {
+        return get(key, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(int key, E valueIfKeyNotFound) {
+        int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+        return (index >= 0) ? (E)mValues[index] : valueIfKeyNotFound;
+    }
+
+    public void put(int key, E value) {
+        int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+        if (index >= 0) {
+            mValues[index] = value;
+            return;
+        }
+        index = ~index;
+        if (mSize == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mSize * 2);
+            mValues = Arrays.copyOf(mValues, mSize * 2);
+        }
+        System.arraycopy(mKeys, index, mKeys, index + 1, mSize - index);
+        System.arraycopy(mValues, index, mValues, index + 1, mSize - index);
+        mKeys[index] = key;
+        mValues[index] = value;
+        mSize++;
+    }
+
+    public void delete(int key) {
+        int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+        if (index >= 0) {
+            removeAt(index);
+        }
+    }
+
+    public void remove(int key) {
+        delete(key);
+    }
+
+    public void removeAt(int index) {
+        System.arraycopy(mKeys, index + 1, mKeys, index, mSize - index - 1);
+        System.arraycopy(mValues, index + 1, mValues, index, mSize - index - 1);
+        mValues[--mSize] = null;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int keyAt(int index) {
+        return mKeys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        return (E)mValues[index];
+    }
+
+    public int indexOfKey(int key) {
+        return Arrays.binarySearch(mKeys, 0, mSize, key);
+    }
+
+    public void clear() {
+        Arrays.fill(mValues, 0, mSize, null);
+        mSize = 0;
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class CpuReductionTest extends TestCase {
+    public void testBinsValuesAtTheirEdges() {
+        long[] counts = new long[256];
+        // With 4 bins, each covers 64 values.
+        counts[0] = 1;
+        counts[63] = 1;
+        counts[64] = 2;
+        counts[191] = 1;
+        counts[192] = 3;
+        counts[255] = 2;
+        FrameStatistics result = new FrameStatistics(4);
+        CpuReduction.summarize(counts, result);
+        assertEquals(10, result.getCount());
+        assertEquals(0, result.getMin());
+        assertEquals(255, result.getMax());
+        assertEquals(0.2f, result.getBinFraction(0));
+        assertEquals(0.2f, result.getBinFraction(1));
+        assertEquals(0.1f, result.getBinFraction(2));
+        assertEquals(0.5f, result.getBinFraction(3));
+    }
+
+    public void testBinsUnevenRanges() {
+        long[] counts = new long[256];
+        // With 3 bins, v * 3 / 256 puts 85 in bin 0, 86 in bin 1 and 171 in bin 2.
+        counts[85] = 1;
+        counts[86] = 1;
+        counts[170] = 1;
+        counts[171] = 1;
+        FrameStatistics result = new FrameStatistics(3);
+        CpuReduction.summarize(counts, result);
+        assertEquals(0.25f, result.getBinFraction(0));
+        assertEquals(0.5f, result.getBinFraction(1));
+        assertEquals(0.25f, result.getBinFraction(2));
+        assertEquals(1, result.getBin(86));
+    }
+
+    public void testSummarizesMoments() {
+        long[] counts = new long[256];
+        counts[10] = 2;
+        counts[20] = 2;
+        FrameStatistics result = new FrameStatistics(1);
+        CpuReduction.summarize(counts, result);
+        assertEquals(10, result.getMin());
+        assertEquals(20, result.getMax());
+        assertEquals(15.0, result.getMean());
+        assertEquals(25.0, result.getVariance());
+        assertEquals(1.0f, result.getBinFraction(0));
+    }
+
+    public void testEmptyFrameIsAllZero() {
+        FrameStatistics result = new FrameStatistics(4);
+        new CpuReduction().reduce(new byte[0], 0, 0, result);
+        assertEquals(0, result.getCount());
+        assertEquals(0, result.getMin());
+        assertEquals(0, result.getMax());
+        assertEquals(0.0, result.getMean());
+        for (int ii = 0; ii < result.getNumBins(); ii++) {
+            assertEquals(0.0f, result.getBinFraction(ii));
+        }
+    }
+
+    public void testHonoursOffsetAndStride() {
+        // A 3x2 frame at offset 1 with rows 4 bytes apart - the bytes outside it are 255.
+        byte[] data = {(byte)255, 1, 2, 3, (byte)255, 4, 5, 6, (byte)255};
+        FrameStatistics result = new FrameStatistics(1);
+        new CpuReduction().reduce(data, 1, 3, 2, 4, result);
+        assertEquals(6, result.getCount());
+        assertEquals(21.0, result.getSum());
+        assertEquals(6, result.getMax());
+    }
+
+    public void testRejectsFramesPastTheData() {
+        try {
+            new CpuReduction().reduce(new byte[15], 4, 4, new FrameStatistics(1));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testMultithreadedMatchesSingleThreaded() {
+        int width = 321;
+        int height = 97;
+        int stride = 328;
+        byte[] data = new byte[stride * height];
+        new Random(1).nextBytes(data);
+        FrameStatistics expected = new FrameStatistics(16);
+        new CpuReduction().reduce(data, 0, width, height, stride, expected);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            CpuReduction reduction = new CpuReduction();
+            // Small enough that every row is its own task.
+            reduction.setExecutor(executor, 1);
+            FrameStatistics actual = new FrameStatistics(16);
+            reduction.reduce(data, 0, width, height, stride, actual);
+            assertEquals(expected.getCount(), actual.getCount());
+            assertEquals(expected.getSum(), actual.getSum());
+            assertEquals(expected.getVariance(), actual.getVariance());
+            assertEquals(expected.getMin(), actual.getMin());
+            assertEquals(expected.getMax(), actual.getMax());
+            for (int ii = 0; ii < expected.getNumBins(); ii++) {
+                assertEquals(expected.getBinFraction(ii), actual.getBinFraction(ii));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.matt.williams.android.gl;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class FrameProfilerTest extends TestCase {
+    private RecordingGLBackend mGL;
+    private GLBackend mOldBackend;
+    private FrameProfiler mProfiler;
+
+    @Override
+    protected void setUp() {
+        mGL = new RecordingGLBackend();
+        mOldBackend = GLState.get().getBackend();
+        GLState.get().setBackend(mGL);
+        GLState.get().invalidate();
+        mProfiler = new FrameProfiler(4, false);
+    }
+
+    @Override
+    protected void tearDown() {
+        mProfiler.release();
+        GLState.get().setBackend(mOldBackend);
+        GLState.get().invalidate();
+    }
+
+    public void testTimesScopesWithoutGL() {
+        for (int ii = 0; ii < 6; ii++) {
+            profileFrame("draw");
+        }
+        mGL.endFrame();
+        assertEquals(0, mGL.getTraceLength());
+        assertFalse(mProfiler.isGpuTiming());
+        assertEquals(2, mProfiler.getScopeNames().size());
+        assertEquals(FrameProfiler.FRAME, mProfiler.getScopeNames().get(0));
+        RollingStats frame = mProfiler.getCpuStats(FrameProfiler.FRAME);
+        RollingStats draw = mProfiler.getCpuStats("draw");
+        // The window holds the last 4 of 6 frames.
+        assertEquals(4, frame.getCount());
+        assertEquals(6, frame.getTotalCount());
+        assertTrue(frame.getMin() >= draw.getMin());
+        assertEquals(0, mProfiler.getGpuStats("draw").getCount());
+        assertNull(mProfiler.getCpuStats("never"));
+    }
+
+    public void testRejectsUnbalancedScopes() {
+        try {
+            mProfiler.begin("draw");
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        mProfiler.beginFrame();
+        mProfiler.begin("draw");
+        try {
+            mProfiler.endFrame();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    public void testWritesSnapshotWithoutGpuStats() throws IOException {
+        profileFrame("say \"hi\"");
+        StringBuilder out = new StringBuilder();
+        mProfiler.writeSnapshot(out);
+        String snapshot = out.toString();
+        assertTrue(snapshot, snapshot.startsWith("{\"scopes\":[{\"name\":\"frame\",\"cpu\":{\"count\":1,\"p50\":"));
+        assertTrue(snapshot, snapshot.contains("{\"name\":\"say \\\"hi\\\"\",\"cpu\":{\"count\":1,"));
+        assertTrue(snapshot, snapshot.endsWith("}}]}"));
+        assertFalse(snapshot, snapshot.contains("\"gpu\""));
+    }
+
+    public void testWritesChromeTraceOfCpuScopes() throws IOException {
+        profileFrame("draw");
+        profileFrame("draw");
+        StringBuilder out = new StringBuilder();
+        mProfiler.writeChromeTrace(out);
+        String trace = out.toString();
+        assertTrue(trace, trace.startsWith("{\"traceEvents\":[{\"name\":\"draw\",\"cat\":\"cpu\",\"ph\":\"X\",\"ts\":"));
+        assertTrue(trace, trace.endsWith("\"pid\":0,\"tid\":0}]}"));
+        // Inner scopes end, and so are recorded, before their frame.
+        assertEquals(4, count(trace, "\"ph\":\"X\""));
+        assertEquals(2, count(trace, "\"name\":\"frame\""));
+        assertTrue(trace.indexOf("\"name\":\"draw\"") < trace.indexOf("\"name\":\"frame\""));
+        assertEquals(0, count(trace, "\"tid\":1"));
+    }
+
+    private void profileFrame(String scope) {
+        mProfiler.beginFrame();
+        mProfiler.begin(scope);
+        mProfiler.end();
+        mProfiler.endFrame();
+    }
+
+    private static int count(String string, String substring) {
+        int count = 0;
+        for (int index = string.indexOf(substring); index >= 0; index = string.indexOf(substring, index + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
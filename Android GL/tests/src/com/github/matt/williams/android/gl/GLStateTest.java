@@ -0,0 +1,133 @@
+package com.github.matt.williams.android.gl;
+
+import junit.framework.TestCase;
+import android.opengl.GLES20;
+
+public class GLStateTest extends TestCase {
+    private RecordingGLBackend mGL;
+    private GLBackend mOldBackend;
+    private GLState mState;
+
+    @Override
+    protected void setUp() {
+        mGL = new RecordingGLBackend();
+        mState = GLState.get();
+        mOldBackend = mState.getBackend();
+        mState.setBackend(mGL);
+        mState.invalidate();
+    }
+
+    @Override
+    protected void tearDown() {
+        mState.setBackend(mOldBackend);
+        mState.invalidate();
+    }
+
+    public void testSkipsRepeatedProgramBinds() {
+        assertEquals(GLState.UNKNOWN, mState.useProgram(3));
+        assertEquals(3, mState.useProgram(3));
+        assertEquals(3, mState.useProgram(4));
+        mGL.endFrame();
+        assertEquals(2, mGL.getCallCount(RecordingGLBackend.Op.USE_PROGRAM));
+        assertEquals(0, mGL.getRedundantBindCount());
+    }
+
+    public void testTracksTexturesPerUnit() {
+        // Until a unit is selected, binds can't be shadowed.
+        assertEquals(GLState.UNKNOWN, mState.bindTexture(GLES20.GL_TEXTURE_2D, 5));
+        mState.activeTexture(GLES20.GL_TEXTURE0);
+        mState.bindTexture(GLES20.GL_TEXTURE_2D, 5);
+        mState.activeTexture(GLES20.GL_TEXTURE0 + 1);
+        mState.bindTexture(GLES20.GL_TEXTURE_2D, 6);
+        mState.activeTexture(GLES20.GL_TEXTURE0);
+        assertEquals(5, mState.getTexture(GLES20.GL_TEXTURE_2D));
+        assertEquals(5, mState.bindTexture(GLES20.GL_TEXTURE_2D, 5));
+        mState.activeTexture(GLES20.GL_TEXTURE0);
+        mGL.endFrame();
+        assertEquals(3, mGL.getCallCount(RecordingGLBackend.Op.BIND_TEXTURE));
+        assertEquals(3, mGL.getCallCount(RecordingGLBackend.Op.ACTIVE_TEXTURE));
+    }
+
+    public void testForgetsDeletedObjects() {
+        mState.activeTexture(GLES20.GL_TEXTURE0);
+        mState.bindTexture(GLES20.GL_TEXTURE_2D, 5);
+        mState.bindBuffer(GLES20.GL_ARRAY_BUFFER, 7);
+        mState.bindFramebuffer(9);
+        mState.forgetTexture(5);
+        mState.forgetBuffer(7);
+        mState.forgetFramebuffer(9);
+        assertEquals(0, mState.getTexture(GLES20.GL_TEXTURE_2D));
+        assertEquals(0, mState.getBuffer(GLES20.GL_ARRAY_BUFFER));
+        assertEquals(0, mState.getFramebuffer());
+    }
+
+    public void testSkipsRepeatedViewports() {
+        mState.viewport(0, 0, 64, 32);
+        mState.viewport(0, 0, 64, 32);
+        mState.viewport(0, 0, 32, 32);
+        mGL.endFrame();
+        assertEquals(2, mGL.getCallCount(RecordingGLBackend.Op.VIEWPORT));
+    }
+
+    public void testSkipsRepeatedBlendState() {
+        mState.enableBlend(true);
+        mState.enableBlend(true);
+        mState.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        mState.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        mGL.endFrame();
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.ENABLE));
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.BLEND_FUNC));
+    }
+
+    public void testProgramsAndTexturesNeedNoQueries() {
+        mState.activeTexture(GLES20.GL_TEXTURE0);
+        Program program = new Program(new VertexShader("void main() {}"), new FragmentShader("void main() {}"));
+        TargetTexture texture = new TargetTexture(16, 16);
+        mGL.endFrame();
+        program.use();
+        program.setUniform("uUnknown", 1.0f);
+        texture.use(GLES20.GL_TEXTURE0);
+        texture.setFilter(GLES20.GL_LINEAR, GLES20.GL_LINEAR);
+        texture.renderTo();
+        texture.renderTo();
+        mGL.endFrame();
+        assertEquals(0, mGL.getCallCount(RecordingGLBackend.Op.GET_INTEGERV));
+        assertEquals(0, mGL.getRedundantBindCount());
+        // The target's framebuffer is still bound from creating it.
+        assertEquals(0, mGL.getCallCount(RecordingGLBackend.Op.BIND_FRAMEBUFFER));
+        program.release();
+        texture.release();
+    }
+
+    public void testShadowsUnpackAlignment() {
+        assertEquals(GLState.UNKNOWN, mState.unpackAlignment(1));
+        assertEquals(1, mState.unpackAlignment(1));
+        assertEquals(1, mState.unpackAlignment(4));
+        mGL.endFrame();
+        assertEquals(2, mGL.getCallCount(RecordingGLBackend.Op.PIXEL_STOREI));
+    }
+
+    public void testInvalidateRebindsEverything() {
+        mState.useProgram(3);
+        mState.bindFramebuffer(9);
+        mState.invalidate();
+        mState.useProgram(3);
+        mState.bindFramebuffer(9);
+        mGL.endFrame();
+        assertEquals(2, mGL.getCallCount(RecordingGLBackend.Op.USE_PROGRAM));
+        assertEquals(2, mGL.getCallCount(RecordingGLBackend.Op.BIND_FRAMEBUFFER));
+    }
+
+    public void testStateIsPerThread() throws InterruptedException {
+        final GLState[] other = new GLState[1];
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                other[0] = GLState.get();
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNotSame(mState, other[0]);
+    }
+}
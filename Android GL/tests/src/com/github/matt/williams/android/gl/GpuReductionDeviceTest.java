@@ -0,0 +1,113 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+import junit.framework.TestCase;
+
+// Checks GpuReduction against CpuReduction on a real GPU.  Needs a device, so it isn't part of
+// HeadlessTests, and passes without checking anything elsewhere or where half-float targets are missing.
+public class GpuReductionDeviceTest extends TestCase {
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+    private static final int EGL_OPENGL_ES2_BIT = 4;
+    private static final int WIDTH = 301;
+    private static final int HEIGHT = 157;
+    private static final int NUM_BINS = 16;
+    private static final int MAX_POLLS = 16;
+
+    private EGL10 mEgl;
+    private EGLDisplay mDisplay;
+    private EGLContext mContext;
+    private EGLSurface mSurface;
+
+    @Override
+    protected void setUp() {
+        if (!isDevice()) {
+            return;
+        }
+        mEgl = (EGL10)EGLContext.getEGL();
+        mDisplay = mEgl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+        mEgl.eglInitialize(mDisplay, new int[2]);
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        int[] attributes = {EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT, EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT, EGL10.EGL_NONE};
+        if (!mEgl.eglChooseConfig(mDisplay, attributes, configs, 1, numConfigs) || (numConfigs[0] == 0)) {
+            throw new IllegalStateException("eglChooseConfig failed with 0x" + Integer.toHexString(mEgl.eglGetError()));
+        }
+        mSurface = mEgl.eglCreatePbufferSurface(mDisplay, configs[0], new int[] {EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE});
+        mContext = mEgl.eglCreateContext(mDisplay, configs[0], EGL10.EGL_NO_CONTEXT, new int[] {EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE});
+        if (!mEgl.eglMakeCurrent(mDisplay, mSurface, mSurface, mContext)) {
+            throw new IllegalStateException("eglMakeCurrent failed with 0x" + Integer.toHexString(mEgl.eglGetError()));
+        }
+        GLState.get().invalidate();
+    }
+
+    @Override
+    protected void tearDown() {
+        if (mEgl != null) {
+            mEgl.eglMakeCurrent(mDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+            mEgl.eglDestroySurface(mDisplay, mSurface);
+            mEgl.eglDestroyContext(mDisplay, mContext);
+            mEgl.eglReleaseThread();
+        }
+    }
+
+    public void testMatchesCpuReduction() {
+        if (!isDevice() || !GpuReduction.isSupported()) {
+            return;
+        }
+        byte[] data = new byte[WIDTH * HEIGHT];
+        new Random(1).nextBytes(data);
+        FrameStatistics expected = new FrameStatistics(NUM_BINS);
+        new CpuReduction().reduce(data, WIDTH, HEIGHT, expected);
+
+        final FrameStatistics actual = new FrameStatistics(NUM_BINS);
+        final boolean[] reduced = new boolean[1];
+        GpuReduction reduction = new GpuReduction(NUM_BINS, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, new GpuReduction.Listener() {
+            @Override
+            public void onReduced(FrameStatistics statistics, long frame) {
+                actual.copyFrom(statistics);
+                reduced[0] = true;
+            }
+        });
+        TargetTexture source = new TargetTexture(WIDTH, HEIGHT);
+        try {
+            source.setData(data);
+            assertTrue(reduction.reduce(source, WIDTH, HEIGHT));
+            for (int ii = 0; (ii < MAX_POLLS) && !reduced[0]; ii++) {
+                GLState.gl().glFinish();
+                reduction.poll();
+            }
+        } finally {
+            source.release();
+            reduction.release();
+        }
+        assertTrue("No result after " + MAX_POLLS + " polls", reduced[0]);
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getMin(), actual.getMin());
+        assertEquals(expected.getMax(), actual.getMax());
+        // Half-float sums are good to about 0.1%.
+        assertEquals(expected.getMean(), actual.getMean(), expected.getMean() * 0.001);
+        // The variance is a difference of two such sums, so its error scales with the mean of squares.
+        double meanOfSquares = expected.getVariance() + expected.getMean() * expected.getMean();
+        assertEquals(expected.getVariance(), actual.getVariance(), meanOfSquares * 0.002);
+        for (int ii = 0; ii < NUM_BINS; ii++) {
+            assertEquals(expected.getBinFraction(ii), actual.getBinFraction(ii), 0.002f);
+        }
+    }
+
+    private static boolean isDevice() {
+        return "Dalvik".equals(System.getProperty("java.vm.name"));
+    }
+}
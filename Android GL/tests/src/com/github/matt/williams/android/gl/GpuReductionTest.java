@@ -0,0 +1,112 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+import android.opengl.GLES20;
+
+public class GpuReductionTest extends TestCase {
+    private static final int GL_HALF_FLOAT_OES = 0x8D61;
+
+    // Reports the extensions GpuReduction needs on GLES 2.0.
+    private static class HalfFloatBackend extends RecordingGLBackend {
+        @Override
+        public String glGetString(int name) {
+            String value = super.glGetString(name);
+            return (name == GLES20.GL_EXTENSIONS) ? "GL_EXT_color_buffer_half_float GL_OES_texture_half_float" : value;
+        }
+    }
+
+    private RecordingGLBackend mGL;
+    private GLBackend mOldBackend;
+    private GpuReduction mReduction;
+    private TargetTexture mSource;
+
+    @Override
+    protected void setUp() {
+        mGL = new HalfFloatBackend();
+        mOldBackend = GLState.get().getBackend();
+        GLState.get().setBackend(mGL);
+        GLState.get().invalidate();
+        mReduction = new GpuReduction(4, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, null);
+    }
+
+    @Override
+    protected void tearDown() {
+        mReduction.release();
+        if (mSource != null) {
+            mSource.release();
+        }
+        GLState.get().setBackend(mOldBackend);
+        GLState.get().invalidate();
+    }
+
+    public void testNeedsHalfFloatTargets() {
+        GLState.get().setBackend(new RecordingGLBackend());
+        assertFalse(GpuReduction.isSupported());
+        GLState.get().setBackend(mGL);
+        assertTrue(GpuReduction.isSupported());
+    }
+
+    public void testHalvesOddSizesDownToOnePixel() {
+        mSource = new TargetTexture(5, 3);
+        mGL.endFrame();
+        assertTrue(mReduction.reduce(mSource, 5, 3));
+        mGL.endFrame();
+        // Each pyramid's levels are pooled, so are only allocated for the first.
+        assertEquals(Arrays.asList("3x2", "2x1", "1x1"), getHalfFloatTargetSizes());
+        // The stats pyramid and one histogram pyramid each draw 3 levels and pack into 4 pixels of
+        // the 9x1 pack target, after the 1-pixel header.
+        List<String> viewports = getViewports();
+        assertEquals(Arrays.asList("0,0,3x2", "0,0,2x1", "0,0,1x1", "0,0,9x1", "1,0,4x1",
+                                   "0,0,3x2", "0,0,2x1", "0,0,1x1", "0,0,9x1", "5,0,4x1",
+                                   "0,0,9x1", "0,0,1x1"), viewports.subList(0, 12));
+    }
+
+    public void testReducesASinglePixelInOnePass() {
+        mSource = new TargetTexture(1, 1);
+        mGL.endFrame();
+        mReduction.reduce(mSource, 1, 1);
+        mGL.endFrame();
+        assertEquals(Arrays.asList("1x1"), getHalfFloatTargetSizes());
+    }
+
+    public void testDropsReductionsOnceTooManyAreInFlight() {
+        mSource = new TargetTexture(4, 4);
+        for (int ii = 0; ii < 3; ii++) {
+            assertTrue(mReduction.reduce(mSource, 4, 4));
+        }
+        assertFalse(mReduction.reduce(mSource, 4, 4));
+        assertEquals(1, mReduction.getDroppedCount());
+    }
+
+    private List<String> getHalfFloatTargetSizes() {
+        List<String> sizes = new ArrayList<String>();
+        int[] trace = mGL.getTrace();
+        for (int ii = 0; ii < mGL.getTraceLength(); ii += 1 + (trace[ii] & 0xff)) {
+            if (((trace[ii] >> 8) == RecordingGLBackend.Op.TEX_IMAGE_2D.ordinal()) && (trace[ii + 8] == GL_HALF_FLOAT_OES)) {
+                sizes.add(trace[ii + 4] + "x" + trace[ii + 5]);
+            }
+        }
+        return sizes;
+    }
+
+    private List<String> getViewports() {
+        List<String> viewports = new ArrayList<String>();
+        int[] trace = mGL.getTrace();
+        for (int ii = 0; ii < mGL.getTraceLength(); ii += 1 + (trace[ii] & 0xff)) {
+            if ((trace[ii] >> 8) == RecordingGLBackend.Op.VIEWPORT.ordinal()) {
+                viewports.add(trace[ii + 1] + "," + trace[ii + 2] + "," + trace[ii + 3] + "x" + trace[ii + 4]);
+            }
+        }
+        return viewports;
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.matt.williams.android.gl;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+// The tests that need no GPU, for running on a plain JVM - see README.md.
+public class HeadlessTests {
+    public static Test suite() {
+        TestSuite suite = new TestSuite(HeadlessTests.class.getName());
+        suite.addTestSuite(CpuReductionTest.class);
+        suite.addTestSuite(FrameProfilerTest.class);
+        suite.addTestSuite(GLStateTest.class);
+        suite.addTestSuite(GpuReductionTest.class);
+        suite.addTestSuite(KtxFileTest.class);
+        suite.addTestSuite(LoadSchedulerTest.class);
+        suite.addTestSuite(PkmFileTest.class);
+        suite.addTestSuite(ProgramBinaryCacheTest.class);
+        suite.addTestSuite(RecordingGLBackendTest.class);
+        suite.addTestSuite(RenderGraphTest.class);
+        suite.addTestSuite(RollingStatsTest.class);
+        suite.addTestSuite(ShaderCacheTest.class);
+        suite.addTestSuite(SkylinePackerTest.class);
+        suite.addTestSuite(TextureAtlasTest.class);
+        suite.addTestSuite(TextureFormatsTest.class);
+        suite.addTestSuite(TextureUploaderTest.class);
+        return suite;
+    }
+}
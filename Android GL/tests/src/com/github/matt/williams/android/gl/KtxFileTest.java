@@ -0,0 +1,198 @@
+package com.github.matt.williams.android.gl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+public class KtxFileTest extends TestCase {
+    private static final byte[] IDENTIFIER = new byte[] {
+        (byte)0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte)0xBB, '\r', '\n', 0x1A, '\n'
+    };
+
+    private RecordingGLBackend mGL;
+    private GLBackend mOldBackend;
+
+    @Override
+    protected void setUp() {
+        mOldBackend = GLState.get().getBackend();
+        setBackend(new RecordingGLBackend());
+    }
+
+    @Override
+    protected void tearDown() {
+        GLState.get().setBackend(mOldBackend);
+        GLState.get().invalidate();
+    }
+
+    public void testParsesUncompressedMipChain() throws IOException {
+        KtxFile file = parse(ByteOrder.LITTLE_ENDIAN, GLES20.GL_UNSIGNED_BYTE, 1, GLES20.GL_RGBA, GLES30.GL_RGBA8, GLES20.GL_RGBA,
+                             4, 2, 3, 0, new int[] {32, 8, 4});
+        assertFalse(file.isCompressed());
+        assertEquals(GLES20.GL_UNSIGNED_BYTE, file.getGlType());
+        assertEquals(GLES20.GL_RGBA, file.getGlFormat());
+        assertEquals(GLES30.GL_RGBA8, file.getGlInternalFormat());
+        assertEquals(GLES20.GL_RGBA, file.getGlBaseInternalFormat());
+        assertEquals(4, file.getWidth());
+        assertEquals(2, file.getHeight());
+        assertFalse(file.shouldGenerateMipmaps());
+        assertEquals(3, file.getLevelCount());
+        assertEquals(32, file.getLevel(0).remaining());
+        assertEquals(8, file.getLevel(1).remaining());
+        assertEquals(4, file.getLevel(2).remaining());
+        assertEquals(1, file.getLevel(1).get(0));
+    }
+
+    public void testSkipsKeyValueDataAndLevelPadding() throws IOException {
+        // 3x1 RGB levels are 9 and 3 bytes, so both are padded.
+        KtxFile file = parse(ByteOrder.LITTLE_ENDIAN, GLES20.GL_UNSIGNED_BYTE, 1, GLES20.GL_RGB, GLES20.GL_RGB, GLES20.GL_RGB,
+                             3, 1, 2, 12, new int[] {9, 3});
+        assertEquals(2, file.getLevelCount());
+        assertEquals(9, file.getLevel(0).remaining());
+        assertEquals(3, file.getLevel(1).remaining());
+        assertEquals(8, file.getLevel(0).get(8));
+        assertEquals(1, file.getLevel(1).get(0));
+    }
+
+    public void testSwapsBytesWrittenWithTheOtherEndianness() throws IOException {
+        ByteOrder other = (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        KtxFile file = parse(other, GLES20.GL_UNSIGNED_SHORT_5_6_5, 2, GLES20.GL_RGB, GLES20.GL_RGB, GLES20.GL_RGB,
+                             2, 1, 1, 0, new int[] {4});
+        ByteBuffer level = file.getLevel(0);
+        // Each 16-bit texel now reads back in native order as the value it was written as.
+        ByteBuffer written = ByteBuffer.wrap(new byte[] {0, 1, 2, 3}).order(other);
+        assertEquals(written.getShort(0), level.getShort(0));
+        assertEquals(written.getShort(2), level.getShort(2));
+    }
+
+    public void testZeroLevelsAsksForGeneratedMipmaps() throws IOException {
+        KtxFile file = parse(ByteOrder.LITTLE_ENDIAN, GLES20.GL_UNSIGNED_BYTE, 1, GLES20.GL_RGBA, GLES30.GL_RGBA8, GLES20.GL_RGBA,
+                             2, 2, 0, 0, new int[] {16});
+        assertTrue(file.shouldGenerateMipmaps());
+        assertEquals(1, file.getLevelCount());
+    }
+
+    public void testParsesCompressedData() throws IOException {
+        KtxFile file = parse(ByteOrder.LITTLE_ENDIAN, 0, 1, 0, TextureFormats.GL_COMPRESSED_RGB8_ETC2, GLES20.GL_RGB,
+                             8, 8, 4, 0, new int[] {32, 8, 8, 8});
+        assertTrue(file.isCompressed());
+        assertEquals(4, file.getLevelCount());
+        assertEquals(TextureFormats.getMipChainSize(TextureFormats.GL_COMPRESSED_RGB8_ETC2, 8, 8, 4),
+                     file.getLevel(0).remaining() + file.getLevel(1).remaining() + file.getLevel(2).remaining() + file.getLevel(3).remaining());
+    }
+
+    public void testRejectsGeneratingMipmapsForCompressedData() {
+        assertRejected(build(ByteOrder.LITTLE_ENDIAN, 0, 1, 0, TextureFormats.GL_COMPRESSED_RGB8_ETC2, GLES20.GL_RGB, 4, 4, 0, 0, new int[] {8}));
+    }
+
+    public void testRejectsOtherFiles() {
+        byte[] data = build(ByteOrder.LITTLE_ENDIAN, GLES20.GL_UNSIGNED_BYTE, 1, GLES20.GL_RGBA, GLES30.GL_RGBA8, GLES20.GL_RGBA, 1, 1, 1, 0, new int[] {4});
+        data[1] = 'X';
+        assertRejected(data);
+    }
+
+    public void testRejectsTruncatedFiles() {
+        byte[] data = build(ByteOrder.LITTLE_ENDIAN, GLES20.GL_UNSIGNED_BYTE, 1, GLES20.GL_RGBA, GLES30.GL_RGBA8, GLES20.GL_RGBA, 2, 2, 1, 0, new int[] {16});
+        byte[] truncated = new byte[data.length - 4];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        assertRejected(truncated);
+    }
+
+    public void testUploadsBaseInternalFormatOnGles2() throws IOException {
+        KtxFile file = parse(ByteOrder.LITTLE_ENDIAN, GLES20.GL_UNSIGNED_BYTE, 1, GLES20.GL_RGBA, GLES30.GL_RGBA8, GLES20.GL_RGBA,
+                             2, 2, 1, 0, new int[] {16});
+        new CompressedTexture(file).release();
+        mGL.endFrame();
+        assertEquals(GLES20.GL_RGBA, getTexImageInternalFormat());
+    }
+
+    public void testUploadsSizedInternalFormatOnGles3() throws IOException {
+        setBackend(new RecordingGLBackend() {
+            @Override
+            public String glGetString(int name) {
+                String value = super.glGetString(name);
+                return (name == GLES20.GL_VERSION) ? "OpenGL ES 3.0 (headless)" : value;
+            }
+        });
+        KtxFile file = parse(ByteOrder.LITTLE_ENDIAN, GLES20.GL_UNSIGNED_BYTE, 1, GLES20.GL_RGBA, GLES30.GL_RGBA8, GLES20.GL_RGBA,
+                             2, 2, 1, 0, new int[] {16});
+        new CompressedTexture(file).release();
+        mGL.endFrame();
+        assertEquals(GLES30.GL_RGBA8, getTexImageInternalFormat());
+    }
+
+    private void setBackend(RecordingGLBackend gl) {
+        mGL = gl;
+        GLState.get().setBackend(gl);
+        GLState.get().invalidate();
+        GLState.get().activeTexture(GLES20.GL_TEXTURE0);
+    }
+
+    // The internalformat argument of the last frame's glTexImage2D.
+    private int getTexImageInternalFormat() {
+        int[] trace = mGL.getTrace();
+        for (int ii = 0; ii < mGL.getTraceLength(); ii += 1 + (trace[ii] & 0xff)) {
+            if ((trace[ii] >> 8) == RecordingGLBackend.Op.TEX_IMAGE_2D.ordinal()) {
+                return trace[ii + 3];
+            }
+        }
+        fail("No glTexImage2D");
+        return 0;
+    }
+
+    private static void assertRejected(byte[] data) {
+        try {
+            new KtxFile(new ByteArrayInputStream(data));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static KtxFile parse(ByteOrder order, int type, int typeSize, int format, int internalFormat, int baseInternalFormat,
+                                 int width, int height, int levels, int keyValueBytes, int[] levelSizes) throws IOException {
+        return new KtxFile(new ByteArrayInputStream(build(order, type, typeSize, format, internalFormat, baseInternalFormat,
+                                                          width, height, levels, keyValueBytes, levelSizes)));
+    }
+
+    // Level ii is filled with bytes counting up from ii, then padded with 0xFF to a multiple of 4 bytes.
+    static byte[] build(ByteOrder order, int type, int typeSize, int format, int internalFormat, int baseInternalFormat,
+                        int width, int height, int levels, int keyValueBytes, int[] levelSizes) {
+        int size = IDENTIFIER.length + 13 * 4 + keyValueBytes;
+        for (int levelSize : levelSizes) {
+            size += 4 + ((levelSize + 3) & ~3);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(order);
+        buffer.put(IDENTIFIER);
+        buffer.putInt(0x04030201);
+        buffer.putInt(type);
+        buffer.putInt(typeSize);
+        buffer.putInt(format);
+        buffer.putInt(internalFormat);
+        buffer.putInt(baseInternalFormat);
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putInt(0);
+        buffer.putInt(0);
+        buffer.putInt(1);
+        buffer.putInt(levels);
+        buffer.putInt(keyValueBytes);
+        for (int ii = 0; ii < keyValueBytes; ii++) {
+            buffer.put((byte)0xFF);
+        }
+        for (int level = 0; level < levelSizes.length; level++) {
+            buffer.putInt(levelSizes[level]);
+            for (int ii = 0; ii < levelSizes[level]; ii++) {
+                buffer.put((byte)(level + ii));
+            }
+            while ((buffer.position() & 3) != 0) {
+                buffer.put((byte)0xFF);
+            }
+        }
+        return buffer.array();
+    }
+}
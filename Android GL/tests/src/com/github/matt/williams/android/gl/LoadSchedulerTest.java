@@ -0,0 +1,148 @@
+package com.github.matt.williams.android.gl;
+
+import junit.framework.TestCase;
+
+public class LoadSchedulerTest extends TestCase {
+    public void testRunsByPriorityThenSubmissionOrder() {
+        LoadScheduler scheduler = new LoadScheduler(Long.MAX_VALUE);
+        LoadRequest low = new LoadRequest(0, 1);
+        LoadRequest first = new LoadRequest(5, 1);
+        LoadRequest second = new LoadRequest(5, 1);
+        scheduler.submit(low);
+        scheduler.submit(first);
+        scheduler.submit(second);
+        assertSame(first, scheduler.poll());
+        assertSame(second, scheduler.poll());
+        assertSame(low, scheduler.poll());
+        assertNull(scheduler.poll());
+        assertEquals(3, scheduler.getInFlightCount());
+    }
+
+    public void testCapsBytesInFlight() {
+        LoadScheduler scheduler = new LoadScheduler(100);
+        LoadRequest first = new LoadRequest(0, 60);
+        LoadRequest second = new LoadRequest(0, 60);
+        scheduler.submit(first);
+        scheduler.submit(second);
+        assertSame(first, scheduler.poll());
+        assertNull(scheduler.poll());
+        assertEquals(60, scheduler.getBytesInFlight());
+        scheduler.complete(first);
+        assertSame(second, scheduler.poll());
+        scheduler.complete(second);
+        assertEquals(0, scheduler.getBytesInFlight());
+        assertEquals(0, scheduler.getInFlightCount());
+    }
+
+    public void testPriorityIsStrict() {
+        LoadScheduler scheduler = new LoadScheduler(100);
+        LoadRequest running = new LoadRequest(0, 60);
+        scheduler.submit(running);
+        assertSame(running, scheduler.poll());
+        // The big request doesn't fit, and the small one mustn't overtake it.
+        scheduler.submit(new LoadRequest(2, 60));
+        scheduler.submit(new LoadRequest(1, 10));
+        assertNull(scheduler.poll());
+    }
+
+    public void testOversizedRequestRunsAlone() {
+        LoadScheduler scheduler = new LoadScheduler(100);
+        LoadRequest small = new LoadRequest(1, 10);
+        LoadRequest huge = new LoadRequest(0, 1000);
+        scheduler.submit(small);
+        scheduler.submit(huge);
+        assertSame(small, scheduler.poll());
+        assertNull(scheduler.poll());
+        scheduler.complete(small);
+        assertSame(huge, scheduler.poll());
+    }
+
+    public void testSkipsCancelledRequests() {
+        LoadScheduler scheduler = new LoadScheduler(Long.MAX_VALUE);
+        LoadRequest cancelled = new LoadRequest(1, 1);
+        LoadRequest kept = new LoadRequest(0, 1);
+        scheduler.submit(cancelled);
+        scheduler.submit(kept);
+        assertEquals(2, scheduler.getPendingCount());
+        assertTrue(cancelled.cancel());
+        assertSame(kept, scheduler.poll());
+        assertEquals(0, scheduler.getPendingCount());
+        assertEquals(1, scheduler.getInFlightCount());
+    }
+
+    public void testCloseCancelsPendingRequests() throws InterruptedException {
+        LoadScheduler scheduler = new LoadScheduler(Long.MAX_VALUE);
+        LoadRequest pending = new LoadRequest(0, 1);
+        scheduler.submit(pending);
+        scheduler.close();
+        assertEquals(LoadRequest.CANCELLED, pending.getState());
+        assertEquals(0, scheduler.getPendingCount());
+        assertNull(scheduler.take());
+        try {
+            scheduler.submit(new LoadRequest(0, 1));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    public void testCloseWakesTake() throws InterruptedException {
+        final LoadScheduler scheduler = new LoadScheduler(Long.MAX_VALUE);
+        final LoadRequest[] taken = new LoadRequest[] {new LoadRequest(0, 1)};
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    taken[0] = scheduler.take();
+                } catch (InterruptedException e) {
+                    // Leaves the placeholder, failing the test.
+                }
+            }
+        };
+        thread.start();
+        scheduler.close();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertNull(taken[0]);
+    }
+
+    public void testCompleteWakesTake() throws InterruptedException {
+        final LoadScheduler scheduler = new LoadScheduler(100);
+        LoadRequest first = new LoadRequest(0, 100);
+        LoadRequest second = new LoadRequest(0, 100);
+        scheduler.submit(first);
+        scheduler.submit(second);
+        assertSame(first, scheduler.take());
+        final LoadRequest[] taken = new LoadRequest[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    taken[0] = scheduler.take();
+                } catch (InterruptedException e) {
+                    // Leaves null, failing the test.
+                }
+            }
+        };
+        thread.start();
+        scheduler.complete(first);
+        thread.join(5000);
+        assertSame(second, taken[0]);
+    }
+
+    public void testRequestStates() {
+        LoadRequest request = new LoadRequest(0, 1);
+        assertEquals(LoadRequest.PENDING, request.getState());
+        assertTrue(request.start());
+        assertFalse(request.start());
+        assertTrue(request.finish(true));
+        assertEquals(LoadRequest.DONE, request.getState());
+        assertFalse(request.cancel());
+
+        LoadRequest cancelled = new LoadRequest(0, 1);
+        assertTrue(cancelled.start());
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.finish(true));
+        assertEquals(LoadRequest.CANCELLED, cancelled.getState());
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.matt.williams.android.gl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+public class PkmFileTest extends TestCase {
+    public void testParsesHeaderAndData() throws IOException {
+        // 5x3 pads to 8x4: two blocks.
+        PkmFile file = new PkmFile(new ByteArrayInputStream(build(0, 8, 4, 5, 3, 16)));
+        assertEquals(5, file.getWidth());
+        assertEquals(3, file.getHeight());
+        ByteBuffer data = file.getData();
+        assertEquals(16, data.remaining());
+        assertEquals(15, data.get(15));
+    }
+
+    public void testRejectsOtherFiles() {
+        byte[] data = build(0, 4, 4, 4, 4, 8);
+        data[0] = 'X';
+        assertRejected(data);
+    }
+
+    public void testRejectsMipmappedData() {
+        assertRejected(build(1, 4, 4, 4, 4, 8));
+    }
+
+    public void testRejectsTruncatedFiles() {
+        assertRejected(build(0, 8, 8, 8, 8, 24));
+    }
+
+    private static void assertRejected(byte[] data) {
+        try {
+            new PkmFile(new ByteArrayInputStream(data));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    // A PKM header followed by dataSize bytes counting up from 0.
+    private static byte[] build(int type, int paddedWidth, int paddedHeight, int width, int height, int dataSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(16 + dataSize);
+        buffer.put(new byte[] {'P', 'K', 'M', ' ', '1', '0'});
+        buffer.putShort((short)type);
+        buffer.putShort((short)paddedWidth);
+        buffer.putShort((short)paddedHeight);
+        buffer.putShort((short)width);
+        buffer.putShort((short)height);
+        for (int ii = 0; ii < dataSize; ii++) {
+            buffer.put((byte)ii);
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.Random;
+
+import android.opengl.Matrix;
+
+// Times PointTransformer against transforming each point with its own Matrix.multiplyMV() call, the
+// usual way of projecting points on the CPU.  Both project interleaved (x, y, z) points through a
+// perspective matrix to perspective-divided (x, y).  Run main() on a JVM or device - it isn't part of
+// the test suite, since its output is timings rather than pass/fail.  On a JVM, Matrix is the pure Java
+// stand-in in jvm/, so only on a device does the baseline also pay for a JNI call per point.
+public class PointTransformerBenchmark {
+    private static final int NUM_POINTS = 100000;
+    private static final int ITERATIONS = 50;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        float[] projection = new float[16];
+        float[] view = new float[16];
+        float[] matrix = new float[16];
+        Matrix.frustumM(projection, 0, -1, 1, -1, 1, 1, 100);
+        // Looking down -z at the points from 10 units away.
+        Matrix.setIdentityM(view, 0);
+        view[14] = -10;
+        Matrix.multiplyMM(matrix, 0, projection, 0, view, 0);
+
+        Random random = new Random(0);
+        float[] points = new float[NUM_POINTS * 3];
+        float[] x = new float[NUM_POINTS];
+        float[] y = new float[NUM_POINTS];
+        float[] z = new float[NUM_POINTS];
+        for (int ii = 0; ii < NUM_POINTS; ii++) {
+            x[ii] = points[ii * 3] = random.nextFloat() * 2 - 1;
+            y[ii] = points[ii * 3 + 1] = random.nextFloat() * 2 - 1;
+            z[ii] = points[ii * 3 + 2] = random.nextFloat() * 2 - 1;
+        }
+        float[] expected = new float[NUM_POINTS * 2];
+        float[] actual = new float[NUM_POINTS * 2];
+        float[] resX = new float[NUM_POINTS];
+        float[] resY = new float[NUM_POINTS];
+        PointTransformer transformer = new PointTransformer(matrix, 0);
+
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (int ii = 0; ii < ITERATIONS; ii++) {
+                multiplyEach(matrix, expected, points);
+            }
+            long baselineTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int ii = 0; ii < ITERATIONS; ii++) {
+                transformer.transform3To2(actual, 0, points, 0, NUM_POINTS);
+            }
+            long interleavedTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int ii = 0; ii < ITERATIONS; ii++) {
+                transformer.transform3To2(resX, resY, 0, x, y, z, 0, NUM_POINTS);
+            }
+            long separateTime = System.nanoTime() - start;
+
+            float maxError = 0;
+            for (int ii = 0; ii < NUM_POINTS; ii++) {
+                maxError = Math.max(maxError, Math.abs(actual[ii * 2] - expected[ii * 2]));
+                maxError = Math.max(maxError, Math.abs(resY[ii] - expected[ii * 2 + 1]));
+            }
+            double numTransformed = (double)NUM_POINTS * ITERATIONS;
+            System.out.println(String.format("run %d: multiplyMV %.2f ns/point; interleaved %.2f ns/point (%.1fx); " +
+                                             "separate arrays %.2f ns/point (%.1fx); max error %g",
+                                             run, baselineTime / numTransformed, interleavedTime / numTransformed, (double)baselineTime / interleavedTime,
+                                             separateTime / numTransformed, (double)baselineTime / separateTime, maxError));
+        }
+    }
+
+    // One multiplyMV() per point, through a scratch 4-vector.
+    private static void multiplyEach(float[] matrix, float[] res, float[] points) {
+        float[] in = new float[4];
+        float[] out = new float[4];
+        in[3] = 1;
+        for (int ii = 0; ii < NUM_POINTS; ii++) {
+            in[0] = points[ii * 3];
+            in[1] = points[ii * 3 + 1];
+            in[2] = points[ii * 3 + 2];
+            Matrix.multiplyMV(out, 0, matrix, 0, in, 0);
+            res[ii * 2] = out[0] / out[3];
+            res[ii * 2 + 1] = out[1] / out[3];
+        }
+    }
+}
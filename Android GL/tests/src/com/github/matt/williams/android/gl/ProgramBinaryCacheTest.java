@@ -0,0 +1,151 @@
+package com.github.matt.williams.android.gl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import junit.framework.TestCase;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+public class ProgramBinaryCacheTest extends TestCase {
+    private static final String VERTEX_SOURCE = "void main() { gl_Position = vec4(0.0); }";
+    private static final String FRAGMENT_SOURCE = "void main() { gl_FragColor = vec4(1.0); }";
+    private static final int FORMAT = 0x1234;
+
+    // Hands out a fixed binary for every program, and links binaries unless told to reject them.
+    static class BinaryBackend extends RecordingGLBackend {
+        static final byte[] BINARY = {1, 2, 3, 4, 5, 6, 7, 8};
+        boolean mRejectBinaries;
+        private int mBinaryProgram;
+
+        @Override
+        public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+            super.glGetProgramiv(program, pname, params, offset);
+            if (pname == GLES30.GL_PROGRAM_BINARY_LENGTH) {
+                params[offset] = BINARY.length;
+            } else if ((pname == GLES20.GL_LINK_STATUS) && (program == mBinaryProgram) && mRejectBinaries) {
+                params[offset] = GLES20.GL_FALSE;
+            }
+        }
+
+        @Override
+        public void glGetProgramBinary(int program, int bufSize, IntBuffer length, IntBuffer binaryFormat, Buffer binary) {
+            super.glGetProgramBinary(program, bufSize, length, binaryFormat, binary);
+            ((ByteBuffer)binary).put(BINARY, 0, bufSize).position(0);
+            length.put(0, bufSize);
+            binaryFormat.put(0, FORMAT);
+        }
+
+        @Override
+        public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+            super.glProgramBinary(program, binaryFormat, binary, length);
+            mBinaryProgram = program;
+        }
+    }
+
+    private BinaryBackend mGL;
+    private GLBackend mOldBackend;
+    private File mDirectory;
+    private ProgramBinaryCache mCache;
+
+    @Override
+    protected void setUp() throws IOException {
+        mGL = new BinaryBackend();
+        mOldBackend = GLState.get().getBackend();
+        GLState.get().setBackend(mGL);
+        GLState.get().invalidate();
+        mDirectory = createDirectory();
+        mCache = new ProgramBinaryCache(mDirectory, "driver");
+    }
+
+    @Override
+    protected void tearDown() {
+        deleteDirectory(mDirectory);
+        GLState.get().setBackend(mOldBackend);
+        GLState.get().invalidate();
+    }
+
+    public void testHeadlessGLHasNoProgramBinaries() {
+        assertFalse(ProgramBinaryCache.isSupported());
+        assertNull(ProgramBinaryCache.create(mDirectory));
+    }
+
+    public void testRoundTripsEntries() {
+        mCache.write("key", FORMAT, ByteBuffer.wrap(BinaryBackend.BINARY));
+        int[] format = new int[1];
+        ByteBuffer binary = mCache.read("key", format);
+        assertEquals(FORMAT, format[0]);
+        assertEquals(BinaryBackend.BINARY.length, binary.remaining());
+        for (byte b : BinaryBackend.BINARY) {
+            assertEquals(b, binary.get());
+        }
+        assertNull(mCache.read("other", format));
+    }
+
+    public void testDiscardsEntriesFromOtherDrivers() {
+        mCache.write("key", FORMAT, ByteBuffer.wrap(BinaryBackend.BINARY));
+        ProgramBinaryCache updated = new ProgramBinaryCache(mDirectory, "updated driver");
+        assertNull(updated.read("key", new int[1]));
+        // The stale entry is gone for the old driver too.
+        assertNull(mCache.read("key", new int[1]));
+    }
+
+    public void testDiscardsCorruptEntries() throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(mDirectory, "key.bin"));
+        out.write(BinaryBackend.BINARY);
+        out.close();
+        assertNull(mCache.read("key", new int[1]));
+        assertFalse(new File(mDirectory, "key.bin").exists());
+    }
+
+    public void testClearOnlyRemovesEntries() throws IOException {
+        mCache.write("key", FORMAT, ByteBuffer.wrap(BinaryBackend.BINARY));
+        File other = new File(mDirectory, "other.txt");
+        other.createNewFile();
+        mCache.clear();
+        assertNull(mCache.read("key", new int[1]));
+        assertTrue(other.exists());
+    }
+
+    public void testStoresAndLoadsPrograms() {
+        Program program = new Program(new VertexShader(VERTEX_SOURCE), new FragmentShader(FRAGMENT_SOURCE));
+        mCache.store("key", program);
+        program.release();
+        mGL.endFrame();
+
+        Program loaded = mCache.load("key");
+        mGL.endFrame();
+        assertNotNull(loaded);
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.PROGRAM_BINARY));
+        assertEquals(0, mGL.getCallCount(RecordingGLBackend.Op.COMPILE_SHADER));
+        loaded.release();
+    }
+
+    public void testRemovesRejectedBinaries() {
+        mCache.write("key", FORMAT, ByteBuffer.wrap(BinaryBackend.BINARY));
+        mGL.mRejectBinaries = true;
+        assertNull(mCache.load("key"));
+        assertNull(mCache.read("key", new int[1]));
+    }
+
+    static File createDirectory() throws IOException {
+        File directory = File.createTempFile("binaries", "");
+        directory.delete();
+        directory.mkdirs();
+        return directory;
+    }
+
+    static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.matt.williams.android.gl;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import junit.framework.TestCase;
+import android.opengl.GLES20;
+
+public class RecordingGLBackendTest extends TestCase {
+    private static final String VERTEX_SOURCE = "void main() { gl_Position = vec4(0.0); }";
+    private static final String FRAGMENT_SOURCE = "void main() { gl_FragColor = vec4(0.0); }";
+
+    private RecordingGLBackend mGL;
+    private GLBackend mOldBackend;
+
+    @Override
+    protected void setUp() {
+        mGL = new RecordingGLBackend();
+        mOldBackend = GLState.get().getBackend();
+        GLState.get().setBackend(mGL);
+        GLState.get().invalidate();
+    }
+
+    @Override
+    protected void tearDown() {
+        GLState.get().setBackend(mOldBackend);
+        GLState.get().invalidate();
+    }
+
+    public void testCountsCallsPerFrame() {
+        mGL.glViewport(0, 0, 16, 16);
+        mGL.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        mGL.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        mGL.endFrame();
+        assertEquals(1, mGL.getFrameCount());
+        assertEquals(3, mGL.getCallCount());
+        assertEquals(2, mGL.getCallCount(RecordingGLBackend.Op.CLEAR));
+        mGL.endFrame();
+        assertEquals(0, mGL.getCallCount());
+    }
+
+    public void testCountsRedundantBinds() {
+        mGL.glUseProgram(1);
+        mGL.glUseProgram(1);
+        mGL.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 2);
+        mGL.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 3);
+        mGL.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 3);
+        mGL.endFrame();
+        assertEquals(2, mGL.getRedundantBindCount());
+    }
+
+    public void testTracesArguments() {
+        mGL.glViewport(1, 2, 3, 4);
+        mGL.endFrame();
+        int[] trace = mGL.getTrace();
+        assertEquals(5, mGL.getTraceLength());
+        assertEquals((RecordingGLBackend.Op.VIEWPORT.ordinal() << 8) | 4, trace[0]);
+        assertEquals(1, trace[1]);
+        assertEquals(4, trace[4]);
+    }
+
+    public void testCountsUploadedBytes() {
+        mGL.glBufferData(GLES20.GL_ARRAY_BUFFER, 64, FloatBuffer.allocate(16), GLES20.GL_STATIC_DRAW);
+        mGL.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 2, 2, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, ByteBuffer.allocate(16));
+        mGL.glUniform4fv(0, 2, new float[8], 0);
+        mGL.endFrame();
+        assertEquals(64 + 16 + 32, mGL.getBytesUploaded());
+    }
+
+    public void testAllocationsUploadNothing() {
+        mGL.glBufferData(GLES20.GL_ARRAY_BUFFER, 1024, null, GLES20.GL_STREAM_DRAW);
+        mGL.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, 16, 16, 0, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+        mGL.endFrame();
+        assertEquals(0, mGL.getBytesUploaded());
+    }
+
+    public void testCountsOnlyTheRowsOfPartialTextureUpdates() {
+        // The whole 64x64 frame is remaining in the buffer, but only 4 rows are uploaded.
+        ByteBuffer frame = ByteBuffer.allocate(64 * 64);
+        mGL.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 10, 64, 4, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE, frame);
+        mGL.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, 2, 2, GLES20.GL_RGB, GLES20.GL_UNSIGNED_SHORT_5_6_5, frame);
+        mGL.endFrame();
+        assertEquals(64 * 4 + 2 * 2 * 2, mGL.getBytesUploaded());
+    }
+
+    public void testTracksTextureBindsBeforeFirstActiveTexture() {
+        // GL starts with unit 0 active, so these are on the same unit.
+        mGL.glBindTexture(GLES20.GL_TEXTURE_2D, 5);
+        mGL.glBindTexture(GLES20.GL_TEXTURE_2D, 5);
+        mGL.glActiveTexture(GLES20.GL_TEXTURE0);
+        mGL.glBindTexture(GLES20.GL_TEXTURE_2D, 5);
+        mGL.endFrame();
+        assertEquals(3, mGL.getRedundantBindCount());
+    }
+
+    public void testHeadlessProgramsHaveNoUniformsByDefault() {
+        Program program = new Program(new VertexShader(VERTEX_SOURCE), new FragmentShader(FRAGMENT_SOURCE));
+        assertEquals(-1, program.getUniformHandle("uColor"));
+        program.release();
+    }
+
+    public void testFakeUniformsAreStagedAndUploaded() {
+        mGL.addFakeUniform("uColor", GLES20.GL_FLOAT_VEC4, 1);
+        mGL.addFakeUniform("uWeights", GLES20.GL_FLOAT, 3);
+        Program program = new Program(new VertexShader(VERTEX_SOURCE), new FragmentShader(FRAGMENT_SOURCE));
+        assertEquals(0, program.getUniformHandle("uColor"));
+        assertEquals(1, program.getUniformHandle("uWeights"));
+        assertEquals(3, program.getUniformHandle("uWeights[2]"));
+        mGL.endFrame();
+
+        program.setDeferUniforms(true);
+        program.setUniform("uColor", 1, 2, 3, 4);
+        program.setUniform("uWeights", new float[] {0.25f, 0.5f, 0.25f});
+        program.use();
+        mGL.endFrame();
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.UNIFORM4FV));
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.UNIFORM1FV));
+        assertEquals(16 + 3 * 4, mGL.getBytesUploaded());
+
+        // Unchanged values aren't uploaded again.
+        program.setUniform("uColor", 1, 2, 3, 4);
+        program.use();
+        mGL.endFrame();
+        assertEquals(0, mGL.getCallCount(RecordingGLBackend.Op.UNIFORM4FV));
+
+        // Only the changed tail of the array is uploaded, still in one call.
+        program.setUniform(program.getUniformHandle("uWeights[1]"), 0.75f);
+        program.setUniform(program.getUniformHandle("uWeights[2]"), 0.75f);
+        program.use();
+        mGL.endFrame();
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.UNIFORM1FV));
+        assertEquals(2 * 4, mGL.getBytesUploaded());
+        program.release();
+    }
+
+    public void testFakeUniformsMustBeUnique() {
+        mGL.addFakeUniform("uColor", GLES20.GL_FLOAT_VEC4, 1);
+        try {
+            mGL.addFakeUniform("uColor", GLES20.GL_FLOAT_VEC4, 1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
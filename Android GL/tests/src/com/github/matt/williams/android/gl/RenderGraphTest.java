@@ -0,0 +1,153 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+import android.opengl.GLES20;
+
+public class RenderGraphTest extends TestCase {
+    private static final String VERTEX_SOURCE = "void main() { gl_Position = vec4(0.0); }";
+    private static final String FRAGMENT_SOURCE = "uniform sampler2D uInput; void main() { gl_FragColor = vec4(1.0); }";
+    private static final int SIZE = 16;
+
+    private RecordingGLBackend mGL;
+    private GLBackend mOldBackend;
+    private RenderGraph mGraph;
+    private TargetTexture mSource;
+    private TargetTexture mTarget;
+
+    @Override
+    protected void setUp() {
+        mGL = new RecordingGLBackend();
+        mOldBackend = GLState.get().getBackend();
+        GLState.get().setBackend(mGL);
+        GLState.get().invalidate();
+        GLState.get().activeTexture(GLES20.GL_TEXTURE0);
+        mGL.addFakeUniform("uInput", GLES20.GL_SAMPLER_2D, 1);
+        mGraph = new RenderGraph();
+        mSource = new TargetTexture(SIZE, SIZE);
+        mTarget = new TargetTexture(SIZE, SIZE);
+    }
+
+    @Override
+    protected void tearDown() {
+        mGraph.release();
+        mSource.release();
+        mTarget.release();
+        GLState.get().setBackend(mOldBackend);
+        GLState.get().invalidate();
+    }
+
+    public void testCullsPassesThatReachNoOutput() {
+        RenderGraph.Resource source = mGraph.importTexture("source", mSource);
+        RenderGraph.Pass used = mGraph.addPass("used", newProgram(), SIZE, SIZE).addInput("uInput", source);
+        mGraph.addPass("unused", newProgram(), SIZE, SIZE).addInput("uInput", source);
+        mGraph.setOutput(used.getOutput(), mTarget);
+        mGraph.compile();
+        assertEquals(1, mGraph.getSchedule().size());
+        assertSame(used, mGraph.getSchedule().get(0));
+    }
+
+    public void testFusesPointwiseChains() {
+        RenderGraph.Resource source = mGraph.importTexture("source", mSource);
+        RenderGraph.Pass invert = mGraph.addPointwisePass("invert", source, "color.rgb = 1.0 - color.rgb;", SIZE, SIZE);
+        RenderGraph.Pass grey = mGraph.addPointwisePass("grey", invert.getOutput(), "color.rgb = vec3(color.g);", SIZE, SIZE);
+        mGraph.setOutput(grey.getOutput(), mTarget);
+        mGraph.compile();
+        assertEquals(1, mGraph.getSchedule().size());
+        assertSame(grey, mGraph.getSchedule().get(0));
+        assertEquals(2, grey.getFusedCount());
+        assertSame(source, grey.getInputs().get(0));
+        assertEquals(0, mGraph.getSlotCount());
+    }
+
+    public void testDoesNotFuseAcrossSizeChanges() {
+        RenderGraph.Resource source = mGraph.importTexture("source", mSource);
+        RenderGraph.Pass invert = mGraph.addPointwisePass("invert", source, "color.rgb = 1.0 - color.rgb;", SIZE, SIZE);
+        RenderGraph.Pass half = mGraph.addPointwisePass("half", invert.getOutput(), "color.a = 1.0;", SIZE / 2, SIZE / 2);
+        mGraph.setOutput(half.getOutput(), mTarget);
+        mGraph.compile();
+        assertEquals(2, mGraph.getSchedule().size());
+        assertEquals(1, mGraph.getSlotCount());
+    }
+
+    public void testSchedulesProducersFirst() {
+        RenderGraph.Resource source = mGraph.importTexture("source", mSource);
+        // Added before the pass it reads from.
+        RenderGraph.Pass consumer = mGraph.addPass("consumer", newProgram(), SIZE, SIZE);
+        RenderGraph.Pass producer = mGraph.addPass("producer", newProgram(), SIZE, SIZE).addInput("uInput", source);
+        consumer.addInput("uInput", producer.getOutput());
+        mGraph.setOutput(consumer.getOutput(), mTarget);
+        mGraph.compile();
+        List<RenderGraph.Pass> schedule = mGraph.getSchedule();
+        assertEquals(2, schedule.size());
+        assertSame(producer, schedule.get(0));
+        assertSame(consumer, schedule.get(1));
+    }
+
+    public void testRejectsCycles() {
+        RenderGraph.Pass a = mGraph.addPass("a", newProgram(), SIZE, SIZE);
+        RenderGraph.Pass b = mGraph.addPass("b", newProgram(), SIZE, SIZE).addInput("uInput", a.getOutput());
+        a.addInput("uInput", b.getOutput());
+        mGraph.setOutput(a.getOutput(), mTarget);
+        try {
+            mGraph.compile();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    public void testReusesSlotsOnceTheirReadersHaveRun() {
+        RenderGraph.Resource previous = mGraph.importTexture("source", mSource);
+        RenderGraph.Pass[] chain = new RenderGraph.Pass[4];
+        for (int ii = 0; ii < chain.length; ii++) {
+            chain[ii] = mGraph.addPass("pass" + ii, newProgram(), SIZE, SIZE).addInput("uInput", previous);
+            previous = chain[ii].getOutput();
+        }
+        mGraph.setOutput(previous, mTarget);
+        mGraph.compile();
+        // Each intermediate is dead once the next pass has read it, so two targets ping-pong.
+        assertEquals(2, mGraph.getSlotCount());
+        assertEquals(0, chain[0].getOutput().getSlot());
+        assertEquals(1, chain[1].getOutput().getSlot());
+        assertEquals(0, chain[2].getOutput().getSlot());
+        assertEquals(-1, chain[3].getOutput().getSlot());
+    }
+
+    public void testDoesNotAliasSlotsOfDifferentSizes() {
+        RenderGraph.Resource source = mGraph.importTexture("source", mSource);
+        RenderGraph.Pass full = mGraph.addPass("full", newProgram(), SIZE, SIZE).addInput("uInput", source);
+        RenderGraph.Pass half = mGraph.addPass("half", newProgram(), SIZE / 2, SIZE / 2).addInput("uInput", full.getOutput());
+        RenderGraph.Pass last = mGraph.addPass("last", newProgram(), SIZE, SIZE).addInput("uInput", half.getOutput());
+        mGraph.setOutput(last.getOutput(), mTarget);
+        mGraph.compile();
+        assertEquals(2, mGraph.getSlotCount());
+        assertFalse(full.getOutput().getSlot() == half.getOutput().getSlot());
+    }
+
+    public void testUploadsDeferredUniformsBeforeDrawing() {
+        RenderGraph.Resource source = mGraph.importTexture("source", mSource);
+        Program program = newProgram();
+        program.setDeferUniforms(true);
+        // Something other than the unit execute() binds the input to.
+        program.setUniform("uInput", 3);
+        program.use();
+        RenderGraph.Pass pass = mGraph.addPass("pass", program, SIZE, SIZE).addInput("uInput", source);
+        mGraph.setOutput(pass.getOutput(), mTarget);
+        mGL.endFrame();
+        final int[] uniformUploads = new int[1];
+        mGraph.execute(new RenderGraph.Drawer() {
+            @Override
+            public void draw(RenderGraph.Pass pass, Program program) {
+                mGL.endFrame();
+                uniformUploads[0] = mGL.getCallCount(RecordingGLBackend.Op.UNIFORM1IV);
+            }
+        });
+        assertEquals(1, uniformUploads[0]);
+    }
+
+    private Program newProgram() {
+        return new Program(new VertexShader(VERTEX_SOURCE), new FragmentShader(FRAGMENT_SOURCE));
+    }
+}
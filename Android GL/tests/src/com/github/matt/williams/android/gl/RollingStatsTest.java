@@ -0,0 +1,72 @@
+package com.github.matt.williams.android.gl;
+
+import junit.framework.TestCase;
+
+public class RollingStatsTest extends TestCase {
+    public void testEmptyStatsReportZero() {
+        RollingStats stats = new RollingStats(4);
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getPercentile(50));
+        assertEquals(0.0, stats.getMean());
+    }
+
+    public void testUsesNearestRankPercentiles() {
+        RollingStats stats = new RollingStats(10);
+        // Added out of order to check they're sorted.
+        for (long sample : new long[] {70, 10, 100, 40, 20, 90, 30, 60, 50, 80}) {
+            stats.add(sample);
+        }
+        assertEquals(10, stats.getMin());
+        assertEquals(10, stats.getPercentile(10));
+        // ceil(0.11 * 10) = 2nd smallest.
+        assertEquals(20, stats.getPercentile(11));
+        assertEquals(50, stats.getPercentile(50));
+        assertEquals(100, stats.getPercentile(95));
+        assertEquals(100, stats.getMax());
+        assertEquals(55.0, stats.getMean());
+    }
+
+    public void testPercentilesOfASingleSample() {
+        RollingStats stats = new RollingStats(8);
+        stats.add(42);
+        assertEquals(42, stats.getPercentile(0));
+        assertEquals(42, stats.getPercentile(50));
+        assertEquals(42, stats.getPercentile(100));
+    }
+
+    public void testWindowWrapsDroppingOldestSamples() {
+        RollingStats stats = new RollingStats(3);
+        stats.add(1000);
+        stats.add(1);
+        stats.add(2);
+        // Percentiles are cached until the window changes.
+        assertEquals(1000, stats.getMax());
+        stats.add(3);
+        assertEquals(3, stats.getCount());
+        assertEquals(4, stats.getTotalCount());
+        assertEquals(1, stats.getMin());
+        assertEquals(3, stats.getMax());
+        assertEquals(2.0, stats.getMean());
+    }
+
+    public void testClearEmptiesTheWindow() {
+        RollingStats stats = new RollingStats(3);
+        stats.add(5);
+        stats.add(6);
+        stats.clear();
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getTotalCount());
+        stats.add(7);
+        assertEquals(7, stats.getMin());
+        assertEquals(7.0, stats.getMean());
+    }
+
+    public void testRejectsEmptyWindows() {
+        try {
+            new RollingStats(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.matt.williams.android.gl;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import android.opengl.GLES20;
+
+public class ShaderCacheTest extends TestCase {
+    private static final String VERTEX_SOURCE = "void main() { gl_Position = vec4(0.0); }";
+    private static final String FRAGMENT_SOURCE = "void main() { gl_FragColor = vec4(1.0); }";
+    private static final String OTHER_FRAGMENT_SOURCE = "void main() { gl_FragColor = vec4(0.5); }";
+
+    // Gives every shader of a type the same name, as GL may once the previous one has been deleted.
+    private static class NameReusingBackend extends RecordingGLBackend {
+        @Override
+        public int glCreateShader(int type) {
+            super.glCreateShader(type);
+            return (type == GLES20.GL_VERTEX_SHADER) ? 1 : 2;
+        }
+    }
+
+    private RecordingGLBackend mGL;
+    private GLBackend mOldBackend;
+
+    @Override
+    protected void setUp() {
+        mOldBackend = GLState.get().getBackend();
+        setBackend(new RecordingGLBackend());
+    }
+
+    @Override
+    protected void tearDown() {
+        GLState.get().setBackend(mOldBackend);
+        GLState.get().invalidate();
+    }
+
+    public void testDedupesShadersBySource() {
+        ShaderCache cache = new ShaderCache();
+        assertSame(cache.getVertexShader(VERTEX_SOURCE), cache.getVertexShader(VERTEX_SOURCE));
+        assertSame(cache.getFragmentShader(FRAGMENT_SOURCE), cache.getFragmentShader(FRAGMENT_SOURCE));
+        assertNotSame(cache.getFragmentShader(FRAGMENT_SOURCE), cache.getFragmentShader(OTHER_FRAGMENT_SOURCE));
+        mGL.endFrame();
+        assertEquals(3, mGL.getCallCount(RecordingGLBackend.Op.COMPILE_SHADER));
+        cache.clear();
+    }
+
+    public void testDedupesProgramsBySource() {
+        ShaderCache cache = new ShaderCache();
+        Program program = cache.getProgram(VERTEX_SOURCE, FRAGMENT_SOURCE);
+        assertSame(program, cache.getProgram(VERTEX_SOURCE, FRAGMENT_SOURCE));
+        assertSame(program, cache.getProgram(cache.getVertexShader(VERTEX_SOURCE), cache.getFragmentShader(FRAGMENT_SOURCE)));
+        assertNotSame(program, cache.getProgram(VERTEX_SOURCE, OTHER_FRAGMENT_SOURCE));
+        mGL.endFrame();
+        assertEquals(2, mGL.getCallCount(RecordingGLBackend.Op.LINK_PROGRAM));
+        cache.clear();
+    }
+
+    public void testKeysProgramsByShaderNotName() {
+        setBackend(new NameReusingBackend());
+        ShaderCache cache = new ShaderCache();
+        VertexShader vertexShader = new VertexShader(VERTEX_SOURCE);
+        Program program = cache.getProgram(vertexShader, new FragmentShader(FRAGMENT_SOURCE));
+        FragmentShader otherFragmentShader = new FragmentShader(OTHER_FRAGMENT_SOURCE);
+        assertEquals(2, otherFragmentShader.getId());
+        Program otherProgram = cache.getProgram(vertexShader, otherFragmentShader);
+        assertNotSame(program, otherProgram);
+        cache.clear();
+    }
+
+    public void testLoadsProgramsFromBinaryCache() throws IOException {
+        setBackend(new ProgramBinaryCacheTest.BinaryBackend());
+        File directory = ProgramBinaryCacheTest.createDirectory();
+        try {
+            ProgramBinaryCache binaryCache = new ProgramBinaryCache(directory, "driver");
+            ShaderCache cache = new ShaderCache(binaryCache);
+            cache.getProgram(VERTEX_SOURCE, FRAGMENT_SOURCE);
+            cache.clear();
+            mGL.endFrame();
+            assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.GET_PROGRAM_BINARY));
+
+            // A fresh cache, e.g. on the next run, links nothing.
+            cache = new ShaderCache(binaryCache);
+            cache.getProgram(VERTEX_SOURCE, FRAGMENT_SOURCE);
+            mGL.endFrame();
+            assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.PROGRAM_BINARY));
+            assertEquals(0, mGL.getCallCount(RecordingGLBackend.Op.COMPILE_SHADER));
+            assertEquals(0, mGL.getCallCount(RecordingGLBackend.Op.LINK_PROGRAM));
+            cache.clear();
+        } finally {
+            ProgramBinaryCacheTest.deleteDirectory(directory);
+        }
+    }
+
+    private void setBackend(RecordingGLBackend gl) {
+        mGL = gl;
+        GLState.get().setBackend(gl);
+        GLState.get().invalidate();
+    }
+}
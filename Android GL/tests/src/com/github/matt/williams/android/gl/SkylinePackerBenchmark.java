@@ -0,0 +1,65 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Times SkylinePacker on a glyph-cache-like workload: a page is filled with small random rectangles,
+// then churned by inserting at random and removing a random rectangle whenever an insert fails (and
+// now and then regardless), so the page stays as full as fragmentation allows.  Run main() on a JVM
+// or device - it isn't part of the test suite, since its output is timings rather than pass/fail.
+public class SkylinePackerBenchmark {
+    private static final int SIZE = 1024;
+    private static final int MAX_RECT_SIZE = 48;
+    private static final int CHURN_OPERATIONS = 200000;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        for (int run = 0; run < RUNS; run++) {
+            runOnce(run);
+        }
+    }
+
+    private static void runOnce(int run) {
+        SkylinePacker packer = new SkylinePacker(SIZE, SIZE);
+        Random random = new Random(run);
+        List<int[]> live = new ArrayList<int[]>();
+        int[] position = new int[2];
+
+        long start = System.nanoTime();
+        int fillInserts = 0;
+        while (packer.insert(1 + random.nextInt(MAX_RECT_SIZE), 1 + random.nextInt(MAX_RECT_SIZE), position)) {
+            fillInserts++;
+        }
+        long fillTime = System.nanoTime() - start;
+        float fillOccupancy = packer.getOccupancy();
+
+        packer.reset();
+        start = System.nanoTime();
+        int inserts = 0;
+        int failures = 0;
+        for (int ii = 0; ii < CHURN_OPERATIONS; ii++) {
+            if (!live.isEmpty() && ((failures > 0) || (random.nextInt(4) == 0))) {
+                int[] rect = live.remove(random.nextInt(live.size()));
+                packer.remove(rect[0], rect[1], rect[2], rect[3]);
+                failures = 0;
+            } else {
+                int width = 1 + random.nextInt(MAX_RECT_SIZE);
+                int height = 1 + random.nextInt(MAX_RECT_SIZE);
+                inserts++;
+                if (packer.insert(width, height, position)) {
+                    live.add(new int[] {position[0], position[1], width, height});
+                } else {
+                    failures++;
+                }
+            }
+        }
+        long churnTime = System.nanoTime() - start;
+
+        System.out.println(String.format("run %d: fill %d rects in %.2f ms (%.0f ns each, %.1f%% occupancy); " +
+                                         "churn %d ops in %.2f ms (%.0f ns each, %d inserts, %.1f%% occupancy, %d free rects)",
+                                         run, fillInserts, fillTime / 1e6, (double)fillTime / fillInserts, fillOccupancy * 100,
+                                         CHURN_OPERATIONS, churnTime / 1e6, (double)churnTime / CHURN_OPERATIONS, inserts,
+                                         packer.getOccupancy() * 100, packer.getFreeRectangleCount()));
+    }
+}
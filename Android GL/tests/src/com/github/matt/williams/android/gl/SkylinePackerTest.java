@@ -0,0 +1,95 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SkylinePackerTest extends TestCase {
+    private static final int SIZE = 256;
+
+    private final int[] mPosition = new int[2];
+
+    public void testPacksBottomLeft() {
+        SkylinePacker packer = new SkylinePacker(SIZE, SIZE);
+        assertTrue(packer.insert(100, 10, mPosition));
+        assertPosition(0, 0);
+        assertTrue(packer.insert(100, 20, mPosition));
+        assertPosition(100, 0);
+        // Lowest top edge wins, so this goes on top of the shorter rectangle.
+        assertTrue(packer.insert(100, 5, mPosition));
+        assertPosition(0, 10);
+    }
+
+    public void testRejectsWhatDoesntFit() {
+        SkylinePacker packer = new SkylinePacker(SIZE, SIZE);
+        assertFalse(packer.insert(SIZE + 1, 1, mPosition));
+        assertTrue(packer.insert(SIZE, SIZE - 1, mPosition));
+        assertFalse(packer.insert(1, 2, mPosition));
+        assertTrue(packer.insert(1, 1, mPosition));
+        assertEquals(SIZE * (SIZE - 1) + 1, packer.getUsedArea());
+    }
+
+    public void testReusesFreedSpace() {
+        SkylinePacker packer = new SkylinePacker(SIZE, SIZE);
+        packer.insert(64, 64, mPosition);
+        packer.insert(64, 64, mPosition);
+        assertPosition(64, 0);
+        packer.insert(64, 64, mPosition);
+        packer.remove(64, 0, 64, 64);
+        assertEquals(1, packer.getFreeRectangleCount());
+        assertTrue(packer.insert(32, 64, mPosition));
+        assertPosition(64, 0);
+        assertEquals(64 * 64 * 2 + 32 * 64, packer.getUsedArea());
+    }
+
+    public void testRemovingEverythingResets() {
+        SkylinePacker packer = new SkylinePacker(SIZE, SIZE);
+        packer.insert(10, 20, mPosition);
+        packer.insert(30, 40, mPosition);
+        packer.remove(0, 0, 10, 20);
+        packer.remove(10, 0, 30, 40);
+        assertEquals(0, packer.getUsedArea());
+        assertEquals(0, packer.getFreeRectangleCount());
+        assertTrue(packer.insert(SIZE, SIZE, mPosition));
+        assertPosition(0, 0);
+    }
+
+    public void testRandomInsertsAndRemovesNeverOverlap() {
+        SkylinePacker packer = new SkylinePacker(SIZE, SIZE);
+        Random random = new Random(1);
+        List<int[]> live = new ArrayList<int[]>();
+        for (int ii = 0; ii < 2000; ii++) {
+            if (!live.isEmpty() && (random.nextInt(3) == 0)) {
+                int[] rect = live.remove(random.nextInt(live.size()));
+                packer.remove(rect[0], rect[1], rect[2], rect[3]);
+                continue;
+            }
+            int width = 1 + random.nextInt(48);
+            int height = 1 + random.nextInt(48);
+            if (packer.insert(width, height, mPosition)) {
+                int[] rect = {mPosition[0], mPosition[1], width, height};
+                assertTrue((rect[0] >= 0) && (rect[1] >= 0) && (rect[0] + width <= SIZE) && (rect[1] + height <= SIZE));
+                for (int[] other : live) {
+                    assertFalse(overlaps(rect, other));
+                }
+                live.add(rect);
+            }
+        }
+        int area = 0;
+        for (int[] rect : live) {
+            area += rect[2] * rect[3];
+        }
+        assertEquals(area, packer.getUsedArea());
+    }
+
+    static boolean overlaps(int[] a, int[] b) {
+        return (a[0] < b[0] + b[2]) && (b[0] < a[0] + a[2]) && (a[1] < b[1] + b[3]) && (b[1] < a[1] + a[3]);
+    }
+
+    private void assertPosition(int x, int y) {
+        assertEquals(x, mPosition[0]);
+        assertEquals(y, mPosition[1]);
+    }
+}
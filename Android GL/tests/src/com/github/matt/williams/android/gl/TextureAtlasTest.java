@@ -0,0 +1,138 @@
+package com.github.matt.williams.android.gl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+
+public class TextureAtlasTest extends TestCase {
+    private static final int PAGE_SIZE = 64;
+
+    private RecordingGLBackend mGL;
+    private GLBackend mOldBackend;
+
+    @Override
+    protected void setUp() {
+        mGL = new RecordingGLBackend();
+        mOldBackend = GLState.get().getBackend();
+        GLState.get().setBackend(mGL);
+        GLState.get().invalidate();
+        GLState.get().activeTexture(GLES20.GL_TEXTURE0);
+    }
+
+    @Override
+    protected void tearDown() {
+        GLState.get().setBackend(mOldBackend);
+        GLState.get().invalidate();
+    }
+
+    public void testExtrudesBorderPixelsIntoPadding() {
+        TextureAtlas atlas = new TextureAtlas(PAGE_SIZE, PAGE_SIZE, 2);
+        int[] colors = {
+            0xff000001, 0xff000002, 0xff000003,
+            0xff000004, 0xff000005, 0xff000006,
+        };
+        Bitmap padded = atlas.pad(Bitmap.createBitmap(colors, 3, 2, Bitmap.Config.ARGB_8888));
+        assertEquals(7, padded.getWidth());
+        assertEquals(6, padded.getHeight());
+        // Corners repeat the corner pixels, edges the nearest border pixel.
+        assertEquals(0xff000001, padded.getPixel(0, 0));
+        assertEquals(0xff000003, padded.getPixel(6, 0));
+        assertEquals(0xff000004, padded.getPixel(0, 5));
+        assertEquals(0xff000006, padded.getPixel(6, 5));
+        assertEquals(0xff000002, padded.getPixel(3, 1));
+        assertEquals(0xff000005, padded.getPixel(3, 4));
+        assertEquals(0xff000004, padded.getPixel(1, 3));
+        assertEquals(0xff000006, padded.getPixel(5, 3));
+        // The bitmap itself sits in the middle.
+        assertEquals(0xff000001, padded.getPixel(2, 2));
+        assertEquals(0xff000006, padded.getPixel(4, 3));
+    }
+
+    public void testConvertsBitmapsToArgb8888() {
+        TextureAtlas atlas = new TextureAtlas(PAGE_SIZE, PAGE_SIZE, 0);
+        Bitmap argb = Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888);
+        assertSame(argb, atlas.pad(argb));
+        Bitmap rgb565 = Bitmap.createBitmap(4, 4, Bitmap.Config.RGB_565);
+        assertEquals(Bitmap.Config.ARGB_8888, atlas.pad(rgb565).getConfig());
+
+        atlas.add(rgb565);
+        mGL.endFrame();
+        assertEquals(4 * 4 * 4, mGL.getBytesUploaded());
+        atlas.release();
+    }
+
+    public void testUploadsEntriesWithTheirPadding() {
+        TextureAtlas atlas = new TextureAtlas(PAGE_SIZE, PAGE_SIZE, 1);
+        mGL.endFrame();
+        TextureAtlas.Entry entry = atlas.add(Bitmap.createBitmap(10, 6, Bitmap.Config.ARGB_8888));
+        mGL.endFrame();
+        assertEquals(1, entry.getX());
+        assertEquals(1, entry.getY());
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.TEX_SUB_IMAGE_2D_BITMAP));
+        assertEquals(12 * 8 * 4, mGL.getBytesUploaded());
+        float[] matrix = entry.getTransformMatrix();
+        assertEquals(10.0f / PAGE_SIZE, matrix[0], 1e-6f);
+        assertEquals(1.0f / PAGE_SIZE, matrix[12], 1e-6f);
+        atlas.release();
+    }
+
+    public void testPaddedEntriesNeverOverlap() {
+        int padding = 2;
+        TextureAtlas atlas = new TextureAtlas(PAGE_SIZE, PAGE_SIZE, padding);
+        Random random = new Random(1);
+        List<TextureAtlas.Entry> entries = new ArrayList<TextureAtlas.Entry>();
+        for (int ii = 0; ii < 200; ii++) {
+            if (!entries.isEmpty() && (random.nextInt(4) == 0)) {
+                atlas.remove(entries.remove(random.nextInt(entries.size())));
+            } else {
+                entries.add(atlas.add(Bitmap.createBitmap(1 + random.nextInt(16), 1 + random.nextInt(16), Bitmap.Config.ARGB_8888)));
+            }
+        }
+        assertTrue(atlas.getPageCount() > 1);
+        for (int ii = 0; ii < entries.size(); ii++) {
+            int[] rect = getPaddedRect(entries.get(ii), padding);
+            assertTrue((rect[0] >= 0) && (rect[1] >= 0) && (rect[0] + rect[2] <= PAGE_SIZE) && (rect[1] + rect[3] <= PAGE_SIZE));
+            for (int jj = ii + 1; jj < entries.size(); jj++) {
+                if (entries.get(jj).getTexture() == entries.get(ii).getTexture()) {
+                    assertFalse(SkylinePackerTest.overlaps(rect, getPaddedRect(entries.get(jj), padding)));
+                }
+            }
+        }
+        atlas.release();
+    }
+
+    public void testReleasesPagesLeftEmpty() {
+        TextureAtlas atlas = new TextureAtlas(PAGE_SIZE, PAGE_SIZE, 1, 2);
+        TextureAtlas.Entry first = atlas.add(Bitmap.createBitmap(PAGE_SIZE - 2, PAGE_SIZE - 2, Bitmap.Config.ARGB_8888));
+        TextureAtlas.Entry second = atlas.add(Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888));
+        assertEquals(2, atlas.getPageCount());
+        atlas.remove(first);
+        // Removing twice is harmless.
+        atlas.remove(first);
+        atlas.endFrame();
+        atlas.endFrame();
+        assertEquals(2, atlas.getPageCount());
+        atlas.endFrame();
+        assertEquals(1, atlas.getPageCount());
+        assertSame(second.getTexture(), atlas.add(Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888)).getTexture());
+        atlas.release();
+    }
+
+    public void testRejectsBitmapsLargerThanAPage() {
+        TextureAtlas atlas = new TextureAtlas(PAGE_SIZE, PAGE_SIZE, 1);
+        try {
+            atlas.add(Bitmap.createBitmap(PAGE_SIZE - 1, 1, Bitmap.Config.ARGB_8888));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private static int[] getPaddedRect(TextureAtlas.Entry entry, int padding) {
+        return new int[] {entry.getX() - padding, entry.getY() - padding, entry.getWidth() + 2 * padding, entry.getHeight() + 2 * padding};
+    }
+}
@@ -0,0 +1,58 @@
+package com.github.matt.williams.android.gl;
+
+import junit.framework.TestCase;
+
+public class TextureFormatsTest extends TestCase {
+    public void testKnowsBlockSizes() {
+        assertEquals(8, TextureFormats.getBytesPerBlock(TextureFormats.GL_ETC1_RGB8_OES));
+        assertEquals(8, TextureFormats.getBytesPerBlock(TextureFormats.GL_COMPRESSED_R11_EAC));
+        assertEquals(16, TextureFormats.getBytesPerBlock(TextureFormats.GL_COMPRESSED_RGBA8_ETC2_EAC));
+        assertFalse(TextureFormats.isCompressed(0x1908));
+        assertTrue(TextureFormats.isCompressed(TextureFormats.GL_COMPRESSED_RG11_EAC));
+    }
+
+    public void testRoundsPartialBlocksUp() {
+        assertEquals(8, TextureFormats.getCompressedSize(TextureFormats.GL_ETC1_RGB8_OES, 1, 1));
+        assertEquals(8, TextureFormats.getCompressedSize(TextureFormats.GL_ETC1_RGB8_OES, 4, 4));
+        assertEquals(4 * 8, TextureFormats.getCompressedSize(TextureFormats.GL_ETC1_RGB8_OES, 5, 5));
+        assertEquals(2 * 16, TextureFormats.getCompressedSize(TextureFormats.GL_COMPRESSED_RGBA8_ETC2_EAC, 8, 3));
+    }
+
+    public void testRejectsUnknownFormats() {
+        try {
+            TextureFormats.getCompressedSize(0x1908, 4, 4);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testCountsMipLevelsDownTo1x1() {
+        assertEquals(1, TextureFormats.getMipLevelCount(1, 1));
+        assertEquals(2, TextureFormats.getMipLevelCount(2, 1));
+        assertEquals(9, TextureFormats.getMipLevelCount(256, 256));
+        assertEquals(9, TextureFormats.getMipLevelCount(256, 3));
+        assertEquals(9, TextureFormats.getMipLevelCount(300, 200));
+    }
+
+    public void testClampsMipDimensionsToOne() {
+        assertEquals(300, TextureFormats.getMipDimension(300, 0));
+        assertEquals(150, TextureFormats.getMipDimension(300, 1));
+        assertEquals(37, TextureFormats.getMipDimension(300, 3));
+        assertEquals(1, TextureFormats.getMipDimension(300, 9));
+        assertEquals(1, TextureFormats.getMipDimension(3, 5));
+    }
+
+    public void testSumsMipChains() {
+        // 16x16, 8x8, 4x4, 2x2, 1x1: 16 + 4 + 1 + 1 + 1 blocks.
+        assertEquals(23 * 8, TextureFormats.getMipChainSize(TextureFormats.GL_ETC1_RGB8_OES, 16, 16, 5));
+        assertEquals(16 * 8, TextureFormats.getMipChainSize(TextureFormats.GL_ETC1_RGB8_OES, 16, 16, 1));
+    }
+
+    public void testChecksPowersOfTwo() {
+        assertTrue(TextureFormats.isPowerOfTwo(1));
+        assertTrue(TextureFormats.isPowerOfTwo(1024));
+        assertFalse(TextureFormats.isPowerOfTwo(0));
+        assertFalse(TextureFormats.isPowerOfTwo(768));
+    }
+}
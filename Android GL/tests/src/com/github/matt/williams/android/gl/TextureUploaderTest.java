@@ -0,0 +1,124 @@
+package com.github.matt.williams.android.gl;
+
+import junit.framework.TestCase;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+
+public class TextureUploaderTest extends TestCase {
+    // Not a multiple of 4, so rows are only tightly packed with an unpack alignment of 1.
+    private static final int WIDTH = 6;
+    private static final int HEIGHT = 4;
+
+    private static class Gles3Backend extends RecordingGLBackend {
+        @Override
+        public String glGetString(int name) {
+            String value = super.glGetString(name);
+            return (name == GLES20.GL_VERSION) ? "OpenGL ES 3.0 (headless)" : value;
+        }
+    }
+
+    private RecordingGLBackend mGL;
+    private GLBackend mOldBackend;
+    private TargetTexture mTexture;
+
+    @Override
+    protected void setUp() {
+        mOldBackend = GLState.get().getBackend();
+        setBackend(new RecordingGLBackend());
+    }
+
+    @Override
+    protected void tearDown() {
+        mTexture.release();
+        GLState.get().setBackend(mOldBackend);
+        GLState.get().invalidate();
+    }
+
+    public void testUploadsDirtyRows() {
+        TextureUploader uploader = new TextureUploader(mTexture);
+        assertFalse(uploader.upload());
+        assertTrue(uploader.submit(new byte[WIDTH * HEIGHT]));
+        assertTrue(uploader.upload());
+        mGL.endFrame();
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.TEX_IMAGE_2D));
+        assertEquals(WIDTH * HEIGHT, mGL.getBytesUploaded());
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.PIXEL_STOREI));
+
+        TextureUploader.Frame frame = uploader.acquire();
+        uploader.submit(frame, 1, 2, 2, 1);
+        assertTrue(uploader.upload());
+        mGL.endFrame();
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.TEX_SUB_IMAGE_2D));
+        assertEquals(WIDTH, mGL.getBytesUploaded());
+        // The alignment is shadowed, so it isn't set again.
+        assertEquals(0, mGL.getCallCount(RecordingGLBackend.Op.PIXEL_STOREI));
+        uploader.release();
+    }
+
+    public void testDroppedFramesWidenTheNextUpload() {
+        TextureUploader uploader = new TextureUploader(mTexture);
+        uploader.submit(new byte[WIDTH * HEIGHT]);
+        uploader.upload();
+        mGL.endFrame();
+
+        uploader.submit(uploader.acquire(), 0, 0, WIDTH, 1);
+        uploader.submit(uploader.acquire(), 0, 2, WIDTH, 1);
+        assertEquals(1, uploader.getDroppedFrames());
+        uploader.upload();
+        mGL.endFrame();
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.TEX_SUB_IMAGE_2D));
+        assertEquals(3 * WIDTH, mGL.getBytesUploaded());
+        uploader.release();
+    }
+
+    public void testProducerDropsFramesWhenEveryBufferIsBusy() {
+        TextureUploader uploader = new TextureUploader(mTexture, 2);
+        assertNotNull(uploader.acquire());
+        assertNotNull(uploader.acquire());
+        assertNull(uploader.acquire());
+        assertFalse(uploader.submit(new byte[WIDTH * HEIGHT]));
+        assertEquals(1, uploader.getDroppedFrames());
+        uploader.release();
+    }
+
+    public void testUploadsFromMappedPixelBuffers() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            // Pixel buffers need API 18 - on a JVM, run with -Dandroid.sdk=18.
+            return;
+        }
+        mTexture.release();
+        setBackend(new Gles3Backend());
+        TextureUploader uploader = new TextureUploader(mTexture, 3);
+        mGL.endFrame();
+        assertEquals(3, mGL.getCallCount(RecordingGLBackend.Op.MAP_BUFFER_RANGE));
+
+        // The producer writes into the mapped buffer, and the GL thread never copies.
+        TextureUploader.Frame frame = uploader.acquire();
+        frame.getData().put(new byte[WIDTH * HEIGHT]);
+        uploader.submit(frame);
+        assertTrue(uploader.upload());
+        mGL.endFrame();
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.UNMAP_BUFFER));
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.TEX_IMAGE_2D));
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.MAP_BUFFER_RANGE));
+        assertEquals(0, mGL.getBytesUploaded());
+
+        uploader.submit(uploader.acquire(), 0, 1, WIDTH, 2);
+        assertTrue(uploader.upload());
+        mGL.endFrame();
+        assertEquals(1, mGL.getCallCount(RecordingGLBackend.Op.TEX_SUB_IMAGE_2D_OFFSET));
+        // Client-memory uploads elsewhere mustn't source from the buffer.
+        assertEquals(0, GLState.get().getBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER));
+        uploader.release();
+    }
+
+    private void setBackend(RecordingGLBackend gl) {
+        mGL = gl;
+        GLState.get().setBackend(gl);
+        GLState.get().invalidate();
+        GLState.get().activeTexture(GLES20.GL_TEXTURE0);
+        mTexture = new TargetTexture(WIDTH, HEIGHT, GLES20.GL_CLAMP_TO_EDGE, GLES20.GL_LUMINANCE, GLES20.GL_UNSIGNED_BYTE);
+        mGL.endFrame();
+    }
+}